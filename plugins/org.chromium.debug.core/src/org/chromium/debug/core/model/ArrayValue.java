@@ -5,22 +5,49 @@
 package org.chromium.debug.core.model;
 
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.chromium.sdk.JsArray;
+import org.chromium.sdk.JsVariable;
 import org.eclipse.debug.core.DebugException;
 import org.eclipse.debug.core.model.IIndexedValue;
 import org.eclipse.debug.core.model.IVariable;
 
 /**
  * An IIndexedValue implementation for an array element range using a JsArray
- * instance.
+ * instance. Dense arrays of {@link #PAGED_LENGTH} up to {@link #MAX_PAGED_LENGTH} elements
+ * are loaded range by range as the user expands them, with placeholders for missing
+ * elements; their other properties follow the elements. Other arrays are loaded at once,
+ * showing only the elements that exist.
  */
 public class ArrayValue extends Value implements IIndexedValue {
 
+  /**
+   * Arrays shorter than this are loaded at once.
+   */
+  private static final long PAGED_LENGTH = 1000;
+
+  /**
+   * Arrays longer than this are never paged: each index would get a slot.
+   */
+  private static final long MAX_PAGED_LENGTH = 1000000;
+
   private final AtomicReference<IVariable[]> elementsRef = new AtomicReference<IVariable[]>(null);
 
+  /**
+   * Paging state; null if not computed yet.
+   */
+  private final AtomicReference<Paging> pagingRef = new AtomicReference<Paging>(null);
+
+  /**
+   * Elements of a paged array that have been loaded so far, by index.
+   */
+  private final Map<Integer, IVariable> pagedElements = new ConcurrentHashMap<Integer, IVariable>();
+
   public ArrayValue(EvaluateContext evaluateContext, JsArray array,
       ExpressionTracker.Node expressionTrackerNode) {
     super(evaluateContext, array, expressionTrackerNode);
@@ -45,26 +72,137 @@ public class ArrayValue extends Value implements IIndexedValue {
     }
   }
 
+  /**
+   * @return paging state or null if the array is not paged
+   */
+  private Paging getPaging() {
+    Paging paging = pagingRef.get();
+    if (paging == null) {
+      paging = createPaging();
+      pagingRef.compareAndSet(null, paging);
+      paging = pagingRef.get();
+    }
+    return paging == Paging.NOT_PAGED ? null : paging;
+  }
+
+  private Paging createPaging() {
+    JsArray jsArray = (JsArray) getJsValue();
+    long length = jsArray.getLength();
+    if (length < PAGED_LENGTH || length > MAX_PAGED_LENGTH) {
+      return Paging.NOT_PAGED;
+    }
+    // A sparse array would show mostly placeholders; show its elements as they are instead.
+    if (jsArray.getElementCount() * 2 < length) {
+      return Paging.NOT_PAGED;
+    }
+    IVariable[] otherProperties = StackFrame.wrapVariables(getEvaluateContext(),
+        jsArray.getNonElementProperties(), ARRAY_HIDDEN_PROPERTY_NAMES, null, null,
+        getExpressionTrackerNode());
+    return new Paging((int) length, otherProperties);
+  }
+
+  /**
+   * Returns variables of a paged array: elements (loading those that haven't been loaded
+   * yet) followed by other properties.
+   */
+  private IVariable[] getPagedVariables(Paging paging, int offset, int length) {
+    IVariable[] result = new IVariable[length];
+    int elementsEnd = Math.min(offset + length, paging.elementSlots);
+    if (offset < elementsEnd) {
+      IVariable[] elements = getPagedElements(offset, elementsEnd - offset);
+      System.arraycopy(elements, 0, result, 0, elements.length);
+    }
+    for (int i = Math.max(offset, paging.elementSlots); i < offset + length; i++) {
+      result[i - offset] = paging.otherProperties[i - paging.elementSlots];
+    }
+    return result;
+  }
+
+  /**
+   * Loads elements of a paged array that haven't been loaded yet.
+   */
+  private IVariable[] getPagedElements(int offset, int length) {
+    IVariable[] result = new IVariable[length];
+    int loadFrom = -1;
+    int loadTo = -1;
+    for (int i = 0; i < length; i++) {
+      result[i] = pagedElements.get(offset + i);
+      if (result[i] == null) {
+        if (loadFrom == -1) {
+          loadFrom = offset + i;
+        }
+        loadTo = offset + i + 1;
+      }
+    }
+    if (loadFrom == -1) {
+      return result;
+    }
+    JsArray jsArray = (JsArray) getJsValue();
+    SortedMap<Long, ? extends JsVariable> loaded = jsArray.getElements(loadFrom, loadTo);
+    for (int index = loadFrom; index < loadTo; index++) {
+      if (result[index - offset] != null) {
+        continue;
+      }
+      JsVariable jsVar = loaded.get((long) index);
+      Variable variable;
+      if (jsVar == null) {
+        variable = Variable.forMissingElement(getEvaluateContext(), index);
+      } else {
+        variable = Variable.forRealValue(getEvaluateContext(), jsVar, false,
+            getExpressionTrackerNode().createVariableNode(jsVar, false));
+      }
+      pagedElements.put(index, variable);
+      result[index - offset] = variable;
+    }
+    return result;
+  }
+
   public int getInitialOffset() {
     return 0;
   }
 
   public int getSize() throws DebugException {
+    Paging paging = getPaging();
+    if (paging != null) {
+      return paging.getSize();
+    }
     return getElements().length;
   }
 
   public IVariable getVariable(int offset) throws DebugException {
+    Paging paging = getPaging();
+    if (paging != null) {
+      return getPagedVariables(paging, offset, 1)[0];
+    }
     return getElements()[offset];
   }
 
   public IVariable[] getVariables(int offset, int length) throws DebugException {
+    Paging paging = getPaging();
+    if (paging != null) {
+      return getPagedVariables(paging, offset, length);
+    }
     IVariable[] result = new IVariable[length];
     System.arraycopy(getElements(), offset, result, 0, length);
     return result;
   }
 
+  /**
+   * For a paged array returns only the first {@link #PAGED_LENGTH} elements and the other
+   * properties; the rest are available by ranges.
+   */
   @Override
   public IVariable[] getVariables() throws DebugException {
+    Paging paging = getPaging();
+    if (paging != null) {
+      int elementCount = (int) Math.min(paging.elementSlots, PAGED_LENGTH);
+      IVariable[] elements = getPagedElements(0, elementCount);
+      IVariable[] result = new IVariable[elementCount + paging.otherProperties.length];
+      System.arraycopy(elements, 0, result, 0, elementCount);
+      System.arraycopy(paging.otherProperties, 0, result, elementCount,
+          paging.otherProperties.length);
+      return result;
+    }
     return getElements();
   }
 
@@ -75,4 +213,23 @@ public class ArrayValue extends Value implements IIndexedValue {
   }
 
   private static final Set<String> ARRAY_HIDDEN_PROPERTY_NAMES = Collections.singleton("length");
+
+  /**
+   * Index space of a paged array: a slot for each index below length, then other properties.
+   */
+  private static class Paging {
+    static final Paging NOT_PAGED = new Paging(0, new IVariable[0]);
+
+    final int elementSlots;
+    final IVariable[] otherProperties;
+
+    Paging(int elementSlots, IVariable[] otherProperties) {
+      this.elementSlots = elementSlots;
+      this.otherProperties = otherProperties;
+    }
+
+    int getSize() {
+      return elementSlots + otherProperties.length;
+    }
+  }
 }
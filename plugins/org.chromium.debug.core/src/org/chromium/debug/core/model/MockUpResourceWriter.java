@@ -62,8 +62,9 @@ class MockUpResourceWriter {
       }
     }
 
-    if (script.hasSource()) {
-      writeText(script.getSource());
+    String source = script.getSource();
+    if (source != null) {
+      writeText(source);
     } else {
       writeln(Messages.MockUpResourceWriter_SCRIPT_WITHOUT_TEXT);
     }
@@ -104,6 +104,15 @@ public abstract class Variable extends DebugElementImpl.WithEvaluate implements
         value, null);
   }
 
+  /**
+   * Creates a placeholder for an index of a sparse array that has no element.
+   */
+  public static Variable forMissingElement(EvaluateContext evaluateContext, long index) {
+    ValueBase value = new ValueBase.ErrorMessageValue(evaluateContext, "<no element>");
+    return new Variable.Virtual(evaluateContext, String.valueOf(index),
+        JAVASCRIPT_REFERENCE_TYPE_NAME, value, null);
+  }
+
   public static Variable forObjectScope(EvaluateContext evaluateContext,
       JsScope.ObjectBased scope, ExpressionTracker.Node expressionNode) {
     String scopeVariableName = "<" + scope.getType() + ">";
@@ -0,0 +1,159 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.debug.core.sourcemap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.chromium.debug.core.model.StringMappingData;
+import org.chromium.debug.core.model.VmResourceId;
+import org.chromium.debug.core.sourcemap.SourcePositionMap.TranslateDirection;
+import org.chromium.debug.core.sourcemap.SourcePositionMapBuilder.CannotAddException;
+import org.chromium.debug.core.sourcemap.SourcePositionMapBuilder.ResourceSection;
+import org.chromium.sdk.internal.CannedTraces;
+import org.chromium.sdk.internal.JsonUtil;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link PositionMapBuilderImpl}: building a map and translating positions.
+ * The map describes a compiled file made of the scripts from the "scripts" response
+ * of the V8 trace (each script repeated {@link #copies} times), with a mapping point
+ * at every line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PositionMapBenchmark {
+  private static final int QUERY_COUNT = 1024;
+
+  private static final VmResourceId COMPILED_ID = new VmResourceId("compiled.js", null);
+
+  @Param({ "1", "50" })
+  public int copies;
+
+  private final List<Section> sections = new ArrayList<Section>();
+  private SourcePositionMap map;
+
+  private final int[] vmLines = new int[QUERY_COUNT];
+  private final int[] vmColumns = new int[QUERY_COUNT];
+  private final VmResourceId[] userIds = new VmResourceId[QUERY_COUNT];
+  private final int[] userLines = new int[QUERY_COUNT];
+
+  @Setup
+  public void setUp() throws IOException, ParseException, CannotAddException {
+    List<String> scriptNames = new ArrayList<String>();
+    List<Integer> lineCounts = new ArrayList<Integer>();
+    for (String text : CannedTraces.getV8Messages()) {
+      JSONObject message = JsonUtil.jsonObjectFromJson(text);
+      if (!"scripts".equals(message.get("command"))) {
+        continue;
+      }
+      for (Object script : (JSONArray) message.get("body")) {
+        JSONObject scriptObject = (JSONObject) script;
+        scriptNames.add(String.valueOf(scriptObject.get("name")));
+        lineCounts.add(((Long) scriptObject.get("lineCount")).intValue());
+      }
+    }
+    if (scriptNames.isEmpty()) {
+      throw new IllegalStateException("No scripts in the trace");
+    }
+
+    int vmLine = 0;
+    for (int i = 0; i < copies; i++) {
+      for (int j = 0; j < scriptNames.size(); j++) {
+        VmResourceId id = new VmResourceId(scriptNames.get(j) + "#" + i, null);
+        sections.add(new Section(id, vmLine, lineCounts.get(j)));
+        vmLine += lineCounts.get(j);
+      }
+    }
+    map = build().getSourcePositionMap();
+
+    Random random = new Random(0);
+    for (int i = 0; i < QUERY_COUNT; i++) {
+      vmLines[i] = random.nextInt(vmLine);
+      vmColumns[i] = random.nextInt(80);
+      Section section = sections.get(random.nextInt(sections.size()));
+      userIds[i] = section.id;
+      userLines[i] = random.nextInt(section.lineCount);
+    }
+  }
+
+  @Benchmark
+  public SourcePositionMapBuilder buildMap() throws CannotAddException {
+    return build();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(QUERY_COUNT)
+  public void translateVmToUser(Blackhole blackhole) {
+    for (int i = 0; i < QUERY_COUNT; i++) {
+      blackhole.consume(map.translatePosition(COMPILED_ID, vmLines[i], vmColumns[i],
+          TranslateDirection.VM_TO_USER));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(QUERY_COUNT)
+  public void translateUserToVm(Blackhole blackhole) {
+    for (int i = 0; i < QUERY_COUNT; i++) {
+      blackhole.consume(map.translatePosition(userIds[i], userLines[i], 4,
+          TranslateDirection.USER_TO_VM));
+    }
+  }
+
+  private SourcePositionMapBuilder build() throws CannotAddException {
+    SourcePositionMapBuilder builder = new PositionMapBuilderImpl();
+    for (Section section : sections) {
+      builder.addMapping(
+          new ResourceSection(section.id, 0, 0, section.lineCount, 0),
+          new ResourceSection(COMPILED_ID, section.vmLine, 0,
+              section.vmLine + section.lineCount, 0),
+          new TextSectionMappingImpl(section.userPoints, section.vmPoints));
+    }
+    return builder;
+  }
+
+  /**
+   * A script inlined into the compiled file. Its lines are indented by 2 in the compiled file.
+   */
+  private static class Section {
+    final VmResourceId id;
+    final int vmLine;
+    final int lineCount;
+    final StringMappingData userPoints;
+    final StringMappingData vmPoints;
+
+    Section(VmResourceId id, int vmLine, int lineCount) {
+      this.id = id;
+      this.vmLine = vmLine;
+      this.lineCount = lineCount;
+      int[] user = new int[lineCount * 2];
+      int[] vm = new int[lineCount * 2];
+      for (int i = 0; i < lineCount; i++) {
+        user[i * 2] = i;
+        user[i * 2 + 1] = 0;
+        vm[i * 2] = vmLine + i;
+        vm[i * 2 + 1] = i == 0 ? 0 : 2;
+      }
+      this.userPoints = new StringMappingData(user, lineCount, 0);
+      this.vmPoints = new StringMappingData(vm, vmLine + lineCount, 0);
+    }
+  }
+}
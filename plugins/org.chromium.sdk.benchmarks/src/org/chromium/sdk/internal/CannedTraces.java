@@ -0,0 +1,187 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.chromium.sdk.internal.transport.CaptureFile;
+
+/**
+ * Provides protocol messages that drive the benchmarks. By default these are canned traces
+ * from resources/traces (a V8 standalone session and a WIP session), one JSON message per
+ * line. If {@link #CAPTURE_FILE_PROPERTY} is set, messages are taken from a connection
+ * capture instead (see {@link CaptureFile}).
+ */
+public class CannedTraces {
+  public static final String CAPTURE_FILE_PROPERTY = "org.chromium.sdk.benchmark.captureFile";
+
+  public static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+  private static final String V8_TRACE = "/traces/v8-session.txt";
+  private static final String WIP_TRACE = "/traces/wip-session.txt";
+
+  /**
+   * @return incoming messages of a V8 standalone debugger session
+   */
+  public static List<String> getV8Messages() throws IOException {
+    File captureFile = getCaptureFile();
+    if (captureFile == null) {
+      return readTrace(V8_TRACE);
+    }
+    List<String> result = unframeV8Messages(collectIncoming(captureFile, CaptureFile.Kind.BYTES));
+    if (result.isEmpty()) {
+      throw new IOException("No V8 connection in " + captureFile);
+    }
+    return result;
+  }
+
+  /**
+   * @return incoming messages of a WIP (Chrome DevTools protocol) session
+   */
+  public static List<String> getWipMessages() throws IOException {
+    File captureFile = getCaptureFile();
+    if (captureFile == null) {
+      return readTrace(WIP_TRACE);
+    }
+    List<String> result = new ArrayList<String>();
+    for (ByteBuffer data : collectIncoming(captureFile, CaptureFile.Kind.MESSAGE)) {
+      result.add(UTF8_CHARSET.decode(data).toString());
+    }
+    if (result.isEmpty()) {
+      throw new IOException("No WebSocket connection in " + captureFile);
+    }
+    return result;
+  }
+
+  /**
+   * Serializes messages the way a V8 standalone debugger sends them.
+   */
+  public static byte[] frameV8Messages(List<String> messages) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (String message : messages) {
+      byte[] content = message.getBytes(UTF8_CHARSET);
+      byte[] header = ("Content-Length: " + content.length + "\r\n\r\n").getBytes(UTF8_CHARSET);
+      output.write(header, 0, header.length);
+      output.write(content, 0, content.length);
+    }
+    return output.toByteArray();
+  }
+
+  public static List<ByteBuffer> toUtf8(List<String> messages) {
+    List<ByteBuffer> result = new ArrayList<ByteBuffer>(messages.size());
+    for (String message : messages) {
+      result.add(ByteBuffer.wrap(message.getBytes(UTF8_CHARSET)));
+    }
+    return result;
+  }
+
+  private static File getCaptureFile() {
+    String fileName = System.getProperty(CAPTURE_FILE_PROPERTY);
+    if (fileName == null || fileName.length() == 0) {
+      return null;
+    }
+    return new File(fileName);
+  }
+
+  private static List<String> readTrace(String resourceName) throws IOException {
+    InputStream stream = CannedTraces.class.getResourceAsStream(resourceName);
+    if (stream == null) {
+      throw new IOException("Trace not found: " + resourceName);
+    }
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(stream, UTF8_CHARSET));
+      List<String> result = new ArrayList<String>();
+      while (true) {
+        String line = reader.readLine();
+        if (line == null) {
+          break;
+        }
+        if (line.length() != 0) {
+          result.add(line);
+        }
+      }
+      return result;
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Takes incoming records of the given kind from the first connection that has them.
+   */
+  private static List<ByteBuffer> collectIncoming(File file, CaptureFile.Kind kind)
+      throws IOException {
+    List<CaptureFile.Record> records = CaptureFile.read(file);
+    for (CaptureFile.Record record : records) {
+      if (record.isIncoming() && record.getKind() == kind) {
+        List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+        for (CaptureFile.Record connectionRecord :
+            CaptureFile.selectConnection(records, record.getConnectionId())) {
+          if (connectionRecord.isIncoming() && connectionRecord.getKind() == kind) {
+            result.add(connectionRecord.getData());
+          }
+        }
+        return result;
+      }
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Splits a raw V8 byte stream into message contents. Lines without a colon
+   * (the Chrome handshake) and messages without content (the standalone handshake)
+   * are skipped.
+   */
+  private static List<String> unframeV8Messages(List<ByteBuffer> chunks) {
+    ByteArrayOutputStream joined = new ByteArrayOutputStream();
+    for (ByteBuffer chunk : chunks) {
+      while (chunk.hasRemaining()) {
+        joined.write(chunk.get());
+      }
+    }
+    byte[] bytes = joined.toByteArray();
+
+    List<String> result = new ArrayList<String>();
+    int pos = 0;
+    int contentLength = -1;
+    while (pos < bytes.length) {
+      int lineEnd = pos;
+      while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+        lineEnd++;
+      }
+      if (lineEnd == bytes.length) {
+        break;
+      }
+      String line = new String(bytes, pos, lineEnd - pos, UTF8_CHARSET).trim();
+      pos = lineEnd + 1;
+      if (line.length() != 0) {
+        int colon = line.indexOf(':');
+        if (colon != -1 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+          contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+        }
+        continue;
+      }
+      if (contentLength < 0 || pos + contentLength > bytes.length) {
+        break;
+      }
+      if (contentLength > 0) {
+        result.add(new String(bytes, pos, contentLength, UTF8_CHARSET));
+      }
+      pos += contentLength;
+      contentLength = -1;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.chromium.sdk.internal.CannedTraces;
+import org.chromium.sdk.internal.transport.Message.MalformedMessageException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how fast a V8 message stream is split into messages: by the blocking
+ * {@link LineReader}-based reader (byte framing and the older string framing) and by
+ * the non-blocking {@link MessageDecoder}. Each invocation processes the whole trace.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageFramingBenchmark {
+  private byte[] stream;
+  private int messageCount;
+
+  @Setup
+  public void setUp() throws IOException {
+    List<String> messages = CannedTraces.getV8Messages();
+    stream = CannedTraces.frameV8Messages(messages);
+    messageCount = messages.size();
+  }
+
+  @Benchmark
+  public void readFramed(Blackhole blackhole) throws IOException, MalformedMessageException {
+    LineReader reader = new LineReader(new ByteArrayInputStream(stream));
+    ContentBufferPool bufferPool = new ContentBufferPool();
+    FramingHeaderParser headerParser = new FramingHeaderParser(CannedTraces.UTF8_CHARSET);
+    int count = 0;
+    while (true) {
+      Message message =
+          Message.readFramed(reader, CannedTraces.UTF8_CHARSET, bufferPool, headerParser);
+      if (message == null) {
+        break;
+      }
+      blackhole.consume(message.getContentBytes());
+      count++;
+    }
+    checkCount(count);
+  }
+
+  /**
+   * The string-based framing that is still used for the handshake: every header is a String
+   * and content is decoded into a String.
+   */
+  @Benchmark
+  public void readAsStrings(Blackhole blackhole) throws IOException, MalformedMessageException {
+    LineReader reader = new LineReader(new ByteArrayInputStream(stream));
+    int count = 0;
+    while (true) {
+      Message message = Message.fromBufferedReader(reader, CannedTraces.UTF8_CHARSET);
+      if (message == null) {
+        break;
+      }
+      blackhole.consume(message.getContent());
+      count++;
+    }
+    checkCount(count);
+  }
+
+  @Benchmark
+  public void decodeChunks(Chunking chunking, final Blackhole blackhole) throws IOException {
+    int chunkSize = chunking.chunkSize;
+    final int[] count = { 0 };
+    MessageDecoder decoder = new MessageDecoder(CannedTraces.UTF8_CHARSET,
+        new MessageDecoder.Output() {
+          @Override
+          public void messageDecoded(Message message) {
+            blackhole.consume(message.getContentBytes());
+            count[0]++;
+          }
+        });
+    for (int pos = 0; pos < stream.length; pos += chunkSize) {
+      decoder.feed(ByteBuffer.wrap(stream, pos, Math.min(chunkSize, stream.length - pos)));
+    }
+    checkCount(count[0]);
+  }
+
+  @State(Scope.Thread)
+  public static class Chunking {
+    /** Size of chunks the non-blocking decoder gets, as if read from a socket. */
+    @Param({ "1460", "65536" })
+    public int chunkSize;
+  }
+
+  private void checkCount(int count) {
+    if (count != messageCount) {
+      throw new IllegalStateException("Expected " + messageCount + " messages, got " + count);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.v8native.protocol.input;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.chromium.sdk.internal.CannedTraces;
+import org.chromium.sdk.internal.JsonUtil;
+import org.chromium.sdk.internal.protocolparser.JsonProtocolParseException;
+import org.chromium.sdk.internal.v8native.protocol.input.data.PropertyObject;
+import org.chromium.sdk.internal.v8native.protocol.input.data.ScriptHandle;
+import org.chromium.sdk.internal.v8native.protocol.input.data.SomeHandle;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the inbound V8 parsing pipeline on a trace: JSON decoding (json_simple from
+ * a String, the UTF-8 reader and its lazy mode) and the typed parse through
+ * {@link V8ProtocolParserAccess} (static or reflection-based depending on the build).
+ * Each invocation processes the whole trace.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class V8ParsingBenchmark {
+  public enum Decoder {
+    JSON_SIMPLE {
+      @Override JSONObject decode(String text, ByteBuffer utf8) throws ParseException {
+        return JsonUtil.jsonObjectFromJson(text);
+      }
+    },
+    UTF8 {
+      @Override JSONObject decode(String text, ByteBuffer utf8) throws ParseException {
+        return JsonUtil.jsonObjectFromJson(utf8.duplicate());
+      }
+    },
+    UTF8_LAZY {
+      @Override JSONObject decode(String text, ByteBuffer utf8) throws ParseException {
+        return JsonUtil.jsonObjectFromJsonLazily(utf8.duplicate());
+      }
+    };
+
+    abstract JSONObject decode(String text, ByteBuffer utf8) throws ParseException;
+  }
+
+  @Param
+  public Decoder decoder;
+
+  private List<String> texts;
+  private List<ByteBuffer> utf8Texts;
+
+  @Setup
+  public void setUp() throws IOException {
+    texts = CannedTraces.getV8Messages();
+    utf8Texts = CannedTraces.toUtf8(texts);
+  }
+
+  @Benchmark
+  public void decode(Blackhole blackhole) throws ParseException {
+    for (int i = 0; i < texts.size(); i++) {
+      blackhole.consume(decoder.decode(texts.get(i), utf8Texts.get(i)));
+    }
+  }
+
+  /**
+   * Does what the command processor does before a response reaches its callback: the typed
+   * parse and the request_seq lookup.
+   */
+  @Benchmark
+  public void route(Blackhole blackhole) throws ParseException, JsonProtocolParseException {
+    for (int i = 0; i < texts.size(); i++) {
+      JSONObject json = decoder.decode(texts.get(i), utf8Texts.get(i));
+      IncomingMessage message = V8ProtocolParserAccess.get().parseIncomingMessage(json);
+      CommandResponse response = message.asCommandResponse();
+      if (response != null) {
+        blackhole.consume(response.requestSeq());
+      } else {
+        blackhole.consume(message.asEventNotification().event());
+      }
+    }
+  }
+
+  /**
+   * Parses every message and reads the data the SDK reads from it.
+   */
+  @Benchmark
+  public void parseAndWalk(Blackhole blackhole)
+      throws ParseException, JsonProtocolParseException {
+    for (int i = 0; i < texts.size(); i++) {
+      JSONObject json = decoder.decode(texts.get(i), utf8Texts.get(i));
+      IncomingMessage message = V8ProtocolParserAccess.get().parseIncomingMessage(json);
+      CommandResponse response = message.asCommandResponse();
+      if (response == null) {
+        EventNotification event = message.asEventNotification();
+        blackhole.consume(event.body());
+        walkRefs(event.refs(), blackhole);
+        continue;
+      }
+      SuccessCommandResponse success = response.asSuccess();
+      if (success == null) {
+        continue;
+      }
+      walkRefs(success.refs(), blackhole);
+      CommandResponseBody body = success.body();
+      if (body == null) {
+        continue;
+      }
+      walkBody(response.command(), body, blackhole);
+    }
+  }
+
+  private static void walkRefs(List<SomeHandle> refs, Blackhole blackhole)
+      throws JsonProtocolParseException {
+    if (refs == null) {
+      return;
+    }
+    for (SomeHandle handle : refs) {
+      blackhole.consume(handle.handle());
+      blackhole.consume(handle.type());
+    }
+  }
+
+  private static void walkBody(String command, CommandResponseBody body, Blackhole blackhole)
+      throws JsonProtocolParseException {
+    if ("backtrace".equals(command)) {
+      for (FrameObject frame : body.asBacktraceCommandBody().frames()) {
+        blackhole.consume(frame.line());
+        blackhole.consume(frame.text());
+        blackhole.consume(frame.func());
+        walkProperties(frame.arguments(), blackhole);
+        walkProperties(frame.locals(), blackhole);
+        blackhole.consume(frame.scopes());
+      }
+    } else if ("scripts".equals(command)) {
+      for (ScriptHandle script : body.asScripts()) {
+        blackhole.consume(script.id());
+        blackhole.consume(script.name());
+        blackhole.consume(script.source());
+      }
+    } else if ("scope".equals(command)) {
+      walkProperties(body.asScopeBody().object().properties(), blackhole);
+    } else if ("lookup".equals(command)) {
+      for (Object value : body.asLookupMap().values()) {
+        blackhole.consume(V8ProtocolParserAccess.get().parseValueHandle((JSONObject) value));
+      }
+    } else if ("evaluate".equals(command)) {
+      blackhole.consume(body.asEvaluateBody().text());
+    }
+  }
+
+  private static void walkProperties(List<PropertyObject> properties, Blackhole blackhole) {
+    for (PropertyObject property : properties) {
+      blackhole.consume(property.name());
+      if (property.asPropertyWithValue() != null) {
+        blackhole.consume(property.asPropertyWithValue().value());
+      } else {
+        blackhole.consume(property.asPropertyWithRef().ref());
+      }
+    }
+  }
+}
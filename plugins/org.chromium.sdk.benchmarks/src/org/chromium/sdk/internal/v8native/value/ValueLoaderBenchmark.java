@@ -0,0 +1,125 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.v8native.value;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.chromium.sdk.internal.CannedTraces;
+import org.chromium.sdk.internal.JsonUtil;
+import org.chromium.sdk.internal.protocolparser.JsonProtocolParseException;
+import org.chromium.sdk.internal.v8native.protocol.input.CommandResponse;
+import org.chromium.sdk.internal.v8native.protocol.input.CommandResponseBody;
+import org.chromium.sdk.internal.v8native.protocol.input.FrameObject;
+import org.chromium.sdk.internal.v8native.protocol.input.IncomingMessage;
+import org.chromium.sdk.internal.v8native.protocol.input.SuccessCommandResponse;
+import org.chromium.sdk.internal.v8native.protocol.input.V8ProtocolParserAccess;
+import org.chromium.sdk.internal.v8native.protocol.input.data.PropertyObject;
+import org.chromium.sdk.internal.v8native.protocol.input.data.PropertyWithValue;
+import org.chromium.sdk.internal.v8native.protocol.input.data.RefWithDisplayData;
+import org.chromium.sdk.internal.v8native.protocol.input.data.SomeHandle;
+import org.chromium.sdk.internal.v8native.protocol.input.data.ValueHandle;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures how {@link ValueLoaderImpl} merges value mirrors that come with V8 responses
+ * of a trace: inline display data of frame and scope variables, "refs" handles and
+ * "lookup" bodies. Messages are parsed in advance.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ValueLoaderBenchmark {
+  private final List<RefWithDisplayData> displayData = new ArrayList<RefWithDisplayData>();
+  private final List<SomeHandle> refHandles = new ArrayList<SomeHandle>();
+  private final List<ValueHandle> lookupHandles = new ArrayList<ValueHandle>();
+
+  private ValueLoaderImpl filledLoader;
+
+  @Setup
+  public void setUp() throws IOException, ParseException, JsonProtocolParseException {
+    for (String text : CannedTraces.getV8Messages()) {
+      IncomingMessage message =
+          V8ProtocolParserAccess.get().parseIncomingMessage(JsonUtil.jsonObjectFromJson(text));
+      CommandResponse response = message.asCommandResponse();
+      if (response == null || response.asSuccess() == null) {
+        continue;
+      }
+      SuccessCommandResponse success = response.asSuccess();
+      if (success.refs() != null) {
+        refHandles.addAll(success.refs());
+      }
+      CommandResponseBody body = success.body();
+      if ("backtrace".equals(response.command())) {
+        for (FrameObject frame : body.asBacktraceCommandBody().frames()) {
+          collectDisplayData(frame.arguments());
+          collectDisplayData(frame.locals());
+        }
+      } else if ("scope".equals(response.command())) {
+        collectDisplayData(body.asScopeBody().object().properties());
+      } else if ("lookup".equals(response.command())) {
+        for (Object value : body.asLookupMap().values()) {
+          lookupHandles.add(V8ProtocolParserAccess.get().parseValueHandle((JSONObject) value));
+        }
+      }
+    }
+    filledLoader = new ValueLoaderImpl(null);
+    fill(filledLoader);
+  }
+
+  /**
+   * Fills a new cache, as after a suspend.
+   */
+  @Benchmark
+  public ValueLoaderImpl mergeIntoEmptyCache() {
+    ValueLoaderImpl loader = new ValueLoaderImpl(null);
+    fill(loader);
+    return loader;
+  }
+
+  /**
+   * Merges the same mirrors into a cache that already has them.
+   */
+  @Benchmark
+  public ValueLoaderImpl mergeIntoFullCache() {
+    fill(filledLoader);
+    return filledLoader;
+  }
+
+  private void fill(ValueLoaderImpl loader) {
+    for (RefWithDisplayData data : displayData) {
+      loader.addDisplayDataToMap(data);
+    }
+    for (SomeHandle handle : refHandles) {
+      loader.addHandleFromRefs(handle);
+    }
+    for (ValueHandle handle : lookupHandles) {
+      loader.addDataToMap(handle);
+    }
+  }
+
+  private void collectDisplayData(List<PropertyObject> properties) {
+    for (PropertyObject property : properties) {
+      PropertyWithValue withValue = property.asPropertyWithValue();
+      if (withValue == null || withValue.value() == null) {
+        continue;
+      }
+      RefWithDisplayData data = withValue.value().asWithDisplayData();
+      if (data != null) {
+        displayData.add(data);
+      }
+    }
+  }
+}
@@ -0,0 +1,132 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.chromium.sdk.internal.CannedTraces;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures {@link Hybi17WsConnection} over a loopback socket: decoding of incoming frames
+ * (the WIP trace sent by a stub server in one burst) and framing and masking of outgoing
+ * messages (a burst of typical commands and one big script source).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Hybi17Benchmark {
+  private static final int TIMEOUT_MS = 10000;
+
+  @Param({ "NORMAL_MASK", "TRANSPARENT_MASK" })
+  public Hybi17WsConnection.MaskStrategy maskStrategy;
+
+  private WsStubServer server;
+  private Hybi17WsConnection connection;
+
+  private byte[] incomingFrames;
+  private int incomingCount;
+
+  private List<String> outgoingMessages;
+  private long outgoingFramesSize;
+
+  private final AtomicInteger receivedCount = new AtomicInteger(0);
+  private volatile CountDownLatch receivedLatch = null;
+
+  @Setup
+  public void setUp() throws IOException {
+    List<byte[]> payloads = new ArrayList<byte[]>();
+    for (String message : CannedTraces.getWipMessages()) {
+      payloads.add(message.getBytes(CannedTraces.UTF8_CHARSET));
+    }
+    incomingFrames = WsStubServer.encodeFrames(payloads);
+    incomingCount = payloads.size();
+
+    outgoingMessages = createOutgoingMessages();
+    outgoingFramesSize = 0;
+    for (String message : outgoingMessages) {
+      outgoingFramesSize += WsStubServer.getClientFrameSize(
+          message.getBytes(CannedTraces.UTF8_CHARSET).length);
+    }
+
+    server = new WsStubServer();
+    server.start();
+    connection = Hybi17WsConnection.connect(server.getEndpoint(), TIMEOUT_MS,
+        "/devtools/page/1", maskStrategy, null);
+    connection.startListening(new WsConnection.Listener() {
+      @Override
+      public void textMessageRecieved(String text) {
+        if (receivedCount.incrementAndGet() == incomingCount) {
+          receivedLatch.countDown();
+        }
+      }
+
+      @Override
+      public void errorMessage(Exception ex) {
+        throw new RuntimeException(ex);
+      }
+
+      @Override
+      public void eofMessage() {
+      }
+    });
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    connection.getCloser().sendSignal(null, null);
+    server.close();
+  }
+
+  @Benchmark
+  public void receive() throws IOException, InterruptedException {
+    receivedCount.set(0);
+    receivedLatch = new CountDownLatch(1);
+    server.write(incomingFrames);
+    if (!receivedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      throw new IllegalStateException("Messages haven't arrived");
+    }
+  }
+
+  @Benchmark
+  public void send() throws IOException, InterruptedException {
+    long expected = server.getBytesReceived() + outgoingFramesSize;
+    connection.sendTextualMessages(outgoingMessages);
+    if (!server.waitForBytes(expected, TIMEOUT_MS)) {
+      throw new IllegalStateException("Messages haven't been sent");
+    }
+  }
+
+  private static List<String> createOutgoingMessages() {
+    List<String> result = new ArrayList<String>();
+    int id = 1;
+    for (int i = 0; i < 200; i++) {
+      result.add("{\"id\":" + id++ + ",\"method\":\"Runtime.getProperties\",\"params\":{" +
+          "\"objectId\":\"{\\\"injectedScriptId\\\":3,\\\"id\\\":" + (100 + i) + "}\"," +
+          "\"ownProperties\":true}}");
+    }
+    StringBuilder source = new StringBuilder();
+    while (source.length() < 100 * 1024) {
+      source.append("  result.push({ name: item.name, value: compute(item, ").append(id)
+          .append(") });\\n");
+    }
+    result.add("{\"id\":" + id + ",\"method\":\"Debugger.setScriptSource\",\"params\":{" +
+        "\"scriptId\":\"31\",\"scriptSource\":\"" + source + "\"}}");
+    return result;
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.chromium.sdk.internal.CannedTraces;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures a single {@link Hybi17WsConnection} message of 1 KB, 64 KB and 4 MB: sending
+ * (UTF-8 encoding, masking and framing) and receiving over a loopback socket, and
+ * {@link WsFrames} masking and encoding alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WsMessageSizeBenchmark {
+  private static final int TIMEOUT_MS = 10000;
+
+  @Param({ "1024", "65536", "4194304" })
+  public int messageSize;
+
+  private WsStubServer server;
+  private Hybi17WsConnection connection;
+
+  private String message;
+  private byte[] messageBytes;
+  private int outgoingFrameSize;
+  private byte[] incomingFrame;
+
+  private volatile CountDownLatch receivedLatch = null;
+
+  @Setup
+  public void setUp() throws IOException {
+    message = createMessage(messageSize);
+    messageBytes = message.getBytes(CannedTraces.UTF8_CHARSET);
+    outgoingFrameSize = WsStubServer.getClientFrameSize(messageBytes.length);
+    incomingFrame = WsStubServer.encodeFrames(Collections.singletonList(messageBytes));
+
+    server = new WsStubServer();
+    server.start();
+    connection = Hybi17WsConnection.connect(server.getEndpoint(), TIMEOUT_MS,
+        "/devtools/page/1", Hybi17WsConnection.MaskStrategy.NORMAL_MASK, null);
+    connection.startListening(new WsConnection.Listener() {
+      @Override
+      public void textMessageRecieved(String text) {
+        receivedLatch.countDown();
+      }
+
+      @Override
+      public void errorMessage(Exception ex) {
+        throw new RuntimeException(ex);
+      }
+
+      @Override
+      public void eofMessage() {
+      }
+    });
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    connection.getCloser().sendSignal(null, null);
+    server.close();
+  }
+
+  @Benchmark
+  public void send() throws IOException, InterruptedException {
+    long expected = server.getBytesReceived() + outgoingFrameSize;
+    connection.sendTextualMessage(message);
+    if (!server.waitForBytes(expected, TIMEOUT_MS)) {
+      throw new IllegalStateException("Message hasn't been sent");
+    }
+  }
+
+  @Benchmark
+  public void receive() throws IOException, InterruptedException {
+    receivedLatch = new CountDownLatch(1);
+    server.write(incomingFrame);
+    if (!receivedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      throw new IllegalStateException("Message hasn't arrived");
+    }
+  }
+
+  @Benchmark
+  public byte[] mask() {
+    WsFrames.mask(messageBytes, 0, messageBytes.length, 0x1A2B3C4D, 0);
+    return messageBytes;
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    WsFrames.encodeUtf8(message, 0, message.length(), messageBytes, 0);
+    return messageBytes;
+  }
+
+  /**
+   * @return a JSON-like command with a script source of about the given size in UTF-8
+   */
+  private static String createMessage(int size) {
+    StringBuilder builder = new StringBuilder(size);
+    builder.append("{\"id\":1,\"method\":\"Debugger.setScriptSource\",\"params\":{" +
+        "\"scriptId\":\"31\",\"scriptSource\":\"");
+    String line = "  result.push({ name: item.name, value: compute(item, 42) });\\n";
+    while (builder.length() + line.length() + 3 <= size) {
+      builder.append(line);
+    }
+    while (builder.length() + 3 < size) {
+      builder.append(' ');
+    }
+    builder.append("\"}}");
+    return builder.toString();
+  }
+}
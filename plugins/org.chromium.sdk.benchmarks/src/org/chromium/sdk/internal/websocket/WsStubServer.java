@@ -0,0 +1,190 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * A minimal loopback WebSocket (RFC 6455) server for a single client. It answers
+ * the handshake, writes prepared frames on request and counts the bytes the client sends.
+ */
+class WsStubServer {
+  private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+  private final ServerSocket serverSocket;
+  private volatile Socket socket = null;
+
+  // Must be accessed synchronized on this.
+  private long bytesReceived = 0;
+
+  WsStubServer() throws IOException {
+    serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+  }
+
+  InetSocketAddress getEndpoint() {
+    return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+  }
+
+  /**
+   * Accepts the connection in a background thread; the client should connect after this.
+   */
+  void start() {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          socket = serverSocket.accept();
+          socket.setTcpNoDelay(true);
+          handshake(socket.getInputStream(), socket.getOutputStream());
+          readLoop(socket.getInputStream());
+        } catch (IOException e) {
+          // Closed.
+        }
+      }
+    }, "WebSocket stub server");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void write(byte[] bytes) throws IOException {
+    OutputStream output = socket.getOutputStream();
+    output.write(bytes);
+    output.flush();
+  }
+
+  synchronized long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  /**
+   * Blocks until the client has sent at least the given number of bytes in total.
+   * @return false if the time is out
+   */
+  synchronized boolean waitForBytes(long total, long timeoutMs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (bytesReceived < total) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      wait(remaining);
+    }
+    return true;
+  }
+
+  void close() throws IOException {
+    if (socket != null) {
+      socket.close();
+    }
+    serverSocket.close();
+  }
+
+  /**
+   * Encodes messages as unmasked final text frames, the way a server sends them.
+   */
+  static byte[] encodeFrames(Iterable<byte[]> payloads) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (byte[] payload : payloads) {
+      output.write(0x80 | Hybi17WsConnection.OpCode.TEXT);
+      writeLength(payload.length, output);
+      output.write(payload, 0, payload.length);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * @return the size of a masked client frame with the given payload length
+   */
+  static int getClientFrameSize(int payloadLength) {
+    int lengthSize;
+    if (payloadLength <= 125) {
+      lengthSize = 0;
+    } else if (payloadLength <= 0xFFFF) {
+      lengthSize = 2;
+    } else {
+      lengthSize = 8;
+    }
+    return 2 + lengthSize + 4 + payloadLength;
+  }
+
+  private static void writeLength(int length, ByteArrayOutputStream output) {
+    if (length <= 125) {
+      output.write(length);
+    } else if (length <= 0xFFFF) {
+      output.write(126);
+      output.write(length >>> 8);
+      output.write(length & 0xFF);
+    } else {
+      output.write(127);
+      for (int i = 7; i >= 0; i--) {
+        output.write(i >= 4 ? 0 : (length >>> (i * 8)) & 0xFF);
+      }
+    }
+  }
+
+  private void readLoop(InputStream input) throws IOException {
+    byte[] buffer = new byte[64 * 1024];
+    while (true) {
+      int len = input.read(buffer);
+      if (len == -1) {
+        return;
+      }
+      synchronized (this) {
+        bytesReceived += len;
+        notifyAll();
+      }
+    }
+  }
+
+  private static void handshake(InputStream input, OutputStream output) throws IOException {
+    HandshakeUtil.LineReader lineReader = HandshakeUtil.createLineReader(input);
+    // The request line is not a header, so the key is looked up by hand.
+    String key = null;
+    while (true) {
+      byte[] line = lineReader.readUpTo0x0D0A();
+      String text = new String(line, HandshakeUtil.ASCII_CHARSET);
+      if (text.length() == 0) {
+        break;
+      }
+      int colon = text.indexOf(':');
+      if (colon != -1 &&
+          text.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+        key = text.substring(colon + 1).trim();
+      }
+    }
+    if (key == null) {
+      throw new IOException("No key in handshake");
+    }
+    String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+        "Upgrade: websocket\r\n" +
+        "Connection: Upgrade\r\n" +
+        "Sec-WebSocket-Accept: " + createAccept(key) + "\r\n" +
+        "\r\n";
+    output.write(response.getBytes(HandshakeUtil.ASCII_CHARSET));
+    output.flush();
+  }
+
+  private static String createAccept(String key) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    return DatatypeConverter.printBase64Binary(
+        digest.digest((key + GUID).getBytes(HandshakeUtil.ASCII_CHARSET)));
+  }
+}
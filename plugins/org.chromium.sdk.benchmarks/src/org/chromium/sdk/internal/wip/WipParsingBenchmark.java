@@ -0,0 +1,142 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.wip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.chromium.sdk.internal.CannedTraces;
+import org.chromium.sdk.internal.JsonUtil;
+import org.chromium.sdk.internal.protocolparser.JsonProtocolParseException;
+import org.chromium.sdk.internal.wip.protocol.WipParserAccess;
+import org.chromium.sdk.internal.wip.protocol.input.WipCommandResponse;
+import org.chromium.sdk.internal.wip.protocol.input.WipEvent;
+import org.chromium.sdk.internal.wip.protocol.input.WipProtocolParser;
+import org.chromium.sdk.internal.wip.protocol.input.debugger.CallFrameValue;
+import org.chromium.sdk.internal.wip.protocol.input.debugger.PausedEventData;
+import org.chromium.sdk.internal.wip.protocol.input.debugger.ScopeValue;
+import org.chromium.sdk.internal.wip.protocol.input.debugger.ScriptParsedEventData;
+import org.chromium.sdk.internal.wip.protocol.input.runtime.PropertyDescriptorValue;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures parsing of incoming WIP messages: JSON decoding (json_simple or the UTF-8 reader)
+ * and the typed parse through {@link WipParserAccess}. Each invocation processes
+ * the whole trace.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WipParsingBenchmark {
+  public enum Decoder {
+    JSON_SIMPLE {
+      @Override JSONObject decode(String text, ByteBuffer utf8) throws ParseException {
+        return JsonUtil.jsonObjectFromJson(text);
+      }
+    },
+    UTF8 {
+      @Override JSONObject decode(String text, ByteBuffer utf8) throws ParseException {
+        return JsonUtil.jsonObjectFromJson(utf8.duplicate());
+      }
+    };
+
+    abstract JSONObject decode(String text, ByteBuffer utf8) throws ParseException;
+  }
+
+  @Param
+  public Decoder decoder;
+
+  private List<String> texts;
+  private List<ByteBuffer> utf8Texts;
+
+  @Setup
+  public void setUp() throws IOException {
+    texts = CannedTraces.getWipMessages();
+    utf8Texts = CannedTraces.toUtf8(texts);
+  }
+
+  @Benchmark
+  public void decode(Blackhole blackhole) throws ParseException {
+    for (int i = 0; i < texts.size(); i++) {
+      blackhole.consume(decoder.decode(texts.get(i), utf8Texts.get(i)));
+    }
+  }
+
+  /**
+   * Parses every message and reads the data the SDK reads from it.
+   */
+  @Benchmark
+  public void parseAndWalk(Blackhole blackhole)
+      throws ParseException, JsonProtocolParseException {
+    WipProtocolParser parser = WipParserAccess.get();
+    for (int i = 0; i < texts.size(); i++) {
+      JSONObject json = decoder.decode(texts.get(i), utf8Texts.get(i));
+      if (json.containsKey("id")) {
+        WipCommandResponse response = parser.parseWipCommandResponse(json);
+        WipCommandResponse.Success success = response.asSuccess();
+        if (success != null) {
+          walkResponse(success.data().getUnderlyingObject(), parser, blackhole);
+        }
+      } else {
+        WipEvent event = parser.parseWipEvent(json);
+        WipEvent.Data data = event.data();
+        if (data != null) {
+          walkEvent(event.method(), data.getUnderlyingObject(), parser, blackhole);
+        }
+      }
+    }
+  }
+
+  private static void walkEvent(String method, JSONObject data, WipProtocolParser parser,
+      Blackhole blackhole) throws JsonProtocolParseException {
+    if (ScriptParsedEventData.TYPE.getMethodName().equals(method)) {
+      ScriptParsedEventData scriptParsed = ScriptParsedEventData.TYPE.parse(parser, data);
+      blackhole.consume(scriptParsed.scriptId());
+      blackhole.consume(scriptParsed.url());
+      blackhole.consume(scriptParsed.endLine());
+    } else if (PausedEventData.TYPE.getMethodName().equals(method)) {
+      PausedEventData paused = PausedEventData.TYPE.parse(parser, data);
+      for (CallFrameValue frame : paused.callFrames()) {
+        blackhole.consume(frame.callFrameId());
+        blackhole.consume(frame.functionName());
+        blackhole.consume(frame.location().lineNumber());
+        for (ScopeValue scope : frame.scopeChain()) {
+          blackhole.consume(scope.type());
+          blackhole.consume(scope.object().objectId());
+        }
+        blackhole.consume(frame.getThis().className());
+      }
+    }
+  }
+
+  private static void walkResponse(JSONObject data, WipProtocolParser parser,
+      Blackhole blackhole) throws JsonProtocolParseException {
+    Object result = data.get("result");
+    if (result instanceof JSONArray) {
+      for (PropertyDescriptorValue property :
+          parser.parseRuntimeGetPropertiesData(data).result()) {
+        blackhole.consume(property.name());
+        blackhole.consume(property.value().type());
+        blackhole.consume(property.value().value());
+        blackhole.consume(property.value().description());
+      }
+    } else if (result instanceof JSONObject) {
+      blackhole.consume(parser.parseRuntimeEvaluateData(data).result().description());
+    }
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.chromium.sdk.internal.CannedTraces;
+import org.chromium.sdk.internal.JsonUtil;
+import org.chromium.sdk.internal.protocolparser.JsonProtocolParseException;
+import org.chromium.sdk.internal.v8native.protocol.input.CommandResponse;
+import org.chromium.sdk.internal.v8native.protocol.input.IncomingMessage;
+import org.chromium.sdk.internal.v8native.protocol.input.SuccessCommandResponse;
+import org.chromium.sdk.internal.v8native.protocol.input.V8ProtocolParserAccess;
+import org.chromium.sdk.internal.v8native.protocol.input.data.SomeHandle;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares {@link ConcurrentLongMap} with a {@link ConcurrentHashMap} keyed by boxed longs
+ * on the handle numbers ("refs") of V8 responses in a trace, as the value loader uses them.
+ * Run with "-prof gc" to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConcurrentLongMapBenchmark {
+  private long[] refs;
+
+  private ConcurrentHashMap<Long, Object> filledHashMap;
+  private ConcurrentLongMap<Object> filledLongMap;
+
+  @Setup
+  public void setUp() throws IOException, ParseException, JsonProtocolParseException {
+    long[] buffer = new long[64];
+    int count = 0;
+    for (String text : CannedTraces.getV8Messages()) {
+      IncomingMessage message =
+          V8ProtocolParserAccess.get().parseIncomingMessage(JsonUtil.jsonObjectFromJson(text));
+      CommandResponse response = message.asCommandResponse();
+      if (response == null || response.asSuccess() == null) {
+        continue;
+      }
+      SuccessCommandResponse success = response.asSuccess();
+      if (success.refs() == null) {
+        continue;
+      }
+      for (SomeHandle handle : success.refs()) {
+        if (count == buffer.length) {
+          buffer = Arrays.copyOf(buffer, count * 2);
+        }
+        buffer[count++] = handle.handle();
+      }
+    }
+    refs = Arrays.copyOf(buffer, count);
+    filledHashMap = fillHashMap();
+    filledLongMap = fillLongMap();
+  }
+
+  @Benchmark
+  public ConcurrentHashMap<Long, Object> fillHashMap() {
+    ConcurrentHashMap<Long, Object> map = new ConcurrentHashMap<Long, Object>();
+    for (long ref : refs) {
+      map.putIfAbsent(ref, this);
+    }
+    return map;
+  }
+
+  @Benchmark
+  public ConcurrentLongMap<Object> fillLongMap() {
+    ConcurrentLongMap<Object> map = new ConcurrentLongMap<Object>();
+    for (long ref : refs) {
+      map.putIfAbsent(ref, this);
+    }
+    return map;
+  }
+
+  @Benchmark
+  public int lookUpHashMap() {
+    int found = 0;
+    for (long ref : refs) {
+      if (filledHashMap.get(ref) != null) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  @Benchmark
+  public int lookUpLongMap() {
+    int found = 0;
+    for (long ref : refs) {
+      if (filledLongMap.get(ref) != null) {
+        found++;
+      }
+    }
+    return found;
+  }
+}
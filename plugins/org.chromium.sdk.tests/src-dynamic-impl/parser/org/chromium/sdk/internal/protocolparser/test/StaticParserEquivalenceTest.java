@@ -0,0 +1,237 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.protocolparser.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import junit.framework.Assert;
+
+import org.chromium.sdk.internal.JsonUtil;
+import org.chromium.sdk.internal.liveeditprotocol.LiveEditDynamicParser;
+import org.chromium.sdk.internal.protocolparser.JsonType;
+import org.chromium.sdk.internal.protocolparser.dynamicimpl.GeneratedCodeMap;
+import org.chromium.sdk.internal.v8native.protocol.input.IncomingMessage;
+import org.chromium.sdk.internal.v8native.protocol.input.V8DynamicParser;
+import org.chromium.sdk.internal.v8native.protocol.input.V8NativeProtocolParser;
+import org.json.simple.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Checks that the generated (static) V8 protocol parser gives the same results as
+ * the dynamic one. The static parser source is generated and compiled in the test, so
+ * a JDK is required; the test is skipped on a plain JRE.
+ * <p>
+ * Parsed objects are compared field-by-field: every getter of {@link JsonType} interfaces
+ * (including subtype casts) is called on both implementations.
+ */
+public class StaticParserEquivalenceTest {
+  private static final String V8_PACKAGE = "org.chromium.sdk.internal.v8native.protocol.input";
+  private static final String V8_CLASS = "GeneratedV8ProtocolParser";
+  private static final String LIVE_EDIT_PACKAGE = "org.chromium.sdk.internal.liveeditprotocol";
+  private static final String LIVE_EDIT_CLASS = "GeneratedLiveEditProtocolParser";
+
+  private static final int MAX_DEPTH = 8;
+
+  private static final String[] SAMPLES = {
+    "{'seq':1,'request_seq':1,'type':'response','command':'version','success':true," +
+        "'body':{'V8Version':'3.9.24'},'refs':[],'running':true}",
+
+    "{'seq':2,'request_seq':3,'type':'response','command':'backtrace','success':true," +
+        "'running':false,'body':{'fromFrame':0,'toFrame':1,'totalFrames':1,'frames':[" +
+        "{'type':'frame','index':0,'receiver':{'ref':1},'func':{'ref':2}," +
+        "'script':{'ref':3},'constructCall':false,'debuggerFrame':false," +
+        "'arguments':[{'name':'a','value':{'ref':4}}]," +
+        "'locals':[{'name':'x','value':{'ref':5,'type':'number','value':1}}]," +
+        "'position':10,'line':2,'column':4,'sourceLineText':'  foo(x);'," +
+        "'scopes':[{'type':1,'index':0},{'type':0,'index':1}],'text':'#00 foo(a=1)'}]}," +
+        "'refs':[{'handle':1,'type':'object','className':'Object','constructorFunction':" +
+        "{'ref':6},'protoObject':{'ref':7},'prototypeObject':{'ref':8},'properties':[" +
+        "{'name':'p','propertyType':1,'ref':9}],'text':'#<Object>'}," +
+        "{'handle':4,'type':'number','value':1,'text':'1'}," +
+        "{'handle':3,'type':'script','name':'a.js','id':17,'lineOffset':0," +
+        "'columnOffset':0,'lineCount':10,'sourceStart':'function foo','sourceLength':120," +
+        "'scriptType':2,'compilationType':0,'context':{'ref':0},'text':'a.js (lines: 10)'}]}",
+
+    "{'seq':3,'request_seq':4,'type':'response','command':'scripts','success':true," +
+        "'running':true,'body':[{'handle':1,'type':'script','name':'b.js','id':18," +
+        "'lineOffset':5,'columnOffset':0,'lineCount':3,'source':'var y = 2;'," +
+        "'sourceLength':10,'scriptType':2,'compilationType':1,'evalFromScript':{'ref':3}," +
+        "'evalFromLocation':{'line':1,'column':2},'text':'b.js'}],'refs':[]}",
+
+    "{'seq':4,'request_seq':5,'type':'response','command':'lookup','success':true," +
+        "'running':false,'body':{'5':{'handle':5,'type':'string','value':'abc'," +
+        "'length':3,'text':'abc'}},'refs':[]}",
+
+    "{'seq':5,'request_seq':6,'type':'response','command':'evaluate','success':false," +
+        "'message':'ReferenceError: z is not defined','running':false}",
+
+    "{'seq':6,'type':'event','event':'break','body':{'invocationText':'#<Object>.foo()'," +
+        "'sourceLine':2,'sourceColumn':4,'sourceLineText':'  foo(x);','script':{'id':17," +
+        "'name':'a.js','lineOffset':0,'columnOffset':0,'lineCount':10},'breakpoints':[1,2]}}",
+
+    "{'seq':7,'type':'event','event':'afterCompile','success':true,'running':true," +
+        "'body':{'script':{'handle':1,'type':'script','name':'c.js','id':19," +
+        "'lineOffset':0,'columnOffset':0,'lineCount':1,'sourceStart':'x','sourceLength':1," +
+        "'scriptType':2,'compilationType':0,'context':{'ref':0},'text':'c.js'}}," +
+        "'refs':[{'handle':0,'type':'context','data':'page,1'}]}",
+  };
+
+  @Test
+  public void testV8ParserEquivalence() throws Exception {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    Assume.assumeNotNull(compiler);
+
+    File tempDir = createTempDir();
+    try {
+      StringBuilder liveEditSource = new StringBuilder();
+      GeneratedCodeMap liveEditMap = LiveEditDynamicParser.create().generateStaticParser(
+          liveEditSource, LIVE_EDIT_PACKAGE, LIVE_EDIT_CLASS);
+      StringBuilder v8Source = new StringBuilder();
+      V8DynamicParser.create().generateStaticParser(v8Source, V8_PACKAGE, V8_CLASS,
+          Collections.singletonList(liveEditMap));
+
+      List<String> compilerArgs = new ArrayList<String>();
+      compilerArgs.addAll(Arrays.asList("-nowarn", "-d", tempDir.getPath(),
+          "-classpath", System.getProperty("java.class.path")));
+      compilerArgs.add(writeSource(tempDir, LIVE_EDIT_PACKAGE, LIVE_EDIT_CLASS, liveEditSource));
+      compilerArgs.add(writeSource(tempDir, V8_PACKAGE, V8_CLASS, v8Source));
+      int compileResult =
+          compiler.run(null, null, null, compilerArgs.toArray(new String[0]));
+      Assert.assertEquals("Generated parser failed to compile", 0, compileResult);
+
+      URLClassLoader classLoader = new URLClassLoader(new URL[] { tempDir.toURI().toURL() },
+          StaticParserEquivalenceTest.class.getClassLoader());
+      V8NativeProtocolParser staticParser = (V8NativeProtocolParser)
+          classLoader.loadClass(V8_PACKAGE + "." + V8_CLASS).newInstance();
+      V8NativeProtocolParser dynamicParser = V8DynamicParser.create().getParserRoot();
+
+      for (String sample : SAMPLES) {
+        JSONObject json = JsonUtil.jsonObjectFromJson(sample.replace('\'', '"'));
+        IncomingMessage staticResult = staticParser.parseIncomingMessage(json);
+        IncomingMessage dynamicResult = dynamicParser.parseIncomingMessage(json);
+        assertEquivalent(sample, dynamicResult, staticResult, 0);
+      }
+    } finally {
+      deleteRecursively(tempDir);
+    }
+  }
+
+  private static void assertEquivalent(String path, Object expected, Object actual, int depth)
+      throws IllegalAccessException {
+    if (expected == null || actual == null) {
+      Assert.assertEquals(path, expected, actual);
+      return;
+    }
+    if (expected instanceof List) {
+      Assert.assertTrue(path, actual instanceof List);
+      List<?> expectedList = (List<?>) expected;
+      List<?> actualList = (List<?>) actual;
+      Assert.assertEquals(path, expectedList.size(), actualList.size());
+      for (int i = 0; i < expectedList.size(); i++) {
+        assertEquivalent(path + "[" + i + "]", expectedList.get(i), actualList.get(i), depth);
+      }
+      return;
+    }
+    Class<?> jsonType = findJsonType(expected.getClass());
+    if (jsonType == null) {
+      Assert.assertEquals(path, expected, actual);
+      return;
+    }
+    Assert.assertTrue(path, jsonType.isInstance(actual));
+    if (depth >= MAX_DEPTH) {
+      return;
+    }
+    for (Method method : jsonType.getMethods()) {
+      if (method.getParameterTypes().length != 0 || method.getDeclaringClass() == Object.class) {
+        continue;
+      }
+      String methodPath = path + "/" + method.getName();
+      Object expectedValue;
+      Object actualValue;
+      Throwable expectedException = null;
+      Throwable actualException = null;
+      try {
+        expectedValue = method.invoke(expected);
+      } catch (InvocationTargetException e) {
+        expectedValue = null;
+        expectedException = e.getCause();
+      }
+      try {
+        actualValue = method.invoke(actual);
+      } catch (InvocationTargetException e) {
+        actualValue = null;
+        actualException = e.getCause();
+      }
+      if (expectedException != null || actualException != null) {
+        Assert.assertEquals(methodPath + " throws", describe(expectedException),
+            describe(actualException));
+        continue;
+      }
+      assertEquivalent(methodPath, expectedValue, actualValue, depth + 1);
+    }
+  }
+
+  private static String describe(Throwable exception) {
+    return exception == null ? "nothing" : "an exception";
+  }
+
+  private static Class<?> findJsonType(Class<?> clazz) {
+    for (Class<?> intf : clazz.getInterfaces()) {
+      if (intf.getAnnotation(JsonType.class) != null) {
+        return intf;
+      }
+    }
+    return null;
+  }
+
+  private static String writeSource(File dir, String packageName, String className,
+      CharSequence source) throws IOException {
+    File packageDir = new File(dir, packageName.replace('.', File.separatorChar));
+    packageDir.mkdirs();
+    File file = new File(packageDir, className + ".java");
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.append(source);
+    } finally {
+      writer.close();
+    }
+    return file.getPath();
+  }
+
+  private static File createTempDir() throws IOException {
+    File file = File.createTempFile("static-parser", "");
+    file.delete();
+    if (!file.mkdir()) {
+      throw new IOException("Failed to create " + file);
+    }
+    return file;
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,152 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.wip;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.chromium.sdk.JsValue;
+import org.chromium.sdk.RelayOk;
+import org.chromium.sdk.SyncCallback;
+import org.chromium.sdk.internal.JsonUtil;
+import org.chromium.sdk.internal.browserfixture.StubListener;
+import org.chromium.sdk.internal.websocket.WsConnection;
+import org.chromium.sdk.internal.wip.protocol.WipParserAccess;
+import org.chromium.sdk.internal.wip.protocol.input.runtime.RemoteObjectValue;
+import org.chromium.sdk.util.SignalRelay;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a permanent value mapping reuses objects by id across suspends and drops them
+ * on {@link PermanentRemoteValueMappingImpl#clearCaches()} and
+ * {@link PermanentRemoteValueMappingImpl#delete}.
+ */
+public class PermanentRemoteValueMappingTest {
+  private static final String OBJECT_ID = "object-7";
+
+  private final FakeWsConnection connection = new FakeWsConnection();
+  private final StubListener listener = new StubListener();
+  private WipTabImpl tabImpl;
+  private PermanentRemoteValueMappingImpl mapping;
+
+  @Before
+  public void setUpBefore() throws Exception {
+    tabImpl = new WipTabImpl(connection, null, listener, "about:blank");
+    mapping = (PermanentRemoteValueMappingImpl) tabImpl.createPermanentValueMapping("group");
+  }
+
+  @Test
+  public void testObjectReusedAcrossSuspends() throws Exception {
+    suspend();
+    JsValue first = wrapObject(mapping);
+    resume();
+
+    suspend();
+    Assert.assertSame(first, wrapObject(mapping));
+    resume();
+
+    // A mapping of a debug context doesn't reuse objects.
+    WipValueLoader contextLoader = new WipValueLoader(tabImpl) {
+      @Override
+      String getObjectGroupId() {
+        return null;
+      }
+    };
+    Assert.assertNotSame(wrapObject(contextLoader), wrapObject(contextLoader));
+  }
+
+  @Test
+  public void testClearCaches() throws Exception {
+    JsValue first = wrapObject(mapping);
+    mapping.clearCaches();
+    Assert.assertNull(mapping.getCachedObject(OBJECT_ID));
+    JsValue second = wrapObject(mapping);
+    Assert.assertNotSame(first, second);
+    Assert.assertSame(second, wrapObject(mapping));
+  }
+
+  @Test
+  public void testDelete() throws Exception {
+    JsValue first = wrapObject(mapping);
+    mapping.delete(null, null);
+    Assert.assertTrue(connection.sentMessages.get(connection.sentMessages.size() - 1)
+        .contains("Runtime.releaseObjectGroup"));
+    Assert.assertNull(mapping.getCachedObject(OBJECT_ID));
+    Assert.assertNotSame(first, wrapObject(mapping));
+  }
+
+  private static JsValue wrapObject(WipValueLoader valueLoader) throws Exception {
+    RemoteObjectValue valueData = WipParserAccess.get().parseRemoteObjectValue(
+        JsonUtil.jsonObjectFromJson("{\"type\":\"object\",\"className\":\"Object\"," +
+            "\"description\":\"Object\",\"objectId\":" + JsonUtil.quoteString(OBJECT_ID) + "}"));
+    return valueLoader.getValueBuilder().wrap(valueData);
+  }
+
+  private void suspend() {
+    listener.expectSuspendedEvent();
+    connection.receive("{\"method\":\"Debugger.paused\"," +
+        "\"params\":{\"callFrames\":[],\"reason\":\"other\",\"hitBreakpoints\":[]}}");
+    listener.getDebugContext();
+  }
+
+  private void resume() {
+    connection.receive("{\"method\":\"Debugger.resumed\"}");
+  }
+
+  /**
+   * Records outgoing messages; incoming messages are passed by the test on its own thread,
+   * which serves as Dispatch thread.
+   */
+  private static class FakeWsConnection implements WsConnection {
+    final List<String> sentMessages = new ArrayList<String>();
+    private final SignalRelay<Void> closer = SignalRelay.create(null);
+    private Listener listener;
+
+    void receive(String text) {
+      listener.textMessageRecieved(text);
+    }
+
+    @Override
+    public void startListening(Listener listener) {
+      this.listener = listener;
+    }
+
+    @Override
+    public void sendTextualMessage(String message) {
+      sentMessages.add(message);
+    }
+
+    @Override
+    public void sendTextualMessages(List<String> messages) {
+      sentMessages.addAll(messages);
+    }
+
+    @Override
+    public RelayOk runInDispatchThread(Runnable runnable, SyncCallback syncCallback) {
+      RuntimeException ex = null;
+      try {
+        runnable.run();
+      } catch (RuntimeException e) {
+        ex = e;
+        throw e;
+      } finally {
+        if (syncCallback != null) {
+          syncCallback.callbackDone(ex);
+        }
+      }
+      return DISPATCH_THREAD_PROMISES_TO_RELAY_OK;
+    }
+
+    @Override
+    public SignalRelay<?> getCloser() {
+      return closer;
+    }
+
+    private static final RelayOk DISPATCH_THREAD_PROMISES_TO_RELAY_OK = new RelayOk() {};
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.chromium.sdk.SyncCallback;
+import org.junit.Test;
+
+/**
+ * Checks batch sending and metrics in {@link BaseCommandProcessor}. Commands are plain strings,
+ * responses are integer sequence numbers.
+ */
+public class BaseCommandProcessorTest {
+  @Test
+  public void testBatchResultsAndFailures() {
+    TestHandler handler = new TestHandler(null);
+    BaseCommandProcessor<Integer, String, Integer, Integer> processor =
+        new BaseCommandProcessor<Integer, String, Integer, Integer>(handler);
+    RecordingBatchCallback callback = new RecordingBatchCallback();
+
+    processor.sendBatch(Arrays.asList("a", "b", "c"), false, callback, callback);
+    Assert.assertEquals(Arrays.asList("a", "b", "c"), handler.sent);
+    Assert.assertEquals(0, callback.callCount);
+
+    processor.processIncoming(3);
+    processor.processIncoming(1);
+    Assert.assertEquals(0, callback.callCount);
+
+    processor.processEos();
+    Assert.assertEquals(1, callback.callCount);
+    Assert.assertEquals(1, callback.syncCallCount);
+    Assert.assertEquals(Arrays.asList(1, null, 3), callback.responses);
+    Assert.assertEquals(Arrays.asList(null, "Connection closed", null), callback.failures);
+  }
+
+  @Test
+  public void testSendFailureIsPerItem() {
+    TestHandler handler = new TestHandler("b");
+    BaseCommandProcessor<Integer, String, Integer, Integer> processor =
+        new BaseCommandProcessor<Integer, String, Integer, Integer>(handler);
+    RecordingBatchCallback callback = new RecordingBatchCallback();
+
+    processor.sendBatch(Arrays.asList("a", "b", "c"), false, callback, callback);
+    Assert.assertEquals(Arrays.asList("a", "c"), handler.sent);
+
+    processor.processIncoming(1);
+    processor.processIncoming(3);
+    Assert.assertEquals(1, callback.callCount);
+    Assert.assertEquals(Arrays.asList(1, null, 3), callback.responses);
+    Assert.assertNull(callback.failures.get(0));
+    Assert.assertNotNull(callback.failures.get(1));
+    Assert.assertNull(callback.failures.get(2));
+  }
+
+  @Test
+  public void testEmptyBatch() {
+    BaseCommandProcessor<Integer, String, Integer, Integer> processor =
+        new BaseCommandProcessor<Integer, String, Integer, Integer>(new TestHandler(null));
+    RecordingBatchCallback callback = new RecordingBatchCallback();
+    processor.sendBatch(Collections.<String>emptyList(), false, callback, callback);
+    Assert.assertEquals(1, callback.callCount);
+    Assert.assertEquals(1, callback.syncCallCount);
+  }
+
+  @Test
+  public void testMetrics() {
+    BaseCommandProcessor<Integer, String, Integer, Integer> processor =
+        new BaseCommandProcessor<Integer, String, Integer, Integer>(new TestHandler(null));
+    RecordingBatchCallback callback = new RecordingBatchCallback();
+    processor.sendBatch(Arrays.asList("a", "b", "a"), false, callback, callback);
+    ProtocolMetricsImpl metrics = processor.getMetrics();
+    Assert.assertEquals(3, metrics.getInFlightCommandCount());
+
+    processor.processIncoming(1);
+    processor.processIncoming(3);
+    Assert.assertEquals(1, metrics.getInFlightCommandCount());
+    Assert.assertEquals(2, metrics.getCommandLatencies().get("a").getCount());
+    Assert.assertNull(metrics.getCommandLatencies().get("b"));
+    // Test connection doesn't count traffic.
+    Assert.assertEquals(-1, metrics.getBytesSent());
+
+    metrics.resetStatistics();
+    Assert.assertTrue(metrics.getCommandLatencies().isEmpty());
+  }
+
+  private static class TestHandler
+      implements BaseCommandProcessor.Handler<Integer, String, Integer, Integer> {
+    private final String failingCommand;
+    private int nextSeq = 1;
+    final List<String> sent = new ArrayList<String>();
+
+    TestHandler(String failingCommand) {
+      this.failingCommand = failingCommand;
+    }
+
+    @Override public Integer getUpdatedSeq(String message) {
+      return nextSeq++;
+    }
+    @Override public String getCommandName(String message) {
+      return message;
+    }
+    @Override public void send(String message, boolean isImmediate) {
+      if (message.equals(failingCommand)) {
+        throw new IllegalStateException("Test failure");
+      }
+      sent.add(message);
+    }
+    @Override public Integer parseWithSeq(Integer incoming) {
+      return incoming;
+    }
+    @Override public Integer getSeq(Integer incomingWithSeq) {
+      return incomingWithSeq;
+    }
+    @Override public void acceptNonSeq(Integer incoming) {
+    }
+    @Override public void reportVmStatus(String currentRequest, int numberOfEnqueued) {
+    }
+  }
+
+  private static class RecordingBatchCallback
+      implements BaseCommandProcessor.BatchCallback<Integer>, SyncCallback {
+    int callCount = 0;
+    int syncCallCount = 0;
+    List<? extends Integer> responses;
+    List<String> failures;
+
+    @Override
+    public void batchDone(List<? extends Integer> responses, List<String> failures) {
+      callCount++;
+      this.responses = responses;
+      this.failures = failures;
+    }
+
+    @Override
+    public void callbackDone(RuntimeException e) {
+      syncCallCount++;
+    }
+  }
+}
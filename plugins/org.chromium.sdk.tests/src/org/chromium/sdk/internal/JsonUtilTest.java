@@ -0,0 +1,56 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks how {@link JsonUtil} peeks at the leading property of a message.
+ */
+public class JsonUtilTest {
+  @Test
+  public void testPeekLeadingStringProperty() throws IOException {
+    assertPeek("Debugger.paused", "{\"method\":\"Debugger.paused\",\"params\":{}}");
+    assertPeek("Page.frameNavigated", " {\n \"method\" : \"Page.frameNavigated\" }");
+    assertPeek("", "{\"method\":\"\"}");
+
+    // Any other layout makes the caller fall back to the full parse.
+    assertPeek(null, "{\"id\":1,\"method\":\"Debugger.paused\"}");
+    assertPeek(null, "{\"method\":\"Debugger.\\u0070aused\"}");
+    assertPeek(null, "{\"method\":1}");
+    assertPeek(null, "{\"methods\":\"Debugger.paused\"}");
+    assertPeek(null, "[\"method\"]");
+    assertPeek(null, "{\"method\":\"Debugger.paused");
+    assertPeek(null, "");
+  }
+
+  @Test
+  public void testPeekLimit() throws IOException {
+    String json = "{\"method\":\"Debugger.paused\"}";
+    Assert.assertEquals("Debugger.paused",
+        JsonUtil.peekLeadingStringProperty(json, "method", json.length()));
+    Assert.assertNull(JsonUtil.peekLeadingStringProperty(json, "method", json.length() - 3));
+  }
+
+  private static void assertPeek(String expected, String json) throws IOException {
+    Assert.assertEquals(expected, JsonUtil.peekLeadingStringProperty(json, "method", 256));
+
+    // The reader is left where it was.
+    BufferedReader reader = new BufferedReader(new StringReader(json));
+    Assert.assertEquals(expected, JsonUtil.peekLeadingStringProperty(reader, "method", 256));
+    StringBuilder rest = new StringBuilder();
+    int c;
+    while ((c = reader.read()) != -1) {
+      rest.append((char) c);
+    }
+    Assert.assertEquals(json, rest.toString());
+  }
+}
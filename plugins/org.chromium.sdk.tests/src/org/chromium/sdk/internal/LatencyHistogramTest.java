@@ -0,0 +1,46 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import junit.framework.Assert;
+
+import org.chromium.sdk.ProtocolMetrics;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+  @Test
+  public void testBucketBounds() {
+    long[] values = { 0, 1, 31, 32, 33, 63, 64, 1000, 123456789L, (1L << 40) - 1 };
+    for (long value : values) {
+      int index = LatencyHistogram.bucketIndex(value);
+      Assert.assertTrue(value <= LatencyHistogram.bucketHighValue(index));
+      if (index > 0) {
+        Assert.assertTrue(value > LatencyHistogram.bucketHighValue(index - 1));
+      }
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // Values 1000, 2000, ..., 100000.
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i * 1000L);
+    }
+    ProtocolMetrics.LatencyStats stats = histogram.getStats();
+    Assert.assertEquals(100, stats.getCount());
+    Assert.assertEquals(1000, stats.getMinNanos());
+    Assert.assertEquals(100000, stats.getMaxNanos());
+    Assert.assertEquals(50500, stats.getMeanNanos());
+    assertWithinError(50000, stats.getMedianNanos());
+    assertWithinError(90000, stats.getPercentile90Nanos());
+    assertWithinError(99000, stats.getPercentile99Nanos());
+  }
+
+  private static void assertWithinError(long expected, long actual) {
+    Assert.assertTrue("Expected " + expected + " but was " + actual,
+        actual >= expected && actual <= expected * 33 / 32);
+  }
+}
@@ -0,0 +1,57 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class PendingRequestTableTest {
+  @Test
+  public void testCollisionsAndCloseOrder() {
+    // Small ring, so that keys 1, 5 and 9 share a slot.
+    PendingRequestTable<Integer, String> table = new PendingRequestTable<Integer, String>(4);
+    int[] keys = { 1, 2, 5, 9, 3 };
+    for (int key : keys) {
+      table.put(key, key, "v" + key);
+    }
+    Assert.assertEquals(5, table.size());
+    Assert.assertEquals("v1", table.peekOldest());
+
+    Assert.assertEquals("v5", table.remove(5, 5));
+    Assert.assertNull(table.remove(5, 5));
+    Assert.assertEquals("v1", table.remove(1, 1));
+    Assert.assertEquals("v2", table.peekOldest());
+
+    // Slot of 1 is free now, but 9 is still found in overflow.
+    table.put(13, 13, "v13");
+    Assert.assertEquals(4, table.size());
+
+    Assert.assertEquals(Arrays.asList("v2", "v9", "v3", "v13"), table.close());
+    Assert.assertEquals(0, table.size());
+    Assert.assertNull(table.remove(2, 2));
+    try {
+      table.put(4, 4, "v4");
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testDuplicateKey() {
+    PendingRequestTable<Integer, String> table = new PendingRequestTable<Integer, String>();
+    table.put(7, 7, "a");
+    try {
+      table.put(7, 7, "b");
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    Assert.assertEquals("a", table.remove(7, 7));
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that {@link ScriptSourceCache} keeps sources between sessions, stores identical
+ * sources once and stays within its size cap.
+ */
+public class ScriptSourceCacheTest {
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("script-sources", ".cache");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void testReopen() throws IOException {
+    ScriptSourceCache cache = new ScriptSourceCache(file, 1024 * 1024);
+    cache.put("a.js", "var a = 'ä';");
+    cache.put("b.js", "var b;");
+    cache.put("copy-of-b.js", "var b;");
+    Assert.assertEquals(2, cache.getSourceCount());
+    cache.close();
+
+    cache = new ScriptSourceCache(file, 1024 * 1024);
+    Assert.assertEquals("var a = 'ä';", cache.get("a.js"));
+    Assert.assertEquals("var b;", cache.get("b.js"));
+    Assert.assertEquals("var b;", cache.get("copy-of-b.js"));
+    Assert.assertNull(cache.get("c.js"));
+    Assert.assertEquals(3, cache.getHitCount());
+    Assert.assertEquals(1, cache.getMissCount());
+    cache.close();
+  }
+
+  @Test
+  public void testTruncatedFile() throws IOException {
+    ScriptSourceCache cache = new ScriptSourceCache(file, 1024 * 1024);
+    cache.put("a.js", "var a;");
+    long goodSize = cache.getFileSize();
+    cache.put("b.js", "var b;");
+    cache.close();
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(raf.length() - 3);
+    raf.close();
+
+    cache = new ScriptSourceCache(file, 1024 * 1024);
+    Assert.assertEquals("var a;", cache.get("a.js"));
+    Assert.assertNull(cache.get("b.js"));
+    Assert.assertTrue(cache.getFileSize() <= goodSize + 100);
+    cache.close();
+  }
+
+  @Test
+  public void testCompaction() throws IOException {
+    long maxBytes = 4000;
+    ScriptSourceCache cache = new ScriptSourceCache(file, maxBytes);
+    for (int i = 0; i < 10; i++) {
+      cache.put(i + ".js", createSource(i));
+      // Keep the first source in use.
+      Assert.assertEquals(createSource(0), cache.get("0.js"));
+      Assert.assertTrue(cache.getFileSize() <= maxBytes);
+    }
+    Assert.assertTrue(cache.getCompactionCount() > 0);
+    Assert.assertNull(cache.get("1.js"));
+    Assert.assertEquals(createSource(9), cache.get("9.js"));
+    Assert.assertEquals(file.length(), cache.getFileSize());
+    Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+    cache.close();
+
+    cache = new ScriptSourceCache(file, maxBytes);
+    Assert.assertEquals(createSource(0), cache.get("0.js"));
+    Assert.assertEquals(createSource(9), cache.get("9.js"));
+    cache.close();
+  }
+
+  private static String createSource(int index) {
+    StringBuilder builder = new StringBuilder();
+    while (builder.length() < 1000) {
+      builder.append("var v").append(index).append(" = ").append(builder.length()).append(";\n");
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,32 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link ScriptSourcePool} shares one copy of equal sources.
+ */
+public class ScriptSourcePoolTest {
+  @Test
+  public void testIntern() {
+    ScriptSourcePool pool = new ScriptSourcePool();
+    String first = new String("function f() { return 1; }");
+    String second = new String("function f() { return 1; }");
+    String other = new String("function f() { return 2; }");
+
+    Assert.assertSame(first, pool.intern(first));
+    Assert.assertSame(first, pool.intern(second));
+    Assert.assertSame(other, pool.intern(other));
+    Assert.assertSame(first, pool.intern(first));
+    Assert.assertNull(pool.intern(null));
+
+    Assert.assertEquals(2, pool.size());
+    Assert.assertEquals(1, pool.getHitCount());
+    Assert.assertEquals(second.length(), pool.getSavedChars());
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import junit.framework.Assert;
+
+import org.chromium.sdk.RelayOk;
+import org.chromium.sdk.Script;
+import org.chromium.sdk.SyncCallback;
+import org.junit.Test;
+
+/**
+ * Checks that {@link ScriptSourceStore} keeps sources within its budget and evicts the least
+ * recently used ones, shares equal sources, and that scripts with stored sources compare
+ * by text.
+ */
+public class ScriptSourceStoreTest {
+  @Test
+  public void testLruEviction() {
+    ScriptSourceStore store = new ScriptSourceStore(30, false);
+    Object a = new Object();
+    Object b = new Object();
+    Object c = new Object();
+
+    store.put(a, "aaaaaaaaaa");
+    store.put(b, "bbbbbbbbbb");
+    store.put(c, "cccccccccc");
+    Assert.assertEquals(30, store.getTotalBytes());
+
+    // Touch 'a', so that 'b' becomes the least recently used.
+    Assert.assertEquals("aaaaaaaaaa", store.get(a));
+    store.put(new Object(), "dddddddddd");
+
+    Assert.assertNull(store.get(b));
+    Assert.assertEquals("aaaaaaaaaa", store.get(a));
+    Assert.assertEquals("cccccccccc", store.get(c));
+    Assert.assertEquals(30, store.getTotalBytes());
+    Assert.assertEquals(1, store.getEvictionCount());
+
+    // Replacing a source must not count its old size.
+    store.put(a, "a");
+    Assert.assertEquals(21, store.getTotalBytes());
+
+    store.remove(c);
+    Assert.assertNull(store.get(c));
+    Assert.assertEquals(11, store.getTotalBytes());
+  }
+
+  @Test
+  public void testOversizedSourceIsKept() {
+    ScriptSourceStore store = new ScriptSourceStore(4, false);
+    Object a = new Object();
+    Object b = new Object();
+    store.put(a, "abc");
+    store.put(b, "0123456789");
+    Assert.assertNull(store.get(a));
+    Assert.assertEquals("0123456789", store.get(b));
+  }
+
+  @Test
+  public void testOffHeapUtf8() {
+    ScriptSourceStore store = new ScriptSourceStore(1024, true);
+    Object key = new Object();
+    String source = "var s = 'привет 世界';";
+    store.put(key, source);
+    Assert.assertEquals(source, store.get(key));
+    // Cyrillic letters take 2 bytes in UTF-8, CJK ones take 3.
+    Assert.assertEquals(source.length() + 6 + 4, store.getTotalBytes());
+  }
+
+  @Test
+  public void testEqualSourcesShared() {
+    ScriptSourceStore store = new ScriptSourceStore(1024, true);
+    Object a = new Object();
+    Object b = new Object();
+    store.put(a, "var x = 1;");
+    store.put(b, new String("var x = 1;"));
+    Assert.assertEquals(1, store.getContentCount());
+    Assert.assertEquals(10, store.getTotalBytes());
+    Assert.assertTrue(store.contentEquals(a, b));
+
+    // The shared source stays while any key refers to it.
+    store.put(a, "var x = 2;");
+    Assert.assertFalse(store.contentEquals(a, b));
+    Assert.assertEquals("var x = 1;", store.get(b));
+    Assert.assertEquals(20, store.getTotalBytes());
+    store.remove(b);
+    Assert.assertEquals(1, store.getContentCount());
+    Assert.assertEquals(10, store.getTotalBytes());
+  }
+
+  @Test
+  public void testScriptEqualityComparesStoredText() {
+    ScriptSourceStore store = new ScriptSourceStore(1024, false);
+    // "Aa" and "BB" have the same hash code.
+    Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+    Assert.assertFalse(createScript(store, "Aa").equals(createScript(store, "BB")));
+    Assert.assertEquals(createScript(store, "Aa"), createScript(store, "Aa"));
+
+    // An evicted source is not loaded just to compare scripts.
+    ScriptSourceStore smallStore = new ScriptSourceStore(2, false);
+    ScriptBase<Long> evicted = createScript(smallStore, "Aa");
+    smallStore.put(new Object(), "xyz");
+    Assert.assertFalse(evicted.equals(createScript(smallStore, "Aa")));
+  }
+
+  private static ScriptBase<Long> createScript(ScriptSourceStore store, String source) {
+    ScriptBase.Descriptor<Long> descriptor =
+        new ScriptBase.Descriptor<Long>(Script.Type.NORMAL, 1L, "a.js", 0, 0, 1);
+    ScriptBase<Long> script = new ScriptBase<Long>(descriptor, store) {
+      @Override
+      public RelayOk setSourceOnRemote(String newSource, UpdateCallback callback,
+          SyncCallback syncCallback) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public RelayOk previewSetSource(String newSource, UpdateCallback callback,
+          SyncCallback syncCallback) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      protected void reloadSource() {
+        throw new UnsupportedOperationException();
+      }
+    };
+    script.setSource(source);
+    return script;
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.protocolparser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.chromium.sdk.internal.JsonUtil;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.junit.Test;
+
+public class Utf8JsonReaderTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final String[] SAMPLES = {
+    "{}",
+    "{\"a\":[]}",
+    "{\"seq\":117,\"request_seq\":12,\"type\":\"response\",\"command\":\"backtrace\"," +
+        "\"success\":true,\"running\":false,\"body\":{\"fromFrame\":0,\"toFrame\":2," +
+        "\"frames\":[{\"type\":\"frame\",\"index\":0,\"receiver\":{\"ref\":1}," +
+        "\"line\":12,\"column\":-4,\"sourceLineText\":\"  var x = \\\"\\u0041\\\";\"}," +
+        "{\"type\":\"frame\",\"index\":1,\"locals\":[]}]},\"refs\":[" +
+        "{\"handle\":1,\"type\":\"number\",\"value\":1.5e10}," +
+        "{\"handle\":2,\"type\":\"number\",\"value\":-0.25}," +
+        "{\"handle\":3,\"type\":\"null\",\"value\":null}]}",
+    " {\n\t\"method\" : \"Debugger.scriptParsed\" ,\r\n \"params\":{\"url\":\"http://a/b.js\"," +
+        "\"isContentScript\":false,\"startLine\":0}} ",
+    "{\"text\":\"Привет, \\u043c\\u0438\\u0440 \\ud83d\\ude00 😀 /\\/\\\\\\b\\f\\n\\r\\t\"}",
+    "{\"max\":9223372036854775807,\"min\":-9223372036854775808}",
+    "{\"zeros\":[0,-0,0.05,0e1]}",
+  };
+
+  @Test
+  public void testSameAsJsonSimple() throws ParseException {
+    for (String sample : SAMPLES) {
+      JSONObject expected = JsonUtil.jsonObjectFromJson(sample);
+      JSONObject actual = JsonUtil.jsonObjectFromJson(ByteBuffer.wrap(sample.getBytes(UTF8)));
+      Assert.assertEquals(sample, expected, actual);
+    }
+  }
+
+  @Test
+  public void testLazySameAsEager() throws ParseException {
+    StringBuilder longString = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      longString.append("line ").append(i).append("\\n");
+    }
+    String withLongString = "{\"seq\":3,\"body\":{\"source\":\"" + longString + "\"}," +
+        "\"text\":\"" + longString + "\"}";
+    String[] samples = SAMPLES.clone();
+    samples[0] = withLongString;
+    for (String sample : samples) {
+      JSONObject expected = JsonUtil.jsonObjectFromJson(sample);
+      ByteBuffer buffer = ByteBuffer.wrap(sample.getBytes(UTF8));
+      JSONObject lazy = JsonUtil.jsonObjectFromJsonLazily(buffer);
+      for (Object key : expected.keySet()) {
+        Assert.assertEquals(sample, expected.get(key), lazy.get(key));
+      }
+      Assert.assertEquals(sample, expected, JsonUtil.jsonObjectFromJsonLazily(buffer));
+    }
+  }
+
+  @Test
+  public void testLazyMapOperations() throws ParseException {
+    String sample = "{\"seq\":3,\"body\":{\"x\":1},\"refs\":[1,2],\"args\":{\"y\":2}}";
+    JSONObject expected = JsonUtil.jsonObjectFromJson(sample);
+    JSONObject lazy = JsonUtil.jsonObjectFromJsonLazily(ByteBuffer.wrap(sample.getBytes(UTF8)));
+
+    // Replacing an undecoded value returns the old value and keeps the new one.
+    Assert.assertEquals(expected.get("body"), lazy.put("body", "NEW"));
+    Assert.assertEquals("NEW", lazy.get("body"));
+
+    // Removing an undecoded value returns it and leaves no trace of it.
+    Assert.assertEquals(expected.get("refs"), lazy.remove("refs"));
+    Assert.assertFalse(lazy.containsKey("refs"));
+    Assert.assertNull(lazy.get("refs"));
+
+    // Iteration sees decoded values only.
+    Map<Object, Object> entries = new HashMap<Object, Object>();
+    for (Object entryObject : lazy.entrySet()) {
+      Map.Entry<?, ?> entry = (Map.Entry<?, ?>) entryObject;
+      entries.put(entry.getKey(), entry.getValue());
+    }
+    Map<Object, Object> expectedEntries = new HashMap<Object, Object>();
+    expectedEntries.put("seq", 3L);
+    expectedEntries.put("body", "NEW");
+    expectedEntries.put("args", expected.get("args"));
+    Assert.assertEquals(expectedEntries, entries);
+    Assert.assertEquals(expected.get("args"), lazy.get("args"));
+  }
+
+  @Test
+  public void testTokensAndSkipping() throws ParseException {
+    String json = "{\"skip\":{\"a\":[1,{\"b\":\"c\"}]},\"id\":5}";
+    Utf8JsonReader reader = new Utf8JsonReader(ByteBuffer.wrap(json.getBytes(UTF8)));
+    Assert.assertEquals(Utf8JsonReader.Token.BEGIN_OBJECT, reader.next());
+    Assert.assertEquals(Utf8JsonReader.Token.NAME, reader.next());
+    Assert.assertTrue(reader.stringEquals("skip"));
+    reader.skipValue();
+    Assert.assertEquals(Utf8JsonReader.Token.END_OBJECT, reader.getToken());
+    Assert.assertEquals(1, reader.getDepth());
+    Assert.assertEquals(Utf8JsonReader.Token.NAME, reader.next());
+    Assert.assertEquals("id", reader.getString());
+    Assert.assertEquals(Utf8JsonReader.Token.NUMBER, reader.next());
+    Assert.assertEquals(5L, reader.getLong());
+    Assert.assertEquals(json.indexOf('5'), reader.getTokenStart());
+    Assert.assertEquals(Utf8JsonReader.Token.END_OBJECT, reader.next());
+    Assert.assertEquals(Utf8JsonReader.Token.END_DOCUMENT, reader.next());
+  }
+
+  @Test
+  public void testMalformed() {
+    String[] malformedSamples = {
+      "", "{", "{\"a\"}", "{\"a\":}", "{\"a\":1,}", "[1 2]", "{\"a\":tru}", "{\"a\":\"b}",
+      "{} {}", "{\"a\":-}", "{\"a\":1.}",
+      // Bad escapes.
+      "{\"a\":\"\\x\"}", "{\"a\":\"\\'\"}", "{\"a\":\"\\u12g4\"}", "{\"a\":\"\\u12\"}",
+      "{\"a\":\"\\",
+      // Leading zeros.
+      "{\"a\":01}", "{\"a\":-00.5}", "{\"a\":[1,00]}",
+    };
+    for (String sample : malformedSamples) {
+      try {
+        JsonUtil.jsonObjectFromJson(ByteBuffer.wrap(sample.getBytes(UTF8)));
+        Assert.fail("Exception expected for " + sample);
+      } catch (ParseException e) {
+        // Expected.
+      }
+    }
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class CaptureFileTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Writes many more records than the ring can hold and checks that the latest ones
+   * are read back intact and in order.
+   */
+  @Test
+  public void testRingWrapAround() throws IOException {
+    File file = File.createTempFile("capture", ".bin");
+    try {
+      CaptureFile captureFile = CaptureFile.create(file, 4 * 1024);
+      CaptureFile.Recorder recorder = captureFile.createRecorder();
+      final int recordNumber = 1000;
+      for (int i = 0; i < recordNumber; i++) {
+        byte[] data = ("record #" + i + (i % 7 == 0 ? " with a somewhat longer tail" : ""))
+            .getBytes(UTF8);
+        recorder.record(i % 2 == 0, CaptureFile.Kind.MESSAGE, data, 0, data.length);
+      }
+      captureFile.close();
+
+      List<CaptureFile.Record> records = CaptureFile.read(file);
+      Assert.assertFalse(records.isEmpty());
+      Assert.assertTrue(records.size() < recordNumber);
+
+      int expectedIndex = recordNumber - records.size();
+      for (CaptureFile.Record record : records) {
+        String text = UTF8.decode(record.getData()).toString();
+        Assert.assertTrue(text, text.startsWith("record #" + expectedIndex));
+        Assert.assertEquals(expectedIndex % 2 == 0, record.isIncoming());
+        Assert.assertEquals(recorder.getConnectionId(), record.getConnectionId());
+        expectedIndex++;
+      }
+      Assert.assertEquals(recordNumber, expectedIndex);
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Captures a handshake and messages as raw bytes and replays them through
+   * {@link ReplayConnection}.
+   */
+  @Test
+  public void testReplayConnection() throws Exception {
+    File file = File.createTempFile("capture", ".bin");
+    try {
+      CaptureFile captureFile = CaptureFile.create(file, 64 * 1024);
+      CaptureFile.Recorder recorder = captureFile.createRecorder();
+
+      ByteArrayOutputStream incoming = new ByteArrayOutputStream();
+      incoming.write("ChromeDevToolsHandshake\r\n".getBytes(UTF8));
+      int messageNumber = 5;
+      for (int i = 0; i < messageNumber; i++) {
+        createMessage("payload " + i).sendThrough(incoming, UTF8);
+      }
+      byte[] bytes = incoming.toByteArray();
+      // Split bytes into uneven chunks as a socket would.
+      int pos = 0;
+      int chunk = 1;
+      while (pos < bytes.length) {
+        int len = Math.min(chunk, bytes.length - pos);
+        recorder.record(true, CaptureFile.Kind.BYTES, bytes, pos, len);
+        pos += len;
+        chunk = chunk * 2 + 1;
+      }
+      recorder.recordClose();
+      captureFile.close();
+
+      List<CaptureFile.Record> records = CaptureFile.selectConnection(CaptureFile.read(file),
+          recorder.getConnectionId());
+
+      final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+      final CountDownLatch eosLatch = new CountDownLatch(1);
+      ReplayConnection connection =
+          new ReplayConnection(records, Handshaker.CHROMIUM, false);
+      connection.setNetListener(new Connection.NetListener() {
+        @Override
+        public void messageReceived(Message message) {
+          received.add(message.getContent());
+        }
+        @Override
+        public void eosReceived() {
+          eosLatch.countDown();
+        }
+        @Override
+        public void connectionClosed() {
+        }
+      });
+      connection.start();
+      Assert.assertTrue(eosLatch.await(5, TimeUnit.SECONDS));
+
+      Assert.assertEquals(messageNumber, received.size());
+      for (int i = 0; i < messageNumber; i++) {
+        Assert.assertEquals("payload " + i, received.get(i));
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Checks that in paced mode a response is not given out before its request is sent.
+   */
+  @Test
+  public void testPacedFeed() throws Exception {
+    File file = File.createTempFile("capture", ".bin");
+    try {
+      CaptureFile captureFile = CaptureFile.create(file, 64 * 1024);
+      CaptureFile.Recorder recorder = captureFile.createRecorder();
+      recorder.record(true, CaptureFile.Kind.MESSAGE, ByteBuffer.wrap(new byte[] { 1 }));
+      recorder.record(false, CaptureFile.Kind.MESSAGE, ByteBuffer.wrap(new byte[] { 2 }));
+      recorder.record(true, CaptureFile.Kind.MESSAGE, ByteBuffer.wrap(new byte[] { 3 }));
+      captureFile.close();
+
+      final ReplayFeed feed = new ReplayFeed(CaptureFile.read(file), true);
+      Assert.assertEquals(1, feed.next().getData().get());
+
+      final CaptureFile.Record[] result = new CaptureFile.Record[1];
+      final CountDownLatch doneLatch = new CountDownLatch(1);
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            result[0] = feed.next();
+          } catch (InterruptedException e) {
+            // Leave result empty.
+          }
+          doneLatch.countDown();
+        }
+      });
+      thread.start();
+      Assert.assertFalse(doneLatch.await(200, TimeUnit.MILLISECONDS));
+      feed.messageSent();
+      Assert.assertTrue(doneLatch.await(2, TimeUnit.SECONDS));
+      Assert.assertEquals(3, result[0].getData().get());
+      Assert.assertNull(feed.next());
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static Message createMessage(String content) {
+    return new Message(Collections.<String, String>emptyMap(), content);
+  }
+}
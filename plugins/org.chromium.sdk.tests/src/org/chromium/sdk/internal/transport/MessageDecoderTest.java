@@ -0,0 +1,126 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class MessageDecoderTest {
+  /**
+   * Feeds {@link MessageDecoder} with a serialized message stream split into random chunks
+   * (as they may come from a non-blocking channel) and checks that all messages are restored.
+   */
+  @Test
+  public void testOnRandomChunks() throws IOException {
+    Random random = new Random(0);
+    Charset charset = Charset.forName("UTF-8");
+
+    final int runNumber = 50;
+
+    for (int j = 0; j < runNumber; j++) {
+      List<Message> messages = createMessages();
+      Collections.shuffle(messages, random);
+
+      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+      for (Message message : messages) {
+        message.sendThrough(byteArrayOutputStream, charset);
+      }
+      byte[] bytes = byteArrayOutputStream.toByteArray();
+
+      final List<Message> decodedMessages = new ArrayList<Message>();
+      MessageDecoder decoder = new MessageDecoder(charset, new MessageDecoder.Output() {
+        @Override
+        public void messageDecoded(Message message) {
+          decodedMessages.add(message);
+        }
+      });
+
+      int pos = 0;
+      while (pos < bytes.length) {
+        int chunkSize = Math.min(1 + random.nextInt(17), bytes.length - pos);
+        decoder.feed(ByteBuffer.wrap(bytes, pos, chunkSize));
+        pos += chunkSize;
+      }
+
+      Assert.assertFalse(decoder.hasPartialMessage());
+      Assert.assertEquals(messages.size(), decodedMessages.size());
+      for (int i = 0; i < messages.size(); i++) {
+        Assert.assertEquals(messages.get(i).toString(), decodedMessages.get(i).toString());
+      }
+    }
+  }
+
+  /**
+   * Only known headers are kept after the handshake.
+   */
+  @Test
+  public void testUnknownHeadersSkipped() throws IOException {
+    final List<Message> decodedMessages = new ArrayList<Message>();
+    MessageDecoder decoder = new MessageDecoder(Charset.forName("UTF-8"),
+        new MessageDecoder.Output() {
+          @Override
+          public void messageDecoded(Message message) {
+            decodedMessages.add(message);
+          }
+        });
+    decoder.feed(ByteBuffer.wrap(
+        "To:peter\r\nTool: V8Debugger \r\nContent-Length:2\r\n\r\n{}".getBytes()));
+    Assert.assertEquals(1, decodedMessages.size());
+    Message message = decodedMessages.get(0);
+    Assert.assertNull(message.getHeader("To", null));
+    Assert.assertEquals("V8Debugger", message.getTool());
+    Assert.assertEquals("{}", message.getContent());
+  }
+
+  @Test(expected = IOException.class)
+  public void testNoContentLength() throws IOException {
+    MessageDecoder decoder = new MessageDecoder(Charset.forName("UTF-8"),
+        new MessageDecoder.Output() {
+          @Override
+          public void messageDecoded(Message message) {
+          }
+        });
+    decoder.feed(ByteBuffer.wrap("Tool:V8Debugger\r\n\r\n".getBytes()));
+  }
+
+  private static List<Message> createMessages() {
+    List<Message> result = new ArrayList<Message>();
+    result.add(new Message(createHeader(), "Test"));
+    result.add(new Message(createHeader(), ""));
+    result.add(new Message(createHeader("Tool", "V8Debugger", "Destination", "2"),
+        "{\"seq\":1,\"type\":\"response\",\"body\":\"результат\"}"));
+    result.add(new Message(createHeader("Tool", "DevToolsService"), "Привет!"));
+    result.add(new Message(createHeader(), createLongString(20000)));
+    return result;
+  }
+
+  private static String createLongString(int length) {
+    StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      builder.append((char) ('a' + i % 26));
+    }
+    return builder.toString();
+  }
+
+  private static Map<String, String> createHeader(String ... keyAndValuePairs) {
+    Map<String, String> result = new LinkedHashMap<String, String>();
+    for (int i = 0; i < keyAndValuePairs.length; i += 2) {
+      result.put(keyAndValuePairs[i], keyAndValuePairs[i + 1]);
+    }
+    return result;
+  }
+}
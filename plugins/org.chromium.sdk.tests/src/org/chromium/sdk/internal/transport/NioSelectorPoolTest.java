@@ -0,0 +1,208 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.chromium.sdk.internal.transport.Connection.NetListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs {@link NioSelectorPool} and {@link NioSocketConnection} over a loopback socket.
+ */
+public class NioSelectorPoolTest {
+  private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+  private static final int TIMEOUT_MS = 5000;
+
+  private NioSelectorPool pool;
+  private ServerSocket serverSocket;
+
+  @Before
+  public void setUpBefore() throws IOException {
+    pool = new NioSelectorPool(1);
+    serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    serverSocket.setSoTimeout(TIMEOUT_MS);
+  }
+
+  @After
+  public void tearDownAfter() throws IOException {
+    serverSocket.close();
+    pool.shutdown();
+  }
+
+  @Test
+  public void testReadWriteClose() throws Exception {
+    SocketChannel channel = SocketChannel.open(serverSocket.getLocalSocketAddress());
+    Socket remote = accept();
+    RecordingHandler handler = new RecordingHandler();
+    NioSelectorPool.Registration registration = pool.register(channel, handler);
+
+    registration.write(ByteBuffer.wrap(bytes("ping")));
+    Assert.assertEquals("ping", readString(remote.getInputStream(), 4));
+
+    remote.getOutputStream().write(bytes("pong"));
+    Assert.assertEquals("pong", handler.waitForData(4));
+
+    // The queued output is flushed before the channel gets closed.
+    registration.write(ByteBuffer.wrap(bytes("bye")));
+    registration.close(true);
+    Assert.assertEquals("bye", readString(remote.getInputStream(), 3));
+    Assert.assertEquals(-1, remote.getInputStream().read());
+    Assert.assertTrue(handler.closed.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    Assert.assertNull(handler.closeCause);
+    Assert.assertEquals(4, registration.getBytesRead());
+    Assert.assertEquals(7, registration.getBytesWritten());
+    remote.close();
+  }
+
+  @Test
+  public void testHandlerFailureClosesChannel() throws Exception {
+    SocketChannel channel = SocketChannel.open(serverSocket.getLocalSocketAddress());
+    Socket remote = accept();
+    RecordingHandler handler = new RecordingHandler() {
+      @Override
+      public void dataReceived(ByteBuffer data) {
+        throw new RuntimeException("Handler failure");
+      }
+    };
+    pool.register(channel, handler);
+
+    remote.getOutputStream().write(bytes("data"));
+    Assert.assertTrue(handler.closed.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    Assert.assertNotNull(handler.closeCause);
+    Assert.assertFalse(channel.isOpen());
+    Assert.assertEquals(-1, remote.getInputStream().read());
+    remote.close();
+  }
+
+  @Test
+  public void testSocketConnection() throws Exception {
+    NioSocketConnection connection = new NioSocketConnection(
+        serverSocket.getLocalSocketAddress(), TIMEOUT_MS, null, FakeConnection.HANDSHAKER,
+        pool);
+    RecordingNetListener listener = new RecordingNetListener();
+    connection.setNetListener(listener);
+    connection.start();
+    Socket remote = accept();
+
+    connection.send(new Message(Collections.<String, String>emptyMap(), "request"));
+    String expected = serialize(new Message(Collections.<String, String>emptyMap(), "request"));
+    Assert.assertEquals(expected,
+        readString(remote.getInputStream(), expected.getBytes(UTF8_CHARSET).length));
+
+    OutputStream remoteOutput = remote.getOutputStream();
+    remoteOutput.write(bytes(
+        serialize(new Message(Collections.<String, String>emptyMap(), "response"))));
+    Message message = listener.messages.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    Assert.assertNotNull(message);
+    Assert.assertEquals("response", message.getContent());
+
+    remote.close();
+    Assert.assertTrue(listener.eos.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    Assert.assertTrue(listener.closed.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    Assert.assertFalse(connection.isConnected());
+  }
+
+  private Socket accept() throws IOException {
+    Socket socket = serverSocket.accept();
+    socket.setSoTimeout(TIMEOUT_MS);
+    return socket;
+  }
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(UTF8_CHARSET);
+  }
+
+  private static String readString(InputStream input, int length) throws IOException {
+    byte[] buffer = new byte[length];
+    int pos = 0;
+    while (pos < length) {
+      int res = input.read(buffer, pos, length - pos);
+      if (res == -1) {
+        break;
+      }
+      pos += res;
+    }
+    return new String(buffer, 0, pos, UTF8_CHARSET);
+  }
+
+  private static String serialize(Message message) throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    message.sendThrough(stream, UTF8_CHARSET);
+    return new String(stream.toByteArray(), UTF8_CHARSET);
+  }
+
+  private static class RecordingHandler implements NioSelectorPool.ChannelHandler {
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    final CountDownLatch closed = new CountDownLatch(1);
+    volatile IOException closeCause = null;
+
+    @Override
+    public void dataReceived(ByteBuffer buffer) {
+      synchronized (data) {
+        while (buffer.hasRemaining()) {
+          data.write(buffer.get());
+        }
+        data.notifyAll();
+      }
+    }
+
+    @Override
+    public void channelClosed(IOException cause) {
+      closeCause = cause;
+      closed.countDown();
+    }
+
+    String waitForData(int length) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+      synchronized (data) {
+        while (data.size() < length && System.currentTimeMillis() < deadline) {
+          data.wait(TIMEOUT_MS);
+        }
+        return new String(data.toByteArray(), UTF8_CHARSET);
+      }
+    }
+  }
+
+  private static class RecordingNetListener implements NetListener {
+    final BlockingQueue<Message> messages = new LinkedBlockingQueue<Message>();
+    final CountDownLatch eos = new CountDownLatch(1);
+    final CountDownLatch closed = new CountDownLatch(1);
+
+    @Override
+    public void messageReceived(Message message) {
+      messages.add(message);
+    }
+
+    @Override
+    public void eosReceived() {
+      eos.countDown();
+    }
+
+    @Override
+    public void connectionClosed() {
+      closed.countDown();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.v8native;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.chromium.sdk.CallFrame;
+import org.chromium.sdk.DebugContext;
+import org.chromium.sdk.StandaloneVm;
+import org.chromium.sdk.internal.BrowserFactoryImplTestGate;
+import org.chromium.sdk.internal.JsonUtil;
+import org.chromium.sdk.internal.browserfixture.FixtureChromeStub;
+import org.chromium.sdk.internal.browserfixture.StubListener;
+import org.chromium.sdk.internal.transport.ChromeStub;
+import org.chromium.sdk.internal.transport.Connection.NetListener;
+import org.chromium.sdk.internal.transport.FakeConnection;
+import org.chromium.sdk.internal.transport.Message;
+import org.chromium.sdk.internal.v8native.processor.BacktraceProcessor;
+import org.chromium.sdk.internal.v8native.protocol.V8Protocol;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that with {@link BacktraceProcessor#PAGE_SIZE_PROPERTY} set the backtrace is loaded
+ * page by page.
+ */
+public class BacktracePagingTest {
+  private static final int PAGE_SIZE = 3;
+  private static final int TOTAL_FRAMES = 10;
+
+  private final PagingChromeStub messageResponder = new PagingChromeStub();
+  private final StubListener listener = new StubListener();
+  private DebugContext debugContext;
+
+  @Before
+  public void setUpBefore() throws Exception {
+    System.setProperty(BacktraceProcessor.PAGE_SIZE_PROPERTY, String.valueOf(PAGE_SIZE));
+    StandaloneVm standaloneVm = BrowserFactoryImplTestGate.createStandalone(
+        new FakeConnection(messageResponder), FakeConnection.HANDSHAKER);
+    standaloneVm.attach(listener);
+
+    listener.expectSuspendedEvent();
+    messageResponder.sendSuspendedEvent();
+    debugContext = listener.getDebugContext();
+  }
+
+  @After
+  public void tearDownAfter() {
+    System.clearProperty(BacktraceProcessor.PAGE_SIZE_PROPERTY);
+  }
+
+  @Test
+  public void testFramesLoadedByPages() throws Exception {
+    assertEquals(Collections.singletonList("[null, " + PAGE_SIZE + ")"),
+        messageResponder.backtraceRanges);
+    messageResponder.backtraceRanges.clear();
+
+    List<? extends CallFrame> frames = debugContext.getCallFrames();
+    assertEquals(TOTAL_FRAMES, frames.size());
+    assertEquals(0, messageResponder.backtraceRanges.size());
+
+    // Top frames are already loaded.
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      checkFrame(frames.get(i), i);
+    }
+    assertEquals(0, messageResponder.backtraceRanges.size());
+
+    int index = PAGE_SIZE + 2;
+    checkFrame(frames.get(index), index);
+    assertEquals(Collections.singletonList("[" + index + ", " + (index + PAGE_SIZE) + ")"),
+        messageResponder.backtraceRanges);
+
+    // The rest of the page comes from the cache.
+    for (int i = index; i < index + PAGE_SIZE; i++) {
+      checkFrame(frames.get(i), i);
+    }
+    assertEquals(1, messageResponder.backtraceRanges.size());
+
+    // The last page is cut by the stack size.
+    checkFrame(frames.get(TOTAL_FRAMES - 1), TOTAL_FRAMES - 1);
+    assertEquals("[" + (TOTAL_FRAMES - 1) + ", " + TOTAL_FRAMES + ")",
+        messageResponder.backtraceRanges.get(1));
+  }
+
+  private static void checkFrame(CallFrame frame, int index) {
+    assertEquals(index, ((CallFrameImpl) frame).getIdentifier());
+    assertEquals(index, frame.getStatementStartPosition().getLine());
+  }
+
+  /**
+   * Serves a stack of {@link #TOTAL_FRAMES} copies of the fixture frame, each having its index
+   * as a line number. Frames of a page are sent in the reverse order. Records the frame range
+   * of each "backtrace" request.
+   */
+  private static class PagingChromeStub implements ChromeStub {
+    private final FixtureChromeStub fixture = new FixtureChromeStub();
+    final List<String> backtraceRanges = new ArrayList<String>();
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Message respondTo(Message requestMessage) {
+      Message response = fixture.respondTo(requestMessage);
+      try {
+        JSONObject request = JsonUtil.jsonObjectFromJson(requestMessage.getContent());
+        if (!DebuggerCommand.BACKTRACE.value.equals(
+            JsonUtil.getAsString(request, V8Protocol.KEY_COMMAND))) {
+          return response;
+        }
+        JSONObject args = JsonUtil.getAsJSON(request, "arguments");
+        Long fromArg = JsonUtil.getAsLong(args, "fromFrame");
+        Long toArg = JsonUtil.getAsLong(args, "toFrame");
+        backtraceRanges.add("[" + fromArg + ", " + toArg + ")");
+
+        long fromFrame = fromArg == null ? 0 : fromArg;
+        long toFrame = toArg == null ? TOTAL_FRAMES : Math.min(toArg, TOTAL_FRAMES);
+
+        JSONObject responseJson = JsonUtil.jsonObjectFromJson(response.getContent());
+        JSONObject body = JsonUtil.getAsJSON(responseJson, "body");
+        JSONObject fixtureFrame = (JSONObject) JsonUtil.getAsJSONArray(body, "frames").get(0);
+        JSONArray frames = new JSONArray();
+        for (long i = toFrame - 1; i >= fromFrame; i--) {
+          JSONObject frame = new JSONObject();
+          frame.putAll(fixtureFrame);
+          frame.put("index", i);
+          frame.put("line", i);
+          frames.add(frame);
+        }
+        body.put("frames", frames);
+        body.put("fromFrame", fromFrame);
+        body.put("toFrame", toFrame);
+        body.put("totalFrames", TOTAL_FRAMES);
+        return new Message(Collections.<String, String>emptyMap(), responseJson.toJSONString());
+      } catch (ParseException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public void setNetListener(NetListener listener) {
+      fixture.setNetListener(listener);
+    }
+
+    @Override
+    public void sendSuspendedEvent() {
+      fixture.sendSuspendedEvent();
+    }
+  }
+}
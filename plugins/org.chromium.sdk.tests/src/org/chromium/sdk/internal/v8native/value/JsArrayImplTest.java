@@ -133,6 +133,31 @@ public class JsArrayImplTest {
     checkElementData(thirdElement);
   }
 
+  @Test
+  public void testElementRange() throws Exception {
+    JsArrayImpl jsArray = new JsArrayImpl(callFrame.getInternalContext().getValueLoader(),
+        arrayMirror);
+    assertEquals(4, jsArray.getLength());
+    SortedMap<Long, ? extends JsVariable> firstHalf = jsArray.getElements(0, 2);
+    assertEquals(1, firstHalf.size());
+    assertEquals("1", firstHalf.get(1L).getName());
+    checkElementData(firstHalf.get(1L));
+    SortedMap<Long, ? extends JsVariable> secondHalf = jsArray.getElements(2, 100);
+    assertEquals(1, secondHalf.size());
+    checkElementData(secondHalf.get(3L));
+    assertEquals(0, jsArray.getElements(4, 2).size());
+  }
+
+  @Test
+  public void testElementCountAndOtherProperties() throws Exception {
+    JsArrayImpl jsArray = new JsArrayImpl(callFrame.getInternalContext().getValueLoader(),
+        arrayMirror);
+    assertEquals(2, jsArray.getElementCount());
+    Collection<? extends JsVariable> otherProperties = jsArray.getNonElementProperties();
+    assertEquals(1, otherProperties.size());
+    assertEquals("length", otherProperties.iterator().next().getName());
+  }
+
   private static void checkElementData(JsVariable arrayElement) {
     assertNotNull(arrayElement);
     JsValue value = arrayElement.getValue();
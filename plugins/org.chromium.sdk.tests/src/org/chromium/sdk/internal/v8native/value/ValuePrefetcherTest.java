@@ -0,0 +1,187 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.v8native.value;
+
+import static org.chromium.sdk.tests.internal.JsonBuilderUtil.jsonArray;
+import static org.chromium.sdk.tests.internal.JsonBuilderUtil.jsonObject;
+import static org.chromium.sdk.tests.internal.JsonBuilderUtil.jsonProperty;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.chromium.sdk.CallFrame;
+import org.chromium.sdk.DebugContext;
+import org.chromium.sdk.JsScope;
+import org.chromium.sdk.StandaloneVm;
+import org.chromium.sdk.internal.BrowserFactoryImplTestGate;
+import org.chromium.sdk.internal.JsonUtil;
+import org.chromium.sdk.internal.browserfixture.FixtureChromeStub;
+import org.chromium.sdk.internal.browserfixture.StubListener;
+import org.chromium.sdk.internal.transport.ChromeStub;
+import org.chromium.sdk.internal.transport.Connection.NetListener;
+import org.chromium.sdk.internal.transport.FakeConnection;
+import org.chromium.sdk.internal.transport.Message;
+import org.chromium.sdk.internal.v8native.ContextBuilder;
+import org.chromium.sdk.internal.v8native.DebuggerCommand;
+import org.chromium.sdk.internal.v8native.protocol.V8Protocol;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks what {@link ValuePrefetcher} requests on suspend and that the prefetched scope
+ * is used.
+ */
+public class ValuePrefetcherTest {
+  private final RecordingChromeStub messageResponder = new RecordingChromeStub();
+  private final StubListener listener = new StubListener();
+
+  @After
+  public void tearDownAfter() {
+    System.clearProperty(ValuePrefetcher.DEPTH_PROPERTY);
+    System.clearProperty(ValuePrefetcher.BUDGET_PROPERTY);
+  }
+
+  @Test
+  public void testScopeServedFromPrefetch() throws Exception {
+    DebugContext debugContext = suspend(1, null);
+    assertEquals(1, messageResponder.countRequests(DebuggerCommand.SCOPE));
+
+    messageResponder.requests.clear();
+    getLocalScope(debugContext).getVariables();
+    assertEquals(0, messageResponder.countRequests(DebuggerCommand.SCOPE));
+  }
+
+  @Test
+  public void testStalePrefetchedScopeIgnored() throws Exception {
+    DebugContext debugContext = suspend(1, null);
+    ContextBuilder.getInternalContextForTests(debugContext).getValueLoader().clearCaches();
+
+    messageResponder.requests.clear();
+    getLocalScope(debugContext).getVariables();
+    assertEquals(1, messageResponder.countRequests(DebuggerCommand.SCOPE));
+  }
+
+  @Test
+  public void testLevelsLoaded() throws Exception {
+    suspend(2, null);
+    // The scope variable 'x' and the receiver refer to the same MouseEvent object, whose
+    // properties refer to number 3.
+    assertEquals(Arrays.asList(
+        Collections.singletonList((long) FixtureChromeStub.getMouseEventRef()),
+        Collections.singletonList((long) FixtureChromeStub.getNumber3Ref())),
+        messageResponder.getLookupHandles());
+  }
+
+  @Test
+  public void testZeroBudgetStopsAfterFirstLevel() throws Exception {
+    suspend(2, 0);
+    assertEquals(Collections.singletonList(
+        Collections.singletonList((long) FixtureChromeStub.getMouseEventRef())),
+        messageResponder.getLookupHandles());
+  }
+
+  private DebugContext suspend(int depth, Integer budget) throws Exception {
+    System.setProperty(ValuePrefetcher.DEPTH_PROPERTY, String.valueOf(depth));
+    if (budget != null) {
+      System.setProperty(ValuePrefetcher.BUDGET_PROPERTY, String.valueOf(budget));
+    }
+    StandaloneVm standaloneVm = BrowserFactoryImplTestGate.createStandalone(
+        new FakeConnection(messageResponder), FakeConnection.HANDSHAKER);
+    standaloneVm.attach(listener);
+
+    listener.expectSuspendedEvent();
+    messageResponder.sendSuspendedEvent();
+    return listener.getDebugContext();
+  }
+
+  private static JsScope.Declarative getLocalScope(DebugContext debugContext) {
+    CallFrame frame = debugContext.getCallFrames().get(0);
+    for (JsScope scope : frame.getVariableScopes()) {
+      if (scope.getType() == JsScope.Type.LOCAL) {
+        return scope.asDeclarativeScope();
+      }
+    }
+    throw new RuntimeException("No local scope");
+  }
+
+  /**
+   * Records requests and adjusts the fixture responses: the frame gets a local scope and
+   * "scope" and "lookup" responses come without refs, so that each level of values has
+   * to be looked up.
+   */
+  private static class RecordingChromeStub implements ChromeStub {
+    private final FixtureChromeStub fixture = new FixtureChromeStub();
+    final List<JSONObject> requests = new ArrayList<JSONObject>();
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Message respondTo(Message requestMessage) {
+      Message response = fixture.respondTo(requestMessage);
+      try {
+        JSONObject request = JsonUtil.jsonObjectFromJson(requestMessage.getContent());
+        requests.add(request);
+        DebuggerCommand command = getCommand(request);
+        if (command != DebuggerCommand.BACKTRACE && command != DebuggerCommand.SCOPE &&
+            command != DebuggerCommand.LOOKUP) {
+          return response;
+        }
+        JSONObject responseJson = JsonUtil.jsonObjectFromJson(response.getContent());
+        if (command == DebuggerCommand.BACKTRACE) {
+          JSONObject body = JsonUtil.getAsJSON(responseJson, "body");
+          JSONObject frame = (JSONObject) JsonUtil.getAsJSONArray(body, "frames").get(0);
+          frame.put("scopes", jsonArray(jsonObject(
+              jsonProperty("type", 1),
+              jsonProperty("index", 0))));
+        } else {
+          responseJson.put("refs", new JSONArray());
+        }
+        return new Message(Collections.<String, String>emptyMap(), responseJson.toJSONString());
+      } catch (ParseException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    int countRequests(DebuggerCommand command) {
+      int result = 0;
+      for (JSONObject request : requests) {
+        if (getCommand(request) == command) {
+          result++;
+        }
+      }
+      return result;
+    }
+
+    List<List<?>> getLookupHandles() {
+      List<List<?>> result = new ArrayList<List<?>>();
+      for (JSONObject request : requests) {
+        if (getCommand(request) == DebuggerCommand.LOOKUP) {
+          JSONObject args = JsonUtil.getAsJSON(request, "arguments");
+          result.add(JsonUtil.getAsJSONArray(args, "handles"));
+        }
+      }
+      return result;
+    }
+
+    private static DebuggerCommand getCommand(JSONObject request) {
+      return DebuggerCommand.forString(JsonUtil.getAsString(request, V8Protocol.KEY_COMMAND));
+    }
+
+    @Override
+    public void setNetListener(NetListener listener) {
+      fixture.setNetListener(listener);
+    }
+
+    @Override
+    public void sendSuspendedEvent() {
+      fixture.sendSuspendedEvent();
+    }
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link MessageAssembler} reassembles fragments across chunk boundaries and
+ * returns chunks to the pool.
+ */
+public class MessageAssemblerTest {
+  @Test
+  public void testReassembly() throws IOException {
+    ChunkPool pool = new ChunkPool(8);
+    MessageAssembler assembler = new MessageAssembler(pool, Integer.MAX_VALUE);
+
+    byte[] expected = new byte[ChunkPool.CHUNK_SIZE * 2 + 100];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = (byte) (i * 31);
+    }
+
+    assembler.start(false);
+    // Fragments of odd sizes, so that they cross chunk boundaries.
+    int pos = 0;
+    int fragmentSize = 1;
+    while (pos < expected.length) {
+      int len = Math.min(fragmentSize, expected.length - pos);
+      assembler.append(ByteBuffer.wrap(expected, pos, len), len);
+      pos += len;
+      fragmentSize = fragmentSize * 3 + 7;
+    }
+    MessageAssembler.Message message = assembler.finish();
+    Assert.assertFalse(assembler.isInProgress());
+    Assert.assertFalse(message.isBinary());
+    Assert.assertEquals(expected.length, message.getSize());
+
+    Assert.assertTrue(Arrays.equals(expected, readAll(message.openStream())));
+    Assert.assertTrue(Arrays.equals(expected, message.toByteArray()));
+
+    message.release();
+    Assert.assertEquals(3, pool.getFreeCount());
+  }
+
+  @Test
+  public void testMaxSize() {
+    MessageAssembler assembler = new MessageAssembler(new ChunkPool(8), 10);
+    assembler.start(true);
+    Assert.assertTrue(assembler.canAccept(6));
+    assembler.append(ByteBuffer.wrap(new byte[6]), 6);
+    Assert.assertTrue(assembler.canAccept(4));
+    Assert.assertFalse(assembler.canAccept(5));
+    assembler.reset();
+    Assert.assertFalse(assembler.isInProgress());
+  }
+
+  @Test
+  public void testWrappedMessage() throws IOException {
+    byte[] bytes = "{\"id\":1}".getBytes("UTF-8");
+    MessageAssembler.Message message = MessageAssembler.Message.wrap(bytes, true);
+    Assert.assertTrue(message.isBinary());
+    Assert.assertTrue(Arrays.equals(bytes, readAll(message.openStream())));
+  }
+
+  private static byte[] readAll(InputStream stream) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1000];
+    int len;
+    while ((len = stream.read(buffer)) != -1) {
+      output.write(buffer, 0, len);
+    }
+    Assert.assertEquals(-1, stream.read());
+    return output.toByteArray();
+  }
+}
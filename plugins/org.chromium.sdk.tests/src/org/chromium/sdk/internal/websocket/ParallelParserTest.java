@@ -0,0 +1,98 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link ParallelParser} delivers messages in order no matter how long each
+ * of them takes to parse.
+ */
+public class ParallelParserTest {
+  @Test(timeout = 10000)
+  public void testOrder() {
+    RecordingListener listener = new RecordingListener();
+    List<Runnable> tasks = new ArrayList<Runnable>();
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 50; i++) {
+      int size = i % 3 == 0 ? 10 : ParallelParser.MIN_PARALLEL_SIZE;
+      String text = createText(i, size);
+      expected.add(text.substring(0, 8));
+      tasks.add(ParallelParser.prepare(listener, text));
+    }
+    // Tasks are run in the order they were queued, as the Dispatch thread does.
+    for (Runnable task : tasks) {
+      task.run();
+    }
+    Assert.assertEquals(expected, listener.received);
+    Assert.assertEquals(Collections.singleton(Thread.currentThread()),
+        listener.deliveryThreads);
+  }
+
+  private static String createText(int index, int size) {
+    StringBuilder builder = new StringBuilder(size);
+    builder.append(String.format("msg%05d", index));
+    while (builder.length() < size) {
+      builder.append(' ');
+    }
+    return builder.toString();
+  }
+
+  private static class RecordingListener implements WsConnection.ParsingListener<String> {
+    final List<String> received = new ArrayList<String>();
+    final Set<Thread> deliveryThreads =
+        Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+    @Override
+    public String parseMessage(String text) {
+      // Earlier messages take longer, so they would finish last if not resequenced.
+      int index = Integer.parseInt(text.substring(3, 8));
+      try {
+        Thread.sleep(Math.max(0, 20 - index) / 4);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return text.substring(0, 8);
+    }
+
+    @Override
+    public String parseMessage(InputStream stream, boolean binary) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void parsedMessageReceived(String message) {
+      deliveryThreads.add(Thread.currentThread());
+      received.add(message);
+    }
+
+    @Override
+    public void textMessageRecieved(String text) {
+      parsedMessageReceived(parseMessage(text));
+    }
+
+    @Override
+    public void messageStreamReceived(InputStream stream, boolean binary) {
+      parsedMessageReceived(parseMessage(stream, binary));
+    }
+
+    @Override
+    public void errorMessage(Exception ex) {
+    }
+
+    @Override
+    public void eofMessage() {
+    }
+  }
+}
@@ -0,0 +1,303 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.xml.bind.DatatypeConverter;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks "permessage-deflate" negotiation and compressed frames of {@link Hybi17WsConnection}
+ * against an in-process WebSocket server.
+ */
+public class PerMessageDeflateTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private DeflateServer server = null;
+
+  @Before
+  public void setUp() {
+    System.setProperty(PerMessageDeflate.ENABLE_PROPERTY, "true");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    System.clearProperty(PerMessageDeflate.ENABLE_PROPERTY);
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testParseResponse() throws IOException {
+    PerMessageDeflate deflate = PerMessageDeflate.parseResponse(
+        "permessage-deflate; server_no_context_takeover; client_max_window_bits=\"15\"");
+    Assert.assertTrue(deflate.isServerNoContextTakeover());
+    Assert.assertFalse(deflate.isClientNoContextTakeover());
+
+    assertMalformed("permessage-deflate; unknown_param");
+    assertMalformed("permessage-deflate; server_max_window_bits=16");
+    assertMalformed("x-webkit-deflate-frame");
+  }
+
+  @Test(timeout = 10000)
+  public void testCompressedMessages() throws Exception {
+    server = new DeflateServer();
+    Hybi17WsConnection connection = Hybi17WsConnection.connect(server.getEndpoint(), 5000,
+        "/devtools/page/1", Hybi17WsConnection.MaskStrategy.NORMAL_MASK, null);
+    final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+    connection.startListening(new WsConnection.Listener() {
+      @Override public void textMessageRecieved(String text) {
+        received.add(text);
+      }
+      @Override public void errorMessage(Exception ex) {
+        received.add("error: " + ex);
+      }
+      @Override public void eofMessage() {
+      }
+    });
+    Assert.assertTrue(server.extensionOffered);
+
+    String longText = createText(100000);
+    server.sendCompressed("{\"id\":1}", 0);
+    server.sendCompressed(longText, 3);
+    server.sendPlain("{\"id\":3}");
+    Assert.assertEquals("{\"id\":1}", received.poll(5, TimeUnit.SECONDS));
+    Assert.assertEquals(longText, received.poll(5, TimeUnit.SECONDS));
+    Assert.assertEquals("{\"id\":3}", received.poll(5, TimeUnit.SECONDS));
+
+    // Outgoing messages may go compressed or not, depending on the runtime.
+    connection.sendTextualMessage(longText);
+    connection.sendTextualMessage(longText);
+    Assert.assertEquals(longText, server.readMessage());
+    Assert.assertEquals(longText, server.readMessage());
+
+    connection.getCloser().sendSignal(null, null);
+  }
+
+  private static void assertMalformed(String header) {
+    try {
+      PerMessageDeflate.parseResponse(header);
+      Assert.fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  private static String createText(int length) {
+    StringBuilder builder = new StringBuilder();
+    while (builder.length() < length) {
+      builder.append("{\"name\":\"var").append(builder.length() % 97).append("\"},");
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Accepts a single connection and agrees on "permessage-deflate".
+   */
+  private static class DeflateServer {
+    private final ServerSocket serverSocket = new ServerSocket(0);
+    private final Thread acceptThread;
+    private volatile Socket socket;
+    private volatile boolean extensionOffered = false;
+
+    // Client keeps the decompression context between messages.
+    private final Inflater inflater = new Inflater(true);
+
+    DeflateServer() throws IOException {
+      acceptThread = new Thread(new Runnable() {
+        @Override public void run() {
+          try {
+            socket = serverSocket.accept();
+            answerHandshake();
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+      acceptThread.start();
+    }
+
+    InetSocketAddress getEndpoint() {
+      return new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort());
+    }
+
+    private void answerHandshake() throws IOException {
+      InputStream input = socket.getInputStream();
+      String key = null;
+      while (true) {
+        String line = readLine(input);
+        if (line.length() == 0) {
+          break;
+        }
+        String lowerCaseLine = line.toLowerCase();
+        if (lowerCaseLine.startsWith("sec-websocket-key:")) {
+          key = line.substring(line.indexOf(':') + 1).trim();
+        } else if (lowerCaseLine.startsWith("sec-websocket-extensions:")) {
+          extensionOffered = line.contains("permessage-deflate");
+        }
+      }
+      byte[] acceptSha1;
+      try {
+        acceptSha1 = MessageDigest.getInstance("SHA-1").digest(
+            (key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(UTF_8));
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+          "Upgrade: websocket\r\n" +
+          "Connection: Upgrade\r\n" +
+          "Sec-WebSocket-Accept: " + DatatypeConverter.printBase64Binary(acceptSha1) + "\r\n" +
+          "Sec-WebSocket-Extensions: permessage-deflate\r\n" +
+          "\r\n";
+      OutputStream output = socket.getOutputStream();
+      output.write(response.getBytes(UTF_8));
+      output.flush();
+    }
+
+    /**
+     * Sends a compressed text message, split into several frames if fragments > 0.
+     */
+    void sendCompressed(String text, int fragments) throws Exception {
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      deflater.setInput(text.getBytes(UTF_8));
+      deflater.finish();
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      while (!deflater.finished()) {
+        int n = deflater.deflate(buffer);
+        compressed.write(buffer, 0, n);
+      }
+      deflater.end();
+      byte[] payload = compressed.toByteArray();
+
+      if (fragments == 0) {
+        writeFrame(0x80 | 0x40 | 0x1, payload, 0, payload.length);
+        return;
+      }
+      int fragmentLength = payload.length / fragments + 1;
+      for (int pos = 0; pos < payload.length; pos += fragmentLength) {
+        int len = Math.min(fragmentLength, payload.length - pos);
+        boolean isFirst = pos == 0;
+        boolean isLast = pos + len == payload.length;
+        int firstByte = (isLast ? 0x80 : 0) | (isFirst ? 0x40 | 0x1 : 0x0);
+        writeFrame(firstByte, payload, pos, len);
+      }
+    }
+
+    void sendPlain(String text) throws Exception {
+      byte[] payload = text.getBytes(UTF_8);
+      writeFrame(0x80 | 0x1, payload, 0, payload.length);
+    }
+
+    private void writeFrame(int firstByte, byte[] payload, int offset, int length)
+        throws Exception {
+      acceptThread.join();
+      OutputStream output = socket.getOutputStream();
+      output.write(firstByte);
+      if (length <= 125) {
+        output.write(length);
+      } else if (length < 1 << 16) {
+        output.write(126);
+        output.write(length >> 8);
+        output.write(length & 0xFF);
+      } else {
+        output.write(127);
+        for (int i = 7; i >= 0; i--) {
+          output.write(i >= 4 ? 0 : (length >>> (i * 8)) & 0xFF);
+        }
+      }
+      output.write(payload, offset, length);
+      output.flush();
+    }
+
+    /**
+     * Reads a single-frame masked text message from client, inflating it if RSV1 is set.
+     */
+    String readMessage() throws Exception {
+      DataInputStream input = new DataInputStream(socket.getInputStream());
+      int firstByte = input.readUnsignedByte();
+      Assert.assertEquals(0x1, firstByte & 0xF);
+      Assert.assertTrue((firstByte & 0x80) != 0);
+      int secondByte = input.readUnsignedByte();
+      Assert.assertTrue((secondByte & 0x80) != 0);
+      long length = secondByte & 0x7F;
+      if (length == 126) {
+        length = input.readUnsignedShort();
+      } else if (length == 127) {
+        length = input.readLong();
+      }
+      byte[] mask = new byte[4];
+      input.readFully(mask);
+      byte[] payload = new byte[(int) length];
+      input.readFully(payload);
+      for (int i = 0; i < payload.length; i++) {
+        payload[i] ^= mask[i % 4];
+      }
+      if ((firstByte & 0x40) == 0) {
+        return new String(payload, UTF_8);
+      }
+      inflater.setInput(payload);
+      ByteArrayOutputStream result = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      inflateAll(buffer, result);
+      inflater.setInput(new byte[] { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF });
+      inflateAll(buffer, result);
+      return new String(result.toByteArray(), UTF_8);
+    }
+
+    private void inflateAll(byte[] buffer, ByteArrayOutputStream result) throws Exception {
+      int n;
+      while ((n = inflater.inflate(buffer)) > 0) {
+        result.write(buffer, 0, n);
+      }
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+      if (socket != null) {
+        socket.close();
+      }
+      inflater.end();
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+      StringBuilder builder = new StringBuilder();
+      while (true) {
+        int b = input.read();
+        if (b == -1) {
+          throw new IOException("Unexpected EOS");
+        }
+        if (b == '\n') {
+          break;
+        }
+        if (b != '\r') {
+          builder.append((char) b);
+        }
+      }
+      return builder.toString();
+    }
+  }
+}
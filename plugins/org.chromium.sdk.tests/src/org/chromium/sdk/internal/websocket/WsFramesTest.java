@@ -0,0 +1,105 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link WsFrames} against straightforward byte-by-byte implementations.
+ */
+public class WsFramesTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @Test
+  public void testMask() {
+    int mask = 0x1A2B3C4D;
+    byte[] maskBytes = { 0x1A, 0x2B, 0x3C, 0x4D };
+    for (int length = 0; length < 40; length++) {
+      for (int offset = 0; offset < 3; offset++) {
+        for (int phase = 0; phase < 4; phase++) {
+          byte[] bytes = new byte[offset + length + 3];
+          for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 7 + 1);
+          }
+          byte[] expected = bytes.clone();
+          for (int i = 0; i < length; i++) {
+            expected[offset + i] ^= maskBytes[(phase + i) % 4];
+          }
+          WsFrames.mask(bytes, offset, length, mask, phase);
+          Assert.assertTrue(Arrays.equals(expected, bytes));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testHeader() {
+    long[] lengths = { 0, 125, 126, 0xFFFF, 0x10000, Integer.MAX_VALUE };
+    byte[] header = new byte[WsFrames.MAX_HEADER_LENGTH];
+    for (long length : lengths) {
+      for (boolean masked : new boolean[] { false, true }) {
+        int end = WsFrames.writeHeader(header, 0, 0x81, length, masked, 0x01020304);
+        Assert.assertEquals(WsFrames.getHeaderLength(length, masked), end);
+        Assert.assertEquals((byte) 0x81, header[0]);
+        Assert.assertEquals(masked, (header[1] & 0x80) != 0);
+        if (masked) {
+          Assert.assertEquals(0x04, header[end - 1]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testUtf8() {
+    String[] strings = {
+        "",
+        "plain ascii",
+        "été жук 中文",
+        "pair 😀 end",
+        "unpaired \ud83d high",
+        "unpaired \ude00 low",
+        "trailing high \ud83d",
+    };
+    for (String string : strings) {
+      byte[] expected = string.getBytes(UTF_8);
+      Assert.assertEquals(expected.length, WsFrames.utf8Length(string));
+
+      byte[] bytes = new byte[expected.length];
+      int end = WsFrames.encodeUtf8(string, 0, string.length(), bytes, 0);
+      Assert.assertEquals(expected.length, end);
+      Assert.assertTrue(Arrays.equals(expected, bytes));
+    }
+  }
+
+  @Test
+  public void testUtf8Pieces() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      builder.append("aé中😀");
+    }
+    String string = builder.toString();
+    byte[] expected = string.getBytes(UTF_8);
+
+    // Small pieces, so that many of them end at a surrogate pair.
+    byte[] piece = new byte[13];
+    byte[] result = new byte[expected.length];
+    int resultPos = 0;
+    int pos = 0;
+    while (pos < string.length()) {
+      int end = WsFrames.getPieceEnd(string, pos, piece.length);
+      int pieceLength = WsFrames.encodeUtf8(string, pos, end, piece, 0);
+      System.arraycopy(piece, 0, result, resultPos, pieceLength);
+      resultPos += pieceLength;
+      pos = end;
+    }
+    Assert.assertEquals(expected.length, resultPos);
+    Assert.assertTrue(Arrays.equals(expected, result));
+  }
+}
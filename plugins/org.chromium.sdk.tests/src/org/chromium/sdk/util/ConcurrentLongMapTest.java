@@ -0,0 +1,111 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class ConcurrentLongMapTest {
+  @Test
+  public void testBasicOperations() {
+    ConcurrentLongMap<String> map = new ConcurrentLongMap<String>();
+    Assert.assertTrue(map.isEmpty());
+    Assert.assertNull(map.put(5, "a"));
+    Assert.assertEquals("a", map.put(5, "b"));
+    Assert.assertEquals("b", map.putIfAbsent(5, "c"));
+    Assert.assertEquals("b", map.get(5));
+    Assert.assertNull(map.get(6));
+
+    String value = map.get(5);
+    Assert.assertFalse(map.replace(5, "x", "y"));
+    Assert.assertTrue(map.replace(5, value, "d"));
+    Assert.assertEquals("d", map.get(5));
+    Assert.assertFalse(map.replace(6, null, "e"));
+
+    Assert.assertEquals("d", map.remove(5));
+    Assert.assertNull(map.remove(5));
+    Assert.assertFalse(map.containsKey(5));
+    Assert.assertEquals(0, map.size());
+
+    // A removed key can be put again.
+    Assert.assertNull(map.putIfAbsent(5, "f"));
+    Assert.assertEquals("f", map.get(5));
+    Assert.assertEquals(1, map.size());
+  }
+
+  @Test
+  public void testManyKeys() {
+    ConcurrentLongMap<Long> map = new ConcurrentLongMap<Long>();
+    int count = 10000;
+    // Keys with equal low bits and a negative key, to exercise probing.
+    for (long i = 0; i < count; i++) {
+      map.put(i << 16, i);
+    }
+    map.put(-1, -1L);
+    for (long i = 0; i < count; i += 2) {
+      Assert.assertEquals(Long.valueOf(i), map.remove(i << 16));
+    }
+    Assert.assertEquals(count / 2 + 1, map.size());
+    for (long i = 0; i < count; i++) {
+      Assert.assertEquals(i % 2 == 0 ? null : Long.valueOf(i), map.get(i << 16));
+    }
+    Assert.assertEquals(Long.valueOf(-1), map.get(-1));
+
+    long[] keys = map.keys();
+    Assert.assertEquals(map.size(), keys.length);
+    Arrays.sort(keys);
+    Assert.assertEquals(-1, keys[0]);
+    Assert.assertEquals(1L << 16, keys[1]);
+    Set<Long> values = new HashSet<Long>(map.values());
+    Assert.assertEquals(map.size(), values.size());
+
+    map.clear();
+    Assert.assertTrue(map.isEmpty());
+    Assert.assertNull(map.get(1L << 16));
+  }
+
+  @Test(timeout = 10000)
+  public void testConcurrentReads() throws InterruptedException {
+    final ConcurrentLongMap<Long> map = new ConcurrentLongMap<Long>();
+    final int count = 20000;
+    final boolean[] failed = { false };
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        // Keys are put in order, so once a key is visible all the previous ones must be.
+        long seen = 0;
+        while (seen < count) {
+          Long value = map.get(seen);
+          if (value == null) {
+            continue;
+          }
+          for (long i = 0; i <= seen; i++) {
+            if (map.get(i) == null || map.get(i) != i) {
+              failed[0] = true;
+              return;
+            }
+          }
+          seen += 1000;
+        }
+      }
+    };
+    reader.start();
+    for (long i = 0; i < count; i++) {
+      map.put(i, i);
+    }
+    reader.join();
+    Assert.assertFalse(failed[0]);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testNullValue() {
+    new ConcurrentLongMap<String>().put(1, null);
+  }
+}
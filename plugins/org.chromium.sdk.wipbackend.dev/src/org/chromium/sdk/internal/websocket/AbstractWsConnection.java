@@ -11,6 +11,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
@@ -20,16 +21,20 @@ import org.chromium.sdk.ConnectionLogger;
 import org.chromium.sdk.RelayOk;
 import org.chromium.sdk.SyncCallback;
 import org.chromium.sdk.internal.transport.AbstractSocketWrapper;
+import org.chromium.sdk.internal.transport.CaptureFile;
+import org.chromium.sdk.internal.transport.TransportStats;
 import org.chromium.sdk.util.SignalRelay;
 import org.chromium.sdk.util.SignalRelay.AlreadySignalledException;
 import org.chromium.sdk.util.SignalRelay.SignalConverter;
 
-public abstract class AbstractWsConnection<INPUT, OUTPUT> implements WsConnection {
+public abstract class AbstractWsConnection<INPUT, OUTPUT>
+    implements WsConnection, TransportStats {
   protected static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
   private static final Logger LOGGER = Logger.getLogger(Hybi00WsConnection.class.getName());
   private final AbstractSocketWrapper<INPUT, OUTPUT> socketWrapper;
   private final ConnectionLogger connectionLogger;
   private volatile boolean isClosingGracefully = false;
+  private final CaptureFile.Recorder captureRecorder = CaptureFile.createDefaultRecorder();
 
   private final BlockingQueue<MessageDispatcher> dispatchQueue =
       new LinkedBlockingQueue<MessageDispatcher>();
@@ -40,6 +45,8 @@ public abstract class AbstractWsConnection<INPUT, OUTPUT> implements WsConnectio
   // Access must be synchronized on this.
   private boolean isOutputClosed = false;
 
+  private volatile Listener listener = null;
+
   protected AbstractWsConnection(AbstractSocketWrapper<INPUT, OUTPUT> socketWrapper,
       ConnectionLogger connectionLogger) {
     this.socketWrapper = socketWrapper;
@@ -106,6 +113,7 @@ public abstract class AbstractWsConnection<INPUT, OUTPUT> implements WsConnectio
 
   @Override
   public void startListening(final Listener listener) {
+    this.listener = listener;
     final INPUT loggableReader = socketWrapper.getLoggableInput();
     Runnable listenRunnable = new Runnable() {
       @Override
@@ -130,6 +138,9 @@ public abstract class AbstractWsConnection<INPUT, OUTPUT> implements WsConnectio
             dispatchQueue.add(EOS_MESSAGE_DISPATCHER);
             isDispatchQueueClosed = true;
           }
+          if (captureRecorder != null) {
+            captureRecorder.recordClose();
+          }
 
           if (connectionLogger != null) {
             connectionLogger.handleEos();
@@ -179,6 +190,13 @@ public abstract class AbstractWsConnection<INPUT, OUTPUT> implements WsConnectio
   @Override
   public abstract void sendTextualMessage(String message) throws IOException;
 
+  @Override
+  public void sendTextualMessages(List<String> messages) throws IOException {
+    for (String message : messages) {
+      sendTextualMessage(message);
+    }
+  }
+
   protected abstract CloseReason runListenLoop(INPUT loggableReader)
       throws IOException, InterruptedException;
 
@@ -186,6 +204,13 @@ public abstract class AbstractWsConnection<INPUT, OUTPUT> implements WsConnectio
     return linkedCloser;
   }
 
+  /**
+   * @return binary traffic capture or null
+   */
+  protected CaptureFile.Recorder getCaptureRecorder() {
+    return captureRecorder;
+  }
+
   protected AbstractSocketWrapper<INPUT, OUTPUT> getSocketWrapper() {
     return socketWrapper;
   }
@@ -208,10 +233,41 @@ public abstract class AbstractWsConnection<INPUT, OUTPUT> implements WsConnectio
     this.isOutputClosed = isOutputClosed;
   }
 
+  @Override
+  public long getBytesReceived() {
+    return socketWrapper.getBytesReceived();
+  }
+
+  @Override
+  public long getBytesSent() {
+    return socketWrapper.getBytesSent();
+  }
+
+  @Override
+  public int getInboundQueueDepth() {
+    return dispatchQueue.size();
+  }
+
+  /**
+   * Output is written synchronously by the sending thread, so only those threads that wait
+   * for their turn to write may be reported by subclass.
+   */
+  @Override
+  public int getOutboundQueueDepth() {
+    return 0;
+  }
+
   protected BlockingQueue<MessageDispatcher> getDispatchQueue() {
     return dispatchQueue;
   }
 
+  /**
+   * @return the listener passed to {@link #startListening}
+   */
+  protected Listener getListener() {
+    return listener;
+  }
+
   private final SignalRelay<CloseReason> linkedCloser =
       SignalRelay.create(new SignalRelay.Callback<CloseReason>() {
     @Override public void onSignal(CloseReason param, Exception cause) {
@@ -296,6 +352,19 @@ public abstract class AbstractWsConnection<INPUT, OUTPUT> implements WsConnectio
     abstract boolean dispatch(Listener userListener);
   }
 
+  /**
+   * @return a dispatcher that runs a task prepared with {@link ParallelParser}
+   */
+  static MessageDispatcher createMessageDispatcher(final Runnable task) {
+    return new MessageDispatcher() {
+      @Override
+      boolean dispatch(Listener userListener) {
+        task.run();
+        return false;
+      }
+    };
+  }
+
   private static final MessageDispatcher EOS_MESSAGE_DISPATCHER = new MessageDispatcher() {
     @Override
     boolean dispatch(Listener userListener) {
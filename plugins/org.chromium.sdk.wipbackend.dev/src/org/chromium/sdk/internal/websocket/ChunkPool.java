@@ -0,0 +1,60 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of fixed-size byte arrays that fragmented messages are reassembled into.
+ * Chunks are taken on the reading thread and usually returned on the Dispatch thread.
+ * <p>
+ * The class is thread-safe.
+ */
+public class ChunkPool {
+  public static final int CHUNK_SIZE = 64 * 1024;
+
+  /** The pool shared by all connections; it retains up to 4 MB. */
+  static final ChunkPool SHARED = new ChunkPool(64);
+
+  private final int maxPooled;
+  private final Queue<byte[]> freeChunks = new ConcurrentLinkedQueue<byte[]>();
+  private final AtomicInteger freeCount = new AtomicInteger(0);
+
+  /**
+   * @param maxPooled how many free chunks the pool may retain
+   */
+  public ChunkPool(int maxPooled) {
+    this.maxPooled = maxPooled;
+  }
+
+  public byte[] take() {
+    byte[] chunk = freeChunks.poll();
+    if (chunk == null) {
+      return new byte[CHUNK_SIZE];
+    }
+    freeCount.decrementAndGet();
+    return chunk;
+  }
+
+  /**
+   * Returns the chunk to the pool. The chunk is dropped if the pool is full.
+   */
+  public void give(byte[] chunk) {
+    if (freeCount.incrementAndGet() > maxPooled) {
+      freeCount.decrementAndGet();
+      return;
+    }
+    freeChunks.add(chunk);
+  }
+
+  /**
+   * @return the number of free chunks in the pool
+   */
+  public int getFreeCount() {
+    return freeCount.get();
+  }
+}
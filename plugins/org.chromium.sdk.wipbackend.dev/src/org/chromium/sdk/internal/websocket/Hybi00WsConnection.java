@@ -12,6 +12,7 @@ import java.net.InetSocketAddress;
 import java.util.Random;
 
 import org.chromium.sdk.ConnectionLogger;
+import org.chromium.sdk.internal.transport.CaptureFile;
 import org.chromium.sdk.internal.transport.SocketWrapper;
 import org.chromium.sdk.internal.transport.SocketWrapper.LoggableInputStream;
 import org.chromium.sdk.internal.transport.SocketWrapper.LoggableOutputStream;
@@ -59,6 +60,10 @@ public class Hybi00WsConnection
     LoggableOutputStream loggableWriter = getSocketWrapper().getLoggableOutput();
     OutputStream output = loggableWriter.getOutputStream();
     synchronized (this) {
+      CaptureFile.Recorder captureRecorder = getCaptureRecorder();
+      if (captureRecorder != null) {
+        captureRecorder.record(false, CaptureFile.Kind.MESSAGE, bytes, 0, bytes.length);
+      }
       output.write((byte) 0);
       output.write(bytes);
       output.write((byte) 255);
@@ -104,6 +109,11 @@ public class Hybi00WsConnection
           byteBuffer.write(b);
         }
         byte[] messageBytes = byteBuffer.toByteArray();
+        CaptureFile.Recorder captureRecorder = getCaptureRecorder();
+        if (captureRecorder != null) {
+          captureRecorder.record(true, CaptureFile.Kind.MESSAGE, messageBytes, 0,
+              messageBytes.length);
+        }
         final String text = new String(messageBytes, UTF_8_CHARSET);
         getDispatchQueue().put(new MessageDispatcher() {
           @Override
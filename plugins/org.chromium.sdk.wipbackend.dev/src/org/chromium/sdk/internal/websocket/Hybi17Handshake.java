@@ -25,7 +25,7 @@ import org.chromium.sdk.util.BasicUtil;
  */
 class Hybi17Handshake {
   static Result performHandshake(ManualLoggingSocketWrapper socket, InetSocketAddress endpoint,
-      String resourceName, Random random) throws IOException {
+      String resourceName, boolean offerDeflate, Random random) throws IOException {
     final ManualLoggingSocketWrapper.LoggableInput input = socket.getLoggableInput();
     ManualLoggingSocketWrapper.LoggableOutput output = socket.getLoggableOutput();
 
@@ -41,6 +41,9 @@ class Hybi17Handshake {
     String secKeyString = DatatypeConverter.printBase64Binary(secKeyBytes);
     headerFields.add("Sec-WebSocket-Key: " + secKeyString);
     headerFields.add("Sec-WebSocket-Version: 13");
+    if (offerDeflate) {
+      headerFields.add("Sec-WebSocket-Extensions: " + PerMessageDeflate.OFFER);
+    }
 
     Collections.shuffle(headerFields, random);
 
@@ -49,6 +52,7 @@ class Hybi17Handshake {
     }
 
     writeHttpLine(output, "");
+    output.flush();
 
     HandshakeUtil.LineReader lineReader = new HandshakeUtil.LineReader() {
       @Override
@@ -74,8 +78,13 @@ class Hybi17Handshake {
     if (!"upgrade".equalsIgnoreCase(responseFields.get("connection"))) {
       throw new IOException("Malformed response");
     }
-    if (responseFields.get("sec-websocket-extensions") != null) {
-      throw new IOException("Malformed response");
+    String extensionsString = responseFields.get("sec-websocket-extensions");
+    PerMessageDeflate deflate = null;
+    if (extensionsString != null) {
+      if (!offerDeflate) {
+        throw new IOException("Malformed response");
+      }
+      deflate = PerMessageDeflate.parseResponse(extensionsString);
     }
     if (responseFields.get("sec-websocket-protocol") != null) {
       throw new IOException("Malformed response");
@@ -102,18 +111,30 @@ class Hybi17Handshake {
     if (!BasicUtil.eq(expectedAcceptString, secAcceptString)) {
       throw new IOException("Malformed response");
     }
-    return CONNECTED_RESULT;
+    return deflate == null ? CONNECTED_RESULT : Result.createConnected(deflate);
   }
 
   static abstract class Result {
     abstract <R> R accept(Visitor<R> visitor);
 
     interface Visitor<R> {
-      R visitConnected();
+      /**
+       * @param deflate the negotiated compression or null
+       */
+      R visitConnected(PerMessageDeflate deflate);
       R visitUnknownError(Exception exception);
       R visitErrorMessage(int code, String errorName, String text);
     }
 
+    static Result createConnected(final PerMessageDeflate deflate) {
+      return new Result() {
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+          return visitor.visitConnected(deflate);
+        }
+      };
+    }
+
     static Result createError(final Exception exception) {
       return new Result() {
         @Override
@@ -124,12 +145,7 @@ class Hybi17Handshake {
     }
   }
 
-  private static final Result CONNECTED_RESULT = new Result() {
-    @Override
-    <R> R accept(Visitor<R> visitor) {
-      return visitor.visitConnected();
-    }
-  };
+  private static final Result CONNECTED_RESULT = Result.createConnected(null);
 
   private static Result processResult(LoggableInput input,
       final HandshakeUtil.HttpResponse httpResponse) throws IOException {
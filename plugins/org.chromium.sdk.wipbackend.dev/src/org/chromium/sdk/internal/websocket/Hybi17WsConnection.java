@@ -6,11 +6,16 @@ package org.chromium.sdk.internal.websocket;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.chromium.sdk.ConnectionLogger;
+import org.chromium.sdk.internal.transport.CaptureFile;
 import org.chromium.sdk.internal.websocket.ManualLoggingSocketWrapper.LoggableInput;
 import org.chromium.sdk.internal.websocket.ManualLoggingSocketWrapper.LoggableOutput;
 import org.chromium.sdk.util.BasicUtil;
@@ -35,8 +40,12 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
      * is expected to terminate connection in response.
      */
     NO_MASK() {
-      @Override public byte[] generate() {
-        return null;
+      @Override int generate(Random random) {
+        return 0;
+      }
+
+      @Override boolean isMasked() {
+        return false;
       }
 
       @Override
@@ -49,10 +58,12 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
      * Not suitable when untrusted client uses the WebSocket.
      */
     TRANSPARENT_MASK() {
-      private final byte[] bytes = new byte[4];
+      @Override int generate(Random random) {
+        return 0;
+      }
 
-      @Override public byte[] generate() {
-        return bytes;
+      @Override boolean isMasked() {
+        return true;
       }
 
       @Override
@@ -65,11 +76,12 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
      * traffic hard to sniff.
      */
     NORMAL_MASK() {
-      @Override
-      byte[] generate() {
-        byte[] result = new byte[4];
-        RANDOM.nextBytes(result);
-        return result;
+      @Override int generate(Random random) {
+        return random.nextInt();
+      }
+
+      @Override boolean isMasked() {
+        return true;
       }
 
       @Override
@@ -78,8 +90,14 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
       }
     };
 
-    /** @return 4-byte array or null */
-    abstract byte[] generate();
+    /**
+     * @param random the per-connection generator
+     * @return 4 mask bytes in network order; 0 means that the payload is sent as is
+     */
+    abstract int generate(Random random);
+
+    /** @return whether frames have a mask field */
+    abstract boolean isMasked();
 
     abstract ManualLoggingSocketWrapper.FactoryBase getLogWrapperFactory();
   }
@@ -92,8 +110,10 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
 
     boolean handshakeDone = false;
     Exception handshakeException = null;
+    PerMessageDeflate deflate;
     try {
-      performHandshakeOrFail(socketWrapper, endpoint, resourceId);
+      deflate = performHandshakeOrFail(socketWrapper, endpoint, resourceId,
+          PerMessageDeflate.isEnabled());
       handshakeDone = true;
     } catch (RuntimeException e) {
       handshakeException = e;
@@ -107,37 +127,136 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
       }
     }
 
-    return new Hybi17WsConnection(socketWrapper, maskStrategy, connectionLogger);
+    return new Hybi17WsConnection(socketWrapper, maskStrategy, deflate, connectionLogger);
   }
 
   private final MaskStrategy maskStrategy;
 
+  /** Generates masks of this connection, so that senders don't contend for a shared one. */
+  private final Random maskRandom = new Random();
+
+  /** Header of the outgoing frame. Must be accessed synchronized on this. */
+  private final byte[] outgoingHeader = new byte[WsFrames.MAX_HEADER_LENGTH];
+
+  /**
+   * The first 2 bytes of the incoming frame (opcode and length code). Accessed from
+   * the reading thread only.
+   */
+  private final byte[] incomingHeader = new byte[2];
+
+  /** Extended payload length of the incoming frame. Accessed from the reading thread only. */
+  private final byte[] incomingLength = new byte[8];
+
+  /** Number of threads that are in {@link #sendMessage} and have not written their frame yet. */
+  private final AtomicInteger pendingSendCount = new AtomicInteger(0);
+
+  /** Accessed from the reading thread only. */
+  private final MessageAssembler messageAssembler =
+      new MessageAssembler(ChunkPool.SHARED, MessageAssembler.getDefaultMaxMessageSize());
+
+  /**
+   * Negotiated "permessage-deflate" extension or null. Incoming messages are inflated
+   * on the reading thread, outgoing are deflated under the lock on this.
+   */
+  private final PerMessageDeflate deflate;
+
+  /** Receives decompressed messages. Accessed from the reading thread only. */
+  private final MessageAssembler inflatedAssembler;
+
+  /** Whether the message being assembled is compressed. Accessed from the reading thread only. */
+  private boolean isMessageCompressed = false;
+
   private Hybi17WsConnection(ManualLoggingSocketWrapper socketWrapper, MaskStrategy maskStrategy,
-      ConnectionLogger connectionLogger) {
+      PerMessageDeflate deflate, ConnectionLogger connectionLogger) {
     super(socketWrapper, connectionLogger);
     this.maskStrategy = maskStrategy;
+    this.deflate = deflate;
+    if (deflate == null) {
+      this.inflatedAssembler = null;
+    } else {
+      this.inflatedAssembler = new MessageAssembler(ChunkPool.SHARED,
+          messageAssembler.getMaxMessageSize());
+    }
   }
 
   @Override
-  public void sendTextualMessage(final String message) throws IOException {
-    final byte[] bytes = message.getBytes(UTF_8_CHARSET);
+  public void sendTextualMessage(String message) throws IOException {
+    sendMessage(OpCode.TEXT, createTextPayload(message, getCaptureRecorder()), false);
+  }
 
-    LoggablePayload payload = new LoggablePayload() {
-      @Override void send(LoggableOutput output, byte[] maskBytes) throws IOException {
+  @Override
+  public void sendTextualMessages(List<String> messages) throws IOException {
+    List<LoggablePayload> payloads = new ArrayList<LoggablePayload>(messages.size());
+    for (String message : messages) {
+      payloads.add(createTextPayload(message, getCaptureRecorder()));
+    }
+    sendMessages(OpCode.TEXT, payloads, false);
+  }
+
+  /**
+   * @param captureRecorder gets the message when it is actually written or null
+   */
+  private static LoggablePayload createTextPayload(final String message,
+      final CaptureFile.Recorder captureRecorder) {
+    final int length = WsFrames.utf8Length(message);
+
+    return new LoggablePayload() {
+      @Override LoggablePayload compress(PerMessageDeflate deflate) {
+        byte[] bytes = message.getBytes(UTF_8_CHARSET);
+        byte[] compressedBytes = deflate.deflate(bytes);
+        if (compressedBytes == null) {
+          return this;
+        }
+        return createCompressedPayload(message, bytes, compressedBytes, captureRecorder);
+      }
+      @Override void send(LoggableOutput output, int mask) throws IOException {
         output.writeToLog(message, "utf-8 demasked");
-        if (maskBytes != null) {
-          for (int i = 0; i < bytes.length; i++) {
-            bytes[i] = (byte) (bytes[i] ^ maskBytes[i % 4]);
+        if (captureRecorder != null) {
+          byte[] bytes = message.getBytes(UTF_8_CHARSET);
+          captureRecorder.record(false, CaptureFile.Kind.MESSAGE, bytes, 0, bytes.length);
+        }
+        // The message is encoded right into a pooled chunk piece by piece and masked in place.
+        byte[] chunk = ChunkPool.SHARED.take();
+        try {
+          int pos = 0;
+          long written = 0;
+          while (pos < message.length()) {
+            int end = WsFrames.getPieceEnd(message, pos, chunk.length);
+            int pieceLength = WsFrames.encodeUtf8(message, pos, end, chunk, 0);
+            WsFrames.mask(chunk, 0, pieceLength, mask, written);
+            output.writeBytesNoLogging(chunk, 0, pieceLength);
+            written += pieceLength;
+            pos = end;
           }
+        } finally {
+          ChunkPool.SHARED.give(chunk);
         }
-        output.writeBytesNoLogging(bytes);
       }
       @Override int getLength() {
-        return bytes.length;
+        return length;
       }
     };
+  }
 
-    sendMessage(OpCode.TEXT, payload, false);
+  private static LoggablePayload createCompressedPayload(final String message,
+      final byte[] bytes, final byte[] compressedBytes,
+      final CaptureFile.Recorder captureRecorder) {
+    return new LoggablePayload() {
+      @Override void send(LoggableOutput output, int mask) throws IOException {
+        output.writeToLog(message, "utf-8 deflated " + compressedBytes.length);
+        if (captureRecorder != null) {
+          captureRecorder.record(false, CaptureFile.Kind.MESSAGE, bytes, 0, bytes.length);
+        }
+        WsFrames.mask(compressedBytes, 0, compressedBytes.length, mask, 0);
+        output.writeBytesNoLogging(compressedBytes);
+      }
+      @Override int getLength() {
+        return compressedBytes.length;
+      }
+      @Override boolean isCompressed() {
+        return true;
+      }
+    };
   }
 
   @Override
@@ -164,9 +283,10 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
       throws IOException, InterruptedException, IncomingProtocolException {
     while (true) {
       loggableReader.markSeparatorForLog();
-      int firstByte;
+      // The fixed part of the header is read with a single call.
+      boolean hasFrame;
       try {
-        firstByte = loggableReader.readByteOrEos();
+        hasFrame = loggableReader.readBinaryBytesOrEos(incomingHeader, 0, 2);
       } catch (IOException e) {
         if (isClosingGracefully()) {
           return CloseReason.USER_REQUEST;
@@ -174,37 +294,58 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
           throw e;
         }
       }
-      if (firstByte == -1) {
+      if (!hasFrame) {
         if (isClosingGracefully()) {
           return CloseReason.USER_REQUEST;
         } else {
           return CloseReason.REMOTE_SILENTLY_CLOSED;
         }
       }
+      int firstByte = incomingHeader[0] & 0xFF;
 
-      if ((firstByte & FrameBits.FIN_BIT) == 0) {
-        throw new IncomingProtocolException("Fragments unsupported",
-            StatusCode.CANNOT_ACCEPT, null);
-      }
-      if ((firstByte & FrameBits.RESERVED_MASK) != 0) {
+      boolean isFinal = (firstByte & FrameBits.FIN_BIT) != 0;
+      int opcode = firstByte & FrameBits.OPCODE_MASK;
+
+      // RSV1 marks a compressed message; it is only set in the first frame of a message.
+      boolean isCompressed = (firstByte & FrameBits.RSV1_BIT) != 0;
+      if ((firstByte & FrameBits.RESERVED_MASK & ~FrameBits.RSV1_BIT) != 0 ||
+          isCompressed && (deflate == null || (opcode != OpCode.TEXT && opcode != OpCode.BINARY))) {
         throw new IncomingProtocolException("Unexpected reserved bits",
             StatusCode.PROTOCOL_ERROR, null);
       }
 
-      int opcode = firstByte & FrameBits.OPCODE_MASK;
+      if (!isFinal && (opcode & OpCode.CONTROL_BIT) != 0) {
+        throw new IncomingProtocolException("Fragmented control frame",
+            StatusCode.PROTOCOL_ERROR, null);
+      }
 
+      // Null for a fragment of a message; the fragment goes to messageAssembler.
       IncomingFrameHandler frameHandler;
 
       switch (opcode) {
       case OpCode.CONTINUATION:
-        throw new IncomingProtocolException("Continuation is not supported",
-            StatusCode.CANNOT_ACCEPT, null);
-      case OpCode.TEXT:
-        frameHandler = IncomingFrameHandler.TEXT_MESSAGE;
+        if (!messageAssembler.isInProgress()) {
+          throw new IncomingProtocolException("Unexpected continuation frame",
+              StatusCode.PROTOCOL_ERROR, null);
+        }
+        frameHandler = null;
         break;
+      case OpCode.TEXT:
       case OpCode.BINARY:
-        throw new IncomingProtocolException("Binary is not supported",
-            StatusCode.CANNOT_ACCEPT, null);
+        if (messageAssembler.isInProgress()) {
+          throw new IncomingProtocolException("Fragmented message is not finished",
+              StatusCode.PROTOCOL_ERROR, null);
+        }
+        if (isFinal && !isCompressed) {
+          frameHandler = opcode == OpCode.TEXT
+              ? IncomingFrameHandler.TEXT_MESSAGE : IncomingFrameHandler.BINARY_MESSAGE;
+        } else {
+          // Compressed message is assembled even if it comes in a single frame.
+          messageAssembler.start(opcode == OpCode.BINARY);
+          isMessageCompressed = isCompressed;
+          frameHandler = null;
+        }
+        break;
       case OpCode.CLOSE:
         sendClosingMessage(StatusCode.NORMAL, null);
         return CloseReason.REMOTE_CLOSE_REQUEST;
@@ -219,7 +360,7 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
             StatusCode.CANNOT_ACCEPT, null);
       }
 
-      int secondByte = readByteOfFail(loggableReader);
+      int secondByte = incomingHeader[1] & 0xFF;
 
       boolean hasMask = (secondByte & FrameBits.MASK_BIT) != 0;
 
@@ -230,38 +371,84 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
 
       int payloadLenByte = secondByte & FrameBits.LENGTH_MASK;
       int payloadLen;
+      // Extended length is read with a single call rather than byte by byte.
       if (payloadLenByte == FrameBits.LENGTH_2_BYTE_CODE) {
-        int lengthTemp = readByteOfFail(loggableReader);
-        lengthTemp <<= 8;
-        lengthTemp += readByteOfFail(loggableReader);
-        payloadLen = lengthTemp;
+        loggableReader.readBinaryBytes(incomingLength, 0, 2);
+        payloadLen = ((incomingLength[0] & 0xFF) << 8) | (incomingLength[1] & 0xFF);
       } else if (payloadLenByte == FrameBits.LENGTH_8_BYTE_CODE) {
-        for (int i = 0; i < 4; i++) {
-          int b = readByteOfFail(loggableReader);
-          if (b != 0) {
-            throw new IncomingProtocolException("Payload length is too large",
-                StatusCode.CANNOT_ACCEPT, null);
-          }
+        loggableReader.readBinaryBytes(incomingLength, 0, 8);
+        long lengthTemp = 0;
+        for (int i = 0; i < 8; i++) {
+          lengthTemp = (lengthTemp << 8) | (incomingLength[i] & 0xFF);
         }
-        int lengthTemp = readByteOfFail(loggableReader);
-        if ((lengthTemp & FrameBits.HIGH_BIT) != 0) {
+        if (lengthTemp < 0 || lengthTemp > Integer.MAX_VALUE) {
           throw new IncomingProtocolException("Payload length is too large",
               StatusCode.CANNOT_ACCEPT, null);
         }
-        for (int i = 0; i < 3; i++) {
-          lengthTemp <<= 8;
-          lengthTemp += readByteOfFail(loggableReader);
-        }
-        payloadLen = lengthTemp;
+        payloadLen = (int) lengthTemp;
       } else {
         payloadLen = payloadLenByte;
       }
 
+      if (frameHandler == null) {
+        if (!messageAssembler.canAccept(payloadLen)) {
+          throw new IncomingProtocolException("Message is too large",
+              StatusCode.MESSAGE_TOO_BIG, null);
+        }
+        readFragment(loggableReader, payloadLen);
+        if (isFinal) {
+          MessageAssembler.Message message = messageAssembler.finish();
+          if (isMessageCompressed) {
+            message = inflateMessage(message);
+          }
+          dispatchMessage(message);
+        }
+        continue;
+      }
+
+      if ((opcode & OpCode.CONTROL_BIT) == 0 &&
+          payloadLen > messageAssembler.getMaxMessageSize()) {
+        throw new IncomingProtocolException("Message is too large",
+            StatusCode.MESSAGE_TOO_BIG, null);
+      }
       byte [] bytes = loggableReader.readBytes(payloadLen);
       frameHandler.process(bytes, this);
     }
   }
 
+  /**
+   * Reads the frame payload right into the chunks of the message being assembled.
+   */
+  private void readFragment(LoggableInput loggableReader, int payloadLen) throws IOException {
+    while (payloadLen > 0) {
+      byte[] chunk = messageAssembler.getTailChunk();
+      int n = Math.min(payloadLen, messageAssembler.getTailSpace());
+      loggableReader.readBytes(chunk, messageAssembler.getTailOffset(), n);
+      messageAssembler.commit(n);
+      payloadLen -= n;
+    }
+  }
+
+  private MessageAssembler.Message inflateMessage(MessageAssembler.Message message)
+      throws IOException, IncomingProtocolException {
+    try {
+      return deflate.inflate(message, inflatedAssembler);
+    } catch (PerMessageDeflate.MessageTooBigException e) {
+      throw new IncomingProtocolException("Message is too large",
+          StatusCode.MESSAGE_TOO_BIG, e);
+    }
+  }
+
+  private void dispatchMessage(MessageAssembler.Message message) {
+    CaptureFile.Recorder captureRecorder = getCaptureRecorder();
+    if (captureRecorder != null) {
+      byte[] bytes = message.toByteArray();
+      captureRecorder.record(true, CaptureFile.Kind.MESSAGE, bytes, 0, bytes.length);
+    }
+    getDispatchQueue().add(createMessageDispatcher(
+        ParallelParser.prepare(getListener(), message)));
+  }
+
   private static class IncomingProtocolException extends Exception {
     private final int statusCode;
 
@@ -281,14 +468,20 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
     static final IncomingFrameHandler TEXT_MESSAGE = new IncomingFrameHandler() {
       @Override
       void process(byte[] bytes, Hybi17WsConnection hybiWsConnection) {
-        final String text = new String(bytes, UTF_8_CHARSET);
-        hybiWsConnection.getDispatchQueue().add(new MessageDispatcher() {
-          @Override
-          boolean dispatch(Listener userListener) {
-            userListener.textMessageRecieved(text);
-            return false;
-          }
-        });
+        CaptureFile.Recorder captureRecorder = hybiWsConnection.getCaptureRecorder();
+        if (captureRecorder != null) {
+          captureRecorder.record(true, CaptureFile.Kind.MESSAGE, bytes, 0, bytes.length);
+        }
+        String text = new String(bytes, UTF_8_CHARSET);
+        hybiWsConnection.getDispatchQueue().add(createMessageDispatcher(
+            ParallelParser.prepare(hybiWsConnection.getListener(), text)));
+      }
+    };
+
+    static final IncomingFrameHandler BINARY_MESSAGE = new IncomingFrameHandler() {
+      @Override
+      void process(byte[] bytes, Hybi17WsConnection hybiWsConnection) {
+        hybiWsConnection.dispatchMessage(MessageAssembler.Message.wrap(bytes, true));
       }
     };
 
@@ -297,13 +490,9 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
       void process(final byte[] bytes, Hybi17WsConnection hybiWsConnection) {
         LoggablePayload payload = new LoggablePayload() {
           @Override
-          void send(LoggableOutput output, byte[] maskBytes) throws IOException {
+          void send(LoggableOutput output, int mask) throws IOException {
             output.writeBytesToLog(bytes);
-            if (maskBytes != null) {
-              for (int i = 0; i < bytes.length; i++) {
-                bytes[i] = (byte) (bytes[i] ^ maskBytes[i % 4]);
-              }
-            }
+            WsFrames.mask(bytes, 0, bytes.length, mask, 0);
             output.writeBytes(bytes);
             output.markSeparatorForLog();
           }
@@ -333,135 +522,159 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
    * is not masked.
    */
   private static abstract class LoggablePayload {
-    abstract void send(LoggableOutput output, byte[] maskBytes) throws IOException;
+    /**
+     * @param mask 4 mask bytes in network order; the payload must mask itself in place
+     *     or copy, see {@link WsFrames#mask}
+     */
+    abstract void send(LoggableOutput output, int mask) throws IOException;
     abstract int getLength();
+
+    /**
+     * @return the payload to send instead of this one if the connection compresses messages;
+     *     called under the send lock, because compression context depends on message order
+     */
+    LoggablePayload compress(PerMessageDeflate deflate) {
+      return this;
+    }
+
+    boolean isCompressed() {
+      return false;
+    }
   }
 
   private void sendClosingMessage(final int statusCode, final String message) throws IOException {
-    final byte[] bytes;
+    final byte[] messageBytes;
     if (message == null) {
-      bytes = new byte[0];
+      messageBytes = new byte[0];
     } else {
-      bytes = message.getBytes(UTF_8_CHARSET);
+      messageBytes = message.getBytes(UTF_8_CHARSET);
     }
+    final byte[] bytes = new byte[STATUS_CODE_LENTGH + messageBytes.length];
+    bytes[0] = (byte) ((statusCode >> 8) & 0xFF);
+    bytes[1] = (byte) (statusCode & 0xFF);
+    System.arraycopy(messageBytes, 0, bytes, STATUS_CODE_LENTGH, messageBytes.length);
 
     LoggablePayload payload = new LoggablePayload() {
       @Override
-      void send(LoggableOutput output, byte[] maskBytes) throws IOException {
-        byte codeByte1 = (byte) ((statusCode >> 8) & 0xFF);
-        byte codeByte2 = (byte) (statusCode & 0xFF);
-
-        byte codeByteMasked1 = codeByte1;
-        byte codeByteMasked2 = codeByte2;
-        if (maskBytes != null) {
-          codeByteMasked1 ^= maskBytes[0];
-          codeByteMasked2 ^= maskBytes[1];
-
-          for (int i = 0; i < bytes.length; i++) {
-            bytes[i] = (byte) (bytes[i] ^ maskBytes[(i + STATUS_CODE_LENTGH) % 4]);
-          }
-        }
-        output.writeByteNoLogging(codeByteMasked1);
-        output.writeByteNoLogging(codeByteMasked2);
-
-        output.writeByteToLog(codeByte1);
-        output.writeByteToLog(codeByte2);
+      void send(LoggableOutput output, int mask) throws IOException {
+        output.writeByteToLog(bytes[0]);
+        output.writeByteToLog(bytes[1]);
+        output.writeToLog(message, "utf-8 demasked");
 
+        WsFrames.mask(bytes, 0, bytes.length, mask, 0);
         output.writeBytesNoLogging(bytes);
-        output.writeToLog(message, "utf-8 demasked");
       }
 
       @Override int getLength() {
-        return STATUS_CODE_LENTGH + bytes.length;
+        return bytes.length;
       }
     };
 
     sendMessage(OpCode.CLOSE, payload, true);
   }
 
+  @Override
+  public int getOutboundQueueDepth() {
+    return pendingSendCount.get();
+  }
+
   private void sendMessage(int opCode, LoggablePayload loggablePayload, boolean isClosingMessage)
       throws IOException {
-    int length = loggablePayload.getLength();
-    LoggableOutput output = getSocketWrapper().getLoggableOutput();
+    sendMessages(opCode, Collections.singletonList(loggablePayload), isClosingMessage);
+  }
 
-    byte[] maskBytes = maskStrategy.generate();
+  private void sendMessages(int opCode, List<LoggablePayload> payloads, boolean isClosingMessage)
+      throws IOException {
+    LoggableOutput output = getSocketWrapper().getLoggableOutput();
 
+    // Announce ourselves before taking the lock: whoever holds it will leave flushing to us.
+    pendingSendCount.incrementAndGet();
     synchronized (this) {
-      if (isOutputClosed()) {
-        throw new IOException("WebSocket is already closed for output");
-      }
-
-      if (isClosingMessage) {
-        // Close it before actually sending, because we can fail on it.
-        setOutputClosed(true);
+      try {
+        for (LoggablePayload payload : payloads) {
+          if (deflate != null) {
+            payload = payload.compress(deflate);
+          }
+          writeFrame(opCode, payload, isClosingMessage, output);
+          output.markSeparatorForLog();
+        }
+      } finally {
+        // Only the last of the senders that queued up on the lock flushes the output,
+        // so that messages sent in a burst go out in one write.
+        if (pendingSendCount.decrementAndGet() == 0) {
+          output.flush();
+        }
       }
+    }
+  }
 
-      byte firstByte = (byte) (FrameBits.FIN_BIT | OpCode.TEXT);
-
-      output.writeByte(firstByte);
+  /**
+   * Caller must be synchronized on this.
+   */
+  private void writeFrame(int opCode, LoggablePayload loggablePayload, boolean isClosingMessage,
+      LoggableOutput output) throws IOException {
+    int length = loggablePayload.getLength();
 
-      int maskFlag = maskBytes == null ? 0 : FrameBits.MASK_BIT;
+    if (isOutputClosed()) {
+      throw new IOException("WebSocket is already closed for output");
+    }
 
-      if (length <= 125) {
-        output.writeByte((byte) (length | maskFlag));
-      } else if (length <= FrameBits.MAX_TWO_BYTE_INT) {
-        output.writeByte((byte) (FrameBits.LENGTH_2_BYTE_CODE | maskFlag));
-        output.writeByte((byte) ((length >> 8) & 0xFF));
-        output.writeByte((byte) (length & 0xFF));
-      } else {
-        output.writeByte((byte) (FrameBits.LENGTH_8_BYTE_CODE | maskFlag));
-        output.writeByte((byte) 0);
-        output.writeByte((byte) 0);
-        output.writeByte((byte) 0);
-        output.writeByte((byte) 0);
-        output.writeByte((byte) (length >>> 24));
-        output.writeByte((byte) ((length >> 16) & 0xFF));
-        output.writeByte((byte) ((length >> 8) & 0xFF));
-        output.writeByte((byte) (length & 0xFF));
-      }
+    if (isClosingMessage) {
+      // Close it before actually sending, because we can fail on it.
+      setOutputClosed(true);
+    }
 
-      if (maskBytes != null) {
-        output.writeBytes(maskBytes);
-      }
-      loggablePayload.send(output, maskBytes);
+    int firstByte = FrameBits.FIN_BIT | opCode;
+    if (loggablePayload.isCompressed()) {
+      firstByte |= FrameBits.RSV1_BIT;
     }
 
-    output.markSeparatorForLog();
+    boolean masked = maskStrategy.isMasked();
+    int mask = masked ? maskStrategy.generate(maskRandom) : 0;
+
+    int headerLength = WsFrames.writeHeader(outgoingHeader, 0, firstByte, length, masked, mask);
+    output.writeBytes(outgoingHeader, 0, headerLength);
+    loggablePayload.send(output, mask);
   }
 
-  private static void performHandshakeOrFail(ManualLoggingSocketWrapper socket,
-      InetSocketAddress endpoint, String resourceId) throws IOException {
+  /**
+   * @param offerDeflate whether to offer "permessage-deflate" extension
+   * @return the negotiated compression or null
+   */
+  static PerMessageDeflate performHandshakeOrFail(ManualLoggingSocketWrapper socket,
+      InetSocketAddress endpoint, String resourceId, boolean offerDeflate) throws IOException {
     Hybi17Handshake.Result result =
-        Hybi17Handshake.performHandshake(socket, endpoint, resourceId, RANDOM);
-    result.accept(HANDSHAKE_RESULT_VISITOR).get();
+        Hybi17Handshake.performHandshake(socket, endpoint, resourceId, offerDeflate, RANDOM);
+    return result.accept(HANDSHAKE_RESULT_VISITOR).get();
   }
 
-  private static final Hybi17Handshake.Result.Visitor<DataOrException<Void>>
+  private static final Hybi17Handshake.Result.Visitor<DataOrException<PerMessageDeflate>>
       HANDSHAKE_RESULT_VISITOR =
-      new Hybi17Handshake.Result.Visitor<DataOrException<Void>>() {
+      new Hybi17Handshake.Result.Visitor<DataOrException<PerMessageDeflate>>() {
         @Override
-        public DataOrException<Void> visitConnected() {
-          return new DataOrException<Void>() {
-            @Override Void get() throws IOException {
-              return null;
+        public DataOrException<PerMessageDeflate> visitConnected(
+            final PerMessageDeflate deflate) {
+          return new DataOrException<PerMessageDeflate>() {
+            @Override PerMessageDeflate get() throws IOException {
+              return deflate;
             }
           };
         }
 
         @Override
-        public DataOrException<Void> visitUnknownError(final Exception exception) {
-          return new DataOrException<Void>() {
-            @Override Void get() throws IOException {
+        public DataOrException<PerMessageDeflate> visitUnknownError(final Exception exception) {
+          return new DataOrException<PerMessageDeflate>() {
+            @Override PerMessageDeflate get() throws IOException {
               throw new IOException("Failed to establish WebSocket connection", exception);
             }
           };
         }
 
         @Override
-        public DataOrException<Void> visitErrorMessage(final int code,
+        public DataOrException<PerMessageDeflate> visitErrorMessage(final int code,
             final String errorName, final String text) {
-          return new DataOrException<Void>() {
-            @Override Void get() throws IOException {
+          return new DataOrException<PerMessageDeflate>() {
+            @Override PerMessageDeflate get() throws IOException {
               throw new IOException("Failed to establish WebSocket connection: " + code + " " +
                   errorName + " | " + text);
             }
@@ -476,15 +689,7 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
     abstract T get() throws IOException;
   }
 
-  private static int readByteOfFail(LoggableInput loggableReader) throws IOException {
-    int b = loggableReader.readByteOrEos();
-    if (b == -1) {
-      throw new IOException("Unexpected EOS");
-    }
-    return b;
-  }
-
-  private interface FrameBits {
+  interface FrameBits {
     // First byte bits.
     int FIN_BIT = 1 << 7;
     int MASK_BIT = 1 << 7;
@@ -493,6 +698,7 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
     int OPCODE_LENGTH = 4;
     int OPCODE_MASK = (1 << OPCODE_LENGTH) - 1;
     int RESERVED_MASK = ((1 << 3) - 1) << OPCODE_LENGTH ;
+    int RSV1_BIT = 1 << 6;
 
     int LENGTH_MASK = (1 << 7) - 1;
     int LENGTH_2_BYTE_CODE = 126;
@@ -500,22 +706,26 @@ public class Hybi17WsConnection extends AbstractWsConnection<LoggableInput, Logg
 
     // Length bytes.
     int HIGH_BIT = 1 << 7;
-    int MAX_TWO_BYTE_INT = 1 << 16 - 1;
+    int MAX_TWO_BYTE_INT = (1 << 16) - 1;
   }
 
-  private interface OpCode {
+  interface OpCode {
     int CONTINUATION = 0x0;
     int TEXT = 0x1;
     int BINARY = 0x2;
     int CLOSE = 0x8;
     int PING = 0x9;
     int PONG = 0xA;
+
+    /** Set in opcodes of control frames. */
+    int CONTROL_BIT = 0x8;
   }
 
-  private interface StatusCode {
+  interface StatusCode {
     int NORMAL = 1000;
     int PROTOCOL_ERROR = 1002;
     int CANNOT_ACCEPT = 1003;
+    int MESSAGE_TOO_BIG = 1009;
   }
 
   private static final int STATUS_CODE_LENTGH = 2;
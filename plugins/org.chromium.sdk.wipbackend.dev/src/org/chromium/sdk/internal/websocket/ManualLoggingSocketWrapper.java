@@ -5,9 +5,11 @@
 package org.chromium.sdk.internal.websocket;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.Socket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
@@ -34,12 +36,32 @@ public class ManualLoggingSocketWrapper extends
     super(endpoint, connectionTimeoutMs, connectionLogger, wrapperFactory);
   }
 
+  public ManualLoggingSocketWrapper(Socket connectedSocket, ConnectionLogger connectionLogger,
+      WrapperFactory<LoggableInput, LoggableOutput> wrapperFactory) throws IOException {
+    super(connectedSocket, connectionLogger, wrapperFactory);
+  }
+
   /**
    * Provides access to incoming bytes and possibly logs traffic.
    */
   public static abstract class LoggableInput {
     public abstract int readByteOrEos() throws IOException;
     public abstract byte[] readBytes(int length) throws IOException;
+    public abstract void readBytes(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Reads bytes like {@link #readBytes(byte[], int, int)}, but logs them as binary data.
+     */
+    public abstract void readBinaryBytes(byte[] buffer, int offset, int length)
+        throws IOException;
+
+    /**
+     * Reads bytes like {@link #readBinaryBytes}, unless the stream ends right away.
+     * @return false if the stream has ended before the first byte
+     */
+    public abstract boolean readBinaryBytesOrEos(byte[] buffer, int offset, int length)
+        throws IOException;
+
     public abstract ByteBuffer readUpTo0x0D0A() throws IOException;
 
     public abstract void markSeparatorForLog();
@@ -57,8 +79,11 @@ public class ManualLoggingSocketWrapper extends
     public abstract void writeByteToLog(byte b) throws IOException;
 
     public abstract void writeBytes(byte[] bytes) throws IOException;
+    public abstract void writeBytes(byte[] bytes, int offset, int length) throws IOException;
     public abstract void writeBytesToLog(byte[] bytes);
     public abstract void writeBytesNoLogging(byte[] bytes) throws IOException;
+    public abstract void writeBytesNoLogging(byte[] bytes, int offset, int length)
+        throws IOException;
 
     /**
      * Write a string to log with a small string that may somehow annotate that this
@@ -66,6 +91,12 @@ public class ManualLoggingSocketWrapper extends
      */
     public abstract void writeToLog(String string, String annotation) throws IOException;
 
+    /**
+     * Pushes all written bytes into socket. Output is buffered, so this must be called
+     * after each message or group of messages.
+     */
+    public abstract void flush() throws IOException;
+
     public abstract void markSeparatorForLog();
   }
 
@@ -118,16 +149,36 @@ public class ManualLoggingSocketWrapper extends
         @Override
         public byte[] readBytes(int length) throws IOException {
           byte[] result = new byte[length];
-          int offset = 0;
+          readBytes(result, 0, length);
+          return result;
+        }
+
+        @Override
+        public void readBytes(byte[] buffer, int offset, int length) throws IOException {
           while (length > 0) {
-            int r = bufferedInputStream.read(result, offset, length);
+            int r = bufferedInputStream.read(buffer, offset, length);
             if (r == -1) {
               throw new IOException("Unexpected EOS");
             }
             length -= r;
             offset += r;
           }
-          return result;
+        }
+
+        @Override
+        public void readBinaryBytes(byte[] buffer, int offset, int length) throws IOException {
+          readBytes(buffer, offset, length);
+        }
+
+        @Override
+        public boolean readBinaryBytesOrEos(byte[] buffer, int offset, int length)
+            throws IOException {
+          int r = bufferedInputStream.read(buffer, offset, length);
+          if (r == -1) {
+            return false;
+          }
+          readBytes(buffer, offset + r, length - r);
+          return true;
         }
 
         @Override
@@ -137,7 +188,8 @@ public class ManualLoggingSocketWrapper extends
     }
 
     @Override
-    public LoggableOutput wrapOutputStream(final OutputStream outputStream) {
+    public LoggableOutput wrapOutputStream(OutputStream socketOutputStream) {
+      final OutputStream outputStream = new BufferedOutputStream(socketOutputStream);
       return new LoggableOutput() {
         @Override public void writeAsciiString(String string) throws IOException {
           outputStream.write(string.getBytes(UTF_8_CHARSET));
@@ -148,11 +200,19 @@ public class ManualLoggingSocketWrapper extends
         @Override public void writeBytes(byte[] bytes) throws IOException {
           outputStream.write(bytes);
         }
+        @Override public void writeBytes(byte[] bytes, int offset, int length)
+            throws IOException {
+          outputStream.write(bytes, offset, length);
+        }
         @Override public void writeBytesToLog(byte[] bytes) {
         }
         @Override public void writeBytesNoLogging(byte[] bytes) throws IOException {
           outputStream.write(bytes);
         }
+        @Override public void writeBytesNoLogging(byte[] bytes, int offset, int length)
+            throws IOException {
+          outputStream.write(bytes, offset, length);
+        }
         @Override public void writeToLog(String string, String annotation) throws IOException {
         }
         @Override public void writeByteNoLogging(byte b) throws IOException {
@@ -160,6 +220,9 @@ public class ManualLoggingSocketWrapper extends
         }
         @Override public void writeByteToLog(byte b) throws IOException {
         }
+        @Override public void flush() throws IOException {
+          outputStream.flush();
+        }
         @Override public void markSeparatorForLog() {
         }
       };
@@ -186,6 +249,36 @@ public class ManualLoggingSocketWrapper extends
           return bytes;
         }
 
+        @Override
+        public void readBytes(byte[] buffer, int offset, int length) throws IOException {
+          originalInputWrapper.readBytes(buffer, offset, length);
+          streamListener.addContent(new String(buffer, offset, length, CHARSET));
+        }
+
+        @Override
+        public void readBinaryBytes(byte[] buffer, int offset, int length) throws IOException {
+          originalInputWrapper.readBinaryBytes(buffer, offset, length);
+          logBinaryBytes(buffer, offset, length);
+        }
+
+        @Override
+        public boolean readBinaryBytesOrEos(byte[] buffer, int offset, int length)
+            throws IOException {
+          if (!originalInputWrapper.readBinaryBytesOrEos(buffer, offset, length)) {
+            return false;
+          }
+          logBinaryBytes(buffer, offset, length);
+          return true;
+        }
+
+        private void logBinaryBytes(byte[] buffer, int offset, int length) {
+          StringBuilder builder = new StringBuilder(length * 4);
+          for (int i = offset; i < offset + length; i++) {
+            dumpByte(buffer[i], builder);
+          }
+          streamListener.addContent(builder);
+        }
+
         @Override
         public int readByteOrEos() throws IOException {
           int res = originalInputWrapper.readByteOrEos();
@@ -228,14 +321,24 @@ public class ManualLoggingSocketWrapper extends
 
       @Override
       public void writeBytes(byte[] bytes) throws IOException {
-        originalOutputWrapper.writeBytes(bytes);
-        StringBuilder builder = new StringBuilder(bytes.length * 4);
-        for (byte b : bytes) {
-          dumpByte(b, builder);
+        writeBytes(bytes, 0, bytes.length);
+      }
+
+      @Override
+      public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        originalOutputWrapper.writeBytes(bytes, offset, length);
+        StringBuilder builder = new StringBuilder(length * 4);
+        for (int i = offset; i < offset + length; i++) {
+          dumpByte(bytes[i], builder);
         }
         streamListener.addContent(builder);
       }
 
+      @Override
+      public void flush() throws IOException {
+        originalOutputWrapper.flush();
+      }
+
       @Override
       public void markSeparatorForLog() {
         streamListener.addSeparator();
@@ -282,8 +385,14 @@ public class ManualLoggingSocketWrapper extends
 
         @Override
         public void writeBytesNoLogging(byte[] bytes) throws IOException {
-          getOriginalOutputWrapper().writeBytesNoLogging(bytes);
-          String str = new String(bytes, CHARSET);
+          writeBytesNoLogging(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void writeBytesNoLogging(byte[] bytes, int offset, int length)
+            throws IOException {
+          getOriginalOutputWrapper().writeBytesNoLogging(bytes, offset, length);
+          String str = new String(bytes, offset, length, CHARSET);
           getStreamListener().addContent(str);
         }
       };
@@ -329,6 +438,12 @@ public class ManualLoggingSocketWrapper extends
         public void writeBytesNoLogging(byte[] bytes) throws IOException {
           getOriginalOutputWrapper().writeBytesNoLogging(bytes);
         }
+
+        @Override
+        public void writeBytesNoLogging(byte[] bytes, int offset, int length)
+            throws IOException {
+          getOriginalOutputWrapper().writeBytesNoLogging(bytes, offset, length);
+        }
       };
     }
   };
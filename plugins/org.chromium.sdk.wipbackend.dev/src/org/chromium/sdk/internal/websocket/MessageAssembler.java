@@ -0,0 +1,263 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.chromium.sdk.internal.websocket.WsConnection.Listener;
+import org.chromium.sdk.internal.websocket.WsConnection.StreamingListener;
+
+/**
+ * Reassembles a message that comes in several frames into chunks taken from
+ * a {@link ChunkPool}. The message is never concatenated into a single array unless
+ * the listener needs a string; a {@link StreamingListener} reads it as a stream.
+ * <p>
+ * The assembler is used from the reading thread only. The messages it creates may be
+ * dispatched and released on any thread.
+ */
+public class MessageAssembler {
+  /** The maximum size of an incoming message in bytes. */
+  public static final String MAX_MESSAGE_SIZE_PROPERTY =
+      "org.chromium.sdk.client.websocket.maxMessageSize";
+
+  private static final int DEFAULT_MAX_MESSAGE_SIZE = 256 * 1024 * 1024;
+
+  private static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
+
+  static int getDefaultMaxMessageSize() {
+    return Integer.getInteger(MAX_MESSAGE_SIZE_PROPERTY, DEFAULT_MAX_MESSAGE_SIZE);
+  }
+
+  private final ChunkPool pool;
+  private final int maxMessageSize;
+
+  // Not null while a message is being assembled.
+  private List<byte[]> chunks = null;
+  private boolean binary;
+  private int size;
+
+  public MessageAssembler(ChunkPool pool, int maxMessageSize) {
+    this.pool = pool;
+    this.maxMessageSize = maxMessageSize;
+  }
+
+  public int getMaxMessageSize() {
+    return maxMessageSize;
+  }
+
+  /**
+   * @return whether a fragmented message has been started and not finished yet
+   */
+  public boolean isInProgress() {
+    return chunks != null;
+  }
+
+  public void start(boolean binary) {
+    if (chunks != null) {
+      throw new IllegalStateException("Message is already in progress");
+    }
+    this.chunks = new ArrayList<byte[]>();
+    this.binary = binary;
+    this.size = 0;
+  }
+
+  /**
+   * @return whether a message would stay within the maximum size after another frame
+   *     of the given length
+   */
+  public boolean canAccept(long frameLength) {
+    return size + frameLength <= maxMessageSize;
+  }
+
+  /**
+   * Returns the chunk that the next bytes go to, taking a new one if needed. It must be called
+   * before {@link #getTailOffset} and {@link #getTailSpace}; written bytes are reported
+   * with {@link #commit}.
+   */
+  public byte[] getTailChunk() {
+    if (getTailSpace() == 0) {
+      chunks.add(pool.take());
+    }
+    return chunks.get(chunks.size() - 1);
+  }
+
+  public int getTailOffset() {
+    return size - (chunks.size() - 1) * ChunkPool.CHUNK_SIZE;
+  }
+
+  /**
+   * @return how many bytes may be written to the tail chunk
+   */
+  public int getTailSpace() {
+    return chunks.size() * ChunkPool.CHUNK_SIZE - size;
+  }
+
+  /**
+   * Reports that length bytes have been written to the tail chunk.
+   */
+  public void commit(int length) {
+    size += length;
+  }
+
+  /**
+   * Appends length bytes from the buffer.
+   */
+  public void append(ByteBuffer data, int length) {
+    while (length > 0) {
+      byte[] chunk = getTailChunk();
+      int n = Math.min(length, getTailSpace());
+      data.get(chunk, getTailOffset(), n);
+      commit(n);
+      length -= n;
+    }
+  }
+
+  /**
+   * Completes the message. The assembler is ready for the next one.
+   */
+  public Message finish() {
+    Message message = new Message(chunks, size, binary, pool);
+    chunks = null;
+    return message;
+  }
+
+  /**
+   * Drops the message in progress, if any.
+   */
+  public void reset() {
+    if (chunks == null) {
+      return;
+    }
+    for (byte[] chunk : chunks) {
+      pool.give(chunk);
+    }
+    chunks = null;
+  }
+
+  /**
+   * A complete message. Once dispatched, its chunks go back to the pool.
+   */
+  public static class Message {
+    /** Wraps a message that came in a single frame. */
+    static Message wrap(byte[] bytes, boolean binary) {
+      List<byte[]> chunks = new ArrayList<byte[]>(1);
+      chunks.add(bytes);
+      return new Message(chunks, bytes.length, binary, null);
+    }
+
+    private final List<byte[]> chunks;
+    private final int chunkSize;
+    private final int size;
+    private final boolean binary;
+    private final ChunkPool pool;
+
+    private Message(List<byte[]> chunks, int size, boolean binary, ChunkPool pool) {
+      this.chunks = chunks;
+      this.chunkSize = pool == null ? Math.max(size, 1) : ChunkPool.CHUNK_SIZE;
+      this.size = size;
+      this.binary = binary;
+      this.pool = pool;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    public boolean isBinary() {
+      return binary;
+    }
+
+    /**
+     * @return the stream over the message bytes; it is valid until {@link #release}
+     */
+    public InputStream openStream() {
+      return new ChunkInputStream();
+    }
+
+    public byte[] toByteArray() {
+      if (pool == null) {
+        return chunks.get(0);
+      }
+      byte[] result = new byte[size];
+      int pos = 0;
+      for (byte[] chunk : chunks) {
+        int n = Math.min(chunk.length, size - pos);
+        System.arraycopy(chunk, 0, result, pos, n);
+        pos += n;
+      }
+      return result;
+    }
+
+    /**
+     * Passes the message to the listener and releases it. A listener that does not read
+     * streams gets the message as a string; a binary message is expected to hold UTF-8
+     * text then.
+     */
+    void dispatchTo(Listener listener) {
+      try {
+        if (listener instanceof StreamingListener) {
+          ((StreamingListener) listener).messageStreamReceived(openStream(), binary);
+        } else {
+          listener.textMessageRecieved(new String(toByteArray(), UTF_8_CHARSET));
+        }
+      } finally {
+        release();
+      }
+    }
+
+    /**
+     * Returns the chunks to the pool. The message must not be used after this.
+     */
+    public void release() {
+      if (pool == null) {
+        return;
+      }
+      synchronized (chunks) {
+        for (byte[] chunk : chunks) {
+          pool.give(chunk);
+        }
+        chunks.clear();
+      }
+    }
+
+    private class ChunkInputStream extends InputStream {
+      private int pos = 0;
+
+      @Override
+      public int read() {
+        if (pos == size) {
+          return -1;
+        }
+        byte b = chunks.get(pos / chunkSize)[pos % chunkSize];
+        pos++;
+        return b & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+          return 0;
+        }
+        if (pos == size) {
+          return -1;
+        }
+        int offsetInChunk = pos % chunkSize;
+        int n = Math.min(len, Math.min(chunkSize - offsetInChunk, size - pos));
+        System.arraycopy(chunks.get(pos / chunkSize), offsetInChunk, b, off, n);
+        pos += n;
+        return n;
+      }
+
+      @Override
+      public int available() {
+        return size - pos;
+      }
+    }
+  }
+}
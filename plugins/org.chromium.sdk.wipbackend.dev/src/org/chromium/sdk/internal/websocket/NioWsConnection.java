@@ -0,0 +1,577 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.chromium.sdk.ConnectionLogger;
+import org.chromium.sdk.RelayOk;
+import org.chromium.sdk.SyncCallback;
+import org.chromium.sdk.internal.transport.CaptureFile;
+import org.chromium.sdk.internal.transport.NioSelectorPool;
+import org.chromium.sdk.internal.transport.TransportStats;
+import org.chromium.sdk.internal.websocket.AbstractWsConnection.CloseReason;
+import org.chromium.sdk.internal.websocket.Hybi17WsConnection.FrameBits;
+import org.chromium.sdk.internal.websocket.Hybi17WsConnection.MaskStrategy;
+import org.chromium.sdk.internal.websocket.Hybi17WsConnection.OpCode;
+import org.chromium.sdk.internal.websocket.Hybi17WsConnection.StatusCode;
+import org.chromium.sdk.util.SignalRelay;
+import org.chromium.sdk.util.SignalRelay.AlreadySignalledException;
+
+/**
+ * HyBi-17 WebSocket connection that does not own any threads. The socket is served by a shared
+ * {@link NioSelectorPool}, incoming frames are decoded incrementally and messages are dispatched
+ * via a per-connection {@link NioSelectorPool.DispatchQueue}.
+ * The handshake is performed in blocking mode by {@link Hybi17Handshake}.
+ * @see http://tools.ietf.org/html/draft-ietf-hybi-thewebsocketprotocol-17
+ */
+public class NioWsConnection implements WsConnection, TransportStats {
+  private static final Logger LOGGER = Logger.getLogger(NioWsConnection.class.getName());
+
+  public static NioWsConnection connect(InetSocketAddress endpoint, int timeout,
+      String resourceId, MaskStrategy maskStrategy, ConnectionLogger connectionLogger,
+      NioSelectorPool selectorPool) throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    boolean handshakeDone = false;
+    try {
+      channel.socket().connect(endpoint, timeout);
+      ManualLoggingSocketWrapper socketWrapper = new ManualLoggingSocketWrapper(
+          channel.socket(), connectionLogger, maskStrategy.getLogWrapperFactory());
+      // Remote does not send anything after handshake response until we send a command,
+      // so no frame bytes can be left in the buffered input of the wrapper.
+      // Compression is not offered: frames are decoded right in the selector thread.
+      Hybi17WsConnection.performHandshakeOrFail(socketWrapper, endpoint, resourceId, false);
+      handshakeDone = true;
+      return new NioWsConnection(channel, socketWrapper, maskStrategy, connectionLogger,
+          selectorPool);
+    } finally {
+      if (!handshakeDone) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  private final SocketChannel channel;
+  private final MaskStrategy maskStrategy;
+  private final Random maskRandom = new Random();
+  private final ConnectionLogger connectionLogger;
+  private final NioSelectorPool selectorPool;
+  private final NioSelectorPool.DispatchQueue dispatchQueue;
+  private final CaptureFile.Recorder captureRecorder = CaptureFile.createDefaultRecorder();
+
+  private volatile NioSelectorPool.Registration registration = null;
+  private volatile Listener listener = null;
+  private volatile boolean isClosingGracefully = false;
+
+  // Access must be synchronized on dispatchQueue.
+  private boolean isDispatchQueueClosed = false;
+
+  // Access must be synchronized on this.
+  private boolean isOutputClosed = false;
+
+  private NioWsConnection(SocketChannel channel, ManualLoggingSocketWrapper socketWrapper,
+      MaskStrategy maskStrategy, ConnectionLogger connectionLogger,
+      NioSelectorPool selectorPool) {
+    this.channel = channel;
+    this.maskStrategy = maskStrategy;
+    this.connectionLogger = connectionLogger;
+    this.selectorPool = selectorPool;
+    this.dispatchQueue = selectorPool.createDispatchQueue();
+
+    // Socket wrapper may be closed from logger UI.
+    SignalRelay<Void> socketCloseListener = SignalRelay.create(new SignalRelay.Callback<Void>() {
+      @Override public void onSignal(Void param, Exception cause) {
+        linkedCloser.sendSignal(CloseReason.CONNECTION_CLOSED, cause);
+      }
+    });
+    try {
+      socketCloseListener.bind(socketWrapper.getShutdownRelay(), null, null);
+    } catch (AlreadySignalledException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void startListening(Listener listener) {
+    this.listener = listener;
+    if (connectionLogger != null) {
+      connectionLogger.start();
+    }
+    try {
+      registration = selectorPool.register(channel, new ChannelHandlerImpl());
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, "Failed to register channel", e);
+      new ChannelHandlerImpl().channelClosed(e);
+    }
+  }
+
+  @Override
+  public void sendTextualMessage(String message) throws IOException {
+    logOutgoing(message);
+    int length = WsFrames.utf8Length(message);
+    ByteBuffer frame = ByteBuffer.allocate(WsFrames.MAX_HEADER_LENGTH + length);
+    // The message is encoded right into the frame, after the room reserved for header.
+    WsFrames.encodeUtf8(message, 0, message.length(), frame.array(),
+        WsFrames.MAX_HEADER_LENGTH);
+    // Keep captured messages in the order they are queued for writing.
+    synchronized (this) {
+      if (captureRecorder != null) {
+        captureRecorder.record(false, CaptureFile.Kind.MESSAGE, frame.array(),
+            WsFrames.MAX_HEADER_LENGTH, length);
+      }
+      sendFrame(OpCode.TEXT, frame, false);
+    }
+  }
+
+  @Override
+  public void sendTextualMessages(List<String> messages) throws IOException {
+    // Frames are queued to the I/O thread that writes all pending frames with a single call.
+    for (String message : messages) {
+      sendTextualMessage(message);
+    }
+  }
+
+  @Override
+  public RelayOk runInDispatchThread(final Runnable runnable, final SyncCallback syncCallback) {
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        RuntimeException ex = null;
+        try {
+          runnable.run();
+        } catch (RuntimeException e) {
+          ex = e;
+          throw e;
+        } finally {
+          syncCallback.callbackDone(ex);
+        }
+      }
+    };
+    synchronized (dispatchQueue) {
+      if (isDispatchQueueClosed) {
+        throw new IllegalStateException("Connection is closed");
+      }
+      dispatchQueue.post(task);
+    }
+    return DISPATCH_THREAD_PROMISES_TO_RELAY_OK;
+  }
+
+  @Override
+  public long getBytesReceived() {
+    NioSelectorPool.Registration registrationSaved = registration;
+    return registrationSaved == null
+        ? 0
+        : registrationSaved.getBytesRead();
+  }
+
+  @Override
+  public long getBytesSent() {
+    NioSelectorPool.Registration registrationSaved = registration;
+    return registrationSaved == null
+        ? 0
+        : registrationSaved.getBytesWritten();
+  }
+
+  @Override
+  public int getInboundQueueDepth() {
+    return dispatchQueue.getPendingTaskCount();
+  }
+
+  @Override
+  public int getOutboundQueueDepth() {
+    NioSelectorPool.Registration registrationSaved = registration;
+    return registrationSaved == null
+        ? 0
+        : registrationSaved.getPendingWriteCount();
+  }
+
+  @Override
+  public SignalRelay<?> getCloser() {
+    return linkedCloser;
+  }
+
+  private void sendFrame(int opCode, byte[] payload, boolean isClosingMessage)
+      throws IOException {
+    ByteBuffer frame = ByteBuffer.allocate(WsFrames.MAX_HEADER_LENGTH + payload.length);
+    System.arraycopy(payload, 0, frame.array(), WsFrames.MAX_HEADER_LENGTH, payload.length);
+    sendFrame(opCode, frame, isClosingMessage);
+  }
+
+  /**
+   * @param frame holds the payload after {@link WsFrames#MAX_HEADER_LENGTH} bytes reserved
+   *     for header; the header is written right before the payload
+   */
+  private void sendFrame(int opCode, ByteBuffer frame, boolean isClosingMessage)
+      throws IOException {
+    boolean masked = maskStrategy.isMasked();
+    int mask = masked ? maskStrategy.generate(maskRandom) : 0;
+    int length = frame.capacity() - WsFrames.MAX_HEADER_LENGTH;
+    int headerStart = WsFrames.MAX_HEADER_LENGTH - WsFrames.getHeaderLength(length, masked);
+    WsFrames.writeHeader(frame.array(), headerStart, FrameBits.FIN_BIT | opCode, length, masked,
+        mask);
+    WsFrames.mask(frame, WsFrames.MAX_HEADER_LENGTH, frame.capacity(), mask, 0);
+    frame.position(headerStart);
+
+    synchronized (this) {
+      if (isOutputClosed) {
+        throw new IOException("WebSocket is already closed for output");
+      }
+      if (isClosingMessage) {
+        isOutputClosed = true;
+      }
+      NioSelectorPool.Registration registrationSaved = registration;
+      if (registrationSaved == null) {
+        throw new IOException("WebSocket is not listening yet");
+      }
+      try {
+        registrationSaved.write(frame);
+      } catch (IllegalStateException e) {
+        throw new IOException("WebSocket is closed", e);
+      }
+    }
+  }
+
+  private void sendClosingMessage(int statusCode, String message) {
+    byte[] messageBytes = message == null
+        ? new byte[0] : message.getBytes(AbstractWsConnection.UTF_8_CHARSET);
+    byte[] payload = new byte[STATUS_CODE_LENGTH + messageBytes.length];
+    payload[0] = (byte) ((statusCode >> 8) & 0xFF);
+    payload[1] = (byte) (statusCode & 0xFF);
+    System.arraycopy(messageBytes, 0, payload, STATUS_CODE_LENGTH, messageBytes.length);
+    try {
+      sendFrame(OpCode.CLOSE, payload, true);
+    } catch (IOException e) {
+      // Connection may be closed by this time.
+      LOGGER.log(Level.FINE, "Failed to send close frame", e);
+    }
+  }
+
+  private void logOutgoing(String message) {
+    if (connectionLogger == null) {
+      return;
+    }
+    ConnectionLogger.StreamListener streamListener =
+        connectionLogger.getOutgoingStreamListener();
+    if (streamListener == null) {
+      return;
+    }
+    synchronized (streamListener) {
+      streamListener.addContent(message);
+      streamListener.addSeparator();
+    }
+  }
+
+  private void dispatch(String text) {
+    dispatchQueue.post(ParallelParser.prepare(listener, text));
+  }
+
+  private void dispatch(MessageAssembler.Message message) {
+    dispatchQueue.post(ParallelParser.prepare(listener, message));
+  }
+
+  private final SignalRelay<CloseReason> linkedCloser =
+      SignalRelay.create(new SignalRelay.Callback<CloseReason>() {
+    @Override public void onSignal(CloseReason param, Exception cause) {
+      isClosingGracefully = true;
+      NioSelectorPool.Registration registrationSaved = registration;
+      if (registrationSaved == null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      } else {
+        registrationSaved.close(true);
+      }
+    }
+  });
+
+  /**
+   * Decodes incoming frames. Called from the I/O thread only.
+   */
+  private class ChannelHandlerImpl implements NioSelectorPool.ChannelHandler {
+    private final byte[] header = new byte[WsFrames.MAX_HEADER_LENGTH];
+    private int headerPos = 0;
+
+    // Not null while reading payload of a single-frame message or a control frame.
+    private byte[] payload = null;
+    private int payloadPos = 0;
+    private int opcode;
+
+    private final MessageAssembler messageAssembler =
+        new MessageAssembler(ChunkPool.SHARED, MessageAssembler.getDefaultMaxMessageSize());
+
+    // Whether payload of a message fragment is being read into messageAssembler.
+    private boolean isReadingFragment = false;
+    private int fragmentRemaining = 0;
+    private boolean isFinalFragment;
+
+    private CloseReason closeReason = null;
+    private boolean isStopped = false;
+
+    @Override
+    public void dataReceived(ByteBuffer data) {
+      if (isStopped) {
+        return;
+      }
+      try {
+        while (data.hasRemaining() && !isStopped) {
+          if (payload != null) {
+            readPayload(data);
+          } else if (isReadingFragment) {
+            readFragment(data);
+          } else {
+            readHeader(data);
+          }
+        }
+      } catch (IncomingProtocolException e) {
+        LOGGER.log(Level.SEVERE, "WebSocket protocol error", e);
+        isStopped = true;
+        closeReason = CloseReason.INPUT_STREAM_PROBLEM;
+        sendClosingMessage(e.statusCode, e.getMessage());
+        linkedCloser.sendSignal(closeReason, e);
+      }
+    }
+
+    private void readHeader(ByteBuffer data) throws IncomingProtocolException {
+      header[headerPos++] = data.get();
+      if (headerPos < 2) {
+        return;
+      }
+      int firstByte = header[0] & 0xFF;
+      int secondByte = header[1] & 0xFF;
+      if (headerPos == 2) {
+        if ((firstByte & FrameBits.FIN_BIT) == 0 &&
+            (firstByte & OpCode.CONTROL_BIT) != 0) {
+          throw new IncomingProtocolException("Fragmented control frame",
+              StatusCode.PROTOCOL_ERROR);
+        }
+        if ((firstByte & FrameBits.RESERVED_MASK) != 0) {
+          throw new IncomingProtocolException("Unexpected reserved bits",
+              StatusCode.PROTOCOL_ERROR);
+        }
+        if ((secondByte & FrameBits.MASK_BIT) != 0) {
+          throw new IncomingProtocolException(
+              "Masked server-to-client message is not supported", StatusCode.PROTOCOL_ERROR);
+        }
+      }
+      int lengthCode = secondByte & FrameBits.LENGTH_MASK;
+      long length;
+      if (lengthCode == FrameBits.LENGTH_2_BYTE_CODE) {
+        if (headerPos < 4) {
+          return;
+        }
+        length = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+      } else if (lengthCode == FrameBits.LENGTH_8_BYTE_CODE) {
+        if (headerPos < 10) {
+          return;
+        }
+        length = ByteBuffer.wrap(header, 2, 8).getLong();
+        if (length < 0 || length > Integer.MAX_VALUE) {
+          throw new IncomingProtocolException("Payload length is too large",
+              StatusCode.CANNOT_ACCEPT);
+        }
+      } else {
+        length = lengthCode;
+      }
+      opcode = firstByte & FrameBits.OPCODE_MASK;
+      headerPos = 0;
+      boolean isFinal = (firstByte & FrameBits.FIN_BIT) != 0;
+      if (startFrame(isFinal)) {
+        if (!messageAssembler.canAccept(length)) {
+          throw new IncomingProtocolException("Message is too large",
+              StatusCode.MESSAGE_TOO_BIG);
+        }
+        isReadingFragment = true;
+        fragmentRemaining = (int) length;
+        isFinalFragment = isFinal;
+        if (length == 0) {
+          fragmentRead();
+        }
+        return;
+      }
+      if ((opcode & OpCode.CONTROL_BIT) == 0 && length > messageAssembler.getMaxMessageSize()) {
+        throw new IncomingProtocolException("Message is too large", StatusCode.MESSAGE_TOO_BIG);
+      }
+      payload = new byte[(int) length];
+      payloadPos = 0;
+      if (length == 0) {
+        processFrame();
+      }
+    }
+
+    /**
+     * Checks the frame opcode against the message being assembled.
+     * @return whether the frame is a fragment of a message
+     */
+    private boolean startFrame(boolean isFinal) throws IncomingProtocolException {
+      switch (opcode) {
+      case OpCode.CONTINUATION:
+        if (!messageAssembler.isInProgress()) {
+          throw new IncomingProtocolException("Unexpected continuation frame",
+              StatusCode.PROTOCOL_ERROR);
+        }
+        return true;
+      case OpCode.TEXT:
+      case OpCode.BINARY:
+        if (messageAssembler.isInProgress()) {
+          throw new IncomingProtocolException("Fragmented message is not finished",
+              StatusCode.PROTOCOL_ERROR);
+        }
+        if (isFinal) {
+          return false;
+        }
+        messageAssembler.start(opcode == OpCode.BINARY);
+        return true;
+      default:
+        return false;
+      }
+    }
+
+    private void readFragment(ByteBuffer data) {
+      int len = Math.min(data.remaining(), fragmentRemaining);
+      messageAssembler.append(data, len);
+      fragmentRemaining -= len;
+      if (fragmentRemaining == 0) {
+        fragmentRead();
+      }
+    }
+
+    private void fragmentRead() {
+      isReadingFragment = false;
+      if (isFinalFragment) {
+        processMessage(messageAssembler.finish());
+      }
+    }
+
+    private void processMessage(MessageAssembler.Message message) {
+      if (captureRecorder != null || connectionLogger != null) {
+        byte[] bytes = message.toByteArray();
+        if (captureRecorder != null) {
+          captureRecorder.record(true, CaptureFile.Kind.MESSAGE, bytes, 0, bytes.length);
+        }
+        logIncoming(new String(bytes, AbstractWsConnection.UTF_8_CHARSET));
+      }
+      dispatch(message);
+    }
+
+    private void readPayload(ByteBuffer data) throws IncomingProtocolException {
+      int len = Math.min(data.remaining(), payload.length - payloadPos);
+      data.get(payload, payloadPos, len);
+      payloadPos += len;
+      if (payloadPos == payload.length) {
+        processFrame();
+      }
+    }
+
+    private void processFrame() throws IncomingProtocolException {
+      byte[] bytes = payload;
+      payload = null;
+      switch (opcode) {
+      case OpCode.TEXT:
+        if (captureRecorder != null) {
+          captureRecorder.record(true, CaptureFile.Kind.MESSAGE, bytes, 0, bytes.length);
+        }
+        String text = new String(bytes, AbstractWsConnection.UTF_8_CHARSET);
+        logIncoming(text);
+        dispatch(text);
+        break;
+      case OpCode.PING:
+        try {
+          sendFrame(OpCode.PONG, bytes, false);
+        } catch (IOException e) {
+          LOGGER.log(Level.WARNING, "Failed to send pong", e);
+        }
+        break;
+      case OpCode.PONG:
+        // Ignore
+        break;
+      case OpCode.CLOSE:
+        isStopped = true;
+        closeReason = CloseReason.REMOTE_CLOSE_REQUEST;
+        sendClosingMessage(StatusCode.NORMAL, null);
+        linkedCloser.sendSignal(closeReason, null);
+        break;
+      case OpCode.BINARY:
+        processMessage(MessageAssembler.Message.wrap(bytes, true));
+        break;
+      default:
+        throw new IncomingProtocolException("Unsupported opcode " + opcode,
+            StatusCode.CANNOT_ACCEPT);
+      }
+    }
+
+    private void logIncoming(String text) {
+      if (connectionLogger == null) {
+        return;
+      }
+      ConnectionLogger.StreamListener streamListener =
+          connectionLogger.getIncomingStreamListener();
+      if (streamListener != null) {
+        streamListener.addContent(text);
+        streamListener.addSeparator();
+      }
+    }
+
+    @Override
+    public void channelClosed(IOException cause) {
+      CloseReason reason = closeReason;
+      if (reason == null) {
+        if (cause != null) {
+          LOGGER.log(Level.SEVERE, "Connection read failure", cause);
+          reason = CloseReason.INPUT_STREAM_PROBLEM;
+        } else if (isClosingGracefully) {
+          reason = CloseReason.USER_REQUEST;
+        } else {
+          LOGGER.log(Level.INFO,
+              "Remote side silently closed connection without 'close' message");
+          reason = CloseReason.REMOTE_SILENTLY_CLOSED;
+        }
+      }
+      synchronized (dispatchQueue) {
+        isDispatchQueueClosed = true;
+        dispatchQueue.post(new Runnable() {
+          @Override
+          public void run() {
+            listener.eofMessage();
+          }
+        });
+      }
+      if (connectionLogger != null) {
+        connectionLogger.handleEos();
+      }
+      if (captureRecorder != null) {
+        captureRecorder.recordClose();
+      }
+      linkedCloser.sendSignal(reason, cause);
+    }
+  }
+
+  private static class IncomingProtocolException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    IncomingProtocolException(String message, int statusCode) {
+      super(message);
+      this.statusCode = statusCode;
+    }
+  }
+
+  private static final int STATUS_CODE_LENGTH = 2;
+
+  private static final RelayOk DISPATCH_THREAD_PROMISES_TO_RELAY_OK = new RelayOk() {};
+}
@@ -0,0 +1,145 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.chromium.sdk.internal.websocket.WsConnection.Listener;
+import org.chromium.sdk.internal.websocket.WsConnection.ParsingListener;
+
+/**
+ * Prepares incoming messages for the Dispatch thread. Messages for a {@link ParsingListener}
+ * are parsed on a shared pool of worker threads as soon as they are received, several at
+ * a time. The returned tasks still go into the dispatch queue in the order the messages came;
+ * a task waits for its own message to get parsed, so the listener sees messages in the
+ * original order while the messages behind it are being parsed.
+ * <p>
+ * Small messages are parsed right on the Dispatch thread, because a hand-off would cost more
+ * than the parsing.
+ */
+class ParallelParser {
+  /**
+   * An integer property: the number of parse threads; 0 makes all messages get parsed
+   * on the Dispatch thread. The default is the number of processors.
+   */
+  static final String THREADS_PROPERTY = "org.chromium.sdk.client.websocket.parseThreads";
+
+  /** Messages shorter than this (in bytes or chars) are parsed on the Dispatch thread. */
+  static final int MIN_PARALLEL_SIZE = 4 * 1024;
+
+  /**
+   * @param listener the connection listener; messages are only parsed in advance
+   *     for {@link ParsingListener}
+   * @return a task that delivers the message to the listener, to be run on Dispatch thread
+   */
+  static Runnable prepare(final Listener listener, final String text) {
+    if (listener instanceof ParsingListener && text.length() >= MIN_PARALLEL_SIZE &&
+        getExecutor() != null) {
+      return prepareParsed((ParsingListener<?>) listener, text, null);
+    }
+    return new Runnable() {
+      @Override public void run() {
+        listener.textMessageRecieved(text);
+      }
+    };
+  }
+
+  /**
+   * Same as {@link #prepare(Listener, String)}, but for a message that is delivered as
+   * a stream. The message gets released once parsed.
+   */
+  static Runnable prepare(final Listener listener, final MessageAssembler.Message message) {
+    if (listener instanceof ParsingListener && message.getSize() >= MIN_PARALLEL_SIZE &&
+        getExecutor() != null) {
+      return prepareParsed((ParsingListener<?>) listener, null, message);
+    }
+    return new Runnable() {
+      @Override public void run() {
+        message.dispatchTo(listener);
+      }
+    };
+  }
+
+  /**
+   * Starts parsing either a text or a message.
+   */
+  private static <T> Runnable prepareParsed(final ParsingListener<T> listener,
+      final String text, final MessageAssembler.Message message) {
+    final FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+      @Override public T call() {
+        if (text != null) {
+          return listener.parseMessage(text);
+        }
+        try {
+          return listener.parseMessage(message.openStream(), message.isBinary());
+        } finally {
+          message.release();
+        }
+      }
+    });
+    getExecutor().execute(future);
+    return new Runnable() {
+      @Override public void run() {
+        T parsed;
+        try {
+          parsed = future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          throw new RuntimeException(cause);
+        }
+        listener.parsedMessageReceived(parsed);
+      }
+    };
+  }
+
+  /**
+   * @return the parse executor or null if parsing in advance is switched off
+   */
+  private static Executor getExecutor() {
+    return ExecutorHolder.EXECUTOR;
+  }
+
+  /**
+   * Lazily creates executor on first use. Threads die when idle.
+   */
+  private static class ExecutorHolder {
+    static final Executor EXECUTOR = createExecutor();
+
+    private static Executor createExecutor() {
+      int threads = Integer.getInteger(THREADS_PROPERTY,
+          Runtime.getRuntime().availableProcessors());
+      if (threads <= 0) {
+        return null;
+      }
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+          30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread =
+                  new Thread(runnable, "WebSocket parse thread #" + counter.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+    }
+  }
+}
@@ -0,0 +1,254 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The "permessage-deflate" WebSocket extension: negotiation parameters and a per-connection
+ * compression state. Messages are compressed with raw DEFLATE; the trailing empty stored block
+ * (0x00 0x00 0xFF 0xFF) is removed by the sender and restored by the receiver.
+ * <p>
+ * Incoming messages are always decompressed. Outgoing messages are only compressed when
+ * the Java runtime supports sync flush of {@link Deflater} (Java 7 and later); otherwise they
+ * go uncompressed, which the extension allows.
+ * <p>
+ * Not thread-safe: incoming messages are inflated on the reading thread and outgoing messages
+ * are deflated under the connection send lock. Native zlib memory is freed when the object
+ * is collected, because senders may still use it after the reading thread has stopped.
+ * @see http://tools.ietf.org/html/rfc7692
+ */
+public class PerMessageDeflate {
+  private static final Logger LOGGER = Logger.getLogger(PerMessageDeflate.class.getName());
+
+  /** A boolean property; if true, the extension is offered in handshake. */
+  public static final String ENABLE_PROPERTY = "org.chromium.sdk.client.websocket.deflate";
+
+  static final String EXTENSION_NAME = "permessage-deflate";
+
+  /** The extension offer that goes into the Sec-WebSocket-Extensions header. */
+  static final String OFFER = EXTENSION_NAME + "; client_max_window_bits";
+
+  private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+  private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+  private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+  private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+  private static final byte[] TAIL = { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+
+  /** Small messages get bigger when compressed. */
+  private static final int MIN_COMPRESSED_LENGTH = 64;
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /** Deflater.deflate(byte[], int, int, int), since Java 7; null if not available. */
+  private static final Method SYNC_FLUSH_DEFLATE_METHOD = getSyncFlushDeflateMethod();
+
+  /** Deflater.SYNC_FLUSH. */
+  private static final int SYNC_FLUSH = 2;
+
+  static boolean isEnabled() {
+    return Boolean.getBoolean(ENABLE_PROPERTY);
+  }
+
+  /**
+   * Parses the extension accepted by server.
+   * @param header the Sec-WebSocket-Extensions response header value
+   * @throws IOException if server has responded with something that was not offered
+   */
+  static PerMessageDeflate parseResponse(String header) throws IOException {
+    String[] parts = header.split(";");
+    if (!EXTENSION_NAME.equals(parts[0].trim())) {
+      throw new IOException("Unexpected extension: " + header);
+    }
+    boolean serverNoContextTakeover = false;
+    boolean clientNoContextTakeover = false;
+    boolean compressOutgoing = true;
+    for (int i = 1; i < parts.length; i++) {
+      String param = parts[i].trim();
+      String value = null;
+      int eqPos = param.indexOf('=');
+      if (eqPos != -1) {
+        value = param.substring(eqPos + 1).trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+          value = value.substring(1, value.length() - 1);
+        }
+        param = param.substring(0, eqPos).trim();
+      }
+      if (SERVER_NO_CONTEXT_TAKEOVER.equals(param) && value == null) {
+        serverNoContextTakeover = true;
+      } else if (CLIENT_NO_CONTEXT_TAKEOVER.equals(param) && value == null) {
+        clientNoContextTakeover = true;
+      } else if (SERVER_MAX_WINDOW_BITS.equals(param) || CLIENT_MAX_WINDOW_BITS.equals(param)) {
+        // Inflater accepts any window size. Deflater always uses 15 bits, so a smaller client
+        // window makes us stop compressing.
+        int bits = parseWindowBits(value, header);
+        if (CLIENT_MAX_WINDOW_BITS.equals(param) && bits < 15) {
+          compressOutgoing = false;
+        }
+      } else {
+        throw new IOException("Unexpected extension parameter: " + header);
+      }
+    }
+    return new PerMessageDeflate(serverNoContextTakeover, clientNoContextTakeover,
+        compressOutgoing);
+  }
+
+  private final boolean serverNoContextTakeover;
+  private final boolean clientNoContextTakeover;
+
+  private final Inflater inflater = new Inflater(true);
+
+  /** Null if outgoing messages are not compressed. */
+  private final Deflater deflater;
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  PerMessageDeflate(boolean serverNoContextTakeover, boolean clientNoContextTakeover,
+      boolean compressOutgoing) {
+    this.serverNoContextTakeover = serverNoContextTakeover;
+    this.clientNoContextTakeover = clientNoContextTakeover;
+    if (compressOutgoing && SYNC_FLUSH_DEFLATE_METHOD != null) {
+      deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    } else {
+      deflater = null;
+    }
+  }
+
+  boolean isServerNoContextTakeover() {
+    return serverNoContextTakeover;
+  }
+
+  boolean isClientNoContextTakeover() {
+    return clientNoContextTakeover;
+  }
+
+  /**
+   * Decompresses the message into chunks of the output assembler. The compressed message
+   * gets released.
+   */
+  MessageAssembler.Message inflate(MessageAssembler.Message compressed, MessageAssembler output)
+      throws IOException, MessageTooBigException {
+    output.start(compressed.isBinary());
+    boolean done = false;
+    try {
+      InputStream input = compressed.openStream();
+      int len;
+      while ((len = input.read(buffer, 0, buffer.length)) != -1) {
+        inflater.setInput(buffer, 0, len);
+        drainInflater(output);
+      }
+      if (!inflater.finished()) {
+        inflater.setInput(TAIL);
+        drainInflater(output);
+      }
+      done = true;
+    } catch (DataFormatException e) {
+      throw new IOException("Malformed compressed message", e);
+    } finally {
+      compressed.release();
+      if (!done) {
+        output.reset();
+      }
+    }
+    if (serverNoContextTakeover || inflater.finished()) {
+      // A final block ends the stream; the next message starts a new one.
+      inflater.reset();
+    }
+    return output.finish();
+  }
+
+  private void drainInflater(MessageAssembler output)
+      throws DataFormatException, MessageTooBigException {
+    while (true) {
+      byte[] chunk = output.getTailChunk();
+      int n = inflater.inflate(chunk, output.getTailOffset(), output.getTailSpace());
+      if (n == 0) {
+        if (inflater.needsInput() || inflater.finished() || inflater.needsDictionary()) {
+          return;
+        }
+        continue;
+      }
+      output.commit(n);
+      if (!output.canAccept(0)) {
+        throw new MessageTooBigException();
+      }
+    }
+  }
+
+  /**
+   * @return the compressed payload or null if the message should be sent uncompressed
+   */
+  byte[] deflate(byte[] bytes) {
+    if (deflater == null || bytes.length < MIN_COMPRESSED_LENGTH) {
+      return null;
+    }
+    ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 2 + TAIL.length);
+    deflater.setInput(bytes);
+    try {
+      while (true) {
+        int n = (Integer) SYNC_FLUSH_DEFLATE_METHOD.invoke(deflater, buffer, 0, buffer.length,
+            SYNC_FLUSH);
+        output.write(buffer, 0, n);
+        if (n < buffer.length) {
+          break;
+        }
+      }
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException(e);
+    }
+    if (clientNoContextTakeover) {
+      deflater.reset();
+    }
+    byte[] result = output.toByteArray();
+    // Sync flush ends with an empty stored block, the peer adds it back.
+    byte[] trimmed = new byte[result.length - TAIL.length];
+    System.arraycopy(result, 0, trimmed, 0, trimmed.length);
+    return trimmed;
+  }
+
+  /**
+   * Decompressed message is larger than allowed.
+   */
+  static class MessageTooBigException extends Exception {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static int parseWindowBits(String value, String header) throws IOException {
+    if (value == null) {
+      throw new IOException("Window bits expected: " + header);
+    }
+    int bits;
+    try {
+      bits = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed window bits: " + header, e);
+    }
+    if (bits < 8 || bits > 15) {
+      throw new IOException("Malformed window bits: " + header);
+    }
+    return bits;
+  }
+
+  private static Method getSyncFlushDeflateMethod() {
+    try {
+      return Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+    } catch (NoSuchMethodException e) {
+      LOGGER.log(Level.FINE, "Outgoing WebSocket messages won't be compressed", e);
+      return null;
+    }
+  }
+}
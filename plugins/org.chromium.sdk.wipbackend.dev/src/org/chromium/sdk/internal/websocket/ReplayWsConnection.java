@@ -0,0 +1,162 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.chromium.sdk.RelayOk;
+import org.chromium.sdk.SyncCallback;
+import org.chromium.sdk.internal.transport.CaptureFile;
+import org.chromium.sdk.internal.transport.ReplayFeed;
+import org.chromium.sdk.util.SignalRelay;
+
+/**
+ * A {@link WsConnection} that plays back a connection captured by {@link CaptureFile}:
+ * incoming messages are taken from the capture and outgoing messages are discarded.
+ * It may be given to {@link org.chromium.sdk.internal.wip.WipTabImpl} to reproduce
+ * a session deterministically or to measure the message processing offline.
+ */
+public class ReplayWsConnection implements WsConnection {
+  private static final Logger LOGGER = Logger.getLogger(ReplayWsConnection.class.getName());
+
+  private final ReplayFeed feed;
+  private final BlockingQueue<Runnable> dispatchQueue = new LinkedBlockingQueue<Runnable>();
+
+  /**
+   * @param records records of a single connection, see {@link CaptureFile#selectConnection}
+   * @param paced see {@link ReplayFeed#ReplayFeed}
+   */
+  public ReplayWsConnection(List<CaptureFile.Record> records, boolean paced) {
+    this.feed = new ReplayFeed(records, paced);
+  }
+
+  @Override
+  public void startListening(final Listener listener) {
+    Thread readerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          readRecords(listener);
+        } catch (InterruptedException e) {
+          // Exit.
+        } finally {
+          dispatchQueue.add(new Runnable() {
+            @Override
+            public void run() {
+              listener.eofMessage();
+              closer.sendSignal(null, null);
+            }
+          });
+          dispatchQueue.add(STOP_TASK);
+        }
+      }
+    }, "Replay WebSocket reader thread");
+    readerThread.setDaemon(true);
+    readerThread.start();
+
+    Thread dispatchThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            Runnable task = dispatchQueue.take();
+            if (task == STOP_TASK) {
+              return;
+            }
+            try {
+              task.run();
+            } catch (RuntimeException e) {
+              LOGGER.log(Level.SEVERE, "Exception in dispatch thread", e);
+            }
+          }
+        } catch (InterruptedException e) {
+          // Exit.
+        }
+      }
+    }, "Replay WebSocket dispatch thread");
+    dispatchThread.setDaemon(true);
+    dispatchThread.start();
+  }
+
+  @Override
+  public void sendTextualMessage(String message) throws IOException {
+    if (closer.isSignalled()) {
+      throw new IOException("WebSocket is closed");
+    }
+    feed.messageSent();
+  }
+
+  @Override
+  public void sendTextualMessages(List<String> messages) throws IOException {
+    for (String message : messages) {
+      sendTextualMessage(message);
+    }
+  }
+
+  @Override
+  public RelayOk runInDispatchThread(final Runnable runnable, final SyncCallback syncCallback) {
+    dispatchQueue.add(new Runnable() {
+      @Override
+      public void run() {
+        RuntimeException ex = null;
+        try {
+          runnable.run();
+        } catch (RuntimeException e) {
+          ex = e;
+          throw e;
+        } finally {
+          syncCallback.callbackDone(ex);
+        }
+      }
+    });
+    return DISPATCH_THREAD_PROMISES_TO_RELAY_OK;
+  }
+
+  @Override
+  public SignalRelay<?> getCloser() {
+    return closer;
+  }
+
+  private void readRecords(final Listener listener) throws InterruptedException {
+    while (true) {
+      CaptureFile.Record record = feed.next();
+      if (record == null || record.getKind() == CaptureFile.Kind.CLOSE) {
+        return;
+      }
+      if (record.getKind() != CaptureFile.Kind.MESSAGE) {
+        continue;
+      }
+      ByteBuffer data = record.getData();
+      final String text = AbstractWsConnection.UTF_8_CHARSET.decode(data).toString();
+      dispatchQueue.add(new Runnable() {
+        @Override
+        public void run() {
+          listener.textMessageRecieved(text);
+        }
+      });
+    }
+  }
+
+  private final SignalRelay<Void> closer = SignalRelay.create(new SignalRelay.Callback<Void>() {
+    @Override
+    public void onSignal(Void signal, Exception cause) {
+      feed.close();
+    }
+  });
+
+  private static final Runnable STOP_TASK = new Runnable() {
+    @Override
+    public void run() {
+    }
+  };
+
+  private static final RelayOk DISPATCH_THREAD_PROMISES_TO_RELAY_OK = new RelayOk() {};
+}
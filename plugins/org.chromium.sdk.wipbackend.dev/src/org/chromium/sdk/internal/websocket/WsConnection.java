@@ -5,6 +5,8 @@
 package org.chromium.sdk.internal.websocket;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 
 import org.chromium.sdk.RelayOk;
 import org.chromium.sdk.SyncCallback;
@@ -20,6 +22,12 @@ public interface WsConnection {
 
   void sendTextualMessage(String message) throws IOException;
 
+  /**
+   * Sends several messages in the given order. The implementation may put them into socket
+   * with a single write.
+   */
+  void sendTextualMessages(List<String> messages) throws IOException;
+
   RelayOk runInDispatchThread(Runnable runnable, SyncCallback syncCallback);
 
   SignalRelay<?> getCloser();
@@ -37,4 +45,43 @@ public interface WsConnection {
      */
     void eofMessage();
   }
+
+  /**
+   * A listener that reads messages which came in several frames as a stream, so they never get
+   * concatenated into a single string. Single-frame text messages still come as strings.
+   */
+  interface StreamingListener extends Listener {
+    /**
+     * @param stream message bytes; UTF-8 text unless the message is binary. The stream
+     *     is only valid during the call
+     */
+    void messageStreamReceived(InputStream stream, boolean binary);
+  }
+
+  /**
+   * A listener that splits message handling into parsing and dispatching. The connection
+   * may parse large messages on worker threads, several at a time, while parsed messages are
+   * still dispatched in the order they came, interleaved with other Dispatch thread tasks
+   * as before. Connections that don't parse in advance (or small messages) go through
+   * the methods of {@link StreamingListener}, which should parse and dispatch in one go.
+   * @param <T> type of parsed message
+   */
+  interface ParsingListener<T> extends StreamingListener {
+    /**
+     * Parses a message; may be called on any thread and for several messages concurrently.
+     * @return parsed message, passed to {@link #parsedMessageReceived} as is
+     */
+    T parseMessage(String text);
+
+    /**
+     * Same as {@link #parseMessage(String)} for a message that came in several frames.
+     * @param stream message bytes, only valid during the call
+     */
+    T parseMessage(InputStream stream, boolean binary);
+
+    /**
+     * Accepts a message parsed with {@link #parseMessage}. Called from Dispatch thread.
+     */
+    void parsedMessageReceived(T message);
+  }
 }
\ No newline at end of file
@@ -0,0 +1,182 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frame payload utilities shared by WebSocket implementations: masking that goes 8 bytes
+ * at a time and UTF-8 encoding straight into a destination buffer, so that an outgoing message
+ * doesn't have to be copied into an intermediate array.
+ * <p>
+ * A mask is passed as int that holds the 4 mask bytes in network (big-endian) order.
+ */
+public final class WsFrames {
+  private WsFrames() {
+  }
+
+  /** 2 bytes of opcode and length code, 8 bytes of extended length and 4 bytes of mask. */
+  public static final int MAX_HEADER_LENGTH = 14;
+
+  /**
+   * Masks (or unmasks) bytes in place.
+   * @param phase the index of the first byte within the frame payload; only its remainder
+   *     modulo 4 matters
+   */
+  public static void mask(byte[] bytes, int offset, int length, int mask, long phase) {
+    if (mask == 0 || length == 0) {
+      return;
+    }
+    mask(ByteBuffer.wrap(bytes), offset, offset + length, mask, phase);
+  }
+
+  /**
+   * Masks (or unmasks) bytes from start to end in place. Buffer position is not changed,
+   * the buffer must have big-endian byte order.
+   * @param phase the index of the byte at start within the frame payload
+   */
+  public static void mask(ByteBuffer buffer, int start, int end, int mask, long phase) {
+    if (mask == 0) {
+      return;
+    }
+    int rotatedMask = Integer.rotateLeft(mask, ((int) (phase & 3)) * 8);
+    long longMask = ((long) rotatedMask << 32) | (rotatedMask & 0xFFFFFFFFL);
+    int pos = start;
+    for (; pos + 8 <= end; pos += 8) {
+      buffer.putLong(pos, buffer.getLong(pos) ^ longMask);
+    }
+    for (int i = 0; pos < end; pos++, i++) {
+      int maskByte = rotatedMask >>> (24 - (i & 3) * 8);
+      buffer.put(pos, (byte) (buffer.get(pos) ^ maskByte));
+    }
+  }
+
+  /**
+   * @return the length of a client frame header
+   */
+  public static int getHeaderLength(long payloadLength, boolean masked) {
+    int result;
+    if (payloadLength <= 125) {
+      result = 2;
+    } else if (payloadLength <= Hybi17WsConnection.FrameBits.MAX_TWO_BYTE_INT) {
+      result = 4;
+    } else {
+      result = 10;
+    }
+    return masked ? result + 4 : result;
+  }
+
+  /**
+   * Writes a client frame header.
+   * @param masked whether the frame has a mask
+   * @return the position after the header
+   */
+  public static int writeHeader(byte[] header, int offset, int firstByte, long payloadLength,
+      boolean masked, int mask) {
+    int maskFlag = masked ? Hybi17WsConnection.FrameBits.MASK_BIT : 0;
+    int pos = offset;
+    header[pos++] = (byte) firstByte;
+    if (payloadLength <= 125) {
+      header[pos++] = (byte) (payloadLength | maskFlag);
+    } else if (payloadLength <= Hybi17WsConnection.FrameBits.MAX_TWO_BYTE_INT) {
+      header[pos++] = (byte) (Hybi17WsConnection.FrameBits.LENGTH_2_BYTE_CODE | maskFlag);
+      header[pos++] = (byte) (payloadLength >>> 8);
+      header[pos++] = (byte) payloadLength;
+    } else {
+      header[pos++] = (byte) (Hybi17WsConnection.FrameBits.LENGTH_8_BYTE_CODE | maskFlag);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        header[pos++] = (byte) (payloadLength >>> shift);
+      }
+    }
+    if (masked) {
+      header[pos++] = (byte) (mask >>> 24);
+      header[pos++] = (byte) (mask >>> 16);
+      header[pos++] = (byte) (mask >>> 8);
+      header[pos++] = (byte) mask;
+    }
+    return pos;
+  }
+
+  /**
+   * @return the length of the string in UTF-8; an unpaired surrogate counts as a single '?'
+   *     as in {@link String#getBytes}
+   */
+  public static int utf8Length(String string) {
+    int length = string.length();
+    int result = length;
+    for (int i = 0; i < length; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        continue;
+      }
+      if (c < 0x800) {
+        result += 1;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length &&
+          Character.isLowSurrogate(string.charAt(i + 1))) {
+        // 2 chars become 4 bytes.
+        result += 2;
+        i++;
+      } else if (isSurrogate(c)) {
+        // Replaced with '?'.
+      } else {
+        result += 2;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Encodes chars from start to end. The destination must have room for the encoded chars,
+   * see {@link #utf8Length} and {@link #getPieceEnd}.
+   * A surrogate pair must not be split by end unless end is the end of the string.
+   * @return the position in dest after the last written byte
+   */
+  public static int encodeUtf8(String string, int start, int end, byte[] dest, int destPos) {
+    for (int i = start; i < end; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        dest[destPos++] = (byte) c;
+      } else if (c < 0x800) {
+        dest[destPos++] = (byte) (0xC0 | (c >> 6));
+        dest[destPos++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < end &&
+          Character.isLowSurrogate(string.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, string.charAt(i + 1));
+        i++;
+        dest[destPos++] = (byte) (0xF0 | (codePoint >> 18));
+        dest[destPos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        dest[destPos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        dest[destPos++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (isSurrogate(c)) {
+        dest[destPos++] = (byte) '?';
+      } else {
+        dest[destPos++] = (byte) (0xE0 | (c >> 12));
+        dest[destPos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        dest[destPos++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return destPos;
+  }
+
+  private static boolean isSurrogate(char c) {
+    return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+  }
+
+  /**
+   * @return the end of the next piece of the string that starts at start and fits into
+   *     the given number of bytes; it never splits a surrogate pair
+   */
+  public static int getPieceEnd(String string, int start, int bytes) {
+    // A char takes at most 3 bytes; a surrogate pair takes 4.
+    int end = start + bytes / 3;
+    if (end >= string.length()) {
+      return string.length();
+    }
+    if (end > start + 1 && Character.isHighSurrogate(string.charAt(end - 1))) {
+      end--;
+    }
+    return end;
+  }
+}
@@ -12,12 +12,17 @@ import org.chromium.sdk.internal.wip.protocol.output.runtime.ReleaseObjectGroupP
 import org.chromium.sdk.util.GenericCallback;
 import org.chromium.sdk.wip.PermanentRemoteValueMapping;
 
+/**
+ * A value mapping that keeps its object group across suspends. Object ids of the mapping
+ * stay valid that long, so objects are cached by id for the whole session. The cache
+ * is dropped on {@link #clearCaches()} and {@link #delete}.
+ */
 class PermanentRemoteValueMappingImpl extends WipValueLoader
     implements PermanentRemoteValueMapping {
   private final String id;
 
   PermanentRemoteValueMappingImpl(WipTabImpl tabImpl, String id) {
-    super(tabImpl);
+    super(tabImpl, true);
     this.id = id;
   }
 
@@ -28,6 +33,7 @@ class PermanentRemoteValueMappingImpl extends WipValueLoader
 
   @Override
   public RelayOk delete(final GenericCallback<Void> callback, SyncCallback syncCallback) {
+    clearCaches();
     ReleaseObjectGroupParams params = new ReleaseObjectGroupParams(id);
     WipCommandCallback callbackWrapper;
     if (callback == null) {
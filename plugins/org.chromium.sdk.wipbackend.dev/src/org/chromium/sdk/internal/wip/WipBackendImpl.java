@@ -9,17 +9,21 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.AbstractList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import org.chromium.sdk.ConnectionLogger;
 import org.chromium.sdk.TabDebugEventListener;
 import org.chromium.sdk.internal.protocolparser.JsonProtocolParseException;
+import org.chromium.sdk.internal.transport.NioSelectorPool;
 import org.chromium.sdk.internal.transport.SocketWrapper;
 import org.chromium.sdk.internal.transport.SocketWrapper.LoggableInputStream;
 import org.chromium.sdk.internal.transport.SocketWrapper.LoggableOutputStream;
 import org.chromium.sdk.internal.websocket.HandshakeUtil;
 import org.chromium.sdk.internal.websocket.Hybi00WsConnection;
 import org.chromium.sdk.internal.websocket.Hybi17WsConnection;
+import org.chromium.sdk.internal.websocket.NioWsConnection;
 import org.chromium.sdk.internal.websocket.WsConnection;
 import org.chromium.sdk.internal.wip.protocol.WipParserAccess;
 import org.chromium.sdk.internal.wip.protocol.input.WipTabList;
@@ -94,6 +98,12 @@ public class WipBackendImpl extends WipBackendBase {
 
     @Override
     public WipBrowserTab attach(TabDebugEventListener listener) throws IOException {
+      return attach(listener, EnumSet.allOf(WipBrowserTab.Domain.class));
+    }
+
+    @Override
+    public WipBrowserTab attach(TabDebugEventListener listener,
+        Set<WipBrowserTab.Domain> domains) throws IOException {
       LoggerFactory connectionLoggerFactory = browserImpl.getConnectionLoggerFactory();
       ConnectionLogger connectionLogger;
       if (connectionLoggerFactory == null) {
@@ -112,17 +122,31 @@ public class WipBackendImpl extends WipBackendBase {
       if (USE_OLD_WEBSOCKET) {
         socket = Hybi00WsConnection.connect(browserImpl.getSocketAddress(),
             DEFAULT_CONNECTION_TIMEOUT_MS, uri.getPath(), "empty origin", connectionLogger);
+      } else if (isNioTransportEnabled()) {
+        socket = NioWsConnection.connect(browserImpl.getSocketAddress(),
+            DEFAULT_CONNECTION_TIMEOUT_MS, uri.getPath(),
+            Hybi17WsConnection.MaskStrategy.TRANSPARENT_MASK, connectionLogger,
+            NioSelectorPool.getDefault());
       } else {
         socket = Hybi17WsConnection.connect(browserImpl.getSocketAddress(),
             DEFAULT_CONNECTION_TIMEOUT_MS, uri.getPath(),
             Hybi17WsConnection.MaskStrategy.TRANSPARENT_MASK, connectionLogger);
       }
 
-
-      return new WipTabImpl(socket, browserImpl, listener, description.url());
+      EnumSet<WipBrowserTab.Domain> domainSet = EnumSet.noneOf(WipBrowserTab.Domain.class);
+      domainSet.addAll(domains);
+      return new WipTabImpl(socket, browserImpl, listener, description.url(), domainSet);
     }
   }
 
+  /**
+   * @return whether tab connections should be served by a shared {@link NioSelectorPool}
+   *     instead of dedicated listen/dispatch threads
+   */
+  private static boolean isNioTransportEnabled() {
+    return Boolean.parseBoolean(System.getProperty("org.chromium.sdk.client.connection.nio"));
+  }
+
   private String readHttpResponseContent(InetSocketAddress socketAddress, String resource,
       LoggerFactory loggerFactory) throws IOException {
     ConnectionLogger browserConnectionLogger;
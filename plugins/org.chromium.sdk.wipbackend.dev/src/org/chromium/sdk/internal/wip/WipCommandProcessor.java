@@ -5,7 +5,10 @@
 package org.chromium.sdk.internal.wip;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
@@ -16,6 +19,7 @@ import org.chromium.sdk.RelayOk;
 import org.chromium.sdk.SyncCallback;
 import org.chromium.sdk.TabDebugEventListener;
 import org.chromium.sdk.internal.BaseCommandProcessor;
+import org.chromium.sdk.internal.ProtocolMetricsImpl;
 import org.chromium.sdk.internal.protocolparser.JsonProtocolParseException;
 import org.chromium.sdk.internal.websocket.WsConnection;
 import org.chromium.sdk.internal.wip.protocol.BasicConstants;
@@ -34,6 +38,7 @@ import org.chromium.sdk.internal.wip.protocol.output.WipParams;
 import org.chromium.sdk.internal.wip.protocol.output.WipParamsWithResponse;
 import org.chromium.sdk.internal.wip.protocol.output.WipRequest;
 import org.chromium.sdk.util.GenericCallback;
+import org.chromium.sdk.wip.WipBrowserTab;
 import org.json.simple.JSONObject;
 
 /**
@@ -46,14 +51,33 @@ class WipCommandProcessor {
   private final BaseCommandProcessor<Integer, JSONObject, JSONObject, WipCommandResponse>
       baseProcessor;
   private final AtomicInteger currentSeq = new AtomicInteger(0);
+  private final EnumSet<WipBrowserTab.Domain> domains;
 
-  WipCommandProcessor(WipTabImpl tabImpl, WsConnection wsSocket) {
+  /**
+   * Holds true while the current thread dispatches an incoming message or a task
+   * of this processor. User callbacks are called there, so nothing may wait for remote then.
+   */
+  private final ThreadLocal<Boolean> dispatching = new ThreadLocal<Boolean>();
+
+  /**
+   * Responses don't have method name, so they all go under one type in parse time metrics.
+   */
+  private static final String RESPONSE_MESSAGE_TYPE = "<response>";
+
+  /**
+   * @param domains optional protocol domains that are enabled; events of other domains
+   *     are not accepted
+   */
+  WipCommandProcessor(WipTabImpl tabImpl, WsConnection wsSocket,
+      EnumSet<WipBrowserTab.Domain> domains) {
     this.tabImpl = tabImpl;
+    this.domains = domains;
 
     WipMessageTypeHandler handler = new WipMessageTypeHandler();
 
     baseProcessor =
         new BaseCommandProcessor<Integer, JSONObject, JSONObject, WipCommandResponse>(handler);
+    baseProcessor.getMetrics().setConnection(wsSocket);
   }
 
   RelayOk sendRaw(JSONObject message, WipCommandCallback callback, SyncCallback syncCallback) {
@@ -65,6 +89,21 @@ class WipCommandProcessor {
     return sendRaw(request, callback, syncCallback);
   }
 
+  /**
+   * Sends several commands at once; all of them are in flight simultaneously and
+   * go out in one socket write.
+   * @see BaseCommandProcessor#sendBatch
+   */
+  RelayOk sendBatch(List<? extends WipParams> paramsList,
+      BaseCommandProcessor.BatchCallback<? super WipCommandResponse> callback,
+      SyncCallback syncCallback) {
+    List<JSONObject> requests = new ArrayList<JSONObject>(paramsList.size());
+    for (WipParams params : paramsList) {
+      requests.add(new WipRequest(params));
+    }
+    return baseProcessor.sendBatch(requests, false, callback, syncCallback);
+  }
+
   /**
    * @param <RESPONSE> type of response expected that is determined by params
    * @param params request parameters that also holds a method name
@@ -101,8 +140,77 @@ class WipCommandProcessor {
     return sendRaw(request, commandCallback, syncCallback);
   }
 
-  void acceptResponse(JSONObject message) {
-    baseProcessor.processIncoming(message);
+  /**
+   * Parses an event into its typed data. Doesn't touch the processor state, so it may be
+   * called on any thread before the message is accepted.
+   * @param decodeNanos time that was spent on decoding JSON text of the message
+   */
+  IncomingMessage parseIncoming(JSONObject message, long decodeNanos) {
+    if (message.containsKey(BasicConstants.Property.ID)) {
+      return new IncomingMessage(message, RESPONSE_MESSAGE_TYPE, null, decodeNanos);
+    }
+    long startNanos = System.nanoTime();
+    ParsedEvent<?> event = parseEvent(message);
+    Object method = message.get(BasicConstants.Property.METHOD);
+    return new IncomingMessage(message, String.valueOf(method), event,
+        decodeNanos + System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Dispatches a message that was parsed with {@link #parseIncoming}.
+   */
+  void acceptIncoming(IncomingMessage message) {
+    baseProcessor.getMetrics().recordParseTime(message.messageType, message.parseNanos);
+    dispatching.set(Boolean.TRUE);
+    try {
+      if (message.json.containsKey(BasicConstants.Property.ID)) {
+        baseProcessor.processIncoming(message.json);
+      } else if (message.event != null) {
+        message.event.dispatch(this);
+      }
+    } finally {
+      dispatching.remove();
+    }
+  }
+
+  /**
+   * An incoming message with an event already parsed into typed data.
+   */
+  static class IncomingMessage {
+    private final JSONObject json;
+    private final String messageType;
+    private final ParsedEvent<?> event;
+    private final long parseNanos;
+
+    private IncomingMessage(JSONObject json, String messageType, ParsedEvent<?> event,
+        long parseNanos) {
+      this.json = json;
+      this.messageType = messageType;
+      this.event = event;
+      this.parseNanos = parseNanos;
+    }
+  }
+
+  /**
+   * @return whether the current thread is dispatching for this processor, so a blocking wait
+   *     for a response would never end
+   */
+  boolean isDispatchingThread() {
+    return dispatching.get() != null;
+  }
+
+  /**
+   * Events that are not supported at all are logged.
+   * @param method an event method name
+   * @return whether the event has a handler in an enabled domain; if not, the message
+   *     may be dropped before it is parsed
+   */
+  boolean isEventAccepted(String method) {
+    return EVENT_MAP.isAccepted(method, domains);
+  }
+
+  ProtocolMetricsImpl getMetrics() {
+    return baseProcessor.getMetrics();
   }
 
   void processEos() {
@@ -110,21 +218,31 @@ class WipCommandProcessor {
   }
 
   private void processEvent(JSONObject jsonObject) {
+    ParsedEvent<?> event = parseEvent(jsonObject);
+    if (event != null) {
+      event.dispatch(this);
+    }
+  }
+
+  /**
+   * @return the event with its typed data or null if the event is not handled
+   */
+  private ParsedEvent<?> parseEvent(JSONObject jsonObject) {
     WipEvent event;
     try {
       event = WipParserAccess.get().parseWipEvent(jsonObject);
     } catch (JsonProtocolParseException e) {
       LOGGER.log(Level.SEVERE, "Failed to parse event", e);
-      return;
+      return null;
     }
-    EVENT_MAP.handleEvent(event, this);
+    return EVENT_MAP.parseEvent(event, domains);
   }
 
   /**
    * Handles all operations specific to Wip messages.
    */
   private class WipMessageTypeHandler implements
-      BaseCommandProcessor.Handler<Integer, JSONObject, JSONObject, WipCommandResponse> {
+      BaseCommandProcessor.BatchHandler<Integer, JSONObject, JSONObject, WipCommandResponse> {
     @Override
     public Integer getUpdatedSeq(JSONObject message) {
       Integer seq = currentSeq.addAndGet(1);
@@ -147,6 +265,19 @@ class WipCommandProcessor {
       }
     }
 
+    @Override
+    public void sendBatch(List<? extends JSONObject> messages, boolean isImmediate) {
+      List<String> texts = new ArrayList<String>(messages.size());
+      for (JSONObject message : messages) {
+        texts.add(message.toJSONString());
+      }
+      try {
+        WipCommandProcessor.this.tabImpl.getWsSocket().sendTextualMessages(texts);
+      } catch (IOException e) {
+        LOGGER.log(Level.SEVERE, "Failed to send", e);
+      }
+    }
+
     @Override
     public WipCommandResponse parseWithSeq(JSONObject incoming) {
       if (!incoming.containsKey(BasicConstants.Property.ID)) {
@@ -221,7 +352,8 @@ class WipCommandProcessor {
       }
     });
 
-    EVENT_MAP.add(FrameNavigatedEventData.TYPE, new EventHandler<FrameNavigatedEventData> () {
+    EVENT_MAP.add(FrameNavigatedEventData.TYPE, WipBrowserTab.Domain.PAGE,
+        new EventHandler<FrameNavigatedEventData> () {
       @Override
       void accept(FrameNavigatedEventData eventData,
           WipCommandProcessor commandProcessor) {
@@ -229,44 +361,90 @@ class WipCommandProcessor {
       }
     });
 
-    EVENT_MAP.add(FrameDetachedEventData.TYPE, null);
+    EVENT_MAP.add(FrameDetachedEventData.TYPE, WipBrowserTab.Domain.PAGE, null);
   }
 
-  public RelayOk runInDispatchThread(Runnable runnable, SyncCallback syncCallback) {
-    return this.tabImpl.getWsSocket().runInDispatchThread(runnable, syncCallback);
+  public RelayOk runInDispatchThread(final Runnable runnable, SyncCallback syncCallback) {
+    Runnable dispatchingRunnable = new Runnable() {
+      @Override
+      public void run() {
+        dispatching.set(Boolean.TRUE);
+        try {
+          runnable.run();
+        } finally {
+          dispatching.remove();
+        }
+      }
+    };
+    return this.tabImpl.getWsSocket().runInDispatchThread(dispatchingRunnable, syncCallback);
   }
 
   private static class EventMap {
     private final Map<String, InternalHandler<?>> map = new HashMap<String, InternalHandler<?>>();
 
+    /**
+     * Adds an event of Debugger domain, which is always enabled.
+     */
     public <T> void add(WipEventType<T> type, EventHandler<T> eventHandler) {
-      InternalHandler<T> internalHandler = new InternalHandler<T>(eventHandler, type);
+      add(type, null, eventHandler);
+    }
+
+    /**
+     * @param domain optional domain of the event or null for Debugger domain
+     * @param eventHandler handler or null if the event is known, but ignored
+     */
+    public <T> void add(WipEventType<T> type, WipBrowserTab.Domain domain,
+        EventHandler<T> eventHandler) {
+      InternalHandler<T> internalHandler = new InternalHandler<T>(eventHandler, type, domain);
       map.put(type.getMethodName(), internalHandler);
     }
 
-    public void handleEvent(WipEvent event, WipCommandProcessor commandProcessor) {
+    public boolean isAccepted(String method, EnumSet<WipBrowserTab.Domain> domains) {
+      InternalHandler<?> parser = map.get(method);
+      if (parser == null) {
+        logUnsupportedEvent(method);
+        return false;
+      }
+      return parser.isAccepted(domains);
+    }
+
+    /**
+     * @return the event with its typed data or null if the event is not accepted
+     */
+    public ParsedEvent<?> parseEvent(WipEvent event, EnumSet<WipBrowserTab.Domain> domains) {
       String method = event.method();
       InternalHandler<?> parser = map.get(method);
       if (parser == null) {
-        LOGGER.log(Level.INFO, "Unsupported event: " + method);
-        return;
+        logUnsupportedEvent(method);
+        return null;
+      }
+      if (!parser.isAccepted(domains)) {
+        return null;
       }
-      parser.handle(event, commandProcessor);
+      return parser.parse(event);
+    }
+
+    private static void logUnsupportedEvent(String method) {
+      LOGGER.log(Level.INFO, "Unsupported event: " + method);
     }
 
     private static class InternalHandler<T> {
       private final EventHandler<T> handler;
       private final WipEventType<T> type;
+      private final WipBrowserTab.Domain domain;
 
-      InternalHandler(EventHandler<T> handler, WipEventType<T> type) {
+      InternalHandler(EventHandler<T> handler, WipEventType<T> type,
+          WipBrowserTab.Domain domain) {
         this.handler = handler;
         this.type = type;
+        this.domain = domain;
       }
 
-      public void handle(WipEvent event, WipCommandProcessor commandProcessor) {
-        if (handler == null) {
-          return;
-        }
+      boolean isAccepted(EnumSet<WipBrowserTab.Domain> domains) {
+        return handler != null && (domain == null || domains.contains(domain));
+      }
+
+      public ParsedEvent<T> parse(WipEvent event) {
         WipEvent.Data genericData = event.data();
         T data;
         if (genericData == null) {
@@ -278,8 +456,25 @@ class WipCommandProcessor {
             throw new RuntimeException(e);
           }
         }
-        handler.accept(data, commandProcessor);
+        return new ParsedEvent<T>(handler, data);
       }
     }
   }
+
+  /**
+   * Typed event data together with its handler.
+   */
+  private static class ParsedEvent<T> {
+    private final EventHandler<T> handler;
+    private final T data;
+
+    ParsedEvent(EventHandler<T> handler, T data) {
+      this.handler = handler;
+      this.data = data;
+    }
+
+    void dispatch(WipCommandProcessor commandProcessor) {
+      handler.accept(data, commandProcessor);
+    }
+  }
 }
@@ -10,7 +10,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -201,7 +201,8 @@ class WipContextBuilder {
     }
 
     Set<String> getScriptIds() {
-      Set<String> scriptIds = new HashSet<String>();
+      // Keep the stack order, so that sources of the top frames are prefetched first.
+      Set<String> scriptIds = new LinkedHashSet<String>();
       for (CallFrameImpl frame : frames) {
         String sourceId = frame.getSourceId();
         if (sourceId != null) {
@@ -18,6 +18,7 @@ import org.chromium.sdk.internal.wip.protocol.input.debugger.CallFrameValue;
 import org.chromium.sdk.internal.wip.protocol.input.debugger.SetScriptSourceData;
 import org.chromium.sdk.internal.wip.protocol.output.debugger.SetScriptSourceParams;
 import org.chromium.sdk.util.GenericCallback;
+import org.chromium.sdk.util.MethodIsBlockingException;
 import org.chromium.sdk.util.RelaySyncCallback;
 
 /**
@@ -31,6 +32,22 @@ class WipScriptImpl extends ScriptBase<String> {
     this.scriptManager = scriptManager;
   }
 
+  /**
+   * Loads the source on demand if it hasn't been loaded yet.
+   */
+  @Override
+  public String getSource() {
+    if (!hasSource()) {
+      scriptManager.loadSourceOnDemand(this);
+    }
+    return super.getSource();
+  }
+
+  @Override
+  protected void reloadSource() throws MethodIsBlockingException {
+    scriptManager.reloadSource(this);
+  }
+
   @Override
   public RelayOk setSourceOnRemote(String newSource, UpdateCallback callback,
       SyncCallback syncCallback) {
@@ -15,13 +15,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.chromium.sdk.CallbackSemaphore;
 import org.chromium.sdk.DebugEventListener;
 import org.chromium.sdk.JavascriptVm;
 import org.chromium.sdk.RelayOk;
 import org.chromium.sdk.Script;
 import org.chromium.sdk.SyncCallback;
+import org.chromium.sdk.internal.BaseCommandProcessor;
 import org.chromium.sdk.internal.ScriptBase;
+import org.chromium.sdk.internal.ScriptSourceStore;
+import org.chromium.sdk.internal.protocolparser.JsonProtocolParseException;
+import org.chromium.sdk.internal.wip.protocol.WipParserAccess;
+import org.chromium.sdk.internal.wip.protocol.input.WipCommandResponse;
 import org.chromium.sdk.internal.wip.protocol.input.debugger.GetScriptSourceData;
 import org.chromium.sdk.internal.wip.protocol.input.debugger.ScriptParsedEventData;
 import org.chromium.sdk.internal.wip.protocol.output.debugger.GetScriptSourceParams;
@@ -30,13 +38,31 @@ import org.chromium.sdk.util.AsyncFuture.Callback;
 import org.chromium.sdk.util.AsyncFutureMerger;
 import org.chromium.sdk.util.AsyncFutureRef;
 import org.chromium.sdk.util.GenericCallback;
+import org.chromium.sdk.util.MethodIsBlockingException;
 import org.chromium.sdk.util.RelaySyncCallback;
+import org.chromium.sdk.wip.WipBrowserTab;
+import org.chromium.sdk.wip.WipBrowserTab.ScriptSourcePolicy;
 
 /**
  * Keeps all current scripts for the debug session and handles script source loading.
+ * Sources are loaded either eagerly, as scripts get reported, or on demand
+ * (see {@link ScriptSourcePolicy}).
  */
 class WipScriptManager {
+  private static final Logger LOGGER = Logger.getLogger(WipScriptManager.class.getName());
+
+  /** How many call stack scripts may wait for prefetch. */
+  private static final int PREFETCH_QUEUE_CAPACITY = 32;
+
+  /**
+   * How many prefetch source requests may be in flight at once. They are sent in one batch.
+   * The value can be overridden with the system property.
+   */
+  private static final int PREFETCH_IN_FLIGHT_LIMIT =
+      Integer.getInteger("org.chromium.sdk.client.wip.sourceLoadLimit", 8);
+
   private final WipTabImpl tabImpl;
+
   // Access must be synchronized.
   private final Map<String, ScriptData> scriptIdToData = new HashMap<String, ScriptData>();
 
@@ -49,6 +75,15 @@ class WipScriptManager {
   /** Accessed from Dispatch thread only. */
   private ScriptPopulateMode populateMode = new ScriptPopulateMode();
 
+  private volatile ScriptSourcePolicy sourcePolicy =
+      Boolean.getBoolean(WipBrowserTab.LAZY_SOURCES_PROPERTY)
+          ? ScriptSourcePolicy.LAZY : ScriptSourcePolicy.EAGER;
+
+  /** Call stack scripts whose sources should be loaded in background. */
+  private final Queue<ScriptData> prefetchQueue = new ArrayDeque<ScriptData>();
+  // Access must be synchronized on prefetchQueue.
+  private boolean prefetchBatchInFlight = false;
+
   WipScriptManager(WipTabImpl tabImpl) {
     this.tabImpl = tabImpl;
     this.scriptsPreloaded = populateMode.createAndInitMasterFuture();
@@ -58,6 +93,17 @@ class WipScriptManager {
     return tabImpl;
   }
 
+  ScriptSourcePolicy getSourcePolicy() {
+    return sourcePolicy;
+  }
+
+  void setSourcePolicy(ScriptSourcePolicy sourcePolicy) {
+    if (sourcePolicy == null) {
+      throw new NullPointerException();
+    }
+    this.sourcePolicy = sourcePolicy;
+  }
+
   // Run command in dispatch thread so that no scripts event could happen in the meantime.
   // TODO: make sure we do not return those scripts that are reported compiled but not loaded yet.
   RelayOk getScripts(final GenericCallback<Collection<Script>> callback,
@@ -100,10 +146,7 @@ class WipScriptManager {
     synchronized (scriptIdToData) {
       data = getSafe(scriptIdToData, scriptId);
     }
-    if (data == null) {
-      return null;
-    }
-    if (!data.sourceLoadedFuture.isDone()) {
+    if (data == null || !data.isAvailable()) {
       return null;
     }
     return data.scriptImpl;
@@ -114,7 +157,7 @@ class WipScriptManager {
     synchronized (scriptIdToData) {
       List<Script> list = new ArrayList<Script>(scriptIdToData.size());
       for (ScriptData data : scriptIdToData.values()) {
-        if (data.sourceLoadedFuture.isDone()) {
+        if (data.isAvailable()) {
           list.add(data.scriptImpl);
         }
       }
@@ -133,7 +176,8 @@ class WipScriptManager {
     ScriptBase.Descriptor<String> descriptor = new ScriptBase.Descriptor<String>(Script.Type.NORMAL,
         sourceID, url, (int) data.startLine(), (int) data.startColumn(), -1);
     final WipScriptImpl script = new WipScriptImpl(this, descriptor);
-    final ScriptData scriptData = new ScriptData(script);
+    boolean lazy = sourcePolicy == ScriptSourcePolicy.LAZY;
+    final ScriptData scriptData = new ScriptData(script, lazy);
 
     synchronized (scriptIdToData) {
       if (containsKeySafe(scriptIdToData, sourceID)) {
@@ -142,10 +186,18 @@ class WipScriptManager {
       scriptIdToData.put(sourceID, scriptData);
     }
 
-    scriptData.sourceLoadedFuture.initializeRunning(new SourceLoadOperation(script, sourceID));
-
     final ScriptPopulateMode populateModeSaved = populateMode;
 
+    if (lazy) {
+      // The source is loaded on demand; there is nothing to wait for.
+      if (populateModeSaved == null) {
+        tabImpl.getTabListener().getDebugEventListener().scriptLoaded(script);
+      }
+      return;
+    }
+
+    startSourceLoad(scriptData);
+
     AsyncFuture.Callback<Boolean> callback;
     SyncCallback syncCallback;
 
@@ -181,12 +233,10 @@ class WipScriptManager {
    * Asynchronously loads script source.
    */
   private final class SourceLoadOperation implements AsyncFuture.Operation<Boolean> {
-    private final WipScriptImpl script;
-    private final String sourceID;
+    private final ScriptData scriptData;
 
-    private SourceLoadOperation(WipScriptImpl script, String sourceID) {
-      this.script = script;
-      this.sourceID = sourceID;
+    private SourceLoadOperation(ScriptData scriptData) {
+      this.scriptData = scriptData;
     }
 
     @Override
@@ -195,8 +245,7 @@ class WipScriptManager {
           new GenericCallback<GetScriptSourceData>() {
         @Override
         public void success(GetScriptSourceData data) {
-          String source = data.scriptSource();
-          script.setSource(source);
+          setSource(scriptData.scriptImpl, data.scriptSource());
           operationCallback.done(true);
         }
         @Override
@@ -204,17 +253,230 @@ class WipScriptManager {
           throw new RuntimeException(exception);
         }
       };
-      GetScriptSourceParams params = new GetScriptSourceParams(sourceID);
+      GetScriptSourceParams params = new GetScriptSourceParams(scriptData.scriptImpl.getId());
       return tabImpl.getCommandProcessor().send(params, commandCallback, syncCallback);
     }
   }
 
+  /**
+   * Sets the source, sharing one copy with the scripts of the same content from all tabs
+   * of the browser and from before page reloads. With {@link ScriptSourceStore} on
+   * the script keeps a copy of the text in the store, which shares equal sources itself,
+   * so the string is not interned.
+   */
+  private void setSource(WipScriptImpl script, String source) {
+    if (ScriptSourceStore.getDefault() == null) {
+      source = tabImpl.getBrowserImpl().getScriptSourcePool().intern(source);
+    }
+    script.setSource(source);
+  }
+
+  private void startSourceLoad(ScriptData data) {
+    data.sourceLoadedFuture.initializeRunning(new SourceLoadOperation(data));
+  }
+
+  /**
+   * Makes sure the source of the lazily loaded script is loaded. Blocks until the source
+   * is loaded unless called from the Dispatch thread; in that case the method only starts
+   * the load, because waiting would block the response.
+   */
+  void loadSourceOnDemand(WipScriptImpl script) throws MethodIsBlockingException {
+    ScriptData data;
+    synchronized (scriptIdToData) {
+      data = getSafe(scriptIdToData, script.getId());
+    }
+    if (data == null || data.scriptImpl != script) {
+      // Script is from before a page reload.
+      return;
+    }
+    startSourceLoad(data);
+    if (data.sourceLoadedFuture.isDone() || tabImpl.getCommandProcessor().isDispatchingThread()) {
+      return;
+    }
+    try {
+      data.sourceLoadedFuture.getSync();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.SEVERE, "Failed to load source of script " + script.getId(), e);
+    }
+  }
+
+  /**
+   * Loads the source again after it has been evicted from the source store. Does not wait
+   * for the response if called from the Dispatch thread.
+   */
+  void reloadSource(final WipScriptImpl script) throws MethodIsBlockingException {
+    GenericCallback<GetScriptSourceData> commandCallback =
+        new GenericCallback<GetScriptSourceData>() {
+      @Override
+      public void success(GetScriptSourceData data) {
+        setSource(script, data.scriptSource());
+      }
+      @Override
+      public void failure(Exception exception) {
+        LOGGER.log(Level.SEVERE, "Failed to reload source of script " + script.getId(),
+            exception);
+      }
+    };
+    GetScriptSourceParams params = new GetScriptSourceParams(script.getId());
+    WipCommandProcessor commandProcessor = tabImpl.getCommandProcessor();
+    if (commandProcessor.isDispatchingThread()) {
+      commandProcessor.send(params, commandCallback, null);
+      return;
+    }
+    CallbackSemaphore callbackSemaphore = new CallbackSemaphore();
+    RelayOk relayOk = commandProcessor.send(params, commandCallback, callbackSemaphore);
+    callbackSemaphore.acquireDefault(relayOk);
+  }
+
+  /**
+   * Queues sources of lazily loaded scripts for background loading. The previous queue
+   * content gets dropped: it belongs to an older call stack.
+   */
+  private void prefetchSources(List<ScriptData> scripts) {
+    synchronized (prefetchQueue) {
+      prefetchQueue.clear();
+      for (ScriptData data : scripts) {
+        if (prefetchQueue.size() == PREFETCH_QUEUE_CAPACITY) {
+          break;
+        }
+        if (!data.sourceLoadedFuture.isInitialized()) {
+          prefetchQueue.add(data);
+        }
+      }
+    }
+    startPrefetches();
+  }
+
+  /**
+   * Sends the next batch of prefetch requests unless a batch is already in flight.
+   */
+  private void startPrefetches() {
+    List<ScriptData> batch = new ArrayList<ScriptData>(PREFETCH_IN_FLIGHT_LIMIT);
+    synchronized (prefetchQueue) {
+      if (prefetchBatchInFlight) {
+        return;
+      }
+      while (batch.size() < PREFETCH_IN_FLIGHT_LIMIT && !prefetchQueue.isEmpty()) {
+        batch.add(prefetchQueue.poll());
+      }
+      if (batch.isEmpty()) {
+        return;
+      }
+      prefetchBatchInFlight = true;
+    }
+    loadSourcesInBatch(batch, new SyncCallback() {
+      @Override
+      public void callbackDone(RuntimeException e) {
+        synchronized (prefetchQueue) {
+          prefetchBatchInFlight = false;
+        }
+        startPrefetches();
+      }
+    });
+  }
+
+  /**
+   * Requests sources of several scripts with one batch of commands, so they all take
+   * one round trip. Scripts whose source load has already started are skipped.
+   */
+  private RelayOk loadSourcesInBatch(List<ScriptData> scripts, final SyncCallback syncCallback) {
+    final List<ScriptData> batchScripts = new ArrayList<ScriptData>(scripts.size());
+    final List<Callback<Boolean>> callbacks = new ArrayList<Callback<Boolean>>(scripts.size());
+    final List<SyncCallback> syncCallbacks = new ArrayList<SyncCallback>(scripts.size());
+
+    for (final ScriptData data : scripts) {
+      // The operation only registers itself; the commands are sent below.
+      data.sourceLoadedFuture.initializeRunning(new AsyncFuture.Operation<Boolean>() {
+        @Override
+        public RelayOk start(Callback<Boolean> callback, SyncCallback syncCallback) {
+          batchScripts.add(data);
+          callbacks.add(callback);
+          syncCallbacks.add(syncCallback);
+          return BATCH_WILL_RELAY_OK;
+        }
+      });
+    }
+
+    if (batchScripts.isEmpty()) {
+      return RelaySyncCallback.finish(syncCallback);
+    }
+
+    final List<GetScriptSourceParams> paramsList =
+        new ArrayList<GetScriptSourceParams>(batchScripts.size());
+    for (ScriptData data : batchScripts) {
+      paramsList.add(new GetScriptSourceParams(data.scriptImpl.getId()));
+    }
+    final RuntimeException[] itemFailures = new RuntimeException[batchScripts.size()];
+
+    BaseCommandProcessor.BatchCallback<WipCommandResponse> batchCallback =
+        new BaseCommandProcessor.BatchCallback<WipCommandResponse>() {
+      @Override
+      public void batchDone(List<? extends WipCommandResponse> responses,
+          List<String> failures) {
+        for (int i = 0; i < responses.size(); i++) {
+          WipCommandResponse response = responses.get(i);
+          String failure = failures.get(i);
+          if (failure == null && response.asSuccess() == null) {
+            WipCommandResponse.Error asError = response.asError();
+            failure = asError == null ? "Internal messaging error" : asError.error().message();
+          }
+          if (failure != null) {
+            itemFailures[i] = new RuntimeException("Failed to load script source: " + failure);
+            continue;
+          }
+          GetScriptSourceData data;
+          try {
+            data = paramsList.get(i).parseResponse(response.asSuccess().data(),
+                WipParserAccess.get());
+          } catch (JsonProtocolParseException e) {
+            itemFailures[i] = new RuntimeException(e);
+            continue;
+          }
+          setSource(batchScripts.get(i).scriptImpl, data.scriptSource());
+          callbacks.get(i).done(true);
+        }
+      }
+    };
+
+    SyncCallback batchSyncCallback = new SyncCallback() {
+      @Override
+      public void callbackDone(RuntimeException e) {
+        try {
+          for (int i = 0; i < syncCallbacks.size(); i++) {
+            RuntimeException failure = itemFailures[i] == null ? e : itemFailures[i];
+            syncCallbacks.get(i).callbackDone(failure);
+          }
+        } finally {
+          if (syncCallback != null) {
+            syncCallback.callbackDone(e);
+          }
+        }
+      }
+    };
+
+    return tabImpl.getCommandProcessor().sendBatch(paramsList, batchCallback,
+        batchSyncCallback);
+  }
+
+  private static final RelayOk BATCH_WILL_RELAY_OK = new RelayOk() {};
+
   private class ScriptData {
     final WipScriptImpl scriptImpl;
     final AsyncFutureRef<Boolean> sourceLoadedFuture = new AsyncFutureRef<Boolean>();
 
-    ScriptData(WipScriptImpl scriptImpl) {
+    /**
+     * Whether the source is loaded on demand. Such script is available without a source;
+     * otherwise the script is available only once its source is loaded.
+     */
+    final boolean lazy;
+
+    ScriptData(WipScriptImpl scriptImpl, boolean lazy) {
       this.scriptImpl = scriptImpl;
+      this.lazy = lazy;
+    }
+
+    boolean isAvailable() {
+      return lazy || sourceLoadedFuture.isDone();
     }
   }
 
@@ -223,10 +485,11 @@ class WipScriptManager {
    * (from its stack frames).
    * Must be called from Dispatch thread.
    */
-  RelayOk loadScriptSourcesAsync(Set<String> ids, ScriptSourceLoadCallback callback,
+  RelayOk loadScriptSourcesAsync(Set<String> ids, final ScriptSourceLoadCallback callback,
       SyncCallback syncCallback) {
-    Queue<ScriptData> scripts = new ArrayDeque<ScriptData>(ids.size());
-    Map<String, WipScriptImpl> result = new HashMap<String, WipScriptImpl>(ids.size());
+    List<ScriptData> scripts = new ArrayList<ScriptData>(ids.size());
+    List<ScriptData> lazyScripts = new ArrayList<ScriptData>(0);
+    final Map<String, WipScriptImpl> result = new HashMap<String, WipScriptImpl>(ids.size());
     synchronized (scriptIdToData) {
       for (String id : ids) {
         ScriptData data = getSafe(scriptIdToData, id);
@@ -237,17 +500,60 @@ class WipScriptManager {
           continue;
         }
         result.put(id, data.scriptImpl);
-        if (!data.sourceLoadedFuture.isDone()) {
+        if (data.lazy) {
+          // Do not hold the debug context for the source.
+          lazyScripts.add(data);
+        } else if (!data.sourceLoadedFuture.isDone()) {
           scripts.add(data);
         }
       }
     }
 
-    // Start a chain of asynchronous operations.
-    // Make sure we call this sync callback sooner or later.
-    RelaySyncCallback relay =  new RelaySyncCallback(syncCallback);
+    if (!lazyScripts.isEmpty()) {
+      prefetchSources(lazyScripts);
+    }
+
+    // Wait for all the loads at once. They have been started when the scripts got reported.
+    // Merger is accessed from Dispatch thread only.
+    final AsyncFutureMerger<Boolean> merger = new AsyncFutureMerger<Boolean>();
+    for (ScriptData data : scripts) {
+      merger.addSubOperation();
+      waitForSource(data, merger);
+    }
+    merger.subOperationDone(null);
+    merger.subOperationDoneSync(null);
 
-    return loadNextScript(scripts, result, callback, relay);
+    return merger.getFuture().getAsync(new AsyncFuture.Callback<List<Boolean>>() {
+      @Override
+      public void done(List<Boolean> res) {
+        if (callback != null) {
+          callback.done(result);
+        }
+      }
+    }, syncCallback);
+  }
+
+  /**
+   * Reports the source load completion to the merger. A failed load is reported as well
+   * (as false), so that the debug context does not wait for it forever.
+   */
+  private static void waitForSource(ScriptData data, final AsyncFutureMerger<Boolean> merger) {
+    final boolean[] doneCalled = { false };
+    data.sourceLoadedFuture.getAsync(new AsyncFuture.Callback<Boolean>() {
+      @Override
+      public void done(Boolean res) {
+        doneCalled[0] = true;
+        merger.subOperationDone(res);
+      }
+    }, new SyncCallback() {
+      @Override
+      public void callbackDone(RuntimeException e) {
+        if (!doneCalled[0]) {
+          merger.subOperationDone(Boolean.FALSE);
+        }
+        merger.subOperationDoneSync(e);
+      }
+    });
   }
 
   interface ScriptSourceLoadCallback {
@@ -261,41 +567,13 @@ class WipScriptManager {
     return (String) sourceIdObj;
   }
 
-  // TODO: scripts are loaded in-series; make load parallel instead (to wait less).
-  private RelayOk loadNextScript(final Queue<ScriptData> scripts,
-      final Map<String, WipScriptImpl> result, final ScriptSourceLoadCallback callback,
-      final RelaySyncCallback relay) {
-    final ScriptData data = scripts.poll();
-    if (data == null) {
-      // Terminate the chain of asynchronous loads and pass a result to the callback.
-      RelayOk relayOk;
-      if (callback != null) {
-        callback.done(result);
-      }
-      return relay.finish();
-    }
-
-    // Create a guard for the case that we fail before issuing next #loadNextScript() call.
-    final RelaySyncCallback.Guard guard = relay.newGuard();
-
-    AsyncFuture.Callback<Boolean> futureCallback = new AsyncFuture.Callback<Boolean>() {
-      @Override
-      public void done(Boolean res) {
-        RelayOk relayOk = loadNextScript(scripts, result, callback, relay);
-        // We successfully relayed responsibility for operationDestructable to next async call,
-        // discharge guard.
-        guard.discharge(relayOk);
-      }
-    };
-
-    // The async operation will call a guard even if something failed within the AsyncFuture.
-    return data.sourceLoadedFuture.getAsync(futureCallback, guard.asSyncCallback());
-  }
-
   public void pageReloaded() {
     synchronized (scriptIdToData) {
       scriptIdToData.clear();
     }
+    synchronized (prefetchQueue) {
+      prefetchQueue.clear();
+    }
   }
 
   void endPopulateScriptMode() {
@@ -312,7 +590,8 @@ class WipScriptManager {
    * reported via {@link DebugEventListener#scriptLoaded}.
    * <p>
    * This means that until 'populate mode' ends (and all sources are loaded),
-   * {@link JavascriptVm#getScripts} call blocks.
+   * {@link JavascriptVm#getScripts} call blocks. Sources of lazily loaded scripts
+   * are not waited for.
    */
   private static class ScriptPopulateMode {
     /**
@@ -4,10 +4,15 @@
 
 package org.chromium.sdk.internal.wip;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -18,6 +23,7 @@ import org.chromium.sdk.BrowserTab;
 import org.chromium.sdk.CallbackSemaphore;
 import org.chromium.sdk.FunctionScopeExtension;
 import org.chromium.sdk.IgnoreCountBreakpointExtension;
+import org.chromium.sdk.ProtocolMetrics;
 import org.chromium.sdk.RelayOk;
 import org.chromium.sdk.RestartFrameExtension;
 import org.chromium.sdk.Script;
@@ -26,6 +32,7 @@ import org.chromium.sdk.TabDebugEventListener;
 import org.chromium.sdk.Version;
 import org.chromium.sdk.internal.JsonUtil;
 import org.chromium.sdk.internal.websocket.WsConnection;
+import org.chromium.sdk.internal.wip.protocol.BasicConstants;
 import org.chromium.sdk.internal.wip.protocol.input.WipCommandResponse.Success;
 import org.chromium.sdk.internal.wip.protocol.output.WipParams;
 import org.chromium.sdk.internal.wip.protocol.output.debugger.PauseParams;
@@ -51,10 +58,18 @@ import org.json.simple.parser.ParseException;
 public class WipTabImpl implements WipBrowserTab, WipJavascriptVm {
   private static final Logger LOGGER = Logger.getLogger(WipTabImpl.class.getName());
 
+  private static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
+
+  /**
+   * How many chars of a message are looked through for the method name; events put it first.
+   */
+  private static final int METHOD_PEEK_LIMIT = 256;
+
   private final WsConnection socket;
   private final WipBrowserImpl browserImpl;
   private final TabDebugEventListener tabListener;
   private final WipCommandProcessor commandProcessor;
+  private final EnumSet<Domain> domains;
   private final WipScriptManager scriptManager = new WipScriptManager(this);
   private final WipBreakpointManager breakpointManager = new WipBreakpointManager(this);
   private final WipContextBuilder contextBuilder = new WipContextBuilder(this);
@@ -67,7 +82,17 @@ public class WipTabImpl implements WipBrowserTab, WipJavascriptVm {
 
   public WipTabImpl(WsConnection socket, WipBrowserImpl browserImpl,
       TabDebugEventListener tabListener, String preliminaryUrl) throws IOException {
+    this(socket, browserImpl, tabListener, preliminaryUrl, EnumSet.allOf(Domain.class));
+  }
+
+  /**
+   * @param domains optional protocol domains to enable
+   */
+  public WipTabImpl(WsConnection socket, WipBrowserImpl browserImpl,
+      TabDebugEventListener tabListener, String preliminaryUrl, EnumSet<Domain> domains)
+      throws IOException {
     this.socket = socket;
+    this.domains = domains;
     this.browserImpl = browserImpl;
     this.tabListener = tabListener;
     this.url = preliminaryUrl;
@@ -75,6 +100,7 @@ public class WipTabImpl implements WipBrowserTab, WipJavascriptVm {
     this.closeSignalRelay = SignalRelay.create(new SignalRelay.Callback<Void>() {
       @Override
       public void onSignal(Void signal, Exception cause) {
+        commandProcessor.getMetrics().unregisterFromJmx();
         WipTabImpl.this.tabListener.closed();
         WipTabImpl.this.tabListener.getDebugEventListener().disconnected();
       }
@@ -86,18 +112,74 @@ public class WipTabImpl implements WipBrowserTab, WipJavascriptVm {
       throw new IOException("Connection is closed", e);
     }
 
-    commandProcessor = new WipCommandProcessor(this, socket);
+    commandProcessor = new WipCommandProcessor(this, socket, domains);
 
-    WsConnection.Listener socketListener = new WsConnection.Listener() {
+    // Large messages are parsed on worker threads; the parsed messages come in order.
+    WsConnection.Listener socketListener =
+        new WsConnection.ParsingListener<WipCommandProcessor.IncomingMessage>() {
       @Override
       public void textMessageRecieved(String text) {
+        parsedMessageReceived(parseMessage(text));
+      }
+
+      @Override
+      public void messageStreamReceived(InputStream stream, boolean binary) {
+        parsedMessageReceived(parseMessage(stream, binary));
+      }
+
+      @Override
+      public WipCommandProcessor.IncomingMessage parseMessage(String text) {
+        long startNanos = System.nanoTime();
+        if (isDropped(JsonUtil.peekLeadingStringProperty(text, BasicConstants.Property.METHOD,
+            METHOD_PEEK_LIMIT))) {
+          return null;
+        }
         JSONObject json;
         try {
           json = JsonUtil.jsonObjectFromJson(text);
         } catch (ParseException e) {
           throw new RuntimeException(e);
         }
-        commandProcessor.acceptResponse(json);
+        return commandProcessor.parseIncoming(json, System.nanoTime() - startNanos);
+      }
+
+      @Override
+      public WipCommandProcessor.IncomingMessage parseMessage(InputStream stream,
+          boolean binary) {
+        long startNanos = System.nanoTime();
+        JSONObject json;
+        try {
+          BufferedReader reader =
+              new BufferedReader(new InputStreamReader(stream, UTF_8_CHARSET));
+          if (isDropped(JsonUtil.peekLeadingStringProperty(reader,
+              BasicConstants.Property.METHOD, METHOD_PEEK_LIMIT))) {
+            return null;
+          }
+          json = JsonUtil.jsonObjectFromJson(reader);
+        } catch (ParseException e) {
+          throw new RuntimeException(e);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        return commandProcessor.parseIncoming(json, System.nanoTime() - startNanos);
+      }
+
+      /**
+       * @param message parsed message or null if it has been dropped
+       */
+      @Override
+      public void parsedMessageReceived(WipCommandProcessor.IncomingMessage message) {
+        if (message != null) {
+          commandProcessor.acceptIncoming(message);
+        }
+      }
+
+      /**
+       * @param method method name peeked from the message or null if it is not known
+       * @return whether the message is an event that nobody handles, so it needn't be parsed
+       */
+      private boolean isDropped(String method) {
+        return method != null && !commandProcessor.isEventAccepted(method);
       }
 
       @Override
@@ -113,6 +195,8 @@ public class WipTabImpl implements WipBrowserTab, WipJavascriptVm {
 
     socket.startListening(socketListener);
 
+    commandProcessor.getMetrics().registerInJmx("WIP tab " + preliminaryUrl);
+
     init();
   }
 
@@ -130,9 +214,11 @@ public class WipTabImpl implements WipBrowserTab, WipJavascriptVm {
         new org.chromium.sdk.internal.wip.protocol.output.debugger.EnableParams(),
         null, syncCallback);
 
-    commandProcessor.send(
-        new org.chromium.sdk.internal.wip.protocol.output.page.EnableParams(),
-        null, null);
+    if (domains.contains(Domain.PAGE)) {
+      commandProcessor.send(
+          new org.chromium.sdk.internal.wip.protocol.output.page.EnableParams(),
+          null, null);
+    }
 
     frameManager.readFrames();
   }
@@ -152,10 +238,24 @@ public class WipTabImpl implements WipBrowserTab, WipJavascriptVm {
     return scriptManager;
   }
 
+  WipBrowserImpl getBrowserImpl() {
+    return browserImpl;
+  }
+
   WipBreakpointManager getBreakpointManager() {
     return breakpointManager;
   }
 
+  @Override
+  public ScriptSourcePolicy getScriptSourcePolicy() {
+    return scriptManager.getSourcePolicy();
+  }
+
+  @Override
+  public void setScriptSourcePolicy(ScriptSourcePolicy policy) {
+    scriptManager.setSourcePolicy(policy);
+  }
+
   @Override
   public boolean detach() {
     closeSignalRelay.sendSignal(null, null);
@@ -225,6 +325,11 @@ public class WipTabImpl implements WipBrowserTab, WipJavascriptVm {
     return new Version(Arrays.asList(0, 0), " <Unknown V8 version>");
   }
 
+  @Override
+  public ProtocolMetrics getProtocolMetrics() {
+    return commandProcessor.getMetrics();
+  }
+
   @Override
   public BreakpointTypeExtension getBreakpointTypeExtension() {
     return WipBreakpointImpl.TYPE_EXTENSION;
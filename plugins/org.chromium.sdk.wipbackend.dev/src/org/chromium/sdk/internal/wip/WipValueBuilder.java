@@ -299,8 +299,12 @@ class WipValueBuilder {
 
     @Override
     JsValue build(RemoteObjectValue valueData, WipValueLoader valueLoader) {
-      // TODO: Implement caching here.
-      return buildNewInstance(valueData, valueLoader);
+      JsValue cached = valueLoader.getCachedObject(valueData.objectId());
+      if (cached != null) {
+        return cached;
+      }
+      return valueLoader.cacheObject(valueData.objectId(),
+          buildNewInstance(valueData, valueLoader));
     }
 
     abstract JsValue buildNewInstance(RemoteObjectValue valueData, WipValueLoader valueLoader);
@@ -454,7 +458,64 @@ class WipValueBuilder {
 
       @Override
       public long getLength() throws MethodIsBlockingException {
-        return getArrayProperties().getLength();
+        ArrayProperties arrayProperties = arrayPropertiesRef.get();
+        if (arrayProperties == null) {
+          Long length = parseLengthFromDescription(getValueData().description());
+          if (length != null) {
+            return length;
+          }
+          arrayProperties = getArrayProperties();
+        }
+        return arrayProperties.getLength();
+      }
+
+      @Override
+      public SortedMap<Long, ? extends JsVariable> getElements(long from, long to)
+          throws MethodIsBlockingException {
+        ArrayProperties arrayProperties = arrayPropertiesRef.get();
+        if (arrayProperties != null || from >= to) {
+          return toSparseArray().subMap(from, Math.max(from, to));
+        }
+        ObjectProperties loadedElements = getRemoteValueMapping().loadArrayElementsSync(
+            getValueData().objectId(), from, to);
+        SortedMap<Long, JsVariable> map = new TreeMap<Long, JsVariable>();
+        for (JsVariable variable : loadedElements.properties()) {
+          Long index = JavaScriptExpressionBuilder.parsePropertyNameAsArrayIndex(
+              variable.getName());
+          if (index != null) {
+            map.put(index, variable);
+          }
+        }
+        return Collections.unmodifiableSortedMap(map);
+      }
+
+      @Override
+      public long getElementCount() throws MethodIsBlockingException {
+        ArrayProperties arrayProperties = arrayPropertiesRef.get();
+        if (arrayProperties != null) {
+          return arrayProperties.getSparseArrayMap().size();
+        }
+        return getRemoteValueMapping().countArrayElementsSync(getValueData().objectId());
+      }
+
+      @Override
+      public Collection<? extends JsVariable> getNonElementProperties()
+          throws MethodIsBlockingException {
+        Collection<? extends JsVariable> properties;
+        if (arrayPropertiesRef.get() != null) {
+          properties = getLoadedProperties().properties();
+        } else {
+          properties = getRemoteValueMapping().loadArrayNonElementPropertiesSync(
+              getValueData().objectId()).properties();
+        }
+        List<JsVariable> result = new ArrayList<JsVariable>(2);
+        for (JsVariable variable : properties) {
+          if (JavaScriptExpressionBuilder.parsePropertyNameAsArrayIndex(
+              variable.getName()) == null) {
+            result.add(variable);
+          }
+        }
+        return result;
       }
 
       @Override
@@ -503,6 +564,26 @@ class WipValueBuilder {
       }
     }
 
+    /**
+     * Reads array length from a description like "Array[10]", so that it's known
+     * without loading the elements.
+     * @return the length or null if description has some other format
+     */
+    private static Long parseLengthFromDescription(String description) {
+      if (description == null || !description.endsWith("]")) {
+        return null;
+      }
+      int start = description.lastIndexOf('[');
+      if (start == -1) {
+        return null;
+      }
+      try {
+        return Long.valueOf(description.substring(start + 1, description.length() - 1));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
     private static class ArrayProperties {
       final long length;
       final SortedMap<Long, ? extends JsVariable> sparseArrayMap;
@@ -11,20 +11,26 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.chromium.sdk.CallbackSemaphore;
 import org.chromium.sdk.JsObjectProperty;
+import org.chromium.sdk.JsValue;
 import org.chromium.sdk.JsVariable;
 import org.chromium.sdk.RelayOk;
 import org.chromium.sdk.RemoteValueMapping;
 import org.chromium.sdk.SyncCallback;
 import org.chromium.sdk.internal.wip.protocol.input.debugger.FunctionDetailsValue;
 import org.chromium.sdk.internal.wip.protocol.input.debugger.GetFunctionDetailsData;
+import org.chromium.sdk.internal.wip.protocol.input.runtime.CallFunctionOnData;
 import org.chromium.sdk.internal.wip.protocol.input.runtime.GetPropertiesData;
 import org.chromium.sdk.internal.wip.protocol.input.runtime.InternalPropertyDescriptorValue;
 import org.chromium.sdk.internal.wip.protocol.input.runtime.PropertyDescriptorValue;
 import org.chromium.sdk.internal.wip.protocol.output.debugger.GetFunctionDetailsParams;
+import org.chromium.sdk.internal.wip.protocol.input.runtime.RemoteObjectValue;
+import org.chromium.sdk.internal.wip.protocol.output.runtime.CallFunctionOnParams;
 import org.chromium.sdk.internal.wip.protocol.output.runtime.GetPropertiesParams;
 import org.chromium.sdk.util.AsyncFuture;
 import org.chromium.sdk.util.AsyncFuture.Callback;
@@ -42,13 +48,31 @@ public abstract class WipValueLoader implements RemoteValueMapping {
   private final AtomicInteger cacheStateRef = new AtomicInteger(1);
   private final WipValueBuilder valueBuilder = new WipValueBuilder(this);
 
+  /**
+   * Objects by object id, so that an object reported again comes as the same instance
+   * with its properties already loaded. Null if this mapping doesn't cache objects.
+   */
+  private final ConcurrentMap<String, CachedObject> objectCache;
+
   public WipValueLoader(WipTabImpl tabImpl) {
+    this(tabImpl, false);
+  }
+
+  /**
+   * @param cacheObjects whether to reuse objects by their ids; only makes sense if
+   *     ids stay valid after a debug context is resumed
+   */
+  WipValueLoader(WipTabImpl tabImpl, boolean cacheObjects) {
     this.tabImpl = tabImpl;
+    this.objectCache = cacheObjects ? new ConcurrentHashMap<String, CachedObject>() : null;
   }
 
   @Override
   public void clearCaches() {
     cacheStateRef.incrementAndGet();
+    if (objectCache != null) {
+      objectCache.clear();
+    }
   }
 
   WipValueBuilder getValueBuilder() {
@@ -82,6 +106,51 @@ public abstract class WipValueLoader implements RemoteValueMapping {
 
   abstract String getObjectGroupId();
 
+  /**
+   * @return an object built for the id under the current cache state or null
+   */
+  JsValue getCachedObject(String objectId) {
+    if (objectCache == null || objectId == null) {
+      return null;
+    }
+    CachedObject entry = objectCache.get(objectId);
+    if (entry == null || entry.cacheState != getCacheState()) {
+      return null;
+    }
+    return entry.value;
+  }
+
+  /**
+   * Puts a newly built object into the cache, unless a concurrent thread has already put
+   * its own version.
+   * @return the object to use
+   */
+  JsValue cacheObject(String objectId, JsValue value) {
+    if (objectCache == null || objectId == null) {
+      return value;
+    }
+    CachedObject entry = new CachedObject(getCacheState(), value);
+    CachedObject old = objectCache.putIfAbsent(objectId, entry);
+    if (old == null) {
+      return value;
+    }
+    if (old.cacheState == entry.cacheState) {
+      return old.value;
+    }
+    objectCache.replace(objectId, old, entry);
+    return value;
+  }
+
+  private static class CachedObject {
+    final int cacheState;
+    final JsValue value;
+
+    CachedObject(int cacheState, JsValue value) {
+      this.cacheState = cacheState;
+      this.value = value;
+    }
+  }
+
   /**
    * A utility method that initializes {@link AsyncFuture} of an object without properties.
    */
@@ -308,6 +377,98 @@ public abstract class WipValueLoader implements RemoteValueMapping {
     loadedPositionRef.initializeRunning(operation);
   }
 
+  /**
+   * Loads array elements with indexes from the range without loading the rest of the array.
+   * Elements are copied (as property descriptors, so no getter is called) into a temporary
+   * object on remote, whose properties are then read as usual.
+   * @param arrayObjectId the array; it also becomes the host object of loaded properties
+   * @return properties named by indexes of elements present in the range
+   */
+  ObjectProperties loadArrayElementsSync(String arrayObjectId, long from, long to)
+      throws MethodIsBlockingException {
+    String functionText = "function() { var result = Object.create(null); " +
+        "for (var i = " + from + "; i < " + to + "; i++) { " +
+        "var descriptor = Object.getOwnPropertyDescriptor(this, i); " +
+        "if (descriptor) { Object.defineProperty(result, i, descriptor); } } " +
+        "return result; }";
+    return loadCopiedPropertiesSync(arrayObjectId, functionText);
+  }
+
+  /**
+   * Loads the array properties that are not elements, the same way as
+   * {@link #loadArrayElementsSync} does.
+   */
+  ObjectProperties loadArrayNonElementPropertiesSync(String arrayObjectId)
+      throws MethodIsBlockingException {
+    String functionText = "function() { var result = Object.create(null); " +
+        "var names = Object.getOwnPropertyNames(this); " +
+        "for (var i = 0; i < names.length; i++) { var name = names[i]; " +
+        ARRAY_INDEX_CHECK + "continue; } " +
+        "Object.defineProperty(result, name, Object.getOwnPropertyDescriptor(this, name)); } " +
+        "return result; }";
+    return loadCopiedPropertiesSync(arrayObjectId, functionText);
+  }
+
+  /**
+   * Counts elements present in the array on remote.
+   */
+  long countArrayElementsSync(String arrayObjectId) throws MethodIsBlockingException {
+    String functionText = "function() { var count = 0; " +
+        "var names = Object.getOwnPropertyNames(this); " +
+        "for (var i = 0; i < names.length; i++) { var name = names[i]; " +
+        ARRAY_INDEX_CHECK + "count++; } } " +
+        "return count; }";
+    Object value = callFunctionOnSync(arrayObjectId, functionText, true).value();
+    if (value instanceof Number == false) {
+      throw new RuntimeException("Failed to count array elements: " + value);
+    }
+    return ((Number) value).longValue();
+  }
+
+  /** Opens an if block that is entered when 'name' is an array index. */
+  private static final String ARRAY_INDEX_CHECK =
+      "if (String(name >>> 0) === name && name !== '4294967295') { ";
+
+  private ObjectProperties loadCopiedPropertiesSync(String objectId, String functionText)
+      throws MethodIsBlockingException {
+    RemoteObjectValue copy = callFunctionOnSync(objectId, functionText, false);
+    AsyncFutureRef<Getter<ObjectProperties>> futureRef =
+        new AsyncFutureRef<Getter<ObjectProperties>>();
+    loadPropertiesInFuture(copy.objectId(), new ObjectPropertyProcessor(objectId), false,
+        getCacheState(), futureRef);
+    return futureRef.getSync().get();
+  }
+
+  private RemoteObjectValue callFunctionOnSync(String objectId, String functionText,
+      boolean returnByValue) throws MethodIsBlockingException {
+    CallFunctionOnParams request =
+        new CallFunctionOnParams(objectId, functionText, null, true, returnByValue, null);
+
+    final CallFunctionOnData[] response = { null };
+    final Exception[] failure = { null };
+    GenericCallback<CallFunctionOnData> callback = new GenericCallback<CallFunctionOnData>() {
+      @Override public void success(CallFunctionOnData value) {
+        response[0] = value;
+      }
+      @Override public void failure(Exception exception) {
+        failure[0] = exception;
+      }
+    };
+    CallbackSemaphore callbackSemaphore = new CallbackSemaphore();
+    RelayOk relayOk =
+        tabImpl.getCommandProcessor().send(request, callback, callbackSemaphore);
+    callbackSemaphore.acquireDefault(relayOk);
+
+    if (failure[0] != null) {
+      throw new RuntimeException("Failed to load array data", failure[0]);
+    }
+    if (response[0].wasThrown() == Boolean.TRUE) {
+      throw new RuntimeException("Failed to load array data: " +
+          response[0].result().description());
+    }
+    return response[0].result();
+  }
+
   /**
    * Response is either data or error message. We wrap whatever it is for postprocessing
    * that is conducted off Dispatch thread.
@@ -10,6 +10,7 @@ import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.AbstractList;
 import java.util.List;
+import java.util.Set;
 
 import org.chromium.sdk.ConnectionLogger;
 import org.chromium.sdk.TabDebugEventListener;
@@ -92,6 +93,15 @@ public class WipBackendImpl extends WipBackendBase {
       return description.title();
     }
 
+    /**
+     * The protocol doesn't let domains be chosen, all of them are enabled.
+     */
+    @Override
+    public WipBrowserTab attach(TabDebugEventListener listener,
+        Set<WipBrowserTab.Domain> domains) throws IOException {
+      return attach(listener);
+    }
+
     @Override
     public WipBrowserTab attach(TabDebugEventListener listener) throws IOException {
       LoggerFactory connectionLoggerFactory = browserImpl.getConnectionLoggerFactory();
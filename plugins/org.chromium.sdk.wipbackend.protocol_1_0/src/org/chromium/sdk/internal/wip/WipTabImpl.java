@@ -18,6 +18,7 @@ import org.chromium.sdk.BrowserTab;
 import org.chromium.sdk.CallbackSemaphore;
 import org.chromium.sdk.FunctionScopeExtension;
 import org.chromium.sdk.IgnoreCountBreakpointExtension;
+import org.chromium.sdk.ProtocolMetrics;
 import org.chromium.sdk.RelayOk;
 import org.chromium.sdk.RestartFrameExtension;
 import org.chromium.sdk.Script;
@@ -224,6 +225,12 @@ public class WipTabImpl implements WipBrowserTab, WipJavascriptVm {
     return new Version(Arrays.asList(0, 0), " <Unknown V8 version>");
   }
 
+  @Override
+  public ProtocolMetrics getProtocolMetrics() {
+    // Metrics are only collected by newer backends.
+    return null;
+  }
+
   @Override
   public BreakpointTypeExtension getBreakpointTypeExtension() {
     return WipBreakpointImpl.TYPE_EXTENSION;
@@ -324,6 +331,21 @@ public class WipTabImpl implements WipBrowserTab, WipJavascriptVm {
     return url;
   }
 
+  @Override
+  public ScriptSourcePolicy getScriptSourcePolicy() {
+    return ScriptSourcePolicy.EAGER;
+  }
+
+  /**
+   * Only {@link ScriptSourcePolicy#EAGER} is supported by this backend.
+   */
+  @Override
+  public void setScriptSourcePolicy(ScriptSourcePolicy policy) {
+    if (policy != ScriptSourcePolicy.EAGER) {
+      WipBrowserImpl.throwUnsupported();
+    }
+  }
+
   public TabDebugEventListener getDebugListener() {
     return this.tabListener;
   }
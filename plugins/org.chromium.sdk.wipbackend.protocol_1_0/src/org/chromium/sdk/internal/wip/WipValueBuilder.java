@@ -6,9 +6,11 @@ package org.chromium.sdk.internal.wip;
 
 import static org.chromium.sdk.util.BasicUtil.getSafe;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -522,6 +524,30 @@ class WipValueBuilder {
         return getArrayProperties().getPublicSparseArrayMap();
       }
 
+      @Override
+      public SortedMap<Long, ? extends JsVariable> getElements(long from, long to)
+          throws MethodIsBlockingException {
+        return toSparseArray().subMap(from, Math.max(from, to));
+      }
+
+      @Override
+      public long getElementCount() throws MethodIsBlockingException {
+        return getArrayProperties().getSparseArrayMap().size();
+      }
+
+      @Override
+      public Collection<? extends JsVariable> getNonElementProperties()
+          throws MethodIsBlockingException {
+        List<JsVariable> result = new ArrayList<JsVariable>(2);
+        for (JsVariable variable : getProperties()) {
+          if (JavaScriptExpressionBuilder.parsePropertyNameAsArrayIndex(
+              variable.getName()) == null) {
+            result.add(variable);
+          }
+        }
+        return result;
+      }
+
       private ArrayProperties getArrayProperties() throws MethodIsBlockingException {
         ArrayProperties result = arrayPropertiesRef.get();
         if (result == null) {
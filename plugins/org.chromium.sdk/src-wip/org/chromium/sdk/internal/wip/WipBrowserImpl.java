@@ -9,6 +9,7 @@ import java.net.InetSocketAddress;
 import java.util.List;
 
 import org.chromium.sdk.Browser;
+import org.chromium.sdk.internal.ScriptSourcePool;
 import org.chromium.sdk.wip.WipBackend;
 import org.chromium.sdk.wip.WipBrowser;
 import org.chromium.sdk.wip.WipBrowserFactory;
@@ -21,6 +22,9 @@ public class WipBrowserImpl implements WipBrowser {
   private final InetSocketAddress socketAddress;
   private final WipBrowserFactory.LoggerFactory connectionLoggerFactory;
 
+  /** Shared by all tabs, so that a script loaded in several tabs keeps one source copy. */
+  private final ScriptSourcePool scriptSourcePool = new ScriptSourcePool();
+
   public WipBrowserImpl(InetSocketAddress socketAddress,
       WipBrowserFactory.LoggerFactory connectionLoggerFactory) {
     this.socketAddress = socketAddress;
@@ -41,6 +45,10 @@ public class WipBrowserImpl implements WipBrowser {
     return connectionLoggerFactory;
   }
 
+  public ScriptSourcePool getScriptSourcePool() {
+    return scriptSourcePool;
+  }
+
   /**
    * A convenience method for any currently unsupported operation. It nicely co-works with
    * a return statements.
@@ -6,6 +6,7 @@ package org.chromium.sdk.wip;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 import org.chromium.sdk.Browser;
 import org.chromium.sdk.TabDebugEventListener;
@@ -40,5 +41,18 @@ public interface WipBrowser {
      * @return null if operation failed
      */
     WipBrowserTab attach(TabDebugEventListener listener) throws IOException;
+
+    /**
+     * Attaches to the related tab debugger enabling only the given optional protocol domains.
+     * Events of domains that are not enabled are dropped without being parsed.
+     * Domains are chosen once per attach, they can't be disabled later.
+     * {@link #attach(TabDebugEventListener)} is the same as this method with all domains.
+     *
+     * @param listener to report the debug events to
+     * @param domains optional domains to enable; Debugger domain is always enabled
+     * @return null if operation failed
+     */
+    WipBrowserTab attach(TabDebugEventListener listener, Set<WipBrowserTab.Domain> domains)
+        throws IOException;
   }
 }
@@ -4,6 +4,10 @@
 
 package org.chromium.sdk.wip;
 
+import org.chromium.sdk.JavascriptVm;
+import org.chromium.sdk.Script;
+import org.chromium.sdk.TabDebugEventListener;
+
 /**
  * An abstraction of a remote Browser tab. Each browser tab contains
  * a Javascript Virtual Machine.
@@ -23,4 +27,54 @@ public interface WipBrowserTab {
    * @return a URL of the corresponding browser tab
    */
   String getUrl();
+
+  /**
+   * @return the current policy of loading script sources
+   */
+  ScriptSourcePolicy getScriptSourcePolicy();
+
+  /**
+   * Sets the policy of loading script sources. The policy applies to the scripts reported
+   * after the call. Pre-existing scripts are reported right after attach, so to cover them
+   * the default policy should be set with the {@link #LAZY_SOURCES_PROPERTY} system property.
+   */
+  void setScriptSourcePolicy(ScriptSourcePolicy policy);
+
+  /**
+   * A boolean system property; if true, tabs start with {@link ScriptSourcePolicy#LAZY}.
+   */
+  String LAZY_SOURCES_PROPERTY = "org.chromium.sdk.client.wip.lazySources";
+
+  /**
+   * Defines when script sources are loaded from remote.
+   */
+  enum ScriptSourcePolicy {
+    /**
+     * A source is requested as soon as the script is reported parsed. The script is returned
+     * from {@link JavascriptVm#getScripts} and reported to the listener only after that.
+     */
+    EAGER,
+
+    /**
+     * A script is returned and reported without a source. The source is requested once
+     * asked via {@link Script#getSource}; until then {@link Script#hasSource} returns false.
+     * Sources of scripts on the call stack of a new debug context are prefetched in background.
+     */
+    LAZY
+  }
+
+  /**
+   * Optional protocol domains that a tab may be attached with, see
+   * {@link WipBrowser.WipTabConnector#attach(TabDebugEventListener, java.util.Set)}.
+   * Debugger domain is not listed, because it is always enabled.
+   */
+  enum Domain {
+    /**
+     * Tracks page navigation: the tab URL is updated and
+     * {@link TabDebugEventListener#navigated} is called when page reloads. Without it
+     * the URL is only read once after attach and scripts of a previous page are not dropped
+     * on reload, which suits tabs that are not expected to navigate.
+     */
+    PAGE
+  }
 }
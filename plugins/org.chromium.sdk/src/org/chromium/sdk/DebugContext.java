@@ -80,7 +80,8 @@ public interface DebugContext {
 
   /**
    * @return a list of call frames for the current JavaScript suspended state (from the
-   * innermost (top) frame to the main (bottom) frame)
+   * innermost (top) frame to the main (bottom) frame); the implementation may load
+   * bottom frames only when they are first accessed, so reading the list may block too
    * @throws MethodIsBlockingException if called from a callback because it may
    *         need to load necessary scripts
    */
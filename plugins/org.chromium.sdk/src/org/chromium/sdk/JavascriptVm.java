@@ -159,6 +159,12 @@ public interface JavascriptVm {
    */
   Version getVersion();
 
+  /**
+   * @return performance counters of the debugger protocol connection or null if the backend
+   *     doesn't collect them
+   */
+  ProtocolMetrics getProtocolMetrics();
+
   /**
    * @return extension to standard breakpoint target types
    */
@@ -4,6 +4,7 @@
 
 package org.chromium.sdk;
 
+import java.util.Collection;
 import java.util.SortedMap;
 
 import org.chromium.sdk.util.MethodIsBlockingException;
@@ -15,7 +16,8 @@ public interface JsArray extends JsObject {
 
   /**
    * @return the array length (index of the last element plus one),
-   *         0 iff the array is empty
+   *         0 iff the array is empty; the implementation tries to get it without loading
+   *         the elements
    * @throws MethodIsBlockingException because it may need to load value from remote
    */
   long getLength() throws MethodIsBlockingException;
@@ -36,4 +38,31 @@ public interface JsArray extends JsObject {
    * @throws MethodIsBlockingException because it may need to load value from remote
    */
   SortedMap<Long, ? extends JsVariable> toSparseArray() throws MethodIsBlockingException;
+
+  /**
+   * Returns elements from a range of indexes. Unlike {@link #toSparseArray()} it only loads
+   * values of the requested elements, so huge arrays may be viewed page by page.
+   * @param from the first index of the range, inclusive
+   * @param to the last index of the range, exclusive
+   * @return a map of indices to elements in the range, sorted in the ascending key order;
+   *         missing elements are not included
+   * @throws MethodIsBlockingException because it may need to load value from remote
+   */
+  SortedMap<Long, ? extends JsVariable> getElements(long from, long to)
+      throws MethodIsBlockingException;
+
+  /**
+   * @return the number of elements present in the array, which is less than
+   *         {@link #getLength()} for a sparse array; the implementation tries to get it
+   *         without loading the elements
+   * @throws MethodIsBlockingException because it may need to load value from remote
+   */
+  long getElementCount() throws MethodIsBlockingException;
+
+  /**
+   * @return the properties of the array that are not elements (their names are not array
+   *         indexes); unlike {@link #getProperties()} it does not load the elements
+   * @throws MethodIsBlockingException because it may need to load value from remote
+   */
+  Collection<? extends JsVariable> getNonElementProperties() throws MethodIsBlockingException;
 }
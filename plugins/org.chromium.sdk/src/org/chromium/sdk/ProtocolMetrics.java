@@ -0,0 +1,79 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk;
+
+import java.util.Map;
+
+import javax.management.MXBean;
+
+/**
+ * Performance counters of a debugger protocol connection: how long commands take, how many
+ * of them are waiting for response, how much traffic is going and how long incoming messages
+ * take to parse. Collecting them is cheap and doesn't require a {@link ConnectionLogger}.
+ * <p>
+ * All values are read live; a returned map is a snapshot made at the moment of the call.
+ * <p>
+ * The interface is a JMX MXBean: the implementation may be registered in a MBean server
+ * as is (see "org.chromium.sdk.client.connection.jmx" system property).
+ * @see JavascriptVm#getProtocolMetrics()
+ */
+@MXBean
+public interface ProtocolMetrics {
+  /**
+   * @return response latencies by command name
+   */
+  Map<String, LatencyStats> getCommandLatencies();
+
+  /**
+   * @return time it took to parse incoming messages by message type (an event name for
+   *     events; a command name for responses, or a single common type if the protocol
+   *     doesn't put command name into responses)
+   */
+  Map<String, LatencyStats> getParseTimes();
+
+  /**
+   * @return number of commands that were sent, but haven't got a response yet
+   */
+  int getInFlightCommandCount();
+
+  /**
+   * @return number of bytes received from the connection or -1 if not available
+   */
+  long getBytesReceived();
+
+  /**
+   * @return number of bytes sent to the connection or -1 if not available
+   */
+  long getBytesSent();
+
+  /**
+   * @return number of incoming messages waiting to be dispatched or -1 if not available
+   */
+  int getInboundQueueDepth();
+
+  /**
+   * @return number of outgoing messages waiting to be written or -1 if not available
+   */
+  int getOutboundQueueDepth();
+
+  /**
+   * Clears latency and parse time statistics.
+   */
+  void resetStatistics();
+
+  /**
+   * A summary of a latency distribution. Values are in nanoseconds; percentiles are
+   * precise up to about 3%.
+   */
+  interface LatencyStats {
+    long getCount();
+    long getMinNanos();
+    long getMaxNanos();
+    long getMeanNanos();
+    long getMedianNanos();
+    long getPercentile90Nanos();
+    long getPercentile99Nanos();
+  }
+}
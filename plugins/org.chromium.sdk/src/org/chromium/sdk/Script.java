@@ -65,11 +65,17 @@ public interface Script extends UpdatableScript {
   int getEndLine();
 
   /**
+   * A backend may not load the text of a script until it's asked for, or may drop it to
+   * save memory; in such case this method loads the text and waits for it. When called from
+   * Dispatch thread (e.g. from a callback), the method can't wait, so it only starts
+   * the load and may return null; the text is available once the load finishes.
    * @return the currently set source text of this script
    */
   String getSource();
 
   /**
+   * Never loads the source: a text that hasn't been loaded yet is reported as unknown,
+   * call {@link #getSource()} to load it.
    * @return whether the source for this script is known
    */
   boolean hasSource();
@@ -4,7 +4,11 @@
 
 package org.chromium.sdk.internal;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,6 +38,15 @@ public class BaseCommandProcessor<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ
     void reportVmStatus(String currentRequest, int numberOfEnqueued);
   }
 
+  /**
+   * An optional extension of {@link Handler} for transports that can put several messages
+   * into a single write. Other handlers get batch messages one by one.
+   */
+  public interface BatchHandler<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ>
+      extends Handler<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ> {
+    void sendBatch(List<? extends OUTGOING> messages, boolean isImmediate);
+  }
+
   /**
    * @param <INCOMING_WITH_SEQ>
    */
@@ -42,13 +55,54 @@ public class BaseCommandProcessor<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ
     void failure(String message);
   }
 
-  private final CloseableMap<SEQ_KEY, CallbackEntry<INCOMING_WITH_SEQ>> callbackMap =
-      CloseableMap.newLinkedMap();
+  /**
+   * Receives results of a command batch sent with {@link BaseCommandProcessor#sendBatch}.
+   */
+  public interface BatchCallback<INCOMING_WITH_SEQ> {
+    /**
+     * Called once, after every command of the batch got its response or failed.
+     * @param responses responses in the order of the sent messages; an element is null
+     *     if the corresponding command failed
+     * @param failures failure messages in the same order; an element is null if the
+     *     corresponding command has got a response
+     */
+    void batchDone(List<? extends INCOMING_WITH_SEQ> responses, List<String> failures);
+  }
+
+  /** Minimal interval between two VM status reports. */
+  private static final long VM_STATUS_REPORT_INTERVAL_MS = 100;
+
+  private final PendingRequestTable<SEQ_KEY, CallbackEntry<INCOMING_WITH_SEQ>> callbackTable =
+      new PendingRequestTable<SEQ_KEY, CallbackEntry<INCOMING_WITH_SEQ>>();
   private final Handler<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ> handler;
+  private final CoalescingNotifier vmStatusNotifier;
+  private final ProtocolMetricsImpl metrics;
 
   public BaseCommandProcessor(
       Handler<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ> handler) {
+    this(handler, new ProtocolMetricsImpl());
+  }
+
+  /**
+   * @param metrics receives latencies of commands; may be shared with other parts of
+   *     the connection that record their own numbers
+   */
+  public BaseCommandProcessor(
+      Handler<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ> handler,
+      ProtocolMetricsImpl metrics) {
     this.handler = handler;
+    this.metrics = metrics;
+    metrics.setPendingRequests(callbackTable);
+    this.vmStatusNotifier = new CoalescingNotifier(new Runnable() {
+      @Override
+      public void run() {
+        reportVmStatusNow();
+      }
+    }, VM_STATUS_REPORT_INTERVAL_MS);
+  }
+
+  public ProtocolMetricsImpl getMetrics() {
+    return metrics;
   }
 
   public RelayOk send(OUTGOING message, boolean isImmediate,
@@ -59,7 +113,7 @@ public class BaseCommandProcessor<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ
       String commandName = handler.getCommandName(message);
 
       try {
-        callbackMap.put(seq,
+        callbackTable.put(seqIndex(seq), seq,
             new CallbackEntry<INCOMING_WITH_SEQ>(callback, syncCallback, commandName));
       } catch (IllegalStateException e) {
         throw new IllegalStateException("Connection is closed", e);
@@ -73,24 +127,92 @@ public class BaseCommandProcessor<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ
       handler.send(message, isImmediate);
     } catch (RuntimeException e) {
       if (callbackAdded) {
-        callbackMap.remove(seq);
+        callbackTable.remove(seqIndex(seq), seq);
       }
       throw e;
     }
     return WE_SENT_IT_RELAY_OK;
   }
 
+  /**
+   * Sends several commands at once, so that they are all in flight simultaneously and
+   * (if the handler supports this) go out in one transport write. A failure of one command
+   * does not affect the others; {@code callback} gets all the results together.
+   */
+  @SuppressWarnings("unchecked")
+  public RelayOk sendBatch(List<? extends OUTGOING> messages, boolean isImmediate,
+      BatchCallback<? super INCOMING_WITH_SEQ> callback, SyncCallback syncCallback) {
+    BatchCollector<INCOMING_WITH_SEQ> collector =
+        new BatchCollector<INCOMING_WITH_SEQ>(messages.size(), callback, syncCallback);
+
+    List<OUTGOING> registeredMessages = new ArrayList<OUTGOING>(messages.size());
+    List<SEQ_KEY> registeredSeqs = new ArrayList<SEQ_KEY>(messages.size());
+    List<Integer> registeredIndexes = new ArrayList<Integer>(messages.size());
+
+    for (int i = 0; i < messages.size(); i++) {
+      OUTGOING message = messages.get(i);
+      SEQ_KEY seq = handler.getUpdatedSeq(message);
+      CallbackEntry<INCOMING_WITH_SEQ> entry = new CallbackEntry<INCOMING_WITH_SEQ>(
+          collector.createItemCallback(i), null, handler.getCommandName(message));
+      try {
+        callbackTable.put(seqIndex(seq), seq, entry);
+      } catch (IllegalStateException e) {
+        collector.itemFailed(i, "Connection closed");
+        continue;
+      }
+      registeredMessages.add(message);
+      registeredSeqs.add(seq);
+      registeredIndexes.add(i);
+    }
+    reportVmStatus();
+
+    if (handler instanceof BatchHandler) {
+      BatchHandler<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ> batchHandler =
+          (BatchHandler<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ>) handler;
+      try {
+        batchHandler.sendBatch(registeredMessages, isImmediate);
+      } catch (RuntimeException e) {
+        for (int k = 0; k < registeredSeqs.size(); k++) {
+          failUnsent(registeredSeqs.get(k), registeredIndexes.get(k), collector, e);
+        }
+      }
+    } else {
+      for (int k = 0; k < registeredMessages.size(); k++) {
+        try {
+          handler.send(registeredMessages.get(k), isImmediate);
+        } catch (RuntimeException e) {
+          failUnsent(registeredSeqs.get(k), registeredIndexes.get(k), collector, e);
+        }
+      }
+    }
+    collector.allSent();
+    return WE_SENT_IT_RELAY_OK;
+  }
+
+  private void failUnsent(SEQ_KEY seq, int index, BatchCollector<?> collector,
+      RuntimeException cause) {
+    // The response may have come already.
+    if (callbackTable.remove(seqIndex(seq), seq) != null) {
+      LOGGER.log(Level.SEVERE, "Failed to send command", cause);
+      collector.itemFailed(index, "Failed to send: " + cause);
+    }
+  }
+
   public void processIncoming(INCOMING incomingParsed) {
     final INCOMING_WITH_SEQ commandResponse = handler.parseWithSeq(incomingParsed);
 
     if (commandResponse != null) {
       SEQ_KEY key = handler.getSeq(commandResponse);
-      CallbackEntry<INCOMING_WITH_SEQ> callbackEntry = callbackMap.removeIfContains(key);
+      CallbackEntry<INCOMING_WITH_SEQ> callbackEntry = key == null
+          ? null
+          : callbackTable.remove(seqIndex(key), key);
       if (callbackEntry != null) {
-        LOGGER.log(
-            Level.FINE,
-            "Request-response roundtrip: {0}ms",
-            getCurrentMillis() - callbackEntry.commitMillis);
+        long roundtripNanos = System.nanoTime() - callbackEntry.commitNanos;
+        metrics.recordCommandLatency(callbackEntry.requestName, roundtripNanos);
+        if (LOGGER.isLoggable(Level.FINE)) {
+          LOGGER.log(Level.FINE, "Request-response roundtrip: {0}ms",
+              TimeUnit.NANOSECONDS.toMillis(roundtripNanos));
+        }
         reportVmStatus();
 
         CallbackCaller<Callback<? super INCOMING_WITH_SEQ>> caller =
@@ -113,7 +235,7 @@ public class BaseCommandProcessor<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ
 
   public void processEos() {
     // We should call them in the order they have been submitted.
-    Collection<CallbackEntry<INCOMING_WITH_SEQ>> entries = callbackMap.close().values();
+    List<CallbackEntry<INCOMING_WITH_SEQ>> entries = callbackTable.close();
     for (CallbackEntry<INCOMING_WITH_SEQ> entry : entries) {
       try {
         callThemBack(entry, failureCaller, null);
@@ -143,6 +265,85 @@ public class BaseCommandProcessor<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ
     }
   }
 
+  /**
+   * Collects results of batch commands and reports them once all are ready and the sending
+   * thread has called {@link #allSent}.
+   */
+  private static class BatchCollector<INCOMING_WITH_SEQ> {
+    private final Object[] responses;
+    private final String[] failures;
+    private final BatchCallback<? super INCOMING_WITH_SEQ> callback;
+    private final SyncCallback syncCallback;
+    // Results outstanding plus one for the sending thread.
+    private final AtomicInteger remaining;
+
+    BatchCollector(int size, BatchCallback<? super INCOMING_WITH_SEQ> callback,
+        SyncCallback syncCallback) {
+      this.responses = new Object[size];
+      this.failures = new String[size];
+      this.callback = callback;
+      this.syncCallback = syncCallback;
+      this.remaining = new AtomicInteger(size + 1);
+    }
+
+    Callback<INCOMING_WITH_SEQ> createItemCallback(final int index) {
+      return new Callback<INCOMING_WITH_SEQ>() {
+        @Override
+        public void messageReceived(INCOMING_WITH_SEQ response) {
+          synchronized (BatchCollector.this) {
+            responses[index] = response;
+          }
+          itemDone();
+        }
+
+        @Override
+        public void failure(String message) {
+          itemFailed(index, message);
+        }
+      };
+    }
+
+    void itemFailed(int index, String message) {
+      synchronized (this) {
+        failures[index] = message;
+      }
+      itemDone();
+    }
+
+    void allSent() {
+      itemDone();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void itemDone() {
+      if (remaining.decrementAndGet() != 0) {
+        return;
+      }
+      List<INCOMING_WITH_SEQ> responseList;
+      List<String> failureList;
+      synchronized (this) {
+        responseList = new ArrayList<INCOMING_WITH_SEQ>(responses.length);
+        for (Object response : responses) {
+          responseList.add((INCOMING_WITH_SEQ) response);
+        }
+        failureList = Arrays.asList(failures.clone());
+      }
+      RuntimeException callbackException = null;
+      try {
+        if (callback != null) {
+          callback.batchDone(responseList, failureList);
+        }
+      } catch (RuntimeException e) {
+        callbackException = e;
+        throw e;
+      } finally {
+        if (syncCallback != null) {
+          syncCallback.callbackDone(callbackException);
+        }
+      }
+    }
+  }
+
   private static abstract class CallbackCaller<CALLBACK> {
     abstract void call(CALLBACK handlerCallback);
   }
@@ -159,40 +360,42 @@ public class BaseCommandProcessor<SEQ_KEY, OUTGOING, INCOMING, INCOMING_WITH_SEQ
 
     final SyncCallback syncCallback;
 
-    final long commitMillis;
+    final long commitNanos;
 
     final String requestName;
 
     CallbackEntry(Callback<? super INCOMING_WITH_SEQ> callback, SyncCallback syncCallback,
         String requestName) {
       this.callback = callback;
-      this.commitMillis = getCurrentMillis();
+      this.commitNanos = System.nanoTime();
       this.syncCallback = syncCallback;
       this.requestName = requestName;
     }
   }
 
   /**
-   * @return milliseconds since the epoch
+   * @return int index of sequence key (for Integer keys this is their value)
    */
-  private static long getCurrentMillis() {
-    return System.currentTimeMillis();
+  private static int seqIndex(Object seq) {
+    return seq.hashCode();
   }
 
-  private final Object vmStatusReportMonitor = new Object();
   private void reportVmStatus() {
-    // We synchronize, because one thread may be delivering obsolete message while a more
-    // recent message has already been delivered by other thread.
-    synchronized (vmStatusReportMonitor) {
-      int size = callbackMap.size();
-      CallbackEntry<?> firstEntry = callbackMap.peekFirst();
-      // Those 2 variables above might be not in synch, so for a brief moment user may see
-      // a wrong message (when size == 0 and firstEntry is null). This is OK.
-      if (firstEntry == null) {
-        handler.reportVmStatus(null, 0);
-      } else {
-        handler.reportVmStatus(firstEntry.requestName, size - 1);
-      }
+    vmStatusNotifier.stateChanged();
+  }
+
+  /**
+   * Called from notifier thread only.
+   */
+  private void reportVmStatusNow() {
+    int size = callbackTable.size();
+    CallbackEntry<?> firstEntry = callbackTable.peekOldest();
+    // Those 2 variables above might be not in synch, so for a brief moment user may see
+    // a wrong message (when size == 0 and firstEntry is null). This is OK.
+    if (firstEntry == null) {
+      handler.reportVmStatus(null, 0);
+    } else {
+      handler.reportVmStatus(firstEntry.requestName, size - 1);
     }
   }
 
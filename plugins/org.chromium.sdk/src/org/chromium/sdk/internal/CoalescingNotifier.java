@@ -0,0 +1,90 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a report task after something has changed, but no more often than once per
+ * a minimal interval. All changes that happen while a report is pending are coalesced into
+ * this report. The report task reads the current state itself, so it always sees the latest
+ * changes.
+ * <p>
+ * Reports are run on a shared daemon thread one at a time, so the task doesn't need
+ * to be synchronized.
+ */
+class CoalescingNotifier {
+  private static final Logger LOGGER = Logger.getLogger(CoalescingNotifier.class.getName());
+
+  private final Runnable reportTask;
+  private final long minIntervalNanos;
+  private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+  // Access must be synchronized on this.
+  private long lastReportNanos;
+
+  /**
+   * @param reportTask task that reads and reports the current state
+   * @param minIntervalMs minimal interval between two reports
+   */
+  CoalescingNotifier(Runnable reportTask, long minIntervalMs) {
+    this.reportTask = reportTask;
+    this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMs);
+    this.lastReportNanos = System.nanoTime() - minIntervalNanos;
+  }
+
+  /**
+   * Notes that the state has changed. Cheap and non-blocking.
+   */
+  void stateChanged() {
+    if (!isScheduled.compareAndSet(false, true)) {
+      // Report is pending and will pick this change up.
+      return;
+    }
+    long delay;
+    synchronized (this) {
+      delay = lastReportNanos + minIntervalNanos - System.nanoTime();
+    }
+    getExecutor().schedule(new Runnable() {
+      @Override
+      public void run() {
+        // Clear the flag before reading the state, so that no change gets lost.
+        isScheduled.set(false);
+        synchronized (CoalescingNotifier.this) {
+          lastReportNanos = System.nanoTime();
+        }
+        try {
+          reportTask.run();
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.SEVERE, "Failed to report status", e);
+        }
+      }
+    }, Math.max(delay, 0), TimeUnit.NANOSECONDS);
+  }
+
+  private static ScheduledExecutorService getExecutor() {
+    return ExecutorHolder.EXECUTOR;
+  }
+
+  /**
+   * Lazily creates executor on first use.
+   */
+  private static class ExecutorHolder {
+    static final ScheduledExecutorService EXECUTOR =
+        new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "VM status notifier");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+}
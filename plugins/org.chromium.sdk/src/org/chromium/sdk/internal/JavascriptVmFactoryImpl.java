@@ -4,6 +4,7 @@
 
 package org.chromium.sdk.internal;
 
+import java.io.IOException;
 import java.net.SocketAddress;
 
 import org.chromium.sdk.JavascriptVmFactory;
@@ -12,6 +13,8 @@ import org.chromium.sdk.StandaloneVm;
 import org.chromium.sdk.internal.standalonev8.StandaloneVmImpl;
 import org.chromium.sdk.internal.transport.Connection;
 import org.chromium.sdk.internal.transport.Handshaker;
+import org.chromium.sdk.internal.transport.NioSelectorPool;
+import org.chromium.sdk.internal.transport.NioSocketConnection;
 import org.chromium.sdk.internal.transport.SocketConnection;
 
 /**
@@ -28,8 +31,19 @@ public class JavascriptVmFactoryImpl extends JavascriptVmFactory {
   public StandaloneVm createStandalone(SocketAddress socketAddress,
       ConnectionLogger connectionLogger) {
     Handshaker.StandaloneV8 handshaker = new Handshaker.StandaloneV8Impl();
-    SocketConnection connection =
-        new SocketConnection(socketAddress, getTimeout(), connectionLogger, handshaker);
+    Connection connection;
+    if (isNioTransportEnabled()) {
+      NioSelectorPool selectorPool;
+      try {
+        selectorPool = NioSelectorPool.getDefault();
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to create NIO selector pool", e);
+      }
+      connection = new NioSocketConnection(socketAddress, getTimeout(), connectionLogger,
+          handshaker, selectorPool);
+    } else {
+      connection = new SocketConnection(socketAddress, getTimeout(), connectionLogger, handshaker);
+    }
     return createStandalone(connection, handshaker);
   }
 
@@ -38,6 +52,14 @@ public class JavascriptVmFactoryImpl extends JavascriptVmFactory {
     return new StandaloneVmImpl(connection, handshaker);
   }
 
+  /**
+   * @return whether connections should be served by a shared {@link NioSelectorPool} instead of
+   *     dedicated reader/writer/dispatcher threads
+   */
+  private static boolean isNioTransportEnabled() {
+    return Boolean.parseBoolean(System.getProperty("org.chromium.sdk.client.connection.nio"));
+  }
+
   private int getTimeout() {
     String timeoutString = System.getProperty(
         "org.chromium.sdk.client.connection.timeoutMs",
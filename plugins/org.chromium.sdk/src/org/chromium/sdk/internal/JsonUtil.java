@@ -5,10 +5,14 @@
 package org.chromium.sdk.internal;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.chromium.sdk.internal.protocolparser.Utf8JsonReader;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
@@ -55,6 +59,181 @@ public class JsonUtil {
     return (JSONObject) parsed;
   }
 
+  /**
+   * Same as {@link #jsonObjectFromJson(String)}, but reads JSON as a stream, so that
+   * the text never gets materialized as a whole.
+   * @throws IOException if reader fails
+   */
+  public static JSONObject jsonObjectFromJson(Reader json) throws ParseException, IOException {
+    JSONParser p = new JSONParser();
+    Object parsed = p.parse(json);
+    if (false == parsed instanceof JSONObject) {
+      LOGGER.log(Level.SEVERE, "Not a JSON object: {0}", parsed);
+      return null;
+    }
+    return (JSONObject) parsed;
+  }
+
+  /**
+   * Parses UTF-8 encoded JSON directly from bytes with {@link Utf8JsonReader}. The result
+   * is the same as json_simple would produce: {@link JSONObject}, {@link JSONArray},
+   * {@link String}, {@link Long} (or {@link Double} for non-integral numbers or ones
+   * that do not fit into long), {@link Boolean} or {@code null}.
+   * @param utf8Json JSON text in 'read' state; the buffer is not modified
+   */
+  public static JSONObject jsonObjectFromJson(ByteBuffer utf8Json) throws ParseException {
+    Utf8JsonReader reader = new Utf8JsonReader(utf8Json);
+    Object parsed = readJsonValue(reader, reader.next());
+    if (reader.next() != Utf8JsonReader.Token.END_DOCUMENT) {
+      throw new ParseException(reader.getTokenStart(), ParseException.ERROR_UNEXPECTED_TOKEN,
+          reader.getToken());
+    }
+    if (false == parsed instanceof JSONObject) {
+      LOGGER.log(Level.SEVERE, "Not a JSON object: {0}", parsed);
+      return null;
+    }
+    return (JSONObject) parsed;
+  }
+
+  /**
+   * Same as {@link #jsonObjectFromJson(ByteBuffer)}, but only validates the text and
+   * decodes top-level scalar fields; objects, arrays and long strings are decoded when
+   * first accessed. The buffer content must not change while the object is in use.
+   */
+  public static JSONObject jsonObjectFromJsonLazily(ByteBuffer utf8Json) throws ParseException {
+    JSONObject result = LazyJsonObject.create(utf8Json);
+    if (result == null) {
+      LOGGER.log(Level.SEVERE, "Not a JSON object");
+    }
+    return result;
+  }
+
+  /**
+   * Reads the value of a string property if it goes first in the JSON object and contains
+   * no escapes, without parsing the rest of the text. This lets a message be recognized
+   * cheaply, e.g. to drop it before the full parse.
+   * @param json JSON text
+   * @param name the property name, must not need escaping
+   * @param limit how many chars to look through at most
+   * @return the property value or null if the text starts in some other way
+   */
+  public static String peekLeadingStringProperty(CharSequence json, String name, int limit) {
+    int end = Math.min(json.length(), limit);
+    int pos = skipWhitespace(json, 0, end);
+    if (pos == end || json.charAt(pos) != '{') {
+      return null;
+    }
+    pos = skipWhitespace(json, pos + 1, end);
+    if (!startsWith(json, pos, end, '"' + name + '"')) {
+      return null;
+    }
+    pos = skipWhitespace(json, pos + name.length() + 2, end);
+    if (pos == end || json.charAt(pos) != ':') {
+      return null;
+    }
+    pos = skipWhitespace(json, pos + 1, end);
+    if (pos == end || json.charAt(pos) != '"') {
+      return null;
+    }
+    int valueStart = pos + 1;
+    for (pos = valueStart; pos < end; pos++) {
+      char c = json.charAt(pos);
+      if (c == '"') {
+        return json.subSequence(valueStart, pos).toString();
+      }
+      if (c == '\\') {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Same as {@link #peekLeadingStringProperty(CharSequence, String, int)}, but reads
+   * the text from a reader. The reader must support mark; it is reset back after the call.
+   * @throws IOException if reader fails
+   */
+  public static String peekLeadingStringProperty(Reader json, String name, int limit)
+      throws IOException {
+    char[] buffer = new char[limit];
+    json.mark(limit);
+    int len = 0;
+    try {
+      int n;
+      while (len < limit && (n = json.read(buffer, len, limit - len)) != -1) {
+        len += n;
+      }
+    } finally {
+      json.reset();
+    }
+    return peekLeadingStringProperty(CharBuffer.wrap(buffer, 0, len), name, limit);
+  }
+
+  private static int skipWhitespace(CharSequence json, int pos, int end) {
+    while (pos < end && Character.isWhitespace(json.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static boolean startsWith(CharSequence json, int pos, int end, String prefix) {
+    if (pos + prefix.length() > end) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (json.charAt(pos + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Builds a json_simple value starting from the current token.
+   */
+  @SuppressWarnings("unchecked")
+  static Object readJsonValue(Utf8JsonReader reader, Utf8JsonReader.Token token)
+      throws ParseException {
+    switch (token) {
+      case BEGIN_OBJECT: {
+        JSONObject result = new JSONObject();
+        while (reader.next() == Utf8JsonReader.Token.NAME) {
+          String name = reader.getString();
+          result.put(name, readJsonValue(reader, reader.next()));
+        }
+        return result;
+      }
+      case BEGIN_ARRAY: {
+        JSONArray result = new JSONArray();
+        Utf8JsonReader.Token next;
+        while ((next = reader.next()) != Utf8JsonReader.Token.END_ARRAY) {
+          result.add(readJsonValue(reader, next));
+        }
+        return result;
+      }
+      case STRING:
+        return reader.getString();
+      case NUMBER:
+        if (reader.isIntegralNumber()) {
+          try {
+            return reader.getLong();
+          } catch (NumberFormatException e) {
+            // Too big for long.
+          }
+        }
+        return reader.getDouble();
+      case TRUE:
+        return Boolean.TRUE;
+      case FALSE:
+        return Boolean.FALSE;
+      case NULL:
+        return null;
+      default:
+        throw new ParseException(reader.getTokenStart(), ParseException.ERROR_UNEXPECTED_TOKEN,
+            token);
+    }
+  }
+
   /**
    * Helper function to rip out an integer number from a JSON payload.
    *
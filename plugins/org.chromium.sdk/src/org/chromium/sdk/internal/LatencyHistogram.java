@@ -0,0 +1,165 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.chromium.sdk.ProtocolMetrics;
+
+/**
+ * A thread-safe histogram of non-negative long values (latencies in nanoseconds) with
+ * log-linear buckets in the manner of HdrHistogram: each power-of-2 range is split into
+ * {@link #SUB_BUCKET_COUNT} equal buckets, so that a value is known with a relative error
+ * of at most 1/{@link #SUB_BUCKET_COUNT}. Recording is lock-free and costs a couple of
+ * atomic increments.
+ */
+class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  /** Values are clamped to 2^40 ns (about 18 minutes). */
+  private static final int MAX_MAGNITUDE = 40;
+  private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+
+  private static final int BUCKET_COUNT =
+      (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong totalCount = new AtomicLong(0);
+  private final AtomicLong totalSum = new AtomicLong(0);
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong(0);
+
+  void record(long value) {
+    if (value < 0) {
+      value = 0;
+    } else if (value > MAX_VALUE) {
+      value = MAX_VALUE;
+    }
+    counts.incrementAndGet(bucketIndex(value));
+    totalCount.incrementAndGet();
+    totalSum.addAndGet(value);
+    while (true) {
+      long current = min.get();
+      if (value >= current || min.compareAndSet(current, value)) {
+        break;
+      }
+    }
+    while (true) {
+      long current = max.get();
+      if (value <= current || max.compareAndSet(current, value)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Makes a snapshot of the current state. Concurrent records may be partially visible
+   * in the snapshot.
+   */
+  ProtocolMetrics.LatencyStats getStats() {
+    long[] snapshot = new long[BUCKET_COUNT];
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = counts.get(i);
+      count += snapshot[i];
+    }
+    long minValue = min.get();
+    return new Stats(count,
+        count == 0 ? 0 : minValue,
+        max.get(),
+        count == 0 ? 0 : totalSum.get() / Math.max(totalCount.get(), 1),
+        valueAtPercentile(snapshot, count, 50),
+        valueAtPercentile(snapshot, count, 90),
+        valueAtPercentile(snapshot, count, 99));
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int shift = magnitude - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /**
+   * @return the highest value that falls into the bucket
+   */
+  static long bucketHighValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+    int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+    return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+  }
+
+  private static long valueAtPercentile(long[] snapshot, long count, int percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long threshold = Math.max(1, (count * percentile + 99) / 100);
+    long accumulated = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      accumulated += snapshot[i];
+      if (accumulated >= threshold) {
+        return bucketHighValue(i);
+      }
+    }
+    return bucketHighValue(snapshot.length - 1);
+  }
+
+  private static class Stats implements ProtocolMetrics.LatencyStats {
+    private final long count;
+    private final long min;
+    private final long max;
+    private final long mean;
+    private final long median;
+    private final long percentile90;
+    private final long percentile99;
+
+    Stats(long count, long min, long max, long mean, long median, long percentile90,
+        long percentile99) {
+      this.count = count;
+      this.min = min;
+      this.max = max;
+      this.mean = mean;
+      this.median = median;
+      this.percentile90 = percentile90;
+      this.percentile99 = percentile99;
+    }
+
+    @Override public long getCount() {
+      return count;
+    }
+    @Override public long getMinNanos() {
+      return min;
+    }
+    @Override public long getMaxNanos() {
+      return max;
+    }
+    @Override public long getMeanNanos() {
+      return mean;
+    }
+    @Override public long getMedianNanos() {
+      return median;
+    }
+    @Override public long getPercentile90Nanos() {
+      return percentile90;
+    }
+    @Override public long getPercentile99Nanos() {
+      return percentile99;
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + " min=" + min + " median=" + median + " p90=" + percentile90 +
+          " p99=" + percentile99 + " max=" + max + " (ns)";
+    }
+  }
+}
@@ -0,0 +1,211 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import org.chromium.sdk.internal.protocolparser.Utf8JsonReader;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+/**
+ * A {@link JSONObject} that is built from UTF-8 bytes lazily. The whole text is validated
+ * on creation, but only scalar top-level fields are decoded right away; for objects, arrays
+ * and long strings only byte offsets are recorded and the value is decoded on first access.
+ * This lets a caller look at 'seq' or 'type' of a big message without paying for its 'body'
+ * or 'refs'.
+ * <p>
+ * The object keeps a reference to the input bytes until all its fields are decoded.
+ * <p>
+ * The class is thread-safe for reading.
+ */
+class LazyJsonObject extends JSONObject {
+  private static final long serialVersionUID = 1L;
+
+  /** Strings longer than this (in bytes, including quotes) are not decoded eagerly. */
+  private static final int EAGER_STRING_MAX_LENGTH = 256;
+
+  static LazyJsonObject create(ByteBuffer utf8Json) throws ParseException {
+    Utf8JsonReader reader = new Utf8JsonReader(utf8Json);
+    if (reader.next() != Utf8JsonReader.Token.BEGIN_OBJECT) {
+      return null;
+    }
+    LazyJsonObject result = new LazyJsonObject(utf8Json.duplicate());
+    int pendingCount = 0;
+    while (reader.next() == Utf8JsonReader.Token.NAME) {
+      String name = reader.getString();
+      Utf8JsonReader.Token token = reader.next();
+      int start = reader.getTokenStart();
+      boolean isLazy;
+      switch (token) {
+        case BEGIN_OBJECT:
+        case BEGIN_ARRAY:
+          reader.skipValue();
+          isLazy = true;
+          break;
+        case STRING:
+          isLazy = reader.getTokenEnd() - start > EAGER_STRING_MAX_LENGTH;
+          break;
+        default:
+          isLazy = false;
+          break;
+      }
+      Object value;
+      if (isLazy) {
+        value = new PendingValue(start, reader.getTokenEnd());
+        pendingCount++;
+      } else {
+        value = JsonUtil.readJsonValue(reader, token);
+      }
+      result.putImpl(name, value);
+    }
+    if (reader.next() != Utf8JsonReader.Token.END_DOCUMENT) {
+      throw new ParseException(reader.getTokenStart(), ParseException.ERROR_UNEXPECTED_TOKEN,
+          reader.getToken());
+    }
+    result.pendingCount = pendingCount;
+    return result;
+  }
+
+  /** Is set to null once all values are decoded. Access is synchronized on this. */
+  private ByteBuffer data;
+
+  /** Number of not yet decoded values. Modified with this locked. */
+  private volatile int pendingCount = 0;
+
+  private LazyJsonObject(ByteBuffer data) {
+    this.data = data;
+  }
+
+  @Override
+  public Object get(Object key) {
+    if (pendingCount == 0) {
+      return super.get(key);
+    }
+    synchronized (this) {
+      return resolve(key, super.get(key));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public synchronized Object put(Object key, Object value) {
+    return decodeRemoved(super.put(key, value));
+  }
+
+  @Override
+  public synchronized Object remove(Object key) {
+    return decodeRemoved(super.remove(key));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public Set<Map.Entry<Object, Object>> entrySet() {
+    decodeAll();
+    return super.entrySet();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public Collection<Object> values() {
+    decodeAll();
+    return super.values();
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    decodeAll();
+    return super.containsValue(value);
+  }
+
+  @Override
+  public Object clone() {
+    decodeAll();
+    return super.clone();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void putImpl(String key, Object value) {
+    super.put(key, value);
+  }
+
+  /**
+   * Decodes value if it is pending and stores it back in place of the pending value.
+   * Must be called with this locked.
+   */
+  private Object resolve(Object key, Object value) {
+    if (value instanceof PendingValue == false) {
+      return value;
+    }
+    Object decoded = decode((PendingValue) value);
+    putImpl((String) key, decoded);
+    valueDecoded();
+    return decoded;
+  }
+
+  /**
+   * Decodes a value that has just been replaced or removed, only to return it to the caller.
+   * Must be called with this locked.
+   */
+  private Object decodeRemoved(Object value) {
+    if (value instanceof PendingValue == false) {
+      return value;
+    }
+    Object decoded = decode((PendingValue) value);
+    valueDecoded();
+    return decoded;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void decodeAll() {
+    if (pendingCount == 0) {
+      return;
+    }
+    synchronized (this) {
+      for (Object entryObject : super.entrySet()) {
+        Map.Entry<Object, Object> entry = (Map.Entry<Object, Object>) entryObject;
+        Object value = entry.getValue();
+        if (value instanceof PendingValue) {
+          entry.setValue(decode((PendingValue) value));
+          valueDecoded();
+        }
+      }
+    }
+  }
+
+  private void valueDecoded() {
+    int newCount = pendingCount - 1;
+    if (newCount == 0) {
+      data = null;
+    }
+    pendingCount = newCount;
+  }
+
+  private Object decode(PendingValue pendingValue) {
+    ByteBuffer valueBytes = data.duplicate();
+    valueBytes.position(data.position() + pendingValue.start);
+    valueBytes.limit(data.position() + pendingValue.end);
+    Utf8JsonReader reader = new Utf8JsonReader(valueBytes);
+    try {
+      return JsonUtil.readJsonValue(reader, reader.next());
+    } catch (ParseException e) {
+      // The text has been validated when the object was created.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class PendingValue {
+    final int start;
+    final int end;
+
+    PendingValue(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+  }
+}
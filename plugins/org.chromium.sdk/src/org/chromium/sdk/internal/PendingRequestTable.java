@@ -0,0 +1,193 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free table of requests that wait for response. Entries are put into a ring of slots
+ * indexed by an int number (a sequence number of request), so that a typical put or remove
+ * is a single compare-and-set. Sequence numbers go up monotonically, so the ring only gets
+ * a collision when a request stays unanswered while the numbers make a full turn; colliding
+ * entries go into a secondary hash map.
+ * <p>
+ * The table may be closed: new registrations are rejected and all remaining entries are
+ * returned in the order they were put.
+ *
+ * @param <K> type of key; the index passed along with key must be a function of the key
+ * @param <V> type of value
+ */
+class PendingRequestTable<K, V> {
+  private static final int DEFAULT_CAPACITY = 256;
+
+  private final AtomicReferenceArray<Entry<K, V>> ring;
+  private final int mask;
+  private final ConcurrentHashMap<K, Entry<K, V>> overflow =
+      new ConcurrentHashMap<K, Entry<K, V>>();
+  private final AtomicLong orderCounter = new AtomicLong(0);
+  private final AtomicInteger size = new AtomicInteger(0);
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+
+  PendingRequestTable() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity ring size, must be a power of 2
+   */
+  PendingRequestTable(int capacity) {
+    if (Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+    }
+    this.ring = new AtomicReferenceArray<Entry<K, V>>(capacity);
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * @throws IllegalStateException if the table is closed or the key is already registered
+   */
+  void put(int index, K key, V value) {
+    if (closed.get()) {
+      throw new IllegalStateException();
+    }
+    Entry<K, V> entry = new Entry<K, V>(key, value, orderCounter.getAndIncrement());
+    int pos = index & mask;
+    if (!ring.compareAndSet(pos, null, entry)) {
+      Entry<K, V> occupant = ring.get(pos);
+      if (occupant != null && occupant.key.equals(key)) {
+        throw new IllegalStateException("Such key is already registered");
+      }
+      if (overflow.putIfAbsent(key, entry) != null) {
+        throw new IllegalStateException("Such key is already registered");
+      }
+    }
+    size.incrementAndGet();
+    if (closed.get()) {
+      // The table was closed while we were putting. If close has not collected our entry,
+      // take it back and fail; otherwise the entry will be processed with the rest.
+      if (removeEntry(pos, key) != null) {
+        throw new IllegalStateException();
+      }
+    }
+  }
+
+  /**
+   * @return the value or null if the key is not registered or the table is closed
+   */
+  V remove(int index, K key) {
+    if (closed.get()) {
+      return null;
+    }
+    Entry<K, V> entry = removeEntry(index & mask, key);
+    return entry == null
+        ? null
+        : entry.value;
+  }
+
+  /**
+   * Closes the table for new registrations and takes all the remaining entries out.
+   * @return values in the order they have been put
+   * @throws IllegalStateException if the table is already closed
+   */
+  List<V> close() {
+    if (!closed.compareAndSet(false, true)) {
+      throw new IllegalStateException();
+    }
+    List<Entry<K, V>> entries = new ArrayList<Entry<K, V>>();
+    for (int i = 0; i < ring.length(); i++) {
+      Entry<K, V> entry = ring.getAndSet(i, null);
+      if (entry != null) {
+        entries.add(entry);
+      }
+    }
+    for (K key : overflow.keySet()) {
+      Entry<K, V> entry = overflow.remove(key);
+      if (entry != null) {
+        entries.add(entry);
+      }
+    }
+    size.addAndGet(-entries.size());
+    Collections.sort(entries, ORDER_COMPARATOR);
+    List<V> result = new ArrayList<V>(entries.size());
+    for (Entry<K, V> entry : entries) {
+      result.add(entry.value);
+    }
+    return result;
+  }
+
+  int size() {
+    return size.get();
+  }
+
+  /**
+   * Finds the entry that has been put earliest. This scans the whole table, so it should not
+   * be called too often.
+   * @return the value or null if the table is empty
+   */
+  V peekOldest() {
+    Entry<K, V> oldest = null;
+    for (int i = 0; i < ring.length(); i++) {
+      oldest = older(oldest, ring.get(i));
+    }
+    for (Entry<K, V> entry : overflow.values()) {
+      oldest = older(oldest, entry);
+    }
+    return oldest == null
+        ? null
+        : oldest.value;
+  }
+
+  private Entry<K, V> removeEntry(int pos, K key) {
+    Entry<K, V> entry = ring.get(pos);
+    if (entry != null && entry.key.equals(key) && ring.compareAndSet(pos, entry, null)) {
+      size.decrementAndGet();
+      return entry;
+    }
+    entry = overflow.remove(key);
+    if (entry != null) {
+      size.decrementAndGet();
+    }
+    return entry;
+  }
+
+  private static <K, V> Entry<K, V> older(Entry<K, V> current, Entry<K, V> candidate) {
+    if (candidate == null) {
+      return current;
+    }
+    if (current == null || candidate.order < current.order) {
+      return candidate;
+    }
+    return current;
+  }
+
+  private static class Entry<K, V> {
+    final K key;
+    final V value;
+    final long order;
+
+    Entry(K key, V value, long order) {
+      this.key = key;
+      this.value = value;
+      this.order = order;
+    }
+  }
+
+  private static final Comparator<Entry<?, ?>> ORDER_COMPARATOR = new Comparator<Entry<?, ?>>() {
+    @Override
+    public int compare(Entry<?, ?> o1, Entry<?, ?> o2) {
+      return o1.order < o2.order
+          ? -1
+          : (o1.order == o2.order ? 0 : 1);
+    }
+  };
+}
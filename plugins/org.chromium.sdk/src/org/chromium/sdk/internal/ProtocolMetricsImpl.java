@@ -0,0 +1,193 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.chromium.sdk.ProtocolMetrics;
+import org.chromium.sdk.internal.transport.TransportStats;
+
+/**
+ * Collects {@link ProtocolMetrics} of a single connection. The command latencies and
+ * the in-flight count come from {@link BaseCommandProcessor}; parse times are recorded
+ * by the backend; traffic and queue numbers are read from the connection if it implements
+ * {@link TransportStats}.
+ */
+public class ProtocolMetricsImpl implements ProtocolMetrics {
+  private static final Logger LOGGER = Logger.getLogger(ProtocolMetricsImpl.class.getName());
+
+  /**
+   * Whether metrics of every connection are registered in the platform MBean server.
+   * Switched on with "org.chromium.sdk.client.connection.jmx" system property.
+   */
+  private static final boolean JMX_ENABLED =
+      Boolean.getBoolean("org.chromium.sdk.client.connection.jmx");
+
+  private static final String JMX_DOMAIN = "org.chromium.sdk";
+
+  private static final AtomicInteger jmxIdCounter = new AtomicInteger(0);
+
+  private final ConcurrentMap<String, LatencyHistogram> commandLatencies =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+  private final ConcurrentMap<String, LatencyHistogram> parseTimes =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+
+  private volatile PendingRequestTable<?, ?> pendingRequests = null;
+  private volatile TransportStats transportStats = null;
+
+  // Access must be synchronized on this.
+  private ObjectName registeredName = null;
+
+  public void recordCommandLatency(String commandName, long nanos) {
+    getHistogram(commandLatencies, commandName).record(nanos);
+  }
+
+  /**
+   * @param messageType command name for a response or event name for an event
+   */
+  public void recordParseTime(String messageType, long nanos) {
+    getHistogram(parseTimes, messageType).record(nanos);
+  }
+
+  /**
+   * @param connection connection of the VM; its traffic is reported if it implements
+   *     {@link TransportStats}
+   */
+  public void setConnection(Object connection) {
+    this.transportStats = connection instanceof TransportStats
+        ? (TransportStats) connection
+        : null;
+  }
+
+  void setPendingRequests(PendingRequestTable<?, ?> pendingRequests) {
+    this.pendingRequests = pendingRequests;
+  }
+
+  @Override
+  public Map<String, LatencyStats> getCommandLatencies() {
+    return snapshot(commandLatencies);
+  }
+
+  @Override
+  public Map<String, LatencyStats> getParseTimes() {
+    return snapshot(parseTimes);
+  }
+
+  @Override
+  public int getInFlightCommandCount() {
+    PendingRequestTable<?, ?> table = pendingRequests;
+    return table == null
+        ? 0
+        : table.size();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    TransportStats stats = transportStats;
+    return stats == null
+        ? -1
+        : stats.getBytesReceived();
+  }
+
+  @Override
+  public long getBytesSent() {
+    TransportStats stats = transportStats;
+    return stats == null
+        ? -1
+        : stats.getBytesSent();
+  }
+
+  @Override
+  public int getInboundQueueDepth() {
+    TransportStats stats = transportStats;
+    return stats == null
+        ? -1
+        : stats.getInboundQueueDepth();
+  }
+
+  @Override
+  public int getOutboundQueueDepth() {
+    TransportStats stats = transportStats;
+    return stats == null
+        ? -1
+        : stats.getOutboundQueueDepth();
+  }
+
+  @Override
+  public void resetStatistics() {
+    commandLatencies.clear();
+    parseTimes.clear();
+  }
+
+  /**
+   * Registers the metrics in the platform MBean server, if this is enabled with
+   * the system property. Does nothing if already registered.
+   * @param connectionDescription human-readable name of connection, e.g. its address
+   */
+  public synchronized void registerInJmx(String connectionDescription) {
+    if (!JMX_ENABLED || registeredName != null) {
+      return;
+    }
+    try {
+      ObjectName name = new ObjectName(JMX_DOMAIN + ":type=ProtocolMetrics,name=" +
+          ObjectName.quote(connectionDescription + " #" + jmxIdCounter.incrementAndGet()));
+      getMBeanServer().registerMBean(this, name);
+      registeredName = name;
+    } catch (JMException e) {
+      LOGGER.log(Level.WARNING, "Failed to register protocol metrics MBean", e);
+    }
+  }
+
+  public synchronized void unregisterFromJmx() {
+    if (registeredName == null) {
+      return;
+    }
+    try {
+      getMBeanServer().unregisterMBean(registeredName);
+    } catch (JMException e) {
+      LOGGER.log(Level.WARNING, "Failed to unregister protocol metrics MBean", e);
+    }
+    registeredName = null;
+  }
+
+  private static MBeanServer getMBeanServer() {
+    return ManagementFactory.getPlatformMBeanServer();
+  }
+
+  private static LatencyHistogram getHistogram(ConcurrentMap<String, LatencyHistogram> map,
+      String key) {
+    if (key == null) {
+      key = "<unknown>";
+    }
+    LatencyHistogram histogram = map.get(key);
+    if (histogram == null) {
+      LatencyHistogram newHistogram = new LatencyHistogram();
+      histogram = map.putIfAbsent(key, newHistogram);
+      if (histogram == null) {
+        histogram = newHistogram;
+      }
+    }
+    return histogram;
+  }
+
+  private static Map<String, LatencyStats> snapshot(Map<String, LatencyHistogram> map) {
+    Map<String, LatencyStats> result = new TreeMap<String, LatencyStats>();
+    for (Map.Entry<String, LatencyHistogram> en : map.entrySet()) {
+      result.put(en.getKey(), en.getValue().getStats());
+    }
+    return result;
+  }
+}
@@ -12,6 +12,7 @@ import java.util.Map;
 import org.chromium.sdk.Script;
 import org.chromium.sdk.UpdatableScript;
 import org.chromium.sdk.internal.liveeditprotocol.LiveEditResult;
+import org.chromium.sdk.util.MethodIsBlockingException;
 
 /**
  * An objects that holds data for a "script" which is a part of a resource
@@ -72,16 +73,34 @@ public abstract class ScriptBase<ID> implements Script {
 
   private final Descriptor<ID> descriptor;
 
+  /** The source text; used only if there is no {@link #sourceStore}. */
   private volatile String source = null;
 
+  private final ScriptSourceStore sourceStore;
+
+  /** The key of the source in {@link #sourceStore}. */
+  private final Object sourceKey = new Object();
+
+  private volatile boolean isSourceSet = false;
+
+  /** The hash code of the source; the stored source is not loaded just to compare scripts. */
+  private volatile int sourceHash = 0;
+
   private volatile boolean isCollected = false;
 
   /**
    * @param descriptor of the script retrieved from a "scripts" response
    */
   public ScriptBase(Descriptor<ID> descriptor) {
+    this(descriptor, ScriptSourceStore.getDefault());
+  }
+
+  /**
+   * @param sourceStore where to keep the source or null to keep it as a string
+   */
+  protected ScriptBase(Descriptor<ID> descriptor, ScriptSourceStore sourceStore) {
     this.descriptor = descriptor;
-    this.source = null;
+    this.sourceStore = sourceStore;
   }
 
   @Override
@@ -119,18 +138,47 @@ public abstract class ScriptBase<ID> implements Script {
     return isCollected;
   }
 
+  /**
+   * Returns the source; if it has been evicted from the source store, loads it again.
+   * On Dispatch thread the reload is only requested, so null is returned.
+   */
   @Override
   public String getSource() {
-    return source;
+    if (sourceStore == null || !isSourceSet) {
+      return source;
+    }
+    String result = sourceStore.get(sourceKey);
+    if (result == null) {
+      reloadSource();
+      result = sourceStore.get(sourceKey);
+    }
+    return result;
   }
 
   @Override
   public boolean hasSource() {
-    return source != null;
+    return isSourceSet;
   }
 
   public void setSource(String source) {
-    this.source = source;
+    if (sourceStore == null) {
+      this.source = source;
+    } else if (source == null) {
+      sourceStore.remove(sourceKey);
+    } else {
+      sourceStore.put(sourceKey, source);
+    }
+    this.sourceHash = source == null ? 0 : source.hashCode();
+    this.isSourceSet = source != null;
+  }
+
+  /**
+   * Requests the source from remote after it has been evicted from the source store.
+   * The new source is expected to be set via {@link #setSource} before the method returns.
+   * When called from a thread that dispatches responses, the method must not wait for
+   * the response; it may only send the request.
+   */
+  protected void reloadSource() throws MethodIsBlockingException {
   }
 
   public void setCollected() {
@@ -288,7 +336,7 @@ public abstract class ScriptBase<ID> implements Script {
   public int hashCode() {
     return
         descriptor.hashCode() * 0x101 +
-        (hasSource() ? (source.hashCode() * 0x1001) : 0);
+        (isSourceSet ? (sourceHash * 0x1001) : 0);
   }
 
   @Override
@@ -300,17 +348,34 @@ public abstract class ScriptBase<ID> implements Script {
       return false;
     }
     ScriptBase<?> that = (ScriptBase<?>) obj;
-    return this.descriptor.equals(that.descriptor) && eq(this.source, that.source);
+    if (!this.descriptor.equals(that.descriptor) ||
+        this.isSourceSet != that.isSourceSet || this.sourceHash != that.sourceHash) {
+      return false;
+    }
+    if (!this.isSourceSet) {
+      return true;
+    }
+    // Equal hashes do not guarantee equal sources, so compare the text. Only what the
+    // scripts already hold is compared: an evicted source is never loaded here, and such
+    // scripts are considered different.
+    if (this.sourceStore != null && this.sourceStore == that.sourceStore) {
+      return this.sourceStore.contentEquals(this.sourceKey, that.sourceKey);
+    }
+    String thisSource = this.getHeldSource();
+    return thisSource != null && thisSource.equals(that.getHeldSource());
   }
 
-  private static boolean eq(Object left, Object right) {
-    return left == right || (left != null && left.equals(right));
+  /**
+   * @return the source if it is set and hasn't been evicted; never loads it
+   */
+  private String getHeldSource() {
+    return sourceStore == null ? source : sourceStore.get(sourceKey);
   }
 
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
-    sb.append("[Script (").append(hasSource()
+    sb.append("[Script (").append(isSourceSet
         ? "has"
         : "no").append(" source): name=").append(getName()).append(", lineRange=[").append(
         getStartLine()).append(';').append(getEndLine()).append("]]");
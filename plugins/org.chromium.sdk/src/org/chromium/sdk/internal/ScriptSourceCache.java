@@ -0,0 +1,503 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent script source cache that survives debug sessions. Sources are stored
+ * in a single file by the SHA-1 hash of their content, so identical sources are stored once.
+ * They are looked up by a key that a backend composes from the script properties it knows
+ * before the source is loaded (URL, position, length etc.); it is the backend's
+ * responsibility to make the key specific enough.
+ * <p>
+ * The file is a log of records: a source record holds a content hash and the UTF-8 source,
+ * a key record binds a key to a content hash. The index is rebuilt by scanning the file on
+ * open. Sources are read with positional reads (no memory mappings, which would keep
+ * the file locked on some platforms) and checked against their hash. Once the file exceeds
+ * its size cap, it is compacted: the least recently used sources are dropped and the rest
+ * are rewritten in the order of use.
+ * <p>
+ * The cache is off by default and is configured with system properties.
+ * An I/O error disables the cache for the rest of the session.
+ * <p>
+ * The class is thread-safe.
+ */
+public class ScriptSourceCache {
+  private static final Logger LOGGER = Logger.getLogger(ScriptSourceCache.class.getName());
+
+  /** A directory for the default cache file; no value means that there is no cache. */
+  public static final String DIRECTORY_PROPERTY = "org.chromium.sdk.client.sourceCache.dir";
+
+  /** The size cap of the default cache file in bytes. */
+  public static final String MAX_BYTES_PROPERTY = "org.chromium.sdk.client.sourceCache.maxBytes";
+
+  private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  private static final String FILE_NAME = "script-sources.cache";
+
+  private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+  private static final int MAGIC = 0x43535343;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+
+  private static final byte SOURCE_RECORD = 1;
+  private static final byte KEY_RECORD = 2;
+
+  private static final int HASH_SIZE = 20;
+
+  /**
+   * After compaction the file takes at most this part of the cap, so that compactions do not
+   * follow one another.
+   */
+  private static final double COMPACTED_SIZE_RATIO = 0.75;
+
+  /**
+   * @return the cache configured by system properties or null
+   */
+  public static ScriptSourceCache getDefault() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  private static class DefaultHolder {
+    static final ScriptSourceCache INSTANCE = createDefault();
+  }
+
+  private final File file;
+  private final long maxBytes;
+
+  // All the fields below must be accessed under synchronization on this.
+
+  private RandomAccessFile randomAccessFile;
+  private FileChannel channel;
+  private long fileSize;
+  private boolean disabled = false;
+
+  private final Map<String, ContentHash> keyToHash = new HashMap<String, ContentHash>();
+
+  /** Iterates from the least recently used source. */
+  private final LinkedHashMap<ContentHash, Entry> entries =
+      new LinkedHashMap<ContentHash, Entry>(16, 0.75f, true);
+
+  private long hitCount = 0;
+  private long missCount = 0;
+  private long compactionCount = 0;
+
+  /**
+   * Opens the cache file or creates a new one. A file that cannot be read as a cache
+   * gets truncated.
+   */
+  public ScriptSourceCache(File file, long maxBytes) throws IOException {
+    this.file = file;
+    this.maxBytes = maxBytes;
+    openFile();
+    readIndex();
+  }
+
+  /**
+   * @return the source saved under the key or null
+   */
+  public synchronized String get(String key) {
+    if (disabled) {
+      return null;
+    }
+    ContentHash hash = keyToHash.get(key);
+    Entry entry = hash == null ? null : entries.get(hash);
+    if (entry == null) {
+      missCount++;
+      return null;
+    }
+    byte[] bytes;
+    try {
+      bytes = readSourceBytes(channel, entry);
+    } catch (IOException e) {
+      disable(e);
+      return null;
+    }
+    if (bytes == null || !hash.equals(ContentHash.calculate(bytes))) {
+      LOGGER.log(Level.WARNING, "Corrupted script source in cache " + file);
+      entries.remove(hash);
+      keyToHash.remove(key);
+      missCount++;
+      return null;
+    }
+    hitCount++;
+    return new String(bytes, UTF8_CHARSET);
+  }
+
+  /**
+   * Saves the source under the key. The source is stored only if there is no source
+   * with the same content yet.
+   */
+  public synchronized void put(String key, String source) {
+    if (disabled) {
+      return;
+    }
+    byte[] bytes = source.getBytes(UTF8_CHARSET);
+    ContentHash hash = ContentHash.calculate(bytes);
+    try {
+      if (entries.get(hash) == null) {
+        entries.put(hash, writeSourceRecord(hash, bytes));
+      }
+      if (!hash.equals(keyToHash.get(key))) {
+        writeKeyRecord(key, hash);
+        keyToHash.put(key, hash);
+      }
+      if (fileSize > maxBytes) {
+        compact();
+      }
+    } catch (IOException e) {
+      disable(e);
+    }
+  }
+
+  public synchronized void close() {
+    if (channel == null) {
+      return;
+    }
+    try {
+      randomAccessFile.close();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to close script source cache " + file, e);
+    }
+    channel = null;
+    randomAccessFile = null;
+    disabled = true;
+  }
+
+  /**
+   * @return how many sources have been found in the cache
+   */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * @return how many sources have been looked up but not found
+   */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * @return how many times the file has been compacted
+   */
+  public synchronized long getCompactionCount() {
+    return compactionCount;
+  }
+
+  /**
+   * @return the size of the cache file
+   */
+  public synchronized long getFileSize() {
+    return fileSize;
+  }
+
+  /**
+   * @return the number of distinct sources in the cache
+   */
+  public synchronized int getSourceCount() {
+    return entries.size();
+  }
+
+  private void openFile() throws IOException {
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    channel = randomAccessFile.getChannel();
+    fileSize = channel.size();
+  }
+
+  /**
+   * Scans the file and fills the index. The file is truncated after the last valid record.
+   */
+  private void readIndex() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    if (fileSize < HEADER_SIZE || channel.read(header, 0) != HEADER_SIZE ||
+        header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+      resetFile();
+      return;
+    }
+    long position = HEADER_SIZE;
+    while (position < fileSize) {
+      ByteBuffer type = readBytes(channel, position, 1);
+      if (type == null) {
+        break;
+      }
+      long nextPosition;
+      if (type.get(0) == SOURCE_RECORD) {
+        ByteBuffer buffer = readBytes(channel, position + 1, HASH_SIZE + 4);
+        if (buffer == null) {
+          break;
+        }
+        byte[] hashBytes = new byte[HASH_SIZE];
+        buffer.get(hashBytes);
+        int length = buffer.getInt();
+        long dataOffset = position + 1 + HASH_SIZE + 4;
+        if (length < 0 || length > fileSize - dataOffset) {
+          break;
+        }
+        entries.put(new ContentHash(hashBytes), new Entry(dataOffset, length));
+        nextPosition = dataOffset + length;
+      } else if (type.get(0) == KEY_RECORD) {
+        ByteBuffer lengthBuffer = readBytes(channel, position + 1, 4);
+        if (lengthBuffer == null) {
+          break;
+        }
+        int keyLength = lengthBuffer.getInt();
+        if (keyLength < 0 || keyLength > fileSize - (position + 1 + 4 + HASH_SIZE)) {
+          break;
+        }
+        ByteBuffer buffer = readBytes(channel, position + 1 + 4, keyLength + HASH_SIZE);
+        if (buffer == null) {
+          break;
+        }
+        byte[] keyBytes = new byte[keyLength];
+        buffer.get(keyBytes);
+        byte[] hashBytes = new byte[HASH_SIZE];
+        buffer.get(hashBytes);
+        ContentHash hash = new ContentHash(hashBytes);
+        keyToHash.put(new String(keyBytes, UTF8_CHARSET), hash);
+        // The source is used by this key, make it more recent.
+        entries.get(hash);
+        nextPosition = position + 1 + 4 + keyLength + HASH_SIZE;
+      } else {
+        break;
+      }
+      position = nextPosition;
+    }
+    if (position != fileSize) {
+      LOGGER.log(Level.WARNING, "Truncating script source cache " + file + " at " + position);
+      channel.truncate(position);
+      fileSize = position;
+    }
+  }
+
+  private void resetFile() throws IOException {
+    channel.truncate(0);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(VERSION).flip();
+    writeFully(header, 0);
+    fileSize = HEADER_SIZE;
+  }
+
+  private Entry writeSourceRecord(ContentHash hash, byte[] bytes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(1 + HASH_SIZE + 4 + bytes.length);
+    buffer.put(SOURCE_RECORD).put(hash.bytes).putInt(bytes.length).put(bytes).flip();
+    long dataOffset = fileSize + 1 + HASH_SIZE + 4;
+    writeFully(buffer, fileSize);
+    fileSize += buffer.capacity();
+    return new Entry(dataOffset, bytes.length);
+  }
+
+  private void writeKeyRecord(String key, ContentHash hash) throws IOException {
+    byte[] keyBytes = key.getBytes(UTF8_CHARSET);
+    ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + keyBytes.length + HASH_SIZE);
+    buffer.put(KEY_RECORD).putInt(keyBytes.length).put(keyBytes).put(hash.bytes).flip();
+    writeFully(buffer, fileSize);
+    fileSize += buffer.capacity();
+  }
+
+  private void writeFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  /**
+   * Reads into a heap buffer with positional reads.
+   * @return the flipped buffer or null if the file ends earlier
+   */
+  private static ByteBuffer readBytes(FileChannel fileChannel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+        return null;
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * @return the source bytes or null if the file ends earlier
+   */
+  private static byte[] readSourceBytes(FileChannel fileChannel, Entry entry)
+      throws IOException {
+    ByteBuffer buffer = readBytes(fileChannel, entry.offset, entry.length);
+    return buffer == null ? null : buffer.array();
+  }
+
+  /**
+   * Drops the least recently used sources (and their keys) and rewrites the file, the most
+   * recently used sources last. The new content is prepared in a temporary file and then
+   * copied over the truncated cache file, which stays open all the time; this way the file
+   * never has to be deleted or renamed while it is in use. At any moment the file holds
+   * a valid prefix of records, so an interrupted compaction only loses some sources.
+   */
+  private void compact() throws IOException {
+    long targetSize = (long) (maxBytes * COMPACTED_SIZE_RATIO);
+
+    Map<ContentHash, List<String>> hashToKeys = new HashMap<ContentHash, List<String>>();
+    for (Map.Entry<String, ContentHash> en : keyToHash.entrySet()) {
+      List<String> keys = hashToKeys.get(en.getValue());
+      if (keys == null) {
+        keys = new ArrayList<String>(1);
+        hashToKeys.put(en.getValue(), keys);
+      }
+      keys.add(en.getKey());
+    }
+
+    // Walk from the most recently used source and see what fits.
+    List<ContentHash> hashes = new ArrayList<ContentHash>(entries.keySet());
+    long size = HEADER_SIZE;
+    int firstKept = hashes.size();
+    while (firstKept > 0) {
+      ContentHash hash = hashes.get(firstKept - 1);
+      long recordsSize = getRecordsSize(entries.get(hash), hashToKeys.get(hash));
+      if (size + recordsSize > targetSize && firstKept != hashes.size()) {
+        break;
+      }
+      size += recordsSize;
+      firstKept--;
+    }
+
+    File tempFile = new File(file.getPath() + ".tmp");
+    RandomAccessFile tempRandomAccessFile = new RandomAccessFile(tempFile, "rw");
+    Map<ContentHash, Entry> newEntries = new LinkedHashMap<ContentHash, Entry>();
+    FileChannel cacheChannel = channel;
+    try {
+      channel = tempRandomAccessFile.getChannel();
+      resetFile();
+      for (ContentHash hash : hashes.subList(firstKept, hashes.size())) {
+        byte[] bytes = readSourceBytes(cacheChannel, entries.get(hash));
+        if (bytes == null) {
+          throw new IOException("Unexpected end of " + file);
+        }
+        newEntries.put(hash, writeSourceRecord(hash, bytes));
+        List<String> keys = hashToKeys.get(hash);
+        if (keys != null) {
+          for (String key : keys) {
+            writeKeyRecord(key, hash);
+          }
+        }
+      }
+
+      // Entry offsets stay valid, because the content is copied to the same positions.
+      FileChannel tempChannel = channel;
+      cacheChannel.truncate(0);
+      long position = 0;
+      while (position < fileSize) {
+        long transferred =
+            cacheChannel.transferFrom(tempChannel.position(position), position,
+                fileSize - position);
+        if (transferred <= 0) {
+          throw new IOException("Failed to copy " + tempFile + " to " + file);
+        }
+        position += transferred;
+      }
+      cacheChannel.force(false);
+    } finally {
+      channel = cacheChannel;
+      tempRandomAccessFile.close();
+      tempFile.delete();
+    }
+
+    entries.clear();
+    entries.putAll(newEntries);
+    for (Iterator<ContentHash> it = keyToHash.values().iterator(); it.hasNext(); ) {
+      if (!entries.containsKey(it.next())) {
+        it.remove();
+      }
+    }
+    compactionCount++;
+  }
+
+  private static long getRecordsSize(Entry entry, List<String> keys) {
+    long result = 1 + HASH_SIZE + 4 + entry.length;
+    if (keys != null) {
+      for (String key : keys) {
+        result += 1 + 4 + key.getBytes(UTF8_CHARSET).length + HASH_SIZE;
+      }
+    }
+    return result;
+  }
+
+  private void disable(IOException e) {
+    LOGGER.log(Level.WARNING, "Script source cache " + file + " is disabled", e);
+    disabled = true;
+  }
+
+  private static ScriptSourceCache createDefault() {
+    String directory = System.getProperty(DIRECTORY_PROPERTY);
+    if (directory == null) {
+      return null;
+    }
+    long maxBytes = Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+    try {
+      File dir = new File(directory);
+      dir.mkdirs();
+      return new ScriptSourceCache(new File(dir, FILE_NAME), maxBytes);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to open script source cache in " + directory, e);
+      return null;
+    }
+  }
+
+  private static class Entry {
+    /** The position of the source bytes in the file. */
+    final long offset;
+    final int length;
+
+    Entry(long offset, int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private static class ContentHash {
+    static ContentHash calculate(byte[] bytes) {
+      MessageDigest digest;
+      try {
+        digest = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+      return new ContentHash(digest.digest(bytes));
+    }
+
+    final byte[] bytes;
+
+    ContentHash(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof ContentHash && Arrays.equals(bytes, ((ContentHash) obj).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(bytes);
+    }
+  }
+}
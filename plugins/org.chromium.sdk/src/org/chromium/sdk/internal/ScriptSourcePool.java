@@ -0,0 +1,75 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Deduplicates script sources by content, so that the same script loaded in several tabs or
+ * reloaded with the page is kept in memory only once. Sources are looked up by their hash
+ * code and length; the text is compared only when these match.
+ * <p>
+ * The pool does not hold sources by itself: a source is dropped once no script refers to it.
+ * <p>
+ * The pool is meant for scripts that keep sources as strings; scripts that use
+ * {@link ScriptSourceStore} have their sources deduplicated by the store.
+ * <p>
+ * The class is thread-safe.
+ */
+public class ScriptSourcePool {
+  // Both the key and the value refer to the same canonical string.
+  // Access must be synchronized on this.
+  private final Map<String, WeakReference<String>> sources =
+      new WeakHashMap<String, WeakReference<String>>();
+
+  private long hitCount = 0;
+  private long savedChars = 0;
+
+  /**
+   * @return the pooled string with the same content as source; the source itself if
+   *     there is no such string yet
+   */
+  public synchronized String intern(String source) {
+    if (source == null) {
+      return null;
+    }
+    WeakReference<String> ref = sources.get(source);
+    if (ref != null) {
+      String pooled = ref.get();
+      if (pooled != null) {
+        if (pooled != source) {
+          hitCount++;
+          savedChars += source.length();
+        }
+        return pooled;
+      }
+    }
+    sources.put(source, new WeakReference<String>(source));
+    return source;
+  }
+
+  /**
+   * @return how many times a source has been replaced with a pooled copy
+   */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * @return how many characters have been saved in total by replacing sources
+   */
+  public synchronized long getSavedChars() {
+    return savedChars;
+  }
+
+  /**
+   * @return the number of distinct sources that are currently referenced
+   */
+  public synchronized int size() {
+    return sources.size();
+  }
+}
@@ -0,0 +1,199 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps script sources within a byte budget. Sources are stored as UTF-8 bytes (typically half
+ * the size of a Java string), optionally outside the Java heap. Once the budget is exceeded,
+ * the least recently used sources are evicted; the owner is expected to load the source
+ * from remote again if it is needed.
+ * <p>
+ * Equal sources share one buffer, no matter how many keys they are stored under (e.g. the
+ * same script in several tabs or reloaded with the page), and are counted against
+ * the budget once. This is the deduplication that applies when the store is on;
+ * {@link ScriptSourcePool} only helps scripts that keep sources as strings.
+ * <p>
+ * The store is shared by all scripts of all backends (see {@link ScriptBase}) and is
+ * configured with system properties; by default it is off and scripts keep sources as strings.
+ * <p>
+ * The class is thread-safe.
+ */
+public class ScriptSourceStore {
+  /** Byte budget of the default store; 0 or no value means that there is no store. */
+  public static final String BUDGET_PROPERTY = "org.chromium.sdk.client.sourceStore.budget";
+
+  /** A boolean property; if true, the default store keeps sources in direct buffers. */
+  public static final String OFF_HEAP_PROPERTY = "org.chromium.sdk.client.sourceStore.offHeap";
+
+  private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+  private static final ScriptSourceStore DEFAULT = createDefault();
+
+  /**
+   * @return the store configured by system properties or null
+   */
+  public static ScriptSourceStore getDefault() {
+    return DEFAULT;
+  }
+
+  private final long byteBudget;
+  private final boolean offHeap;
+
+  // Access to the fields below must be synchronized on this.
+
+  /** Iterates from the least recently used entry. */
+  private final LinkedHashMap<Object, Content> entries =
+      new LinkedHashMap<Object, Content>(16, 0.75f, true);
+
+  /** Shared contents by their bytes (buffer equality compares the bytes). */
+  private final Map<ByteBuffer, Content> contents = new HashMap<ByteBuffer, Content>();
+
+  private long totalBytes = 0;
+  private long evictionCount = 0;
+
+  /**
+   * @param byteBudget how many bytes sources may take in total
+   * @param offHeap whether to keep sources in direct buffers
+   */
+  public ScriptSourceStore(long byteBudget, boolean offHeap) {
+    this.byteBudget = byteBudget;
+    this.offHeap = offHeap;
+  }
+
+  /**
+   * Saves the source under the key, replacing the previous one. If an equal source is
+   * already stored, its buffer is shared. The most recent source is kept even if it alone
+   * exceeds the budget.
+   * @param key an object with identity-based equals and hashCode
+   */
+  public void put(Object key, String source) {
+    ByteBuffer bytes = ByteBuffer.wrap(source.getBytes(UTF8_CHARSET));
+    synchronized (this) {
+      Content content = contents.get(bytes);
+      if (content == null) {
+        content = new Content(offHeap ? copyToDirect(bytes) : bytes);
+        contents.put(content.buffer, content);
+        totalBytes += content.buffer.capacity();
+      }
+      content.refCount++;
+      Content oldContent = entries.put(key, content);
+      if (oldContent != null) {
+        release(oldContent);
+      }
+      evictOverBudget();
+    }
+  }
+
+  /**
+   * @return the source or null if there is no source for the key or it has been evicted
+   */
+  public String get(Object key) {
+    ByteBuffer buffer;
+    synchronized (this) {
+      Content content = entries.get(key);
+      if (content == null) {
+        return null;
+      }
+      buffer = content.buffer;
+    }
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset(), buffer.capacity(), UTF8_CHARSET);
+    }
+    return UTF8_CHARSET.decode(buffer.duplicate()).toString();
+  }
+
+  /**
+   * Compares stored sources without decoding them.
+   * @return true if both keys have a source and the sources are equal; false if any of them
+   *     has no source or it has been evicted
+   */
+  public synchronized boolean contentEquals(Object key1, Object key2) {
+    Content content1 = entries.get(key1);
+    // Equal sources share the content.
+    return content1 != null && content1 == entries.get(key2);
+  }
+
+  public synchronized void remove(Object key) {
+    Content content = entries.remove(key);
+    if (content != null) {
+      release(content);
+    }
+  }
+
+  /**
+   * @return the number of bytes that stored sources take now; a shared source is
+   *     counted once
+   */
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * @return how many sources have been evicted so far
+   */
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * @return the number of distinct sources that are stored now
+   */
+  public synchronized int getContentCount() {
+    return contents.size();
+  }
+
+  private void evictOverBudget() {
+    Iterator<Content> it = entries.values().iterator();
+    while (totalBytes > byteBudget && entries.size() > 1) {
+      Content content = it.next();
+      it.remove();
+      release(content);
+      evictionCount++;
+    }
+  }
+
+  private void release(Content content) {
+    content.refCount--;
+    if (content.refCount == 0) {
+      contents.remove(content.buffer);
+      totalBytes -= content.buffer.capacity();
+    }
+  }
+
+  private static ByteBuffer copyToDirect(ByteBuffer bytes) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.capacity());
+    buffer.put(bytes.duplicate());
+    buffer.flip();
+    return buffer;
+  }
+
+  private static ScriptSourceStore createDefault() {
+    long budget = Long.getLong(BUDGET_PROPERTY, 0L);
+    if (budget <= 0) {
+      return null;
+    }
+    return new ScriptSourceStore(budget, Boolean.getBoolean(OFF_HEAP_PROPERTY));
+  }
+
+  /**
+   * A source buffer shared by all keys with equal sources. Its position and limit never
+   * change, so it can serve as a key of {@link #contents}.
+   */
+  private static class Content {
+    final ByteBuffer buffer;
+    int refCount = 0;
+
+    Content(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+  }
+}
@@ -0,0 +1,636 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.protocolparser;
+
+import java.nio.ByteBuffer;
+
+import org.json.simple.parser.ParseException;
+
+/**
+ * A pull parser (tokenizer) of JSON text encoded in UTF-8. It works directly on bytes:
+ * strings and numbers are only decoded when the caller asks for them, so unneeded values
+ * can be skipped cheaply. Property names are additionally cached, because protocol messages
+ * use a small set of names over and over.
+ * <p>
+ * The reader validates JSON grammar and reports errors as {@link ParseException} for
+ * compatibility with json_simple-based code.
+ * <p>
+ * The class is not thread-safe.
+ */
+public class Utf8JsonReader {
+  public enum Token {
+    BEGIN_OBJECT,
+    END_OBJECT,
+    BEGIN_ARRAY,
+    END_ARRAY,
+    /** A property name; the value follows as the next token. */
+    NAME,
+    STRING,
+    NUMBER,
+    TRUE,
+    FALSE,
+    NULL,
+    END_DOCUMENT
+  }
+
+  // Parser states kept in a stack, one per nesting level.
+  private static final int EMPTY_DOCUMENT = 0;
+  private static final int NONEMPTY_DOCUMENT = 1;
+  private static final int EMPTY_OBJECT = 2;
+  private static final int DANGLING_NAME = 3;
+  private static final int NONEMPTY_OBJECT = 4;
+  private static final int EMPTY_ARRAY = 5;
+  private static final int NONEMPTY_ARRAY = 6;
+
+  private static final int NAME_CACHE_SIZE = 256;
+
+  private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+  private final byte[] data;
+  private final int start;
+  private final int limit;
+  private int pos;
+
+  private int[] stack = new int[32];
+  private int stackSize = 1;
+  {
+    stack[0] = EMPTY_DOCUMENT;
+  }
+
+  // Current token data.
+  private Token token = null;
+  private int tokenStart;
+  private int tokenEnd;
+  private int valueStart;
+  private int valueEnd;
+  private boolean valueIsSimple;
+  private boolean numberIsIntegral;
+
+  private char[] charBuffer = new char[64];
+  private final String[] nameCache = new String[NAME_CACHE_SIZE];
+
+  /**
+   * @param utf8Json JSON text in 'read' state; the buffer content must not be changed
+   *     while the reader is used
+   */
+  public Utf8JsonReader(ByteBuffer utf8Json) {
+    if (utf8Json.hasArray()) {
+      this.data = utf8Json.array();
+      this.start = utf8Json.arrayOffset() + utf8Json.position();
+    } else {
+      this.data = new byte[utf8Json.remaining()];
+      utf8Json.duplicate().get(this.data);
+      this.start = 0;
+    }
+    this.limit = this.start + utf8Json.remaining();
+    this.pos = this.start;
+  }
+
+  /**
+   * Reads the next token.
+   * @throws ParseException if the input is not a valid JSON
+   */
+  public Token next() throws ParseException {
+    token = readToken();
+    return token;
+  }
+
+  /**
+   * @return the last token returned from {@link #next()}
+   */
+  public Token getToken() {
+    return token;
+  }
+
+  /**
+   * @return current nesting level: 0 on the top level, 1 inside the top-level object etc.
+   */
+  public int getDepth() {
+    return stackSize - 1;
+  }
+
+  /**
+   * @return offset of the current token start relative to the input start
+   */
+  public int getTokenStart() {
+    return tokenStart - start;
+  }
+
+  /**
+   * @return offset right after the current token relative to the input start
+   */
+  public int getTokenEnd() {
+    return tokenEnd - start;
+  }
+
+  /**
+   * @return the value of the current {@link Token#NAME} or {@link Token#STRING} token
+   */
+  public String getString() {
+    if (token == Token.NAME) {
+      return getCachedName();
+    } else if (token == Token.STRING) {
+      return decodeString();
+    } else {
+      throw new IllegalStateException("String token expected, current token: " + token);
+    }
+  }
+
+  /**
+   * Compares the current {@link Token#NAME} or {@link Token#STRING} token with an ASCII
+   * string without decoding the token.
+   */
+  public boolean stringEquals(String asciiString) {
+    if (token != Token.NAME && token != Token.STRING) {
+      throw new IllegalStateException("String token expected, current token: " + token);
+    }
+    if (!valueIsSimple) {
+      return decodeString().equals(asciiString);
+    }
+    return bytesEqual(asciiString, valueStart, valueEnd);
+  }
+
+  /**
+   * @return whether the current {@link Token#NUMBER} has no fraction or exponent part
+   */
+  public boolean isIntegralNumber() {
+    checkNumberToken();
+    return numberIsIntegral;
+  }
+
+  /**
+   * @return the current {@link Token#NUMBER} as long; fails if the number is not integral
+   *     or does not fit into long
+   */
+  public long getLong() {
+    checkNumberToken();
+    if (!numberIsIntegral) {
+      throw new NumberFormatException("Not an integral number: " + getAsciiToken());
+    }
+    int length = valueEnd - valueStart;
+    // Up to 18 digits always fit into long.
+    if (length > 18) {
+      return Long.parseLong(getAsciiToken());
+    }
+    int i = valueStart;
+    boolean negative = data[i] == '-';
+    if (negative) {
+      i++;
+    }
+    long result = 0;
+    for (; i < valueEnd; i++) {
+      result = result * 10 + (data[i] - '0');
+    }
+    return negative ? -result : result;
+  }
+
+  /**
+   * @return the current {@link Token#NUMBER} as double
+   */
+  public double getDouble() {
+    checkNumberToken();
+    return Double.parseDouble(getAsciiToken());
+  }
+
+  /**
+   * Skips the value that starts with the current token. If the current token is
+   * {@link Token#NAME}, skips the property value.
+   */
+  public void skipValue() throws ParseException {
+    int depth = 0;
+    if (token == Token.NAME) {
+      next();
+    }
+    while (true) {
+      switch (token) {
+        case BEGIN_OBJECT:
+        case BEGIN_ARRAY:
+          depth++;
+          break;
+        case END_OBJECT:
+        case END_ARRAY:
+          depth--;
+          break;
+        case END_DOCUMENT:
+          throw new ParseException(pos - start, ParseException.ERROR_UNEXPECTED_TOKEN, null);
+        default:
+          break;
+      }
+      if (depth == 0) {
+        return;
+      }
+      next();
+    }
+  }
+
+  private Token readToken() throws ParseException {
+    skipWhitespace();
+    int state = stack[stackSize - 1];
+    switch (state) {
+      case EMPTY_DOCUMENT:
+        stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+        return readValue();
+      case NONEMPTY_DOCUMENT:
+        if (pos != limit) {
+          throw unexpectedChar();
+        }
+        tokenStart = tokenEnd = pos;
+        return Token.END_DOCUMENT;
+      case EMPTY_ARRAY:
+        if (peek() == ']') {
+          return endScope(Token.END_ARRAY);
+        }
+        stack[stackSize - 1] = NONEMPTY_ARRAY;
+        return readValue();
+      case NONEMPTY_ARRAY:
+        switch (peek()) {
+          case ']':
+            return endScope(Token.END_ARRAY);
+          case ',':
+            pos++;
+            skipWhitespace();
+            return readValue();
+          default:
+            throw unexpectedChar();
+        }
+      case EMPTY_OBJECT:
+        if (peek() == '}') {
+          return endScope(Token.END_OBJECT);
+        }
+        return readName();
+      case NONEMPTY_OBJECT:
+        switch (peek()) {
+          case '}':
+            return endScope(Token.END_OBJECT);
+          case ',':
+            pos++;
+            skipWhitespace();
+            return readName();
+          default:
+            throw unexpectedChar();
+        }
+      case DANGLING_NAME:
+        if (peek() != ':') {
+          throw unexpectedChar();
+        }
+        pos++;
+        skipWhitespace();
+        stack[stackSize - 1] = NONEMPTY_OBJECT;
+        return readValue();
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  private Token endScope(Token result) {
+    tokenStart = pos;
+    pos++;
+    tokenEnd = pos;
+    stackSize--;
+    return result;
+  }
+
+  private Token readName() throws ParseException {
+    if (peek() != '"') {
+      throw unexpectedChar();
+    }
+    readStringBytes();
+    stack[stackSize - 1] = DANGLING_NAME;
+    return Token.NAME;
+  }
+
+  private Token readValue() throws ParseException {
+    tokenStart = pos;
+    switch (peek()) {
+      case '{':
+        pos++;
+        tokenEnd = pos;
+        push(EMPTY_OBJECT);
+        return Token.BEGIN_OBJECT;
+      case '[':
+        pos++;
+        tokenEnd = pos;
+        push(EMPTY_ARRAY);
+        return Token.BEGIN_ARRAY;
+      case '"':
+        readStringBytes();
+        return Token.STRING;
+      case 't':
+        readLiteral("true");
+        return Token.TRUE;
+      case 'f':
+        readLiteral("false");
+        return Token.FALSE;
+      case 'n':
+        readLiteral("null");
+        return Token.NULL;
+      default:
+        readNumber();
+        return Token.NUMBER;
+    }
+  }
+
+  private void push(int state) {
+    if (stackSize == stack.length) {
+      int[] newStack = new int[stackSize * 2];
+      System.arraycopy(stack, 0, newStack, 0, stackSize);
+      stack = newStack;
+    }
+    stack[stackSize++] = state;
+  }
+
+  private void readStringBytes() throws ParseException {
+    tokenStart = pos;
+    int i = pos + 1;
+    boolean simple = true;
+    while (true) {
+      if (i >= limit) {
+        throw new ParseException(i - start, ParseException.ERROR_UNEXPECTED_TOKEN, null);
+      }
+      byte b = data[i];
+      if (b == '"') {
+        break;
+      }
+      if (b == '\\') {
+        simple = false;
+        // Only check the escape here; escapes are interpreted while decoding.
+        i = checkEscape(i + 1);
+        continue;
+      }
+      if (b < 0) {
+        // Non-ASCII.
+        simple = false;
+      } else if (b < 0x20) {
+        throw new ParseException(i - start, ParseException.ERROR_UNEXPECTED_CHAR,
+            Character.valueOf((char) b));
+      }
+      i++;
+    }
+    valueStart = pos + 1;
+    valueEnd = i;
+    valueIsSimple = simple;
+    pos = i + 1;
+    tokenEnd = pos;
+  }
+
+  /**
+   * @param i position of the character after the backslash
+   * @return position after the escape sequence
+   */
+  private int checkEscape(int i) throws ParseException {
+    if (i >= limit) {
+      throw new ParseException(i - start, ParseException.ERROR_UNEXPECTED_TOKEN, null);
+    }
+    switch (data[i]) {
+      case '"':
+      case '\\':
+      case '/':
+      case 'b':
+      case 'f':
+      case 'n':
+      case 'r':
+      case 't':
+        return i + 1;
+      case 'u':
+        for (int k = i + 1; k < i + 5; k++) {
+          if (k >= limit) {
+            throw new ParseException(k - start, ParseException.ERROR_UNEXPECTED_TOKEN, null);
+          }
+          if (Character.digit((char) data[k], 16) == -1) {
+            throw new ParseException(k - start, ParseException.ERROR_UNEXPECTED_CHAR,
+                Character.valueOf((char) (data[k] & 0xFF)));
+          }
+        }
+        return i + 5;
+      default:
+        throw new ParseException(i - start, ParseException.ERROR_UNEXPECTED_CHAR,
+            Character.valueOf((char) (data[i] & 0xFF)));
+    }
+  }
+
+  private void readLiteral(String literal) throws ParseException {
+    int length = literal.length();
+    if (limit - pos < length || !bytesEqual(literal, pos, pos + length)) {
+      throw unexpectedChar();
+    }
+    pos += length;
+    tokenEnd = pos;
+  }
+
+  private void readNumber() throws ParseException {
+    int i = pos;
+    if (i < limit && data[i] == '-') {
+      i++;
+    }
+    int digitsStart = i;
+    i = skipDigits(i);
+    if (i == digitsStart) {
+      throw unexpectedChar();
+    }
+    if (data[digitsStart] == '0' && i - digitsStart > 1) {
+      // Leading zeros are not allowed.
+      throw new ParseException(digitsStart + 1 - start, ParseException.ERROR_UNEXPECTED_CHAR,
+          Character.valueOf((char) data[digitsStart + 1]));
+    }
+    boolean integral = true;
+    if (i < limit && data[i] == '.') {
+      integral = false;
+      int fractionStart = ++i;
+      i = skipDigits(i);
+      if (i == fractionStart) {
+        throw new ParseException(i - start, ParseException.ERROR_UNEXPECTED_CHAR, null);
+      }
+    }
+    if (i < limit && (data[i] == 'e' || data[i] == 'E')) {
+      integral = false;
+      i++;
+      if (i < limit && (data[i] == '+' || data[i] == '-')) {
+        i++;
+      }
+      int exponentStart = i;
+      i = skipDigits(i);
+      if (i == exponentStart) {
+        throw new ParseException(i - start, ParseException.ERROR_UNEXPECTED_CHAR, null);
+      }
+    }
+    valueStart = pos;
+    valueEnd = i;
+    numberIsIntegral = integral;
+    pos = i;
+    tokenEnd = pos;
+  }
+
+  private int skipDigits(int i) {
+    while (i < limit && data[i] >= '0' && data[i] <= '9') {
+      i++;
+    }
+    return i;
+  }
+
+  private int peek() throws ParseException {
+    if (pos >= limit) {
+      throw new ParseException(pos - start, ParseException.ERROR_UNEXPECTED_TOKEN, null);
+    }
+    return data[pos];
+  }
+
+  private void skipWhitespace() {
+    while (pos < limit) {
+      byte b = data[pos];
+      if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+        break;
+      }
+      pos++;
+    }
+  }
+
+  private ParseException unexpectedChar() {
+    if (pos >= limit) {
+      return new ParseException(pos - start, ParseException.ERROR_UNEXPECTED_TOKEN, null);
+    }
+    return new ParseException(pos - start, ParseException.ERROR_UNEXPECTED_CHAR,
+        Character.valueOf((char) (data[pos] & 0xFF)));
+  }
+
+  private void checkNumberToken() {
+    if (token != Token.NUMBER) {
+      throw new IllegalStateException("Number token expected, current token: " + token);
+    }
+  }
+
+  private boolean bytesEqual(String asciiString, int from, int to) {
+    if (to - from != asciiString.length()) {
+      return false;
+    }
+    for (int i = from; i < to; i++) {
+      if (data[i] != asciiString.charAt(i - from)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String getCachedName() {
+    if (!valueIsSimple) {
+      return decodeString();
+    }
+    int hash = 0;
+    for (int i = valueStart; i < valueEnd; i++) {
+      hash = 31 * hash + data[i];
+    }
+    int index = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+    String cached = nameCache[index];
+    if (cached != null && bytesEqual(cached, valueStart, valueEnd)) {
+      return cached;
+    }
+    String result = decodeString();
+    nameCache[index] = result;
+    return result;
+  }
+
+  private String getAsciiToken() {
+    int length = valueEnd - valueStart;
+    char[] chars = ensureCharBuffer(length);
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char) data[valueStart + i];
+    }
+    return new String(chars, 0, length);
+  }
+
+  private char[] ensureCharBuffer(int length) {
+    if (charBuffer.length < length) {
+      charBuffer = new char[Math.max(length, charBuffer.length * 2)];
+    }
+    return charBuffer;
+  }
+
+  private String decodeString() {
+    // Decoded string is never longer than its UTF-8 representation.
+    char[] chars = ensureCharBuffer(valueEnd - valueStart);
+    int length = 0;
+    int i = valueStart;
+    while (i < valueEnd) {
+      int b = data[i];
+      if (b >= 0) {
+        if (b == '\\') {
+          i++;
+          char escaped = (char) data[i];
+          // The escape has been checked by checkEscape.
+          switch (escaped) {
+            case 'b': chars[length++] = '\b'; break;
+            case 'f': chars[length++] = '\f'; break;
+            case 'n': chars[length++] = '\n'; break;
+            case 'r': chars[length++] = '\r'; break;
+            case 't': chars[length++] = '\t'; break;
+            case 'u':
+              chars[length++] = (char) parseHex(i + 1);
+              i += 4;
+              break;
+            default:
+              // Includes '"', '\\' and '/'.
+              chars[length++] = escaped;
+              break;
+          }
+          i++;
+        } else {
+          chars[length++] = (char) b;
+          i++;
+        }
+        continue;
+      }
+      // Multi-byte UTF-8 sequence.
+      int codePoint;
+      int extraBytes;
+      if ((b & 0xE0) == 0xC0) {
+        codePoint = b & 0x1F;
+        extraBytes = 1;
+      } else if ((b & 0xF0) == 0xE0) {
+        codePoint = b & 0x0F;
+        extraBytes = 2;
+      } else if ((b & 0xF8) == 0xF0) {
+        codePoint = b & 0x07;
+        extraBytes = 3;
+      } else {
+        chars[length++] = REPLACEMENT_CHAR;
+        i++;
+        continue;
+      }
+      if (i + extraBytes >= valueEnd) {
+        chars[length++] = REPLACEMENT_CHAR;
+        break;
+      }
+      i++;
+      boolean malformed = false;
+      for (int k = 0; k < extraBytes; k++) {
+        int next = data[i];
+        if ((next & 0xC0) != 0x80) {
+          malformed = true;
+          break;
+        }
+        codePoint = (codePoint << 6) | (next & 0x3F);
+        i++;
+      }
+      if (malformed) {
+        chars[length++] = REPLACEMENT_CHAR;
+      } else if (codePoint >= 0x10000) {
+        length += Character.toChars(codePoint, chars, length);
+      } else {
+        chars[length++] = (char) codePoint;
+      }
+    }
+    return new String(chars, 0, length);
+  }
+
+  /**
+   * Parses 4 hex digits, already checked by {@link #checkEscape}.
+   */
+  private int parseHex(int from) {
+    int result = 0;
+    for (int i = from; i < from + 4; i++) {
+      result = (result << 4) | Character.digit((char) data[i], 16);
+    }
+    return result;
+  }
+}
@@ -5,6 +5,7 @@
 package org.chromium.sdk.internal.standalonev8;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -43,6 +44,15 @@ public class StandaloneVmImpl extends JavascriptVmImpl implements StandaloneVm {
 
   private static final int WAIT_FOR_HANDSHAKE_TIMEOUT_MS = 3000;
 
+  private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+  /**
+   * Whether big fields of incoming UTF-8 messages are decoded on demand. May be switched off
+   * with "org.chromium.sdk.client.connection.lazyJsonParse" system property.
+   */
+  private static final boolean LAZY_JSON_PARSE = Boolean.parseBoolean(
+      System.getProperty("org.chromium.sdk.client.connection.lazyJsonParse", "true"));
+
   private static final V8ContextFilter CONTEXT_FILTER = new V8ContextFilter() {
     public boolean isContextOurs(ContextHandle contextHandle) {
       // We do not check context in standalone V8 mode.
@@ -68,6 +78,7 @@ public class StandaloneVmImpl extends JavascriptVmImpl implements StandaloneVm {
     this.handshaker = handshaker;
     V8CommandOutputImpl v8CommandOutput = new V8CommandOutputImpl(connection);
     this.debugSession = new DebugSession(sessionManager, CONTEXT_FILTER, v8CommandOutput, this);
+    debugSession.getV8CommandProcessor().getMetrics().setConnection(connection);
   }
 
   public void attach(DebugEventListener listener)
@@ -104,14 +115,25 @@ public class StandaloneVmImpl extends JavascriptVmImpl implements StandaloneVm {
       }
 
       public void messageReceived(Message message) {
+        long startNanos = System.nanoTime();
         JSONObject json;
         try {
-          json = JsonUtil.jsonObjectFromJson(message.getContent());
+          if (!UTF8_CHARSET.equals(message.getContentCharset())) {
+            json = JsonUtil.jsonObjectFromJson(message.getContentReader());
+          } else if (LAZY_JSON_PARSE) {
+            json = JsonUtil.jsonObjectFromJsonLazily(message.getContentBytes());
+          } else {
+            json = JsonUtil.jsonObjectFromJson(message.getContentBytes());
+          }
         } catch (ParseException e) {
           LOGGER.log(Level.SEVERE, "Invalid JSON received: {0}", message.getContent());
           return;
+        } catch (IOException e) {
+          // Never happens for in-memory content.
+          throw new RuntimeException(e);
         }
-        debugSession.getV8CommandProcessor().processIncomingJson(json);
+        debugSession.getV8CommandProcessor().processIncomingJson(json,
+            System.nanoTime() - startNanos);
       }
     };
     connection.setNetListener(netListener);
@@ -145,6 +167,8 @@ public class StandaloneVmImpl extends JavascriptVmImpl implements StandaloneVm {
     debugSession.startCommunication();
 
     connectionState = ConnectionState.CONNECTED;
+
+    debugSession.getV8CommandProcessor().getMetrics().registerInJmx("standalone V8");
   }
 
   public boolean detach() {
@@ -169,6 +193,7 @@ public class StandaloneVmImpl extends JavascriptVmImpl implements StandaloneVm {
       connectionState = ConnectionState.DETACHED;
       disconnectReason = cause;
     }
+    debugSession.getV8CommandProcessor().getMetrics().unregisterFromJmx();
     if (debugEventListener != null) {
       debugEventListener.disconnected();
     }
@@ -9,6 +9,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.chromium.sdk.ConnectionLogger;
 import org.chromium.sdk.ConnectionLogger.StreamListener;
@@ -26,15 +27,29 @@ public abstract class AbstractSocketWrapper<INPUT_WRAPPER, OUTPUT_WRAPPER> {
   private final INPUT_WRAPPER loggableInput;
   private final OUTPUT_WRAPPER loggableOutput;
 
+  private final AtomicLong bytesReceived = new AtomicLong(0);
+  private final AtomicLong bytesSent = new AtomicLong(0);
+
   public AbstractSocketWrapper(SocketAddress endpoint, int connectionTimeoutMs,
       ConnectionLogger connectionLogger, WrapperFactory<INPUT_WRAPPER, OUTPUT_WRAPPER> factory)
       throws IOException {
-    this.socket = new Socket();
-    this.socket.connect(endpoint, connectionTimeoutMs);
+    this(connectSocket(endpoint, connectionTimeoutMs), connectionLogger, factory);
+  }
+
+  /**
+   * Wraps an already connected socket. This is used when the socket is backed by
+   * a {@link java.nio.channels.SocketChannel} that is only temporarily in blocking mode
+   * (e.g. for a handshake).
+   */
+  public AbstractSocketWrapper(Socket connectedSocket, ConnectionLogger connectionLogger,
+      WrapperFactory<INPUT_WRAPPER, OUTPUT_WRAPPER> factory) throws IOException {
+    this.socket = connectedSocket;
 
-    INPUT_WRAPPER originalLogReader = factory.wrapInputStream(socket.getInputStream());
+    INPUT_WRAPPER originalLogReader = factory.wrapInputStream(
+        new CountingInputStream(socket.getInputStream(), bytesReceived));
 
-    OUTPUT_WRAPPER originalLogWriter = factory.wrapOutputStream(socket.getOutputStream());
+    OUTPUT_WRAPPER originalLogWriter = factory.wrapOutputStream(
+        new CountingOutputStream(socket.getOutputStream(), bytesSent));
 
     if (connectionLogger == null) {
       loggableInput = originalLogReader;
@@ -54,6 +69,13 @@ public abstract class AbstractSocketWrapper<INPUT_WRAPPER, OUTPUT_WRAPPER> {
     }
   }
 
+  private static Socket connectSocket(SocketAddress endpoint, int connectionTimeoutMs)
+      throws IOException {
+    Socket socket = new Socket();
+    socket.connect(endpoint, connectionTimeoutMs);
+    return socket;
+  }
+
   public INPUT_WRAPPER getLoggableInput() {
     return loggableInput;
   }
@@ -62,6 +84,20 @@ public abstract class AbstractSocketWrapper<INPUT_WRAPPER, OUTPUT_WRAPPER> {
     return loggableOutput;
   }
 
+  /**
+   * @return number of bytes read from the socket, may be called from any thread
+   */
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  /**
+   * @return number of bytes written to the socket, may be called from any thread
+   */
+  public long getBytesSent() {
+    return bytesSent.get();
+  }
+
   public SignalRelay<ShutdownSignal> getShutdownRelay() {
     return shutdownRelay;
   }
@@ -0,0 +1,546 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A compact binary capture of connection traffic, an alternative to the textual
+ * {@link org.chromium.sdk.ConnectionLogger} that is cheap enough to stay on all the time.
+ * <p>
+ * Traffic goes into a ring of records in a memory-mapped file; when the ring is full, the
+ * oldest records are overwritten, so the file always holds the latest history. Connections
+ * only copy the data and put it into a queue; the file is written by a background thread.
+ * If the queue overflows, records are dropped rather than the connection being slowed down.
+ * <p>
+ * A record holds a timestamp, a connection id, a direction, a {@link Kind} and the data.
+ * A capture may be read back with {@link #read} and played with {@link ReplayConnection}.
+ * <p>
+ * The default capture file is configured with "org.chromium.sdk.client.connection.captureFile"
+ * (file name) and "org.chromium.sdk.client.connection.captureSize" (ring size in bytes)
+ * system properties.
+ */
+public class CaptureFile {
+  private static final Logger LOGGER = Logger.getLogger(CaptureFile.class.getName());
+
+  private static final String FILE_PROPERTY = "org.chromium.sdk.client.connection.captureFile";
+  private static final String SIZE_PROPERTY = "org.chromium.sdk.client.connection.captureSize";
+  private static final int DEFAULT_SIZE = 16 * 1024 * 1024;
+
+  // "CDTC"
+  private static final int MAGIC = 0x43445443;
+  private static final int VERSION = 1;
+
+  private static final int MAGIC_OFFSET = 0;
+  private static final int VERSION_OFFSET = 4;
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int FIRST_RECORD_OFFSET = 12;
+  private static final int WRITE_POSITION_OFFSET = 16;
+  private static final int RECORD_COUNT_OFFSET = 20;
+  private static final int DROPPED_COUNT_OFFSET = 24;
+  private static final int START_TIME_OFFSET = 32;
+  private static final int HEADER_SIZE = 40;
+
+  /** Record length (int), time (long), connection id (int), direction (byte), kind (byte). */
+  private static final int RECORD_HEADER_SIZE = 18;
+
+  /** Put instead of record length where the ring wraps to its beginning. */
+  private static final int WRAP_MARKER = -1;
+
+  private static final byte DIRECTION_INCOMING = 0;
+  private static final byte DIRECTION_OUTGOING = 1;
+
+  private static final int QUEUE_CAPACITY = 4096;
+
+  public enum Kind {
+    /** A chunk of a byte stream; chunk boundaries have no meaning. */
+    BYTES,
+
+    /** A whole protocol message. */
+    MESSAGE,
+
+    /** The connection has been closed; the record has no data. */
+    CLOSE
+  }
+
+  /**
+   * @return the capture configured by system properties or null if capturing is off
+   */
+  public static CaptureFile getDefault() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  /**
+   * @return a recorder for a new connection in the default capture or null if capturing
+   *     is off
+   */
+  public static Recorder createDefaultRecorder() {
+    CaptureFile captureFile = getDefault();
+    return captureFile == null
+        ? null
+        : captureFile.createRecorder();
+  }
+
+  /**
+   * Creates a new capture file, overwriting the existing one.
+   * @param size size of the record ring in bytes
+   */
+  public static CaptureFile create(File file, int size) throws IOException {
+    if (size <= RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("Capture size is too small: " + size);
+    }
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    boolean success = false;
+    try {
+      randomAccessFile.setLength(HEADER_SIZE + size);
+      MappedByteBuffer mapped = randomAccessFile.getChannel().map(
+          FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + size);
+      CaptureFile captureFile = new CaptureFile(randomAccessFile, mapped, size);
+      success = true;
+      return captureFile;
+    } finally {
+      if (!success) {
+        randomAccessFile.close();
+      }
+    }
+  }
+
+  /**
+   * Reads all records from a capture file, oldest first. The file may be read while
+   * it is being written, but then some records may be missing or corrupted.
+   */
+  public static List<Record> read(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      if (channel.size() < HEADER_SIZE) {
+        throw new IOException("Not a capture file");
+      }
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (mapped.getInt(MAGIC_OFFSET) != MAGIC) {
+        throw new IOException("Not a capture file");
+      }
+      if (mapped.getInt(VERSION_OFFSET) != VERSION) {
+        throw new IOException("Unsupported capture file version");
+      }
+      int capacity = mapped.getInt(CAPACITY_OFFSET);
+      if (capacity < 0 || HEADER_SIZE + (long) capacity > channel.size()) {
+        throw new IOException("Capture file is truncated");
+      }
+      int pos = mapped.getInt(FIRST_RECORD_OFFSET);
+      int recordCount = mapped.getInt(RECORD_COUNT_OFFSET);
+      long startTimeMillis = mapped.getLong(START_TIME_OFFSET);
+
+      mapped.position(HEADER_SIZE);
+      ByteBuffer ring = mapped.slice();
+      List<Record> result = new ArrayList<Record>(recordCount);
+      for (int i = 0; i < recordCount; i++) {
+        if (pos + 4 > capacity || ring.getInt(pos) == WRAP_MARKER) {
+          pos = 0;
+        }
+        int length = ring.getInt(pos);
+        if (length < RECORD_HEADER_SIZE || pos + length > capacity) {
+          throw new IOException("Corrupted record at " + pos);
+        }
+        long timeNanos = ring.getLong(pos + 4);
+        int connectionId = ring.getInt(pos + 12);
+        boolean incoming = ring.get(pos + 16) == DIRECTION_INCOMING;
+        int kindOrdinal = ring.get(pos + 17);
+        if (kindOrdinal < 0 || kindOrdinal >= Kind.values().length) {
+          throw new IOException("Corrupted record at " + pos);
+        }
+        byte[] data = new byte[length - RECORD_HEADER_SIZE];
+        ByteBuffer view = ring.duplicate();
+        view.position(pos + RECORD_HEADER_SIZE);
+        view.get(data);
+        result.add(new Record(startTimeMillis, timeNanos, connectionId, incoming,
+            Kind.values()[kindOrdinal], data));
+        pos += length;
+      }
+      return result;
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * @return records of a single connection in their original order
+   */
+  public static List<Record> selectConnection(List<Record> records, int connectionId) {
+    List<Record> result = new ArrayList<Record>();
+    for (Record record : records) {
+      if (record.getConnectionId() == connectionId) {
+        result.add(record);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * A record read from a capture file.
+   */
+  public static class Record {
+    private final long startTimeMillis;
+    private final long timeNanos;
+    private final int connectionId;
+    private final boolean incoming;
+    private final Kind kind;
+    private final byte[] data;
+
+    Record(long startTimeMillis, long timeNanos, int connectionId, boolean incoming, Kind kind,
+        byte[] data) {
+      this.startTimeMillis = startTimeMillis;
+      this.timeNanos = timeNanos;
+      this.connectionId = connectionId;
+      this.incoming = incoming;
+      this.kind = kind;
+      this.data = data;
+    }
+
+    /**
+     * @return time of the record in nanoseconds since the capture has been started
+     */
+    public long getTimeNanos() {
+      return timeNanos;
+    }
+
+    /**
+     * @return wall-clock time of the record in milliseconds
+     */
+    public long getTimeMillis() {
+      return startTimeMillis + timeNanos / 1000000;
+    }
+
+    public int getConnectionId() {
+      return connectionId;
+    }
+
+    public boolean isIncoming() {
+      return incoming;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * @return a read-only buffer with the data
+     */
+    public ByteBuffer getData() {
+      return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    @Override
+    public String toString() {
+      return "#" + connectionId + (incoming ? " <-- " : " --> ") + kind + " " + data.length +
+          " bytes at " + timeNanos + "ns";
+    }
+  }
+
+  /**
+   * Records traffic of one connection. Methods may be called from any thread; records
+   * keep the order of calls.
+   */
+  public class Recorder {
+    private final int connectionId;
+
+    private Recorder(int connectionId) {
+      this.connectionId = connectionId;
+    }
+
+    public int getConnectionId() {
+      return connectionId;
+    }
+
+    public void record(boolean incoming, Kind kind, byte[] data, int offset, int length) {
+      byte[] copy = new byte[length];
+      System.arraycopy(data, offset, copy, 0, length);
+      enqueue(new PendingRecord(System.nanoTime(), connectionId, incoming, kind, copy));
+    }
+
+    /**
+     * Records the remaining bytes of the buffer; the buffer position is not changed.
+     */
+    public void record(boolean incoming, Kind kind, ByteBuffer data) {
+      byte[] copy = new byte[data.remaining()];
+      data.duplicate().get(copy);
+      enqueue(new PendingRecord(System.nanoTime(), connectionId, incoming, kind, copy));
+    }
+
+    public void recordClose() {
+      enqueue(new PendingRecord(System.nanoTime(), connectionId, true, Kind.CLOSE,
+          new byte[0]));
+    }
+
+    /**
+     * @return a stream that records everything read from it as incoming {@link Kind#BYTES}
+     */
+    public InputStream wrapInput(InputStream inputStream) {
+      return new FilterInputStream(inputStream) {
+        @Override
+        public int read() throws IOException {
+          int res = super.read();
+          if (res != -1) {
+            record(true, Kind.BYTES, new byte[] { (byte) res }, 0, 1);
+          }
+          return res;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          int res = super.read(b, off, len);
+          if (res > 0) {
+            record(true, Kind.BYTES, b, off, res);
+          }
+          return res;
+        }
+
+        @Override
+        public boolean markSupported() {
+          return false;
+        }
+      };
+    }
+
+    /**
+     * @return a stream that records everything written to it as outgoing {@link Kind#BYTES}
+     */
+    public OutputStream wrapOutput(OutputStream outputStream) {
+      return new FilterOutputStream(outputStream) {
+        @Override
+        public void write(int b) throws IOException {
+          out.write(b);
+          record(false, Kind.BYTES, new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+          record(false, Kind.BYTES, b, off, len);
+        }
+      };
+    }
+  }
+
+  private final RandomAccessFile file;
+  private final MappedByteBuffer mapped;
+  private final ByteBuffer ring;
+  private final int capacity;
+  private final long startNanos = System.nanoTime();
+  private final AtomicInteger connectionIdCounter = new AtomicInteger(0);
+  private final AtomicLong droppedCount = new AtomicLong(0);
+  private final BlockingQueue<PendingRecord> queue =
+      new ArrayBlockingQueue<PendingRecord>(QUEUE_CAPACITY);
+  private final Thread writerThread;
+  private volatile boolean isClosed = false;
+
+  // Fields below are accessed from writer thread only.
+  // Offset of the oldest record or -1 if ring is empty.
+  private int firstRecord = -1;
+  private int writePosition = 0;
+  private int recordCount = 0;
+
+  private CaptureFile(RandomAccessFile file, MappedByteBuffer mapped, int capacity) {
+    this.file = file;
+    this.mapped = mapped;
+    this.capacity = capacity;
+    mapped.position(HEADER_SIZE);
+    this.ring = mapped.slice();
+    mapped.position(0);
+
+    mapped.putInt(MAGIC_OFFSET, MAGIC);
+    mapped.putInt(VERSION_OFFSET, VERSION);
+    mapped.putInt(CAPACITY_OFFSET, capacity);
+    mapped.putLong(START_TIME_OFFSET, System.currentTimeMillis());
+    updateHeader();
+
+    writerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runWriter();
+      }
+    }, "Connection capture writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  public Recorder createRecorder() {
+    return new Recorder(connectionIdCounter.incrementAndGet());
+  }
+
+  /**
+   * @return number of records that have been lost because of queue overflow or their size
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Writes all queued records and closes the file. Records that come after this are dropped.
+   */
+  public void close() throws IOException {
+    if (isClosed) {
+      return;
+    }
+    isClosed = true;
+    try {
+      queue.put(CLOSE_SENTINEL);
+      writerThread.join();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    mapped.force();
+    file.close();
+  }
+
+  private void enqueue(PendingRecord record) {
+    if (isClosed || !queue.offer(record)) {
+      droppedCount.incrementAndGet();
+    }
+  }
+
+  private void runWriter() {
+    try {
+      while (true) {
+        PendingRecord record = queue.take();
+        if (record == CLOSE_SENTINEL) {
+          break;
+        }
+        append(record);
+        if (queue.isEmpty()) {
+          // Header is updated once per a burst of records.
+          updateHeader();
+        }
+      }
+    } catch (InterruptedException e) {
+      // Exit.
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.SEVERE, "Failed to write connection capture", e);
+    }
+    updateHeader();
+  }
+
+  private void append(PendingRecord record) {
+    int length = RECORD_HEADER_SIZE + record.data.length;
+    if (length > capacity) {
+      droppedCount.incrementAndGet();
+      return;
+    }
+    if (writePosition + length > capacity) {
+      // Records after the write position are the oldest; all of them go.
+      while (recordCount > 0 && firstRecord >= writePosition) {
+        evictOldest();
+      }
+      if (writePosition + 4 <= capacity) {
+        ring.putInt(writePosition, WRAP_MARKER);
+      }
+      writePosition = 0;
+    }
+    while (recordCount > 0 && firstRecord >= writePosition &&
+        firstRecord < writePosition + length) {
+      evictOldest();
+    }
+
+    ring.putInt(writePosition, length);
+    ring.putLong(writePosition + 4, record.timeNanos - startNanos);
+    ring.putInt(writePosition + 12, record.connectionId);
+    ring.put(writePosition + 16, record.incoming ? DIRECTION_INCOMING : DIRECTION_OUTGOING);
+    ring.put(writePosition + 17, (byte) record.kind.ordinal());
+    ByteBuffer view = ring.duplicate();
+    view.position(writePosition + RECORD_HEADER_SIZE);
+    view.put(record.data);
+
+    if (recordCount == 0) {
+      firstRecord = writePosition;
+    }
+    recordCount++;
+    writePosition += length;
+  }
+
+  private void evictOldest() {
+    firstRecord += ring.getInt(firstRecord);
+    recordCount--;
+    if (recordCount == 0) {
+      firstRecord = -1;
+    } else if (firstRecord + 4 > capacity || ring.getInt(firstRecord) == WRAP_MARKER) {
+      firstRecord = 0;
+    }
+  }
+
+  private void updateHeader() {
+    mapped.putInt(FIRST_RECORD_OFFSET, firstRecord);
+    mapped.putInt(WRITE_POSITION_OFFSET, writePosition);
+    mapped.putInt(RECORD_COUNT_OFFSET, recordCount);
+    mapped.putLong(DROPPED_COUNT_OFFSET, droppedCount.get());
+  }
+
+  private static class PendingRecord {
+    final long timeNanos;
+    final int connectionId;
+    final boolean incoming;
+    final Kind kind;
+    final byte[] data;
+
+    PendingRecord(long timeNanos, int connectionId, boolean incoming, Kind kind, byte[] data) {
+      this.timeNanos = timeNanos;
+      this.connectionId = connectionId;
+      this.incoming = incoming;
+      this.kind = kind;
+      this.data = data;
+    }
+  }
+
+  private static final PendingRecord CLOSE_SENTINEL =
+      new PendingRecord(0, 0, false, Kind.CLOSE, new byte[0]);
+
+  /**
+   * Lazily opens the default capture on first use.
+   */
+  private static class DefaultHolder {
+    static final CaptureFile INSTANCE = openDefault();
+
+    private static CaptureFile openDefault() {
+      String fileName = System.getProperty(FILE_PROPERTY);
+      if (fileName == null) {
+        return null;
+      }
+      int size = Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE);
+      try {
+        final CaptureFile captureFile = create(new File(fileName), size);
+        Runtime.getRuntime().addShutdownHook(new Thread("Connection capture closer") {
+          @Override
+          public void run() {
+            try {
+              captureFile.close();
+            } catch (IOException e) {
+              // Nothing to do at shutdown.
+            }
+          }
+        });
+        return captureFile;
+      } catch (IOException e) {
+        LOGGER.log(Level.SEVERE, "Failed to open connection capture file " + fileName, e);
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,47 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocates buffers for message content. Small contents are carved out of a shared slab so that
+ * a typical message costs a buffer slice rather than its own array; large contents get a buffer
+ * of exactly their size, which is then filled directly from the input without any intermediate
+ * copies.
+ * <p>
+ * Slices are never returned explicitly: a slab gets garbage-collected once all messages
+ * carved from it become unreachable. This keeps the ownership of {@link Message} content
+ * trivial (messages are passed between threads and may be retained by users).
+ * <p>
+ * Buffers are heap-based, because the content is read from {@link java.io.InputStream} that
+ * works with arrays (a direct buffer would cost an extra copy there).
+ * <p>
+ * The class is not thread-safe; each reader should have its own instance.
+ */
+class ContentBufferPool {
+  private static final int SLAB_SIZE = 64 * 1024;
+  private static final int MAX_POOLED_SIZE = 8 * 1024;
+
+  private ByteBuffer slab = null;
+
+  /**
+   * @return a buffer in 'write' state with position 0 and both limit and capacity
+   *     equal to size
+   */
+  ByteBuffer allocate(int size) {
+    if (size > MAX_POOLED_SIZE) {
+      return ByteBuffer.allocate(size);
+    }
+    if (slab == null || slab.remaining() < size) {
+      slab = ByteBuffer.allocate(SLAB_SIZE);
+    }
+    slab.limit(slab.position() + size);
+    ByteBuffer result = slab.slice();
+    slab.position(slab.limit());
+    slab.limit(slab.capacity());
+    return result;
+  }
+}
@@ -0,0 +1,56 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An input stream that adds number of bytes read to a counter. The counter may be read
+ * from other threads.
+ */
+public class CountingInputStream extends FilterInputStream {
+  private final AtomicLong counter;
+
+  public CountingInputStream(InputStream in, AtomicLong counter) {
+    super(in);
+    this.counter = counter;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int res = super.read();
+    if (res != -1) {
+      counter.incrementAndGet();
+    }
+    return res;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int res = super.read(b, off, len);
+    if (res > 0) {
+      counter.addAndGet(res);
+    }
+    return res;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long res = super.skip(n);
+    if (res > 0) {
+      counter.addAndGet(res);
+    }
+    return res;
+  }
+
+  @Override
+  public boolean markSupported() {
+    // Re-read bytes would be counted twice.
+    return false;
+  }
+}
@@ -0,0 +1,36 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An output stream that adds number of bytes written to a counter. The counter may be read
+ * from other threads.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+  private final AtomicLong counter;
+
+  public CountingOutputStream(OutputStream out, AtomicLong counter) {
+    super(out);
+    this.counter = counter;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    out.write(b);
+    counter.incrementAndGet();
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    // FilterOutputStream writes arrays byte by byte, go directly to the underlying stream.
+    out.write(b, off, len);
+    counter.addAndGet(len);
+  }
+}
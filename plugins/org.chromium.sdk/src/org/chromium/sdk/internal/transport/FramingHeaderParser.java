@@ -0,0 +1,150 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.chromium.sdk.internal.transport.Message.MalformedMessageException;
+
+/**
+ * Parses message header lines on the byte level. Only the headers that are used after
+ * the handshake are materialized as strings: Content-Length is parsed as a number and
+ * {@link Message.Header} values are kept; all other headers are skipped.
+ * <p>
+ * The class is not thread-safe. It is reusable: {@link #takeHeaders()} resets its state.
+ */
+class FramingHeaderParser {
+  private static final byte COLON_BYTE = ':';
+
+  private static final byte[] CONTENT_LENGTH_BYTES = asciiBytes(Message.CONTENT_LENGTH);
+  private static final byte[] TOOL_BYTES = asciiBytes(Message.Header.TOOL.name);
+  private static final byte[] DESTINATION_BYTES = asciiBytes(Message.Header.DESTINATION.name);
+
+  private final Charset charset;
+
+  private int contentLength = -1;
+  private String tool = null;
+  private String destination = null;
+  private boolean hasLines = false;
+
+  FramingHeaderParser(Charset charset) {
+    this.charset = charset;
+  }
+
+  void parseLine(byte[] array, int offset, int length) throws MalformedMessageException {
+    hasLines = true;
+    int end = offset + length;
+    int colonPos = -1;
+    for (int i = offset; i < end; i++) {
+      if (array[i] == COLON_BYTE) {
+        colonPos = i;
+        break;
+      }
+    }
+    if (colonPos == -1) {
+      throw new MalformedMessageException("Bad header line: " +
+          new String(array, offset, length, charset));
+    }
+    int valueStart = colonPos + 1;
+    int valueEnd = end;
+    // Same as String.trim().
+    while (valueStart < valueEnd && (array[valueStart] & 0xFF) <= ' ') {
+      valueStart++;
+    }
+    while (valueStart < valueEnd && (array[valueEnd - 1] & 0xFF) <= ' ') {
+      valueEnd--;
+    }
+
+    if (nameEquals(CONTENT_LENGTH_BYTES, array, offset, colonPos)) {
+      contentLength = parseLength(array, valueStart, valueEnd);
+    } else if (nameEquals(TOOL_BYTES, array, offset, colonPos)) {
+      tool = new String(array, valueStart, valueEnd - valueStart, charset);
+    } else if (nameEquals(DESTINATION_BYTES, array, offset, colonPos)) {
+      destination = new String(array, valueStart, valueEnd - valueStart, charset);
+    }
+  }
+
+  /**
+   * @return whether any header line has been parsed since the last reset
+   */
+  boolean hasLines() {
+    return hasLines;
+  }
+
+  /**
+   * @return content length or -1 if there was no Content-Length header
+   */
+  int getContentLength() {
+    return contentLength;
+  }
+
+  /**
+   * Returns materialized headers and resets parser state.
+   */
+  Map<String, String> takeHeaders() {
+    Map<String, String> result;
+    if (tool == null && destination == null) {
+      result = Collections.emptyMap();
+    } else {
+      result = new HashMap<String, String>(4);
+      if (tool != null) {
+        result.put(Message.Header.TOOL.name, tool);
+      }
+      if (destination != null) {
+        result.put(Message.Header.DESTINATION.name, destination);
+      }
+    }
+    reset();
+    return result;
+  }
+
+  void reset() {
+    contentLength = -1;
+    tool = null;
+    destination = null;
+    hasLines = false;
+  }
+
+  private static boolean nameEquals(byte[] name, byte[] array, int start, int end) {
+    if (end - start != name.length) {
+      return false;
+    }
+    for (int i = 0; i < name.length; i++) {
+      if (array[start + i] != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int parseLength(byte[] array, int start, int end)
+      throws MalformedMessageException {
+    if (start == end || end - start > 9) {
+      throw new MalformedMessageException("Bad content length: " +
+          new String(array, start, end - start, charset));
+    }
+    int result = 0;
+    for (int i = start; i < end; i++) {
+      int digit = array[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw new MalformedMessageException("Bad content length: " +
+            new String(array, start, end - start, charset));
+      }
+      result = result * 10 + digit;
+    }
+    return result;
+  }
+
+  private static byte[] asciiBytes(String string) {
+    byte[] result = new byte[string.length()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (byte) string.charAt(i);
+    }
+    return result;
+  }
+}
@@ -48,10 +48,37 @@ class LineReader {
     }
   }
 
+  /**
+   * Removes all the bytes that have been read from the stream into the internal buffer
+   * but not yet consumed. This is used when the reader gets abandoned and the stream
+   * continues to be read by other means (e.g. after a handshake).
+   * @return a new buffer in 'read' state, possibly empty
+   */
+  ByteBuffer takeBufferedBytes() {
+    ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+    result.put(buffer);
+    result.flip();
+    return result;
+  }
+
   /**
    * Method has similar semantics to {@link BufferedReader#readLine()} method.
    */
   public String readLine(Charset charset) throws IOException {
+    ByteBuffer line = readLineBytes();
+    if (line == null) {
+      return null;
+    }
+    return new String(line.array(), 0, line.limit(), charset);
+  }
+
+  /**
+   * Reads a line without decoding it into a string. The line terminator (LF or CR LF) is not
+   * included.
+   * @return a buffer in 'read' state that starts at array offset 0 or {@code null} on end of
+   *     stream; the buffer is only valid until the next call to this reader
+   */
+  ByteBuffer readLineBytes() throws IOException {
     lineBuffer.clear();
 
     while (true) {
@@ -99,6 +126,29 @@ class LineReader {
     if (lineBuffer.position() > 0 && lineBuffer.get(lineBuffer.position() - 1) == CR_BYTE) {
       lineBuffer.position(lineBuffer.position() - 1);
     }
-    return new String(lineBuffer.array(), 0, lineBuffer.position(), charset);
+    lineBuffer.flip();
+    return lineBuffer;
+  }
+
+  /**
+   * Fills the remaining space of an array-backed buffer, first from the internal buffer and
+   * then directly from the stream (without intermediate copying).
+   * @return false if the stream ended before the buffer got filled
+   */
+  boolean readFully(ByteBuffer destination) throws IOException {
+    if (buffer.hasRemaining()) {
+      int len = Math.min(destination.remaining(), buffer.remaining());
+      buffer.get(destination.array(), destination.arrayOffset() + destination.position(), len);
+      destination.position(destination.position() + len);
+    }
+    while (destination.hasRemaining()) {
+      int readRes = inputStream.read(destination.array(),
+          destination.arrayOffset() + destination.position(), destination.remaining());
+      if (readRes == -1) {
+        return false;
+      }
+      destination.position(destination.position() + readRes);
+    }
+    return true;
   }
 }
@@ -4,9 +4,14 @@
 
 package org.chromium.sdk.internal.transport;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -21,6 +26,9 @@ import java.util.logging.Logger;
  * itself into a BufferedWriter according to the ChromeDevTools Protocol
  * specification. Content-Length field is a transparent field: it gets
  * added and processed on read/write phase. It is not reported to user.
+ * <p>
+ * A message read by {@link #readFramed} keeps its content as bytes; the string
+ * is only decoded if {@link #getContent()} is called.
  */
 public class Message {
 
@@ -78,15 +86,34 @@ public class Message {
   // While normally key/value separator has additional space for readability, Chrome won't take it.
   private static byte[] FIELD_SEPARATOR_BYTES = ":".getBytes();
 
-  private static final String CONTENT_LENGTH = "Content-Length";
+  static final String CONTENT_LENGTH = "Content-Length";
 
-  private final HashMap<String, String> headers;
+  private final Map<String, String> headers;
 
-  private final String content;
+  /** Decoded content; lazily initialized if the message has been created from bytes. */
+  private volatile String content;
+
+  /** Content bytes in 'read' state or null. Never modified. */
+  private final ByteBuffer contentBytes;
+
+  /** Charset of contentBytes or null. */
+  private final Charset contentCharset;
 
   public Message(Map<String, String> headers, String content) {
     this.headers = new HashMap<String, String>(headers);
     this.content = content;
+    this.contentBytes = null;
+    this.contentCharset = null;
+  }
+
+  /**
+   * Creates a message that owns the headers map and the content buffer.
+   */
+  Message(Map<String, String> headers, ByteBuffer contentBytes, Charset contentCharset) {
+    this.headers = headers;
+    this.content = null;
+    this.contentBytes = contentBytes;
+    this.contentCharset = contentCharset;
   }
 
   /**
@@ -104,7 +131,16 @@ public class Message {
       writeHeaderField(entry.getKey(), headerValue, outputStream, charset);
     }
 
-    String content = maskNull(this.content);
+    if (contentBytes != null && charset.equals(contentCharset)) {
+      writeHeaderField(CONTENT_LENGTH, String.valueOf(contentBytes.remaining()), outputStream,
+          charset);
+      outputStream.write(HEADER_TERMINATOR_BYTES);
+      outputStream.write(contentBytes.array(),
+          contentBytes.arrayOffset() + contentBytes.position(), contentBytes.remaining());
+      return;
+    }
+
+    String content = maskNull(getContent());
     byte[] contentBytes = content.getBytes(charset);
 
     writeHeaderField(CONTENT_LENGTH, String.valueOf(contentBytes.length), outputStream, charset);
@@ -174,6 +210,54 @@ public class Message {
     return new Message(headers, contentString);
   }
 
+  /**
+   * Reads a message from the specified reader keeping its content as bytes. Unlike
+   * {@link #fromBufferedReader}, header lines are not decoded into strings and only
+   * {@link Header} values are kept (other headers are only used in handshake).
+   *
+   * @param reader to read message from
+   * @param charset of headers and content
+   * @param bufferPool allocates content buffer
+   * @param headerParser a reusable parser
+   * @return a new message, or {@code null} on end-of-stream
+   * @throws MalformedMessageException if the input does not represent a valid
+   *         message
+   */
+  static Message readFramed(LineReader reader, Charset charset, ContentBufferPool bufferPool,
+      FramingHeaderParser headerParser) throws IOException, MalformedMessageException {
+    while (true) { // read headers
+      ByteBuffer line = reader.readLineBytes();
+      if (line == null) {
+        LOGGER.fine("End of stream");
+        return null;
+      }
+      if (!line.hasRemaining()) {
+        break; // end of headers
+      }
+      try {
+        headerParser.parseLine(line.array(), 0, line.limit());
+      } catch (MalformedMessageException e) {
+        headerParser.reset();
+        throw e;
+      }
+    }
+    int contentLength = headerParser.getContentLength();
+    Map<String, String> headers = headerParser.takeHeaders();
+    if (contentLength < 0) {
+      throw new MalformedMessageException("No content length in message");
+    }
+
+    LOGGER.log(Level.FINER, "Reading payload: {0} bytes", contentLength);
+    ByteBuffer contentBuffer = bufferPool.allocate(contentLength);
+    if (!reader.readFully(contentBuffer)) {
+      // End-of-stream (browser closed?)
+      LOGGER.fine("End of stream while reading content");
+      return null;
+    }
+    contentBuffer.flip();
+    return new Message(headers, contentBuffer, charset);
+  }
+
   /**
    * @return the "Tool" header value
    */
@@ -193,7 +277,48 @@ public class Message {
    *         empty String)
    */
   public String getContent() {
-    return content;
+    String result = content;
+    if (result == null && contentBytes != null) {
+      // Decoding twice in a race is harmless.
+      result = new String(contentBytes.array(),
+          contentBytes.arrayOffset() + contentBytes.position(), contentBytes.remaining(),
+          contentCharset);
+      content = result;
+    }
+    return result;
+  }
+
+  /**
+   * @return the message content as bytes in {@link #getContentCharset()}; the returned buffer
+   *     is in 'read' state and is array-backed, its content must not be modified
+   */
+  public ByteBuffer getContentBytes() {
+    if (contentBytes == null) {
+      return ByteBuffer.wrap(maskNull(content).getBytes(TO_STRING_CHARSET));
+    }
+    return contentBytes.duplicate();
+  }
+
+  /**
+   * @return the charset of {@link #getContentBytes()}
+   */
+  public Charset getContentCharset() {
+    return contentBytes == null
+        ? TO_STRING_CHARSET
+        : contentCharset;
+  }
+
+  /**
+   * @return a reader of the content that does not require the content to be decoded into
+   *     a string as a whole
+   */
+  public Reader getContentReader() {
+    if (contentBytes == null) {
+      return new StringReader(maskNull(content));
+    }
+    return new InputStreamReader(new ByteArrayInputStream(contentBytes.array(),
+        contentBytes.arrayOffset() + contentBytes.position(), contentBytes.remaining()),
+        contentCharset);
   }
 
   /**
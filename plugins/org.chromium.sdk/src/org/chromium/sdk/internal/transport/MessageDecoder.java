@@ -0,0 +1,120 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.chromium.sdk.internal.transport.Message.MalformedMessageException;
+
+/**
+ * A push-style counterpart of {@link Message#readFramed}: accepts bytes in arbitrary
+ * chunks as they come from a non-blocking channel and emits complete {@link Message}s.
+ * <p>
+ * The class is not thread-safe.
+ */
+class MessageDecoder {
+  private static final byte LF_BYTE = '\n';
+  private static final byte CR_BYTE = '\r';
+
+  interface Output {
+    void messageDecoded(Message message);
+  }
+
+  private final Charset charset;
+  private final Output output;
+  private final FramingHeaderParser headerParser;
+  private final ContentBufferPool bufferPool = new ContentBufferPool();
+
+  private ByteBuffer lineBuffer = ByteBuffer.allocate(64);
+
+  // Not null while reading content.
+  private ByteBuffer content = null;
+
+  MessageDecoder(Charset charset, Output output) {
+    this.charset = charset;
+    this.output = output;
+    this.headerParser = new FramingHeaderParser(charset);
+  }
+
+  /**
+   * Consumes all the input bytes.
+   * @throws IOException if the input does not represent a valid message stream
+   */
+  void feed(ByteBuffer input) throws IOException {
+    while (input.hasRemaining()) {
+      if (content == null) {
+        readHeaderBytes(input);
+      } else {
+        readContentBytes(input);
+      }
+    }
+  }
+
+  /**
+   * @return whether the decoder is in the middle of a message
+   */
+  boolean hasPartialMessage() {
+    return content != null || lineBuffer.position() > 0 || headerParser.hasLines();
+  }
+
+  private void readHeaderBytes(ByteBuffer input) throws IOException {
+    while (input.hasRemaining()) {
+      byte b = input.get();
+      if (b != LF_BYTE) {
+        if (!lineBuffer.hasRemaining()) {
+          ByteBuffer newLineBuffer = ByteBuffer.allocate(lineBuffer.capacity() * 2);
+          lineBuffer.flip();
+          newLineBuffer.put(lineBuffer);
+          lineBuffer = newLineBuffer;
+        }
+        lineBuffer.put(b);
+        continue;
+      }
+      int lineLength = lineBuffer.position();
+      if (lineLength > 0 && lineBuffer.get(lineLength - 1) == CR_BYTE) {
+        lineLength--;
+      }
+      lineBuffer.clear();
+      if (lineLength == 0) {
+        startContent();
+        return;
+      }
+      try {
+        headerParser.parseLine(lineBuffer.array(), 0, lineLength);
+      } catch (MalformedMessageException e) {
+        throw new IOException(e.getMessage(), e);
+      }
+    }
+  }
+
+  private void startContent() throws IOException {
+    int contentLength = headerParser.getContentLength();
+    if (contentLength < 0) {
+      throw new IOException("No content length in message");
+    }
+    content = bufferPool.allocate(contentLength);
+    if (contentLength == 0) {
+      completeMessage();
+    }
+  }
+
+  private void readContentBytes(ByteBuffer input) {
+    int len = Math.min(input.remaining(), content.remaining());
+    input.get(content.array(), content.arrayOffset() + content.position(), len);
+    content.position(content.position() + len);
+    if (!content.hasRemaining()) {
+      completeMessage();
+    }
+  }
+
+  private void completeMessage() {
+    content.flip();
+    Message message = new Message(headerParser.takeHeaders(), content, charset);
+    content = null;
+    output.messageDecoded(message);
+  }
+}
@@ -0,0 +1,508 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A shared pool of I/O threads that multiplexes many non-blocking {@link SocketChannel}s
+ * over a small number of {@link Selector}s. Each channel is served by exactly one I/O thread.
+ * <p>
+ * The pool also provides shared dispatch threads. Every connection gets its own
+ * {@link DispatchQueue} that runs its tasks one at a time in the order they were posted,
+ * so callbacks keep the same ordering guarantees they had with a dedicated dispatch thread.
+ * <p>
+ * The class is thread-safe.
+ */
+public class NioSelectorPool {
+  private static final Logger LOGGER = Logger.getLogger(NioSelectorPool.class.getName());
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Max number of tasks a dispatch queue runs in a row before it yields its thread to other
+   * connections.
+   */
+  private static final int DISPATCH_BATCH_SIZE = 64;
+
+  /**
+   * Receives events of a registered channel. All methods are called from the I/O thread
+   * of the channel. If a method throws a {@link RuntimeException}, the channel is closed.
+   */
+  public interface ChannelHandler {
+    /**
+     * Passes newly read bytes. The buffer is only valid during the call and must not be saved.
+     */
+    void dataReceived(ByteBuffer data);
+
+    /**
+     * Reports that the channel has been closed. Called exactly once, no other calls follow.
+     * @param cause the failure that closed the channel or null if the channel reached EOS or
+     *     was closed by request
+     */
+    void channelClosed(IOException cause);
+  }
+
+  /**
+   * @return a lazily-created pool shared by all connections in this class loader; its size
+   *     may be set with "org.chromium.sdk.client.connection.nio.ioThreads" system property
+   */
+  public static NioSelectorPool getDefault() throws IOException {
+    synchronized (NioSelectorPool.class) {
+      if (defaultInstance == null) {
+        defaultInstance = new NioSelectorPool(getDefaultIoThreadCount());
+      }
+      return defaultInstance;
+    }
+  }
+
+  private static NioSelectorPool defaultInstance = null;
+
+  private final IoThread[] ioThreads;
+  private final AtomicInteger nextIoThread = new AtomicInteger(0);
+  private final ExecutorService dispatchExecutor;
+
+  public NioSelectorPool(int ioThreadCount) throws IOException {
+    if (ioThreadCount < 1) {
+      throw new IllegalArgumentException("At least one I/O thread is required");
+    }
+    ioThreads = new IoThread[ioThreadCount];
+    for (int i = 0; i < ioThreadCount; i++) {
+      ioThreads[i] = new IoThread("NIO I/O thread #" + i);
+    }
+    for (IoThread thread : ioThreads) {
+      thread.start();
+    }
+    // Dispatch threads are created on demand and die when idle. Dispatch tasks may block
+    // (e.g. a user callback), so the pool must not be bounded.
+    dispatchExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger counter = new AtomicInteger(0);
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "NIO dispatch thread #" + counter.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Switches the channel into non-blocking mode and starts serving it.
+   */
+  public Registration register(SocketChannel channel, ChannelHandler handler)
+      throws IOException {
+    channel.configureBlocking(false);
+    int index = (nextIoThread.getAndIncrement() & Integer.MAX_VALUE) % ioThreads.length;
+    final Registration registration = new Registration(channel, handler, ioThreads[index]);
+    registration.executeOnIoThread(new Runnable() {
+      @Override
+      public void run() {
+        registration.registerImpl();
+      }
+    });
+    return registration;
+  }
+
+  public DispatchQueue createDispatchQueue() {
+    return new DispatchQueue();
+  }
+
+  /**
+   * Stops all I/O threads. All still registered channels get closed.
+   */
+  public void shutdown() {
+    for (IoThread thread : ioThreads) {
+      thread.shutdown();
+    }
+    dispatchExecutor.shutdown();
+  }
+
+  /**
+   * A registered channel. Output is queued and written by the I/O thread.
+   */
+  public static class Registration {
+    private final SocketChannel channel;
+    private final ChannelHandler handler;
+    private final IoThread ioThread;
+
+    // Access must be synchronized on outputQueue.
+    private final Queue<ByteBuffer> outputQueue = new LinkedList<ByteBuffer>();
+    // Access must be synchronized on outputQueue.
+    private boolean isFlushScheduled = false;
+    // Access must be synchronized on outputQueue.
+    private boolean isCloseRequested = false;
+
+    // Accessed from I/O thread only.
+    private SelectionKey key = null;
+    // Accessed from I/O thread only.
+    private boolean isClosed = false;
+
+    private final AtomicLong bytesRead = new AtomicLong(0);
+    private final AtomicLong bytesWritten = new AtomicLong(0);
+
+    private Registration(SocketChannel channel, ChannelHandler handler, IoThread ioThread) {
+      this.channel = channel;
+      this.handler = handler;
+      this.ioThread = ioThread;
+    }
+
+    /**
+     * Enqueues data for writing. The buffer must not be modified after the call.
+     * @throws IllegalStateException if the channel has been closed
+     */
+    public void write(ByteBuffer data) {
+      boolean scheduleFlush;
+      synchronized (outputQueue) {
+        if (isCloseRequested) {
+          throw new IllegalStateException("Channel is closed");
+        }
+        outputQueue.add(data);
+        scheduleFlush = !isFlushScheduled;
+        isFlushScheduled = true;
+      }
+      if (scheduleFlush) {
+        executeOnIoThread(new Runnable() {
+          @Override
+          public void run() {
+            flush();
+          }
+        });
+      }
+    }
+
+    /**
+     * @return number of buffers that are queued, but not completely written yet
+     */
+    public int getPendingWriteCount() {
+      synchronized (outputQueue) {
+        return outputQueue.size();
+      }
+    }
+
+    public long getBytesRead() {
+      return bytesRead.get();
+    }
+
+    public long getBytesWritten() {
+      return bytesWritten.get();
+    }
+
+    /**
+     * Closes the channel. The call is asynchronous; the handler gets
+     * {@link ChannelHandler#channelClosed} once the channel is actually closed.
+     * @param flushOutput whether the already queued data should be written first
+     */
+    public void close(boolean flushOutput) {
+      synchronized (outputQueue) {
+        isCloseRequested = true;
+        if (flushOutput && isFlushScheduled) {
+          // The pending flush will close the channel once the queue is empty.
+          return;
+        }
+      }
+      executeOnIoThread(new Runnable() {
+        @Override
+        public void run() {
+          closeImpl(null);
+        }
+      });
+    }
+
+    /**
+     * Runs the task on the I/O thread; if it fails, the channel is closed.
+     */
+    private void executeOnIoThread(final Runnable task) {
+      ioThread.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            closeOnFailure(e);
+          }
+        }
+      });
+    }
+
+    private void registerImpl() {
+      if (isClosed) {
+        return;
+      }
+      try {
+        key = channel.register(ioThread.selector, SelectionKey.OP_READ, this);
+      } catch (IOException e) {
+        closeImpl(e);
+      }
+    }
+
+    private void processSelectedKey() {
+      if (!key.isValid()) {
+        closeImpl(null);
+        return;
+      }
+      if (key.isReadable()) {
+        read();
+      }
+      if (!isClosed && key.isWritable()) {
+        flush();
+      }
+    }
+
+    private void read() {
+      ByteBuffer buffer = ioThread.readBuffer;
+      try {
+        while (true) {
+          buffer.clear();
+          int res = channel.read(buffer);
+          if (res == -1) {
+            closeImpl(null);
+            return;
+          }
+          if (res == 0) {
+            return;
+          }
+          bytesRead.addAndGet(res);
+          buffer.flip();
+          handler.dataReceived(buffer);
+          if (res < buffer.capacity()) {
+            // Most probably there is nothing more to read; let other channels go.
+            return;
+          }
+        }
+      } catch (IOException e) {
+        closeImpl(e);
+      }
+    }
+
+    private void flush() {
+      if (isClosed || key == null) {
+        return;
+      }
+      boolean closeNow;
+      synchronized (outputQueue) {
+        try {
+          while (!outputQueue.isEmpty()) {
+            // Write everything queued with a single gathering write.
+            ByteBuffer[] buffers = outputQueue.toArray(new ByteBuffer[outputQueue.size()]);
+            bytesWritten.addAndGet(channel.write(buffers));
+            for (ByteBuffer buffer : buffers) {
+              if (buffer.hasRemaining()) {
+                // Socket buffer is full; wait until the channel becomes writable.
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+              }
+              outputQueue.poll();
+            }
+          }
+        } catch (IOException e) {
+          outputQueue.clear();
+          isFlushScheduled = false;
+          closeImpl(e);
+          return;
+        }
+        isFlushScheduled = false;
+        closeNow = isCloseRequested;
+      }
+      if (closeNow) {
+        closeImpl(null);
+      } else {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    /**
+     * Cancels the key and closes the channel after an unexpected exception (typically
+     * in the handler), so that the channel is not served in an unknown state.
+     */
+    private void closeOnFailure(RuntimeException e) {
+      LOGGER.log(Level.SEVERE, "Exception in channel handler", e);
+      closeImpl(new IOException("Exception in channel handler", e));
+    }
+
+    private void closeImpl(IOException cause) {
+      if (isClosed) {
+        return;
+      }
+      isClosed = true;
+      synchronized (outputQueue) {
+        isCloseRequested = true;
+      }
+      if (key != null) {
+        key.cancel();
+      }
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Failed to close channel", e);
+      }
+      try {
+        handler.channelClosed(cause);
+      } catch (RuntimeException e) {
+        // The key is already cancelled and the channel closed, there is nothing left to release.
+        LOGGER.log(Level.SEVERE, "Exception in channel handler", e);
+      }
+    }
+  }
+
+  /**
+   * A queue of tasks that are run on shared dispatch threads strictly one after another
+   * in the order they were posted.
+   */
+  public class DispatchQueue {
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    // Size of tasks queue; ConcurrentLinkedQueue.size() is not a constant-time operation.
+    private final AtomicInteger taskCount = new AtomicInteger(0);
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+
+    private DispatchQueue() {
+    }
+
+    public void post(Runnable task) {
+      tasks.add(task);
+      taskCount.incrementAndGet();
+      schedule();
+    }
+
+    /**
+     * @return number of tasks that haven't been started yet
+     */
+    public int getPendingTaskCount() {
+      return taskCount.get();
+    }
+
+    private void schedule() {
+      if (isScheduled.compareAndSet(false, true)) {
+        dispatchExecutor.execute(drainRunnable);
+      }
+    }
+
+    private final Runnable drainRunnable = new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < DISPATCH_BATCH_SIZE; i++) {
+          Runnable next = tasks.poll();
+          if (next == null) {
+            break;
+          }
+          taskCount.decrementAndGet();
+          try {
+            next.run();
+          } catch (RuntimeException e) {
+            // Like the dispatch thread of SocketConnection, a failed listener call does not
+            // stop the messages that follow.
+            LOGGER.log(Level.SEVERE, "Exception in dispatch task", e);
+          }
+        }
+        isScheduled.set(false);
+        if (!tasks.isEmpty()) {
+          // Either the batch was exhausted or a task came in concurrently.
+          schedule();
+        }
+      }
+    };
+  }
+
+  private static class IoThread extends Thread {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private volatile boolean isShutdown = false;
+
+    IoThread(String name) throws IOException {
+      super(name);
+      this.selector = Selector.open();
+      setDaemon(true);
+    }
+
+    void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    void shutdown() {
+      isShutdown = true;
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!isShutdown) {
+          selector.select();
+          runTasks();
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            Registration registration = (Registration) key.attachment();
+            try {
+              registration.processSelectedKey();
+            } catch (RuntimeException e) {
+              registration.closeOnFailure(e);
+            }
+          }
+        }
+      } catch (IOException e) {
+        LOGGER.log(Level.SEVERE, "Selector failure", e);
+      } catch (ClosedSelectorException e) {
+        LOGGER.log(Level.SEVERE, "Selector failure", e);
+      } finally {
+        closeAll();
+      }
+    }
+
+    private void runTasks() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.SEVERE, "Exception in I/O task", e);
+        }
+      }
+    }
+
+    private void closeAll() {
+      runTasks();
+      for (SelectionKey key : selector.keys()) {
+        Registration registration = (Registration) key.attachment();
+        registration.closeImpl(new IOException("I/O thread has stopped"));
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Failed to close selector", e);
+      }
+    }
+  }
+
+  private static int getDefaultIoThreadCount() {
+    int defaultCount = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    String countString = System.getProperty("org.chromium.sdk.client.connection.nio.ioThreads",
+        String.valueOf(defaultCount));
+    try {
+      return Math.max(1, Integer.parseInt(countString));
+    } catch (NumberFormatException e) {
+      return defaultCount;
+    }
+  }
+}
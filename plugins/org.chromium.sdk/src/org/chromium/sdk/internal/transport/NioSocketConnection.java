@@ -0,0 +1,396 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.chromium.sdk.ConnectionLogger;
+import org.chromium.sdk.util.ByteToCharConverter;
+import org.chromium.sdk.util.SignalRelay;
+import org.chromium.sdk.util.SignalRelay.AlreadySignalledException;
+
+/**
+ * A {@link Connection} implementation that does not own any threads. The socket is served
+ * by a shared {@link NioSelectorPool} and messages are dispatched via a per-connection
+ * {@link NioSelectorPool.DispatchQueue}, which keeps the ordering guarantees of
+ * {@link SocketConnection}.
+ * <p>
+ * The handshake is performed synchronously from {@link #start()} in blocking mode, after that
+ * the channel is switched into non-blocking mode.
+ * <p>
+ * This class is thread-safe.
+ */
+public class NioSocketConnection implements Connection, TransportStats {
+  private static final Logger LOGGER = Logger.getLogger(NioSocketConnection.class.getName());
+
+  /**
+   * Character encoding used in the socket data interchange.
+   */
+  private static final Charset SOCKET_CHARSET = Charset.forName("UTF-8");
+
+  private static final int HANDSHAKE_TIMEOUT_MS = 3000;
+
+  private static final NetListener NULL_LISTENER = new NetListener() {
+    @Override public void connectionClosed() {
+    }
+
+    @Override public void eosReceived() {
+    }
+
+    @Override public void messageReceived(Message message) {
+    }
+  };
+
+  private final SocketAddress socketEndpoint;
+  private final int connectionTimeoutMs;
+  private final ConnectionLogger connectionLogger;
+  private final Handshaker handshaker;
+  private final NioSelectorPool selectorPool;
+  private final NioSelectorPool.DispatchQueue dispatchQueue;
+  private final CaptureFile.Recorder captureRecorder;
+
+  /** Whether the agent is currently attached to a remote browser. */
+  private final AtomicBoolean isAttached = new AtomicBoolean(false);
+
+  /** The listener to report network events to. */
+  private volatile NetListener listener;
+
+  private volatile NioSelectorPool.Registration registration = null;
+
+  /** Field must be accessed synchronized on dispatchQueue */
+  private boolean isDispatchQueueClosed = false;
+
+  /** Accessed from I/O thread only (after the handshake). */
+  private LogWriter incomingLogWriter = null;
+
+  /** Access must be synchronized on outgoingLogWriterMonitor. */
+  private LogWriter outgoingLogWriter = null;
+  private final Object outgoingLogWriterMonitor = new Object();
+
+  public NioSocketConnection(SocketAddress endpoint, int connectionTimeoutMs,
+      ConnectionLogger connectionLogger, Handshaker handshaker, NioSelectorPool selectorPool) {
+    this.socketEndpoint = endpoint;
+    this.connectionTimeoutMs = connectionTimeoutMs;
+    this.connectionLogger = connectionLogger;
+    this.handshaker = handshaker;
+    this.selectorPool = selectorPool;
+    this.dispatchQueue = selectorPool.createDispatchQueue();
+    this.captureRecorder = CaptureFile.createDefaultRecorder();
+  }
+
+  @Override
+  public void setNetListener(NetListener netListener) {
+    if (this.listener != null && netListener != this.listener) {
+      throw new IllegalStateException("Cannot change NetListener");
+    }
+    this.listener = netListener != null
+        ? netListener
+        : NULL_LISTENER;
+    SignalRelay<?> listenerCloser = SignalRelay.create(new SignalRelay.Callback<Void>() {
+      @Override public void onSignal(Void param, Exception cause) {
+        listener.connectionClosed();
+      }
+    });
+    try {
+      shutdownRelay.bind(listenerCloser, null, null);
+    } catch (AlreadySignalledException e) {
+      // ListenerCloser cannot be closing and we should not be closing at this moment of time.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void start() throws IOException {
+    try {
+      if (!isAttached.get()) {
+        attach();
+      }
+    } catch (IOException e) {
+      listener.connectionClosed();
+      throw e;
+    }
+  }
+
+  private void attach() throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    boolean loggerStarted = false;
+    boolean attached = false;
+    try {
+      channel.socket().connect(socketEndpoint, connectionTimeoutMs);
+      SocketWrapper socketWrapper =
+          new SocketWrapper(channel.socket(), connectionLogger, SOCKET_CHARSET);
+      // The socket wrapper is only listened to (it can be closed from logger UI). We do not
+      // propagate our shutdown to it, because the channel gets closed by the I/O thread after
+      // the pending output is flushed.
+      SignalRelay<Void> socketCloseListener =
+          SignalRelay.create(new SignalRelay.Callback<Void>() {
+        @Override public void onSignal(Void param, Exception cause) {
+          shutdownRelay.sendSignal(false, cause);
+        }
+      });
+      try {
+        socketCloseListener.bind(socketWrapper.getShutdownRelay(), null, null);
+      } catch (AlreadySignalledException e) {
+        throw new IOException("Unexpected: socket is already closed", e);
+      }
+
+      isAttached.set(true);
+
+      if (connectionLogger != null) {
+        connectionLogger.start();
+        loggerStarted = true;
+      }
+
+      InputStream handshakeInput = socketWrapper.getLoggableInput().getInputStream();
+      OutputStream handshakeOutput = socketWrapper.getLoggableOutput().getOutputStream();
+      if (captureRecorder != null) {
+        handshakeInput = captureRecorder.wrapInput(handshakeInput);
+        handshakeOutput = captureRecorder.wrapOutput(handshakeOutput);
+      }
+      LineReader lineReader = new LineReader(handshakeInput);
+      channel.socket().setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+      handshaker.perform(lineReader, handshakeOutput);
+      channel.socket().setSoTimeout(0);
+      socketWrapper.getLoggableInput().markSeparatorForLog();
+      socketWrapper.getLoggableOutput().markSeparatorForLog();
+
+      if (connectionLogger != null) {
+        incomingLogWriter = new LogWriter(connectionLogger.getIncomingStreamListener());
+        synchronized (outgoingLogWriterMonitor) {
+          outgoingLogWriter = new LogWriter(connectionLogger.getOutgoingStreamListener());
+        }
+      }
+
+      ChannelHandlerImpl channelHandler = new ChannelHandlerImpl();
+
+      // The line reader might have read some messages ahead. Process them before
+      // the channel is handed to I/O thread.
+      ByteBuffer remainingBytes = lineReader.takeBufferedBytes();
+      if (remainingBytes.hasRemaining()) {
+        // These bytes have already been logged by the socket wrapper.
+        channelHandler.decode(remainingBytes);
+      }
+
+      registration = selectorPool.register(channel, channelHandler);
+      attached = true;
+    } finally {
+      if (!attached) {
+        if (loggerStarted) {
+          connectionLogger.handleEos();
+        }
+        shutdownRelay.sendSignal(false, null);
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  @Override
+  public void send(Message message) {
+    checkAttached();
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    try {
+      message.sendThrough(stream, SOCKET_CHARSET);
+    } catch (IOException e) {
+      // never occurs
+      throw new RuntimeException(e);
+    }
+    ByteBuffer bytes = ByteBuffer.wrap(stream.toByteArray());
+    LOGGER.log(Level.FINER, "-->{0}", message);
+    // Keep logged messages in the same order as they are written.
+    synchronized (outgoingLogWriterMonitor) {
+      if (outgoingLogWriter != null) {
+        outgoingLogWriter.write(bytes.duplicate());
+        outgoingLogWriter.markSeparator();
+      }
+      if (captureRecorder != null) {
+        captureRecorder.record(false, CaptureFile.Kind.MESSAGE, bytes);
+      }
+      NioSelectorPool.Registration registrationSaved = registration;
+      if (registrationSaved == null) {
+        throw new IllegalStateException("Connection is not started yet");
+      }
+      registrationSaved.write(bytes);
+    }
+  }
+
+  @Override
+  public void runInDispatchThread(final Runnable callback) {
+    synchronized (dispatchQueue) {
+      if (isDispatchQueueClosed) {
+        throw new IllegalStateException("Connection is closed");
+      }
+      dispatchQueue.post(callback);
+    }
+  }
+
+  @Override
+  public void close() {
+    shutdownRelay.sendSignal(true, null);
+  }
+
+  @Override
+  public boolean isConnected() {
+    return isAttached.get();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    NioSelectorPool.Registration registrationSaved = registration;
+    return registrationSaved == null
+        ? 0
+        : registrationSaved.getBytesRead();
+  }
+
+  @Override
+  public long getBytesSent() {
+    NioSelectorPool.Registration registrationSaved = registration;
+    return registrationSaved == null
+        ? 0
+        : registrationSaved.getBytesWritten();
+  }
+
+  @Override
+  public int getInboundQueueDepth() {
+    return dispatchQueue.getPendingTaskCount();
+  }
+
+  @Override
+  public int getOutboundQueueDepth() {
+    NioSelectorPool.Registration registrationSaved = registration;
+    return registrationSaved == null
+        ? 0
+        : registrationSaved.getPendingWriteCount();
+  }
+
+  private void checkAttached() {
+    if (!isAttached.get()) {
+      throw new IllegalStateException("Connection not attached");
+    }
+  }
+
+  private final SignalRelay<Boolean> shutdownRelay =
+      SignalRelay.create(new SignalRelay.Callback<Boolean>() {
+    @Override public void onSignal(Boolean lameduckMode, Exception cause) {
+      if (!isAttached.compareAndSet(true, false)) {
+        // already shut down
+        return;
+      }
+      LOGGER.log(Level.INFO, "Shutdown requested", cause);
+      NioSelectorPool.Registration registrationSaved = registration;
+      if (registrationSaved != null) {
+        registrationSaved.close(lameduckMode == Boolean.TRUE);
+      }
+    }
+  });
+
+  private class ChannelHandlerImpl implements NioSelectorPool.ChannelHandler,
+      MessageDecoder.Output {
+    private final MessageDecoder decoder = new MessageDecoder(SOCKET_CHARSET, this);
+    private boolean decodingFailed = false;
+
+    @Override
+    public void dataReceived(ByteBuffer data) {
+      if (incomingLogWriter != null) {
+        incomingLogWriter.write(data.duplicate());
+      }
+      if (captureRecorder != null) {
+        captureRecorder.record(true, CaptureFile.Kind.BYTES, data);
+      }
+      decode(data);
+    }
+
+    void decode(ByteBuffer data) {
+      if (decodingFailed) {
+        return;
+      }
+      try {
+        decoder.feed(data);
+      } catch (IOException e) {
+        LOGGER.log(Level.SEVERE, "Malformed protocol message", e);
+        decodingFailed = true;
+        shutdownRelay.sendSignal(false, e);
+      }
+    }
+
+    @Override
+    public void messageDecoded(final Message message) {
+      if (incomingLogWriter != null) {
+        incomingLogWriter.markSeparator();
+      }
+      dispatchQueue.post(new Runnable() {
+        @Override
+        public void run() {
+          LOGGER.log(Level.FINER, "<--{0}", message);
+          listener.messageReceived(message);
+        }
+      });
+    }
+
+    @Override
+    public void channelClosed(IOException cause) {
+      if (cause == null) {
+        LOGGER.fine("End of stream");
+      }
+      if (captureRecorder != null) {
+        captureRecorder.recordClose();
+      }
+      synchronized (dispatchQueue) {
+        isDispatchQueueClosed = true;
+        dispatchQueue.post(new Runnable() {
+          @Override
+          public void run() {
+            LOGGER.log(Level.FINER, "<--EOS");
+            try {
+              listener.eosReceived();
+            } finally {
+              if (connectionLogger != null) {
+                connectionLogger.handleEos();
+              }
+            }
+          }
+        });
+      }
+      shutdownRelay.sendSignal(false, cause);
+    }
+  }
+
+  /**
+   * Converts bytes to text for {@link ConnectionLogger.StreamListener}.
+   */
+  private static class LogWriter {
+    private final ConnectionLogger.StreamListener streamListener;
+    private final ByteToCharConverter converter = new ByteToCharConverter(SOCKET_CHARSET);
+
+    LogWriter(ConnectionLogger.StreamListener streamListener) {
+      this.streamListener = streamListener;
+    }
+
+    void write(ByteBuffer bytes) {
+      if (streamListener != null) {
+        streamListener.addContent(converter.convert(bytes));
+      }
+    }
+
+    void markSeparator() {
+      if (streamListener != null) {
+        streamListener.addSeparator();
+      }
+    }
+  }
+}
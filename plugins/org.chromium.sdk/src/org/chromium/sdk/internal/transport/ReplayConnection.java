@@ -0,0 +1,232 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Connection} that plays back a connection captured by {@link CaptureFile}: incoming
+ * bytes (including the handshake) are taken from the capture and outgoing messages are
+ * discarded. It may be given to {@link org.chromium.sdk.internal.standalonev8.StandaloneVmImpl}
+ * to reproduce a session deterministically or to measure the message processing offline.
+ */
+public class ReplayConnection implements Connection {
+  private static final Logger LOGGER = Logger.getLogger(ReplayConnection.class.getName());
+
+  private static final Charset SOCKET_CHARSET = Charset.forName("UTF-8");
+
+  private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+  private final ReplayFeed feed;
+  private final Handshaker handshaker;
+  private final BlockingQueue<Runnable> dispatchQueue = new LinkedBlockingQueue<Runnable>();
+  private final AtomicBoolean isStarted = new AtomicBoolean(false);
+  private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+  private volatile NetListener listener = null;
+
+  /**
+   * @param records records of a single connection, see {@link CaptureFile#selectConnection}
+   * @param paced see {@link ReplayFeed#ReplayFeed}
+   */
+  public ReplayConnection(List<CaptureFile.Record> records, Handshaker handshaker,
+      boolean paced) {
+    this.feed = new ReplayFeed(records, paced);
+    this.handshaker = handshaker;
+  }
+
+  @Override
+  public void setNetListener(NetListener netListener) {
+    if (this.listener != null && netListener != this.listener) {
+      throw new IllegalStateException("Cannot change NetListener");
+    }
+    this.listener = netListener;
+  }
+
+  @Override
+  public void send(Message message) {
+    if (!isConnected()) {
+      throw new IllegalStateException("Connection not attached");
+    }
+    feed.messageSent();
+  }
+
+  @Override
+  public void runInDispatchThread(Runnable callback) {
+    dispatchQueue.add(callback);
+  }
+
+  @Override
+  public void start() throws IOException {
+    if (!isStarted.compareAndSet(false, true)) {
+      return;
+    }
+    Thread readerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          readRecords();
+        } catch (IOException e) {
+          LOGGER.log(Level.SEVERE, "Failed to replay connection", e);
+        } catch (InterruptedException e) {
+          // Exit.
+        } finally {
+          dispatchQueue.add(EOS_TASK);
+        }
+      }
+    }, "Replay reader thread");
+    readerThread.setDaemon(true);
+    readerThread.start();
+
+    Thread dispatchThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            Runnable task = dispatchQueue.take();
+            if (task == EOS_TASK) {
+              listener.eosReceived();
+              close();
+              return;
+            }
+            try {
+              task.run();
+            } catch (RuntimeException e) {
+              LOGGER.log(Level.SEVERE, "Exception in message listener", e);
+            }
+          }
+        } catch (InterruptedException e) {
+          // Exit.
+        }
+      }
+    }, "Replay dispatch thread");
+    dispatchThread.setDaemon(true);
+    dispatchThread.start();
+  }
+
+  @Override
+  public void close() {
+    if (!isClosed.compareAndSet(false, true)) {
+      return;
+    }
+    feed.close();
+    NetListener listenerSaved = listener;
+    if (listenerSaved != null) {
+      listenerSaved.connectionClosed();
+    }
+  }
+
+  @Override
+  public boolean isConnected() {
+    return isStarted.get() && !isClosed.get();
+  }
+
+  private void readRecords() throws IOException, InterruptedException {
+    FeedInputStream input = new FeedInputStream();
+    LineReader lineReader = new LineReader(input);
+    handshaker.perform(lineReader, NULL_OUTPUT);
+
+    MessageDecoder decoder = new MessageDecoder(SOCKET_CHARSET, new MessageDecoder.Output() {
+      @Override
+      public void messageDecoded(final Message message) {
+        dispatchQueue.add(new Runnable() {
+          @Override
+          public void run() {
+            listener.messageReceived(message);
+          }
+        });
+      }
+    });
+    decoder.feed(lineReader.takeBufferedBytes());
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    while (true) {
+      int len = input.read(buffer, 0, buffer.length);
+      if (len == -1) {
+        break;
+      }
+      decoder.feed(ByteBuffer.wrap(buffer, 0, len));
+    }
+    if (input.interruption != null) {
+      throw input.interruption;
+    }
+  }
+
+  /**
+   * Reads incoming bytes from the feed; blocks as the feed does.
+   */
+  private class FeedInputStream extends InputStream {
+    private ByteBuffer current = ByteBuffer.allocate(0);
+    private boolean isEos = false;
+    InterruptedException interruption = null;
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      len = Math.min(len, current.remaining());
+      current.get(b, off, len);
+      return len;
+    }
+
+    private boolean fill() {
+      while (!current.hasRemaining()) {
+        if (isEos) {
+          return false;
+        }
+        CaptureFile.Record record;
+        try {
+          record = feed.next();
+        } catch (InterruptedException e) {
+          interruption = e;
+          record = null;
+        }
+        if (record == null || record.getKind() == CaptureFile.Kind.CLOSE) {
+          isEos = true;
+          return false;
+        }
+        current = record.getData();
+      }
+      return true;
+    }
+  }
+
+  private static final OutputStream NULL_OUTPUT = new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  };
+
+  private static final Runnable EOS_TASK = new Runnable() {
+    @Override
+    public void run() {
+    }
+  };
+}
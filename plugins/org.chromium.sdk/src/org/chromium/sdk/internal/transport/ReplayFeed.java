@@ -0,0 +1,93 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Gives out incoming records of a captured connection in order. In paced mode an incoming
+ * record is only given out after the client has sent as many messages as had been sent
+ * before the record was captured, so that responses never come ahead of their requests.
+ * If the client doesn't send an expected message in time, the record goes anyway.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ReplayFeed {
+  private static final Logger LOGGER = Logger.getLogger(ReplayFeed.class.getName());
+
+  private static final long MAX_WAIT_MS = 5000;
+
+  private final List<CaptureFile.Record> incomingRecords = new ArrayList<CaptureFile.Record>();
+  // Number of outgoing messages that preceded each incoming record.
+  private final List<Integer> requiredOutgoingCounts = new ArrayList<Integer>();
+  private final boolean paced;
+
+  // Fields below must be accessed synchronized on this.
+  private int nextIndex = 0;
+  private int outgoingCount = 0;
+  private boolean isClosed = false;
+
+  /**
+   * @param records records of a single connection in the captured order
+   * @param paced whether incoming records wait for the client messages that preceded them;
+   *     otherwise they are given out as fast as they are asked for
+   */
+  public ReplayFeed(List<CaptureFile.Record> records, boolean paced) {
+    this.paced = paced;
+    int outgoing = 0;
+    for (CaptureFile.Record record : records) {
+      if (record.isIncoming()) {
+        incomingRecords.add(record);
+        requiredOutgoingCounts.add(outgoing);
+      } else if (record.getKind() == CaptureFile.Kind.MESSAGE) {
+        outgoing++;
+      }
+    }
+  }
+
+  /**
+   * Blocks until the next incoming record may be given out.
+   * @return the next record or null if there are no more records or the feed is closed
+   */
+  public synchronized CaptureFile.Record next() throws InterruptedException {
+    if (isClosed || nextIndex >= incomingRecords.size()) {
+      return null;
+    }
+    if (paced) {
+      int required = requiredOutgoingCounts.get(nextIndex);
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MS);
+      while (outgoingCount < required && !isClosed) {
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMs <= 0) {
+          LOGGER.log(Level.WARNING, "Replay diverged: expected {0} outgoing messages, " +
+              "got {1}", new Object[] { required, outgoingCount });
+          break;
+        }
+        wait(remainingMs);
+      }
+      if (isClosed) {
+        return null;
+      }
+    }
+    return incomingRecords.get(nextIndex++);
+  }
+
+  /**
+   * Notes that the client has sent a message.
+   */
+  public synchronized void messageSent() {
+    outgoingCount++;
+    notifyAll();
+  }
+
+  public synchronized void close() {
+    isClosed = true;
+    notifyAll();
+  }
+}
@@ -4,9 +4,15 @@
 
 package org.chromium.sdk.internal.transport;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.SocketAddress;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -24,7 +30,7 @@ import org.chromium.sdk.util.SignalRelay.AlreadySignalledException;
  *
  * This class is thread-safe.
  */
-public class SocketConnection implements Connection {
+public class SocketConnection implements Connection, TransportStats {
 
   /**
    * A thread that can be gracefully interrupted by a third party.
@@ -64,29 +70,46 @@ public class SocketConnection implements Connection {
   private class WriterThread extends InterruptibleThread {
 
     private final SocketWrapper.LoggableOutputStream writer;
+    private final OutputStream bufferedOutput;
+    private final List<Message> messageBatch = new ArrayList<Message>();
 
     public WriterThread(SocketWrapper.LoggableOutputStream writer) {
       super("WriterThread");
-      // Wrap writer into a buffered writer.
       this.writer = writer;
+      this.bufferedOutput = new BufferedOutputStream(writer.getOutputStream(), WRITE_BUFFER_SIZE);
     }
 
     @Override
     public void run() {
       while (!isTerminated && isAttached.get()) {
         try {
-          handleOutboundMessage(outboundQueue.take());
+          messageBatch.add(outboundQueue.take());
         } catch (InterruptedException e) {
           // interrupt called on this thread, exit on isTerminated
+          continue;
         }
+        // Take everything that has been queued meanwhile and send it with one flush.
+        outboundQueue.drainTo(messageBatch);
+        handleOutboundMessages(messageBatch);
+        messageBatch.clear();
       }
     }
 
-    private void handleOutboundMessage(Message message) {
+    private void handleOutboundMessages(List<Message> messages) {
       try {
-        LOGGER.log(Level.FINER, "-->{0}", message);
-        message.sendThrough(writer.getOutputStream(), SOCKET_CHARSET);
-        writer.getOutputStream().flush();
+        for (Message message : messages) {
+          LOGGER.log(Level.FINER, "-->{0}", message);
+          if (captureRecorder == null) {
+            message.sendThrough(bufferedOutput, SOCKET_CHARSET);
+          } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            message.sendThrough(bytes, SOCKET_CHARSET);
+            captureRecorder.record(false, CaptureFile.Kind.MESSAGE, bytes.toByteArray(), 0,
+                bytes.size());
+            bytes.writeTo(bufferedOutput);
+          }
+        }
+        bufferedOutput.flush();
         writer.markSeparatorForLog();
       } catch (IOException e) {
         shutdownRelay.sendSignal(false, e);
@@ -151,19 +174,29 @@ public class SocketConnection implements Connection {
           connectionLogger.start();
         }
 
-        LineReader lineReader = new LineReader(reader.getInputStream());
+        InputStream input = reader.getInputStream();
+        OutputStream handshakeOutput = handshakeWriter.getOutputStream();
+        if (captureRecorder != null) {
+          input = captureRecorder.wrapInput(input);
+          handshakeOutput = captureRecorder.wrapOutput(handshakeOutput);
+        }
+        LineReader lineReader = new LineReader(input);
 
-        handshaker.perform(lineReader, handshakeWriter.getOutputStream());
+        handshaker.perform(lineReader, handshakeOutput);
 
         reader.markSeparatorForLog();
         handshakeWriter.markSeparatorForLog();
 
         startWriterThread();
 
+        ContentBufferPool contentBufferPool = new ContentBufferPool();
+        FramingHeaderParser headerParser = new FramingHeaderParser(SOCKET_CHARSET);
+
         while (!isTerminated && isAttached.get()) {
           Message message;
           try {
-            message = Message.fromBufferedReader(lineReader, SOCKET_CHARSET);
+            message = Message.readFramed(lineReader, SOCKET_CHARSET, contentBufferPool,
+                headerParser);
           } catch (MalformedMessageException e) {
             LOGGER.log(Level.SEVERE, "Malformed protocol message", e);
             continue;
@@ -183,6 +216,9 @@ public class SocketConnection implements Connection {
           inboundQueue.add(EOS);
           isInboundQueueClosed = true;
         }
+        if (captureRecorder != null) {
+          captureRecorder.recordClose();
+        }
       }
       if (!isInterrupted()) {
         shutdownRelay.sendSignal(false, breakException);
@@ -226,6 +262,9 @@ public class SocketConnection implements Connection {
   /** The class logger. */
   private static final Logger LOGGER = Logger.getLogger(SocketConnection.class.getName());
 
+  /** Size of the buffer that outgoing messages are accumulated in before a flush. */
+  private static final int WRITE_BUFFER_SIZE = 8 * 1024;
+
   /** Lameduck shutdown delay in ms. */
   private static final int LAMEDUCK_DELAY_MS = 1000;
 
@@ -244,10 +283,13 @@ public class SocketConnection implements Connection {
   private AtomicBoolean isAttached = new AtomicBoolean(false);
 
   /** The communication socket. */
-  private SocketWrapper socket;
+  private volatile SocketWrapper socket;
 
   private final ConnectionLogger connectionLogger;
 
+  /** Binary traffic capture or null. */
+  private final CaptureFile.Recorder captureRecorder;
+
   /** Handshaker used to establish connection. */
   private final Handshaker handshaker;
 
@@ -281,6 +323,7 @@ public class SocketConnection implements Connection {
     this.connectionTimeoutMs = connectionTimeoutMs;
     this.connectionLogger = connectionLogger;
     this.handshaker = handshaker;
+    this.captureRecorder = CaptureFile.createDefaultRecorder();
   }
 
   void attach() throws IOException {
@@ -448,6 +491,32 @@ public class SocketConnection implements Connection {
     }
   }
 
+  @Override
+  public long getBytesReceived() {
+    SocketWrapper socketSaved = socket;
+    return socketSaved == null
+        ? 0
+        : socketSaved.getBytesReceived();
+  }
+
+  @Override
+  public long getBytesSent() {
+    SocketWrapper socketSaved = socket;
+    return socketSaved == null
+        ? 0
+        : socketSaved.getBytesSent();
+  }
+
+  @Override
+  public int getInboundQueueDepth() {
+    return inboundQueue.size();
+  }
+
+  @Override
+  public int getOutboundQueueDepth() {
+    return outboundQueue.size();
+  }
+
   private void checkAttached() {
     if (!isAttached()) {
       throw new IllegalStateException("Connection not attached");
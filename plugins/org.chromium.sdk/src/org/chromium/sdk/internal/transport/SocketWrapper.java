@@ -7,6 +7,7 @@ package org.chromium.sdk.internal.transport;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.Socket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
@@ -27,6 +28,11 @@ public class SocketWrapper extends AbstractSocketWrapper<SocketWrapper.LoggableI
     super(endpoint, connectionTimeoutMs, connectionLogger, new FactoryImpl(charset));
   }
 
+  public SocketWrapper(Socket connectedSocket, ConnectionLogger connectionLogger,
+      Charset charset) throws IOException {
+    super(connectedSocket, connectionLogger, new FactoryImpl(charset));
+  }
+
   /**
    * Reader that allows client to add marks to stream. These marks may become visible in log
    * console.
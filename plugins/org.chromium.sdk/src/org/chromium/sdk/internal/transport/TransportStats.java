@@ -0,0 +1,31 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.transport;
+
+/**
+ * An optional interface of a connection that counts its traffic. Values are read live
+ * and may be read from any thread.
+ */
+public interface TransportStats {
+  /**
+   * @return number of bytes read from the socket so far
+   */
+  long getBytesReceived();
+
+  /**
+   * @return number of bytes written to the socket so far
+   */
+  long getBytesSent();
+
+  /**
+   * @return number of received messages that haven't been dispatched yet
+   */
+  int getInboundQueueDepth();
+
+  /**
+   * @return number of messages that haven't been written to the socket yet
+   */
+  int getOutboundQueueDepth();
+}
@@ -9,7 +9,6 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -38,6 +37,7 @@ import org.chromium.sdk.internal.v8native.protocol.output.ChangeBreakpointMessag
 import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessageFactory;
 import org.chromium.sdk.internal.v8native.protocol.output.FlagsMessage;
 import org.chromium.sdk.internal.v8native.protocol.output.ListBreakpointsMessage;
+import org.chromium.sdk.util.ConcurrentLongMap;
 import org.chromium.sdk.util.GenericCallback;
 import org.chromium.sdk.util.RelaySyncCallback;
 
@@ -49,8 +49,8 @@ public class BreakpointManager {
    * This map shall contain only breakpoints with valid IDs.
    * Complex operations must be explicitly synchronized on this instance.
    */
-  private final Map<Long, BreakpointImpl> idToBreakpoint =
-      Collections.synchronizedMap(new HashMap<Long, BreakpointImpl>());
+  private final ConcurrentLongMap<BreakpointImpl> idToBreakpoint =
+      new ConcurrentLongMap<BreakpointImpl>();
 
   private final DebugSession debugSession;
 
@@ -112,6 +112,9 @@ public class BreakpointManager {
   }
 
   public Breakpoint getBreakpoint(Long id) {
+    if (id == null) {
+      return null;
+    }
     return idToBreakpoint.get(id);
   }
 
@@ -377,10 +380,9 @@ public class BreakpointManager {
       }
 
       // Remove all obsolete breakpoints from the map.
-      for (Iterator<Long> it = idToBreakpoint.keySet().iterator(); it.hasNext(); ) {
-        Long id = it.next();
+      for (long id : idToBreakpoint.keys()) {
         if (!actualBreakpoints.containsKey(id)) {
-          it.remove();
+          idToBreakpoint.remove(id);
         }
       }
 
@@ -7,6 +7,8 @@ package org.chromium.sdk.internal.v8native;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.chromium.sdk.CallFrame;
@@ -29,14 +31,15 @@ import org.chromium.sdk.internal.v8native.protocol.input.FrameObject;
 import org.chromium.sdk.internal.v8native.protocol.input.RestartFrameBody;
 import org.chromium.sdk.internal.v8native.protocol.input.ScopeRef;
 import org.chromium.sdk.internal.v8native.protocol.input.SuccessCommandResponse;
+import org.chromium.sdk.internal.v8native.protocol.input.data.ObjectValueHandle;
 import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessage;
-import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessageFactory;
 import org.chromium.sdk.internal.v8native.protocol.output.RestartFrameMessage;
 import org.chromium.sdk.internal.v8native.value.JsScopeImpl;
 import org.chromium.sdk.internal.v8native.value.JsVariableBase;
 import org.chromium.sdk.internal.v8native.value.PropertyReference;
 import org.chromium.sdk.internal.v8native.value.ValueLoader;
 import org.chromium.sdk.internal.v8native.value.ValueMirror;
+import org.chromium.sdk.internal.v8native.value.ValuePrefetcher;
 import org.chromium.sdk.util.GenericCallback;
 import org.chromium.sdk.util.MethodIsBlockingException;
 import org.chromium.sdk.util.RelaySyncCallback;
@@ -79,6 +82,13 @@ public class CallFrameImpl implements CallFrame {
   private final AtomicReference<JsVariable> receiverVariableRef =
       new AtomicReference<JsVariable>(null);
 
+  /**
+   * Scope objects loaded in advance by {@link ValuePrefetcher}, by scope index. Each one
+   * is only good for the value cache state it was loaded in.
+   */
+  private final ConcurrentMap<Integer, PrefetchedScope> prefetchedScopes =
+      new ConcurrentHashMap<Integer, PrefetchedScope>(2);
+
   /**
    * A script associated with the frame.
    */
@@ -205,6 +215,41 @@ public class CallFrameImpl implements CallFrame {
     }
   }
 
+  /**
+   * Starts loading the frame variables in the background, if it's configured.
+   */
+  void startPrefetch() {
+    ValuePrefetcher.start(this, frameObject);
+  }
+
+  public void putPrefetchedScope(int scopeIndex, ObjectValueHandle scopeObject,
+      int cacheState) {
+    prefetchedScopes.put(scopeIndex, new PrefetchedScope(scopeObject, cacheState));
+  }
+
+  /**
+   * Takes the scope object that has been loaded in advance, so that the scope
+   * does not need to be requested again.
+   * @return the scope object or null if there's none for the current cache state
+   */
+  public ObjectValueHandle takePrefetchedScope(int scopeIndex, int cacheState) {
+    PrefetchedScope prefetchedScope = prefetchedScopes.remove(scopeIndex);
+    if (prefetchedScope == null || prefetchedScope.cacheState != cacheState) {
+      return null;
+    }
+    return prefetchedScope.scopeObject;
+  }
+
+  private static class PrefetchedScope {
+    final ObjectValueHandle scopeObject;
+    final int cacheState;
+
+    PrefetchedScope(ObjectValueHandle scopeObject, int cacheState) {
+      this.scopeObject = scopeObject;
+      this.cacheState = cacheState;
+    }
+  }
+
   private List<JsScopeImpl<?>> createScopes() {
     List<ScopeRef> scopes = frameObject.scopes();
     List<JsScopeImpl<?>> result = new ArrayList<JsScopeImpl<?>>(scopes.size());
@@ -351,7 +396,7 @@ public class CallFrameImpl implements CallFrame {
         }
       };
 
-      DebuggerMessage message = DebuggerMessageFactory.backtrace(null, null, true);
+      DebuggerMessage message = BacktraceProcessor.createBacktraceMessage();
       try {
         // Command is not immediate because we are supposed to be suspended.
         return debugContext.getInternalContext().sendV8CommandAsync(message, false,
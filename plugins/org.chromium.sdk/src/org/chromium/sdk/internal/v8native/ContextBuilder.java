@@ -4,6 +4,7 @@
 
 package org.chromium.sdk.internal.v8native;
 
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -18,13 +19,17 @@ import org.chromium.sdk.JsEvaluateContext;
 import org.chromium.sdk.RelayOk;
 import org.chromium.sdk.RemoteValueMapping;
 import org.chromium.sdk.SyncCallback;
+import org.chromium.sdk.internal.BaseCommandProcessor;
 import org.chromium.sdk.internal.v8native.V8CommandProcessor.V8HandlerCallback;
+import org.chromium.sdk.internal.v8native.processor.BacktraceProcessor;
+import org.chromium.sdk.internal.v8native.protocol.input.CommandResponse;
 import org.chromium.sdk.internal.v8native.protocol.input.FailedCommandResponse.ErrorDetails;
 import org.chromium.sdk.internal.v8native.protocol.input.FrameObject;
 import org.chromium.sdk.internal.v8native.protocol.input.SuccessCommandResponse;
 import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessage;
 import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessageFactory;
 import org.chromium.sdk.internal.v8native.value.ValueLoaderImpl;
+import org.chromium.sdk.internal.v8native.value.ValuePrefetcher;
 
 public class ContextBuilder {
   private final DebugSession debugSession;
@@ -53,7 +58,12 @@ public class ContextBuilder {
   public interface ExpectingBacktraceStep {
     InternalContext getInternalContext();
 
-    DebugContext setFrames(List<FrameObject> jsonFrames);
+    /**
+     * @param jsonFrames top frames
+     * @param totalFrames the number of frames on stack; frames that are not in jsonFrames
+     *     get loaded when accessed
+     */
+    DebugContext setFrames(List<FrameObject> jsonFrames, int totalFrames);
   }
 
   /**
@@ -100,15 +110,16 @@ public class ContextBuilder {
             return preContext;
           }
 
-          public DebugContext setFrames(List<FrameObject> jsonFrames) {
+          public DebugContext setFrames(List<FrameObject> jsonFrames, int totalFrames) {
             assertStep(this);
 
-            contextData.frames = new Frames(jsonFrames, preContext);
+            contextData.frames = new Frames(jsonFrames, totalFrames, preContext);
 
             preContext.createContext(contextData);
 
             DebugContext userContext = preContext.getContext();
             currentStep = userContext;
+            contextData.frames.startPrefetch();
             return userContext;
           }
         };
@@ -229,6 +240,19 @@ public class ContextBuilder {
       }
     }
 
+    @Override
+    public RelayOk sendV8CommandsAsync(List<? extends DebuggerMessage> messages,
+        boolean isImmediate, BaseCommandProcessor.BatchCallback<? super CommandResponse> callback,
+        SyncCallback syncCallback) throws ContextDismissedCheckedException {
+      synchronized (sendContextCommandsMonitor) {
+        if (!isValid) {
+          throw new ContextDismissedCheckedException();
+        }
+        return debugSession.getV8CommandProcessor().sendV8CommandsAsync(messages, isImmediate,
+            callback, syncCallback);
+      }
+    }
+
     @Override
     public void checkContextIsCompatible(InternalContext hostInternalContext) {
       if (this != hostInternalContext) {
@@ -389,8 +413,9 @@ public class ContextBuilder {
           }
 
           @Override
-          public DebugContext setFrames(List<FrameObject> jsonFrames) {
-            data.frames = new Frames(jsonFrames, PreContext.this);
+          public DebugContext setFrames(List<FrameObject> jsonFrames, int totalFrames) {
+            data.frames = new Frames(jsonFrames, totalFrames, PreContext.this);
+            data.frames.startPrefetch();
             return UserContextImpl.this;
           }
         };
@@ -423,12 +448,18 @@ public class ContextBuilder {
   }
 
   private class Frames {
-    /** The cached call frames constructed using frameMirrors. */
+    private final InternalContext internalContext;
+    /** The cached call frames by index; null for frames that haven't been loaded yet. */
+    private final CallFrameImpl[] callFrames;
+    /** Either a plain list or a lazy list, if some frames are not loaded. */
     private final List<CallFrameImpl> unmodifableFrames;
+    /** Guards frame loading, so that a page is only loaded once. */
+    private final Object loadMonitor = new Object();
     private boolean scriptsLinkedToFrames;
 
-    Frames(List<FrameObject> jsonFrames, InternalContext internalContext) {
-      CallFrameImpl[] callFrames = new CallFrameImpl[jsonFrames.size()];
+    Frames(List<FrameObject> jsonFrames, int totalFrames, InternalContext internalContext) {
+      this.internalContext = internalContext;
+      this.callFrames = new CallFrameImpl[Math.max(totalFrames, jsonFrames.size())];
 
       for (FrameObject frameObject : jsonFrames) {
         CallFrameImpl callFrameImpl = new CallFrameImpl(frameObject, internalContext);
@@ -436,20 +467,95 @@ public class ContextBuilder {
       }
 
       this.scriptsLinkedToFrames = false;
-      this.unmodifableFrames = Collections.unmodifiableList(Arrays.asList(callFrames));
+      if (jsonFrames.size() == callFrames.length) {
+        this.unmodifableFrames = Collections.unmodifiableList(Arrays.asList(callFrames));
+      } else {
+        this.unmodifableFrames = new LazyFrameList();
+      }
+    }
+
+    /**
+     * Starts loading the top frame variables in the background, if it's configured.
+     * @see ValuePrefetcher
+     */
+    void startPrefetch() {
+      CallFrameImpl topFrame;
+      synchronized (this) {
+        topFrame = callFrames.length == 0 ? null : callFrames[0];
+      }
+      if (topFrame != null) {
+        topFrame.startPrefetch();
+      }
     }
 
     synchronized List<CallFrameImpl> getCallFrames() {
       if (!scriptsLinkedToFrames) {
         // We expect that ALL the V8 scripts are loaded so we can
         // hook them up to the call frames.
-        for (CallFrameImpl frame : unmodifableFrames) {
-          frame.hookUpScript(debugSession.getScriptManager());
+        for (CallFrameImpl frame : callFrames) {
+          if (frame != null) {
+            frame.hookUpScript(debugSession.getScriptManager());
+          }
         }
         scriptsLinkedToFrames = true;
       }
       return unmodifableFrames;
     }
+
+    private CallFrameImpl getFrame(int index) {
+      synchronized (this) {
+        if (callFrames[index] != null) {
+          return callFrames[index];
+        }
+      }
+      // Load without holding the lock, because Dispatch thread may need it meanwhile.
+      synchronized (loadMonitor) {
+        synchronized (this) {
+          if (callFrames[index] != null) {
+            return callFrames[index];
+          }
+        }
+        int pageSize = Math.max(1, BacktraceProcessor.getPageSize());
+        int toFrame = Math.min(callFrames.length, index + pageSize);
+        List<FrameObject> jsonFrames =
+            BacktraceProcessor.loadFramesSync(internalContext, index, toFrame);
+        synchronized (this) {
+          for (FrameObject frameObject : jsonFrames) {
+            CallFrameImpl callFrameImpl = new CallFrameImpl(frameObject, internalContext);
+            int id = callFrameImpl.getIdentifier();
+            if (id < 0 || id >= callFrames.length || callFrames[id] != null) {
+              continue;
+            }
+            if (scriptsLinkedToFrames) {
+              callFrameImpl.hookUpScript(debugSession.getScriptManager());
+            }
+            callFrames[id] = callFrameImpl;
+          }
+          if (callFrames[index] == null) {
+            throw new RuntimeException("Failed to load call frame #" + index);
+          }
+          return callFrames[index];
+        }
+      }
+    }
+
+    /**
+     * Loads frames page by page as they are accessed.
+     */
+    private class LazyFrameList extends AbstractList<CallFrameImpl> {
+      @Override
+      public CallFrameImpl get(int index) {
+        if (index < 0 || index >= callFrames.length) {
+          throw new IndexOutOfBoundsException("Index: " + index + ", size: " + callFrames.length);
+        }
+        return getFrame(index);
+      }
+
+      @Override
+      public int size() {
+        return callFrames.length;
+      }
+    }
   }
 
   /**
@@ -4,10 +4,14 @@
 
 package org.chromium.sdk.internal.v8native;
 
+import java.util.List;
+
 import org.chromium.sdk.DebugContext;
 import org.chromium.sdk.JsEvaluateContext;
 import org.chromium.sdk.RelayOk;
 import org.chromium.sdk.SyncCallback;
+import org.chromium.sdk.internal.BaseCommandProcessor;
+import org.chromium.sdk.internal.v8native.protocol.input.CommandResponse;
 import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessage;
 import org.chromium.sdk.internal.v8native.value.ValueLoader;
 import org.chromium.sdk.internal.v8native.value.ValueLoaderImpl;
@@ -43,6 +47,15 @@ public interface InternalContext extends V8CommandSender<DebuggerMessage,
       V8CommandProcessor.V8HandlerCallback commandCallback, SyncCallback syncCallback)
       throws ContextDismissedCheckedException;
 
+  /**
+   * Sends several V8 commands at once provided this context is still valid.
+   * @throws ContextDismissedCheckedException if context is not valid anymore
+   * @see V8CommandProcessor#sendV8CommandsAsync
+   */
+  RelayOk sendV8CommandsAsync(List<? extends DebuggerMessage> messages, boolean isImmediate,
+      BaseCommandProcessor.BatchCallback<? super CommandResponse> callback,
+      SyncCallback syncCallback) throws ContextDismissedCheckedException;
+
   class ContextDismissedCheckedException extends Exception {
   }
 
@@ -12,6 +12,7 @@ import org.chromium.sdk.CallbackSemaphore;
 import org.chromium.sdk.FunctionScopeExtension;
 import org.chromium.sdk.IgnoreCountBreakpointExtension;
 import org.chromium.sdk.JavascriptVm;
+import org.chromium.sdk.ProtocolMetrics;
 import org.chromium.sdk.RelayOk;
 import org.chromium.sdk.RestartFrameExtension;
 import org.chromium.sdk.SyncCallback;
@@ -79,6 +80,11 @@ public abstract class JavascriptVmImpl implements JavascriptVm {
     return getDebugSession().getVmVersion();
   }
 
+  @Override
+  public ProtocolMetrics getProtocolMetrics() {
+    return getDebugSession().getV8CommandProcessor().getMetrics();
+  }
+
   @Override
   public BreakpointTypeExtension getBreakpointTypeExtension() {
     return getDebugSession().getBreakpointManager().getBreakpointTypeExtension();
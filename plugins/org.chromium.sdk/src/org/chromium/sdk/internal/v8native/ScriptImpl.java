@@ -1,9 +1,11 @@
 package org.chromium.sdk.internal.v8native;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.chromium.sdk.CallbackSemaphore;
 import org.chromium.sdk.DebugContext;
 import org.chromium.sdk.DebugEventListener;
 import org.chromium.sdk.RelayOk;
@@ -21,6 +23,7 @@ import org.chromium.sdk.internal.v8native.protocol.input.data.ScriptHandle;
 import org.chromium.sdk.internal.v8native.protocol.input.data.SomeHandle;
 import org.chromium.sdk.internal.v8native.protocol.output.ChangeLiveMessage;
 import org.chromium.sdk.internal.v8native.value.HandleManager;
+import org.chromium.sdk.util.MethodIsBlockingException;
 
 public class ScriptImpl extends ScriptBase<Long> {
   /** The class logger. */
@@ -33,6 +36,28 @@ public class ScriptImpl extends ScriptBase<Long> {
     this.debugSession = debugSession;
   }
 
+  @Override
+  protected void reloadSource() throws MethodIsBlockingException {
+    ScriptLoadCallback callback = new ScriptLoadCallback() {
+      @Override
+      public void success() {
+      }
+
+      @Override
+      public void failure(String message) {
+        LOGGER.log(Level.SEVERE, "Failed to reload source of script " + getId() + "; " + message);
+      }
+    };
+    List<Long> ids = Collections.singletonList(getId());
+    if (debugSession.getV8CommandProcessor().isDispatchingThread()) {
+      V8Helper.reloadScriptAsync(debugSession, ids, callback, null);
+      return;
+    }
+    CallbackSemaphore callbackSemaphore = new CallbackSemaphore();
+    RelayOk relayOk = V8Helper.reloadScriptAsync(debugSession, ids, callback, callbackSemaphore);
+    callbackSemaphore.acquireDefault(relayOk);
+  }
+
   @Override
   public RelayOk setSourceOnRemote(String newSource, UpdateCallback callback,
       SyncCallback syncCallback) {
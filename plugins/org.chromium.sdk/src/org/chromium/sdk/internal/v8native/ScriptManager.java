@@ -4,22 +4,18 @@
 
 package org.chromium.sdk.internal.v8native;
 
-import static org.chromium.sdk.util.BasicUtil.getSafe;
-import static org.chromium.sdk.util.BasicUtil.removeSafe;
-
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 
 import org.chromium.sdk.Script;
 import org.chromium.sdk.Script.Type;
 import org.chromium.sdk.internal.ScriptBase.Descriptor;
+import org.chromium.sdk.internal.ScriptSourceCache;
 import org.chromium.sdk.internal.v8native.protocol.V8ProtocolUtil;
 import org.chromium.sdk.internal.v8native.protocol.input.data.ScriptHandle;
 import org.chromium.sdk.internal.v8native.protocol.input.data.SomeHandle;
+import org.chromium.sdk.util.ConcurrentLongMap;
 
 /**
  * Manages scripts known in the corresponding browser tab.
@@ -40,12 +36,14 @@ public class ScriptManager {
   /**
    * Maps script id's to scripts.
    */
-  private final Map<Long, ScriptImpl> idToScript =
-      Collections.synchronizedMap(new HashMap<Long, ScriptImpl>());
+  private final ConcurrentLongMap<ScriptImpl> idToScript = new ConcurrentLongMap<ScriptImpl>();
 
   private final V8ContextFilter contextFilter;
   private final DebugSession debugSession;
 
+  /** A persistent cache that is consulted before loading sources; may be null. */
+  private final ScriptSourceCache sourceCache = ScriptSourceCache.getDefault();
+
   ScriptManager(V8ContextFilter contextFilter, DebugSession debugSession) {
     this.contextFilter = contextFilter;
     this.debugSession = debugSession;
@@ -67,6 +65,36 @@ public class ScriptManager {
     return theScript;
   }
 
+  /**
+   * Adds a script from a "scripts" response without sources, taking the source from
+   * the persistent cache.
+   *
+   * @return false if the script source is not in the cache and should be loaded from remote
+   */
+  boolean addScriptFromCache(ScriptHandle scriptBody, List<SomeHandle> refs) {
+    Descriptor<Long> desc = createDescriptor(scriptBody, refs, contextFilter);
+    if (desc == null) {
+      // Not a valid script or a script from another context; no need to load it.
+      return true;
+    }
+    String source = getCachedSource(scriptBody);
+    if (source == null) {
+      return false;
+    }
+    ScriptImpl theScript;
+    synchronized (this) {
+      theScript = new ScriptImpl(desc, debugSession);
+      theScript.setSource(source);
+      idToScript.put(desc.id, theScript);
+    }
+    debugSession.getSessionManager().getDebugEventListener().scriptLoaded(theScript);
+    return true;
+  }
+
+  boolean hasSourceCache() {
+    return sourceCache != null;
+  }
+
   ScriptImpl addScriptImpl(ScriptHandle scriptBody, List<SomeHandle> refs) {
     ScriptImpl theScript = findById(V8ProtocolUtil.getScriptIdFromResponse(scriptBody));
     synchronized (this) {
@@ -88,7 +116,7 @@ public class ScriptManager {
   public void scriptCollected(long scriptId) {
     ScriptImpl script;
     synchronized (this) {
-      script = removeSafe(idToScript, scriptId);
+      script = idToScript.remove(scriptId);
       if (script == null) {
         return;
       }
@@ -112,6 +140,45 @@ public class ScriptManager {
     if (script != null) {
       script.setSource(src);
     }
+    if (sourceCache != null) {
+      String key = getCacheKey(body);
+      if (key != null) {
+        sourceCache.put(key, src);
+      }
+    }
+  }
+
+  /**
+   * @return the cached source that matches the script length and start or null
+   */
+  private String getCachedSource(ScriptHandle body) {
+    String key = getCacheKey(body);
+    if (key == null) {
+      return null;
+    }
+    String source = sourceCache.get(key);
+    if (source == null || source.length() != body.sourceLength()) {
+      return null;
+    }
+    String sourceStart = body.sourceStart();
+    if (sourceStart != null && !source.startsWith(sourceStart)) {
+      return null;
+    }
+    return source;
+  }
+
+  /**
+   * V8 does not report a source hash, so the key is made of the script name, position and
+   * length; a cached source is also checked against the source start. Scripts without name
+   * are not cached.
+   */
+  private static String getCacheKey(ScriptHandle body) {
+    String name = body.name();
+    if (name == null) {
+      return null;
+    }
+    return "v8:" + name + ':' + body.lineOffset() + ':' + body.columnOffset() + ':' +
+        body.lineCount() + ':' + body.sourceLength();
   }
 
   /**
@@ -119,7 +186,10 @@ public class ScriptManager {
    * @return the script with {@code id == ref} or {@code null} if none found
    */
   public ScriptImpl findById(Long id) {
-    return getSafe(idToScript, id);
+    if (id == null) {
+      return null;
+    }
+    return idToScript.get(id);
   }
 
   /**
@@ -4,6 +4,7 @@
 
 package org.chromium.sdk.internal.v8native;
 
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -11,7 +12,9 @@ import org.chromium.sdk.DebugEventListener;
 import org.chromium.sdk.RelayOk;
 import org.chromium.sdk.SyncCallback;
 import org.chromium.sdk.internal.BaseCommandProcessor;
+import org.chromium.sdk.internal.ProtocolMetricsImpl;
 import org.chromium.sdk.internal.protocolparser.JsonProtocolParseException;
+import org.chromium.sdk.internal.v8native.protocol.V8Protocol;
 import org.chromium.sdk.internal.v8native.protocol.input.CommandResponse;
 import org.chromium.sdk.internal.v8native.protocol.input.IncomingMessage;
 import org.chromium.sdk.internal.v8native.protocol.input.V8ProtocolParserAccess;
@@ -65,6 +68,12 @@ public class V8CommandProcessor implements V8CommandSender<DebuggerMessage, Runt
   private final BaseCommandProcessor<Integer, DebuggerMessage, IncomingMessage, CommandResponse>
       baseCommandProcessor;
 
+  /**
+   * Holds true while the current thread dispatches an incoming message or a task
+   * of this processor. User callbacks are called there, so nothing may wait for remote then.
+   */
+  private final ThreadLocal<Boolean> dispatching = new ThreadLocal<Boolean>();
+
 
   public V8CommandProcessor(V8CommandOutput messageOutput,
       DefaultResponseHandler defaultResponseHandler, DebugSession debugSession) {
@@ -82,16 +91,28 @@ public class V8CommandProcessor implements V8CommandSender<DebuggerMessage, Runt
     return baseCommandProcessor.send(message, isImmediate, v8HandlerCallback, syncCallback);
   }
 
+  /**
+   * Sends several commands at once; all of them are in flight simultaneously.
+   * @see BaseCommandProcessor#sendBatch
+   */
+  public RelayOk sendV8CommandsAsync(List<? extends DebuggerMessage> messages,
+      boolean isImmediate, BaseCommandProcessor.BatchCallback<? super CommandResponse> callback,
+      SyncCallback syncCallback) {
+    return baseCommandProcessor.sendBatch(messages, isImmediate, callback, syncCallback);
+  }
+
   public RelayOk runInDispatchThread(final Runnable callback, final SyncCallback syncCallback) {
     Runnable innerRunnable = new Runnable() {
       @Override public void run() {
         RuntimeException exception = null;
+        dispatching.set(Boolean.TRUE);
         try {
           callback.run();
         } catch (RuntimeException e) {
           exception = e;
           throw e;
         } finally {
+          dispatching.remove();
           if (syncCallback != null) {
             syncCallback.callbackDone(exception);
           }
@@ -103,6 +124,15 @@ public class V8CommandProcessor implements V8CommandSender<DebuggerMessage, Runt
   }
 
   public void processIncomingJson(final JSONObject v8Json) {
+    processIncomingJson(v8Json, 0);
+  }
+
+  /**
+   * @param decodeNanos time that was spent on decoding JSON text; it is added to the parse
+   *     time of the message in {@link #getMetrics() metrics}
+   */
+  public void processIncomingJson(JSONObject v8Json, long decodeNanos) {
+    long startNanos = System.nanoTime();
     IncomingMessage response;
     try {
       response = V8ProtocolParserAccess.get().parseIncomingMessage(v8Json);
@@ -110,7 +140,39 @@ public class V8CommandProcessor implements V8CommandSender<DebuggerMessage, Runt
       LOGGER.log(Level.SEVERE, "JSON message does not conform to the protocol", e);
       return;
     }
-    baseCommandProcessor.processIncoming(response);
+    long parseNanos = decodeNanos + System.nanoTime() - startNanos;
+    baseCommandProcessor.getMetrics().recordParseTime(getMessageTypeName(v8Json), parseNanos);
+    dispatching.set(Boolean.TRUE);
+    try {
+      baseCommandProcessor.processIncoming(response);
+    } finally {
+      dispatching.remove();
+    }
+  }
+
+  /**
+   * @return whether the current thread is dispatching for this processor, so a blocking wait
+   *     for a response would never end
+   */
+  public boolean isDispatchingThread() {
+    return dispatching.get() != null;
+  }
+
+  public ProtocolMetricsImpl getMetrics() {
+    return baseCommandProcessor.getMetrics();
+  }
+
+  /**
+   * @return command name for response or event name for event
+   */
+  private static String getMessageTypeName(JSONObject v8Json) {
+    Object name = v8Json.get(V8Protocol.KEY_COMMAND.key);
+    if (name == null) {
+      name = v8Json.get(V8Protocol.KEY_EVENT.key);
+    }
+    return name == null
+        ? null
+        : name.toString();
   }
 
   public void processEos() {
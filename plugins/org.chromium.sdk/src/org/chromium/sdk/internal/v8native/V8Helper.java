@@ -30,6 +30,7 @@ import org.chromium.sdk.internal.v8native.value.LoadableString;
 import org.chromium.sdk.internal.v8native.value.PropertyReference;
 import org.chromium.sdk.internal.v8native.value.ValueLoadException;
 import org.chromium.sdk.util.MethodIsBlockingException;
+import org.chromium.sdk.util.RelaySyncCallback;
 
 /**
  * A helper class for performing complex V8-related operations.
@@ -49,9 +50,67 @@ public class V8Helper {
    */
   public static RelayOk reloadAllScriptsAsync(final DebugSession debugSession,
       final ScriptLoadCallback callback, SyncCallback syncCallback) {
+    if (debugSession.getScriptManager().hasSourceCache()) {
+      return reloadAllScriptsWithCacheAsync(debugSession, callback, syncCallback);
+    }
     return reloadScriptAsync(debugSession, null, callback, syncCallback);
   }
 
+  /**
+   * Loads all scripts without sources first and takes sources from the persistent cache.
+   * Only the sources that are missing from the cache are requested then.
+   */
+  private static RelayOk reloadAllScriptsWithCacheAsync(final DebugSession debugSession,
+      final ScriptLoadCallback callback, SyncCallback syncCallback) {
+    final RelaySyncCallback relay = new RelaySyncCallback(syncCallback);
+    final RelaySyncCallback.Guard guard = relay.newGuard();
+    return debugSession.sendMessageAsync(
+        DebuggerMessageFactory.scripts(ScriptsMessage.SCRIPTS_NORMAL, false),
+        true,
+        new V8CommandCallbackBase() {
+          @Override
+          public void failure(String message, ErrorDetails errorDetails) {
+            if (callback != null) {
+              callback.failure(message);
+            }
+          }
+
+          @Override
+          public void success(SuccessCommandResponse successResponse) {
+            List<ScriptHandle> body;
+            try {
+              body = successResponse.body().asScripts();
+            } catch (JsonProtocolParseException e) {
+              throw new RuntimeException(e);
+            }
+            ScriptManager scriptManager = debugSession.getScriptManager();
+            List<Long> missingIds = new ArrayList<Long>();
+            for (ScriptHandle scriptHandle : body) {
+              if (V8Helper.JAVASCRIPT_VOID.equals(scriptHandle.sourceStart())) {
+                continue;
+              }
+              Long id = V8ProtocolUtil.getScriptIdFromResponse(scriptHandle);
+              if (scriptManager.findById(id) != null) {
+                continue;
+              }
+              if (!scriptManager.addScriptFromCache(scriptHandle, successResponse.refs())) {
+                missingIds.add(id);
+              }
+            }
+            if (missingIds.isEmpty()) {
+              if (callback != null) {
+                callback.success();
+              }
+              return;
+            }
+            RelayOk relayOk = reloadScriptAsync(debugSession, missingIds, callback,
+                relay.getUserSyncCallback());
+            guard.discharge(relayOk);
+          }
+        },
+        guard.asSyncCallback());
+  }
+
   /**
    * Loads specified scripts or all existing scripts and stores them in ScriptManager.
    * @param ids ids of requested scripts or null for all scripts
@@ -9,24 +9,53 @@ import java.util.Collections;
 import java.util.List;
 
 import org.chromium.sdk.DebugContext;
+import org.chromium.sdk.InvalidContextException;
 import org.chromium.sdk.JavascriptVm;
 import org.chromium.sdk.Script;
 import org.chromium.sdk.internal.protocolparser.JsonProtocolParseException;
 import org.chromium.sdk.internal.v8native.ContextBuilder;
 import org.chromium.sdk.internal.v8native.DebugSession;
 import org.chromium.sdk.internal.v8native.DebuggerCommand;
+import org.chromium.sdk.internal.v8native.InternalContext;
+import org.chromium.sdk.internal.v8native.InternalContext.ContextDismissedCheckedException;
+import org.chromium.sdk.internal.v8native.V8BlockingCallback;
 import org.chromium.sdk.internal.v8native.V8CommandProcessor;
+import org.chromium.sdk.internal.v8native.V8Helper;
 import org.chromium.sdk.internal.v8native.protocol.input.BacktraceCommandBody;
 import org.chromium.sdk.internal.v8native.protocol.input.CommandResponse;
 import org.chromium.sdk.internal.v8native.protocol.input.FrameObject;
 import org.chromium.sdk.internal.v8native.protocol.input.SuccessCommandResponse;
 import org.chromium.sdk.internal.v8native.protocol.input.data.SomeHandle;
+import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessage;
+import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessageFactory;
 import org.chromium.sdk.internal.v8native.value.ValueLoaderImpl;
+import org.chromium.sdk.util.MethodIsBlockingException;
 
 /**
  * Handles the "backtrace" V8 command replies.
  */
 public class BacktraceProcessor implements V8CommandProcessor.V8HandlerCallback {
+  /**
+   * An integer property: how many top frames are loaded when VM suspends. The rest of frames
+   * are loaded in pages of the same size as the frame list is read. 0 (the default) makes
+   * all frames load at once.
+   */
+  public static final String PAGE_SIZE_PROPERTY = "org.chromium.sdk.client.backtrace.pageSize";
+
+  /**
+   * @return the number of frames to load at once or 0 if all frames are loaded on suspend
+   */
+  public static int getPageSize() {
+    return Math.max(0, Integer.getInteger(PAGE_SIZE_PROPERTY, 0));
+  }
+
+  /**
+   * @return a message that requests the top frames, or all of them if paging is off
+   */
+  public static DebuggerMessage createBacktraceMessage() {
+    int pageSize = getPageSize();
+    return DebuggerMessageFactory.backtrace(null, pageSize == 0 ? null : pageSize, true);
+  }
 
   private final ContextBuilder.ExpectingBacktraceStep step2;
 
@@ -71,17 +100,51 @@ public class BacktraceProcessor implements V8CommandProcessor.V8HandlerCallback
     } catch (JsonProtocolParseException e) {
       throw new RuntimeException(e);
     }
+    List<FrameObject> jsonFrames = readFrames(response, body, step2.getInternalContext());
+    int totalFrames =
+        body.totalFrames() == null ? jsonFrames.size() : body.totalFrames().intValue();
+    return step2.setFrames(jsonFrames, totalFrames);
+  }
+
+  /**
+   * Loads frames from the range, so that the backtrace may be read page by page.
+   * @param fromFrame the first frame index, inclusive
+   * @param toFrame the last frame index, exclusive
+   */
+  public static List<FrameObject> loadFramesSync(final InternalContext internalContext,
+      int fromFrame, int toFrame) throws MethodIsBlockingException {
+    DebuggerMessage message = DebuggerMessageFactory.backtrace(fromFrame, toFrame, true);
+    V8BlockingCallback<List<FrameObject>> callback = new V8BlockingCallback<List<FrameObject>>() {
+      @Override
+      protected List<FrameObject> handleSuccessfulResponse(SuccessCommandResponse response) {
+        BacktraceCommandBody body;
+        try {
+          body = response.body().asBacktraceCommandBody();
+        } catch (JsonProtocolParseException e) {
+          throw new RuntimeException(e);
+        }
+        return readFrames(response, body, internalContext);
+      }
+    };
+    try {
+      return V8Helper.callV8Sync(internalContext, message, callback);
+    } catch (ContextDismissedCheckedException e) {
+      throw new InvalidContextException(e);
+    }
+  }
+
+  private static List<FrameObject> readFrames(SuccessCommandResponse response,
+      BacktraceCommandBody body, InternalContext internalContext) {
     List<FrameObject> jsonFrames = body.frames();
     if (jsonFrames == null) {
       jsonFrames = Collections.emptyList();
     }
 
-    ValueLoaderImpl valueLoader = step2.getInternalContext().getValueLoader();
+    ValueLoaderImpl valueLoader = internalContext.getValueLoader();
     for (SomeHandle handle : response.refs()) {
       valueLoader.addHandleFromRefs(handle);
     }
-
-    return step2.setFrames(jsonFrames);
+    return jsonFrames;
   }
 
   @Override
@@ -23,7 +23,6 @@ import org.chromium.sdk.internal.v8native.protocol.input.EventNotification;
 import org.chromium.sdk.internal.v8native.protocol.input.data.SomeHandle;
 import org.chromium.sdk.internal.v8native.protocol.input.data.ValueHandle;
 import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessage;
-import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessageFactory;
 import org.chromium.sdk.internal.v8native.value.ExceptionDataImpl;
 import org.chromium.sdk.internal.v8native.value.ValueLoaderImpl;
 import org.chromium.sdk.internal.v8native.value.ValueMirror;
@@ -81,7 +80,7 @@ public class BreakpointProcessor extends V8EventProcessor {
     BacktraceProcessor backtraceProcessor = new BacktraceProcessor(step2);
     InternalContext internalContext = step2.getInternalContext();
 
-    DebuggerMessage message = DebuggerMessageFactory.backtrace(null, null, true);
+    DebuggerMessage message = BacktraceProcessor.createBacktraceMessage();
     try {
       // Command is not immediate because we are supposed to be suspended.
       internalContext.sendV8CommandAsync(message, false, backtraceProcessor, null);
@@ -8,6 +8,8 @@ import java.util.EnumSet;
 import java.util.List;
 
 import org.chromium.sdk.internal.protocolparser.EnumValueCondition;
+import org.chromium.sdk.internal.protocolparser.FieldLoadStrategy;
+import org.chromium.sdk.internal.protocolparser.JsonField;
 import org.chromium.sdk.internal.protocolparser.JsonObjectBased;
 import org.chromium.sdk.internal.protocolparser.JsonOptionalField;
 import org.chromium.sdk.internal.protocolparser.JsonOverrideField;
@@ -42,5 +44,6 @@ public interface EventNotification extends JsonObjectBased, JsonSubtype<Incoming
   JSONObject exception();
 
   @JsonOptionalField
+  @JsonField(loadStrategy=FieldLoadStrategy.LAZY)
   List<SomeHandle> refs();
 }
@@ -6,6 +6,8 @@ package org.chromium.sdk.internal.v8native.protocol.input;
 
 import java.util.List;
 
+import org.chromium.sdk.internal.protocolparser.FieldLoadStrategy;
+import org.chromium.sdk.internal.protocolparser.JsonField;
 import org.chromium.sdk.internal.protocolparser.JsonOptionalField;
 import org.chromium.sdk.internal.protocolparser.JsonOverrideField;
 import org.chromium.sdk.internal.protocolparser.JsonSubtype;
@@ -24,9 +26,11 @@ public interface SuccessCommandResponse extends JsonSubtype<CommandResponse> {
   boolean success();
 
   @JsonOptionalField
+  @JsonField(loadStrategy=FieldLoadStrategy.LAZY)
   CommandResponseBody body();
 
   @JsonOptionalField
+  @JsonField(loadStrategy=FieldLoadStrategy.LAZY)
   List<SomeHandle> refs();
 
   /**
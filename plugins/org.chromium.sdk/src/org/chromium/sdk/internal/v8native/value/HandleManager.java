@@ -4,10 +4,8 @@
 
 package org.chromium.sdk.internal.v8native.value;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-
 import org.chromium.sdk.internal.v8native.protocol.input.data.SomeHandle;
+import org.chromium.sdk.util.ConcurrentLongMap;
 
 /**
  * A map for storage and retrieval of special type handles, those not covered
@@ -23,17 +21,16 @@ public class HandleManager {
     return SCRIPT_TYPE.equals(type) || CONTEXT_TYPE.equals(type);
   }
 
-  private final ConcurrentMap<Long, SomeHandle> refToHandle =
-      new ConcurrentHashMap<Long, SomeHandle>();
+  private final ConcurrentLongMap<SomeHandle> refToHandle = new ConcurrentLongMap<SomeHandle>();
 
-  void put(Long ref, SomeHandle smthWithHandle) {
+  void put(long ref, SomeHandle smthWithHandle) {
     SomeHandle oldObject = refToHandle.putIfAbsent(ref, smthWithHandle);
     if (oldObject != null) {
       mergeValues(oldObject, smthWithHandle);
     }
   }
 
-  public SomeHandle getHandle(Long ref) {
+  public SomeHandle getHandle(long ref) {
     return refToHandle.get(ref);
   }
 
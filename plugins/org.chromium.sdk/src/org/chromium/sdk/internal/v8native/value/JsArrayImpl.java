@@ -6,7 +6,10 @@ package org.chromium.sdk.internal.v8native.value;
 
 import static org.chromium.sdk.util.BasicUtil.getSafe;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -22,6 +25,13 @@ import org.chromium.sdk.util.MethodIsBlockingException;
  */
 class JsArrayImpl extends JsObjectBase<JsArrayImpl.ArrayPropertyData> implements JsArray {
 
+  /**
+   * Element references by index and references of other properties, without values. They
+   * come with the array mirror, so they are much cheaper than elements themselves. Rebuilt
+   * when cache state changes.
+   */
+  private volatile ElementRefs elementRefs = null;
+
   /**
    * This constructor implies lazy resolution of object properties.
    *
@@ -44,13 +54,78 @@ class JsArrayImpl extends JsObjectBase<JsArrayImpl.ArrayPropertyData> implements
 
   @Override
   public long getLength() throws MethodIsBlockingException {
-    SortedMap<Long, ?> map = getPropertyData(true).ensureElementsMap();
+    SortedMap<Long, ?> map = getElementRefs();
     if (map.isEmpty()) {
       return 0;
     }
     return map.lastKey() + 1;
   }
 
+  @Override
+  public SortedMap<Long, ? extends JsVariable> getElements(long from, long to)
+      throws MethodIsBlockingException {
+    SortedMap<Long, PropertyReference> refs = getElementRefs().subMap(from, Math.max(from, to));
+    List<PropertyReference> refList = new ArrayList<PropertyReference>(refs.values());
+    ValueLoader valueLoader = getRemoteValueMapping();
+    List<ValueMirror> mirrors = valueLoader.getOrLoadValueFromRefs(refList);
+    SortedMap<Long, JsVariableBase.Property> result =
+        new TreeMap<Long, JsVariableBase.Property>();
+    int i = 0;
+    for (Map.Entry<Long, PropertyReference> entry : refs.entrySet()) {
+      result.put(entry.getKey(), new JsVariableBase.Property(valueLoader, mirrors.get(i),
+          entry.getValue().getName()));
+      i++;
+    }
+    return Collections.unmodifiableSortedMap(result);
+  }
+
+  @Override
+  public long getElementCount() throws MethodIsBlockingException {
+    return getElementRefs().size();
+  }
+
+  @Override
+  public Collection<? extends JsVariable> getNonElementProperties()
+      throws MethodIsBlockingException {
+    List<PropertyReference> refList = loadElementRefs().otherRefs;
+    ValueLoader valueLoader = getRemoteValueMapping();
+    List<ValueMirror> mirrors = valueLoader.getOrLoadValueFromRefs(refList);
+    List<JsVariableBase.Property> result = new ArrayList<JsVariableBase.Property>(refList.size());
+    for (int i = 0; i < refList.size(); i++) {
+      result.add(new JsVariableBase.Property(valueLoader, mirrors.get(i),
+          refList.get(i).getName()));
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  private SortedMap<Long, PropertyReference> getElementRefs() throws MethodIsBlockingException {
+    return loadElementRefs().map;
+  }
+
+  private ElementRefs loadElementRefs() throws MethodIsBlockingException {
+    int currentCacheState = getRemoteValueMapping().getCurrentCacheState();
+    ElementRefs result = elementRefs;
+    if (result == null || result.cacheState != currentCacheState) {
+      SubpropertiesMirror subpropertiesMirror =
+          getRemoteValueMapping().getOrLoadSubproperties(getRef());
+      SortedMap<Long, PropertyReference> map = new TreeMap<Long, PropertyReference>();
+      List<PropertyReference> otherRefs = new ArrayList<PropertyReference>(2);
+      for (PropertyReference ref : subpropertiesMirror.getProperties()) {
+        Long index = parseIndex(ref.getName());
+        if (index != null) {
+          map.put(index, ref);
+        } else {
+          otherRefs.add(ref);
+        }
+      }
+      result = new ElementRefs(currentCacheState, Collections.unmodifiableSortedMap(map),
+          Collections.unmodifiableList(otherRefs));
+      // It's OK if a concurrent thread overwrites it with its own copy.
+      elementRefs = result;
+    }
+    return result;
+  }
+
   @Override
   public String toString() {
     SortedMap<?, ? extends JsVariable> elements;
@@ -88,6 +163,36 @@ class JsArrayImpl extends JsObjectBase<JsArrayImpl.ArrayPropertyData> implements
     return wrappedBasicData.getBasicPropertyData();
   }
 
+  /**
+   * @param name raw property name, either a number or a string
+   * @return array index or null if the property is not an array element
+   */
+  private static Long parseIndex(Object name) {
+    if (name instanceof Long) {
+      Long index = (Long) name;
+      if (!JavaScriptExpressionBuilder.checkArrayIndexValue(index)) {
+        return null;
+      }
+      return index;
+    } else {
+      return JavaScriptExpressionBuilder.parsePropertyNameAsArrayIndex(name.toString());
+    }
+  }
+
+  private static class ElementRefs {
+    final int cacheState;
+    final SortedMap<Long, PropertyReference> map;
+    /** References of properties that are not elements. */
+    final List<PropertyReference> otherRefs;
+
+    ElementRefs(int cacheState, SortedMap<Long, PropertyReference> map,
+        List<PropertyReference> otherRefs) {
+      this.cacheState = cacheState;
+      this.map = map;
+      this.otherRefs = otherRefs;
+    }
+  }
+
   /**
    * Wraps basic property data and contains lazy-initialized field indexToElementMap.
    * This is needed because {@link JsObjectBase} will dispose of it when caches
@@ -114,19 +219,9 @@ class JsArrayImpl extends JsObjectBase<JsArrayImpl.ArrayPropertyData> implements
         SortedMap<Long, JsVariableBase> map = new TreeMap<Long, JsVariableBase>();
 
         for (JsVariableBase prop : basicPropertyData.getPropertyList()) {
-          Object name = prop.getRawNameAsObject();
-          Long key;
-          if (name instanceof Long) {
-            Long index = (Long) name;
-            if (!JavaScriptExpressionBuilder.checkArrayIndexValue(index)) {
-              continue;
-            }
-            key = index;
-          } else {
-            key = JavaScriptExpressionBuilder.parsePropertyNameAsArrayIndex(name.toString());
-            if (key == null) {
-              continue;
-            }
+          Long key = parseIndex(prop.getRawNameAsObject());
+          if (key == null) {
+            continue;
           }
           map.put(key, prop);
         }
@@ -42,6 +42,9 @@ public abstract class JsScopeImpl<D extends JsScopeImpl.DataBase> implements JsS
         @Override ScopeMessage.Host getProtocolParameter() {
           return ScopeMessage.Host.createFrame(callFrameImpl.getIdentifier());
         }
+        @Override ObjectValueHandle takePrefetchedScope(int scopeIndex, int cacheState) {
+          return callFrameImpl.takePrefetchedScope(scopeIndex, cacheState);
+        }
       };
     }
 
@@ -53,12 +56,20 @@ public abstract class JsScopeImpl<D extends JsScopeImpl.DataBase> implements JsS
         @Override ScopeMessage.Host getProtocolParameter() {
           return ScopeMessage.Host.createFunction(jsFunctionImpl.getRef());
         }
+        @Override ObjectValueHandle takePrefetchedScope(int scopeIndex, int cacheState) {
+          return null;
+        }
       };
     }
 
     abstract InternalContext getInternalContext();
 
     abstract ScopeMessage.Host getProtocolParameter();
+
+    /**
+     * @return the scope object loaded in advance by {@link ValuePrefetcher} or null
+     */
+    abstract ObjectValueHandle takePrefetchedScope(int scopeIndex, int cacheState);
   }
 
   private final Host host;
@@ -123,6 +134,11 @@ public abstract class JsScopeImpl<D extends JsScopeImpl.DataBase> implements JsS
 
   protected ObjectValueHandle loadScopeObject(ValueLoaderImpl valueLoader)
       throws MethodIsBlockingException {
+    ObjectValueHandle prefetched =
+        host.takePrefetchedScope(scopeIndex, valueLoader.getCurrentCacheState());
+    if (prefetched != null) {
+      return prefetched;
+    }
     ScopeMessage.Ref ref = new ScopeMessage.Ref(scopeIndex, host.getProtocolParameter());
     return valueLoader.loadScopeFields(ref);
   }
@@ -12,8 +12,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -41,6 +39,7 @@ import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessageFactory
 import org.chromium.sdk.internal.v8native.protocol.output.EvaluateMessage;
 import org.chromium.sdk.internal.v8native.protocol.output.LookupMessage;
 import org.chromium.sdk.internal.v8native.protocol.output.ScopeMessage;
+import org.chromium.sdk.util.ConcurrentLongMap;
 import org.chromium.sdk.util.GenericCallback;
 import org.chromium.sdk.util.MethodIsBlockingException;
 import org.json.simple.JSONObject;
@@ -53,8 +52,12 @@ import org.json.simple.JSONObject;
  */
 public class ValueLoaderImpl extends ValueLoader {
 
-  private final ConcurrentMap<Long, ValueMirror> refToMirror =
-      new ConcurrentHashMap<Long, ValueMirror>();
+  /**
+   * Mirrors by handle. V8 drops its handle table each time VM resumes, so the map
+   * cannot outlive the suspended context it belongs to.
+   */
+  private final ConcurrentLongMap<ValueMirror> refToMirror =
+      new ConcurrentLongMap<ValueMirror>();
 
   private final HandleManager specialHandleManager = new HandleManager();
 
@@ -135,7 +138,7 @@ public class ValueLoaderImpl extends ValueLoader {
     return mergeValueMirrorIntoMap(mirror.getRef(), mirror);
   }
 
-  private ValueMirror mergeValueMirrorIntoMap(Long ref, ValueMirror mirror) {
+  private ValueMirror mergeValueMirrorIntoMap(long ref, ValueMirror mirror) {
     while (true) {
       ValueMirror old = refToMirror.putIfAbsent(ref, mirror);
       if (old == null) {
@@ -160,7 +163,7 @@ public class ValueLoaderImpl extends ValueLoader {
    */
   @Override
   public SubpropertiesMirror getOrLoadSubproperties(Long ref) throws MethodIsBlockingException {
-    ValueMirror mirror = getSafe(refToMirror, ref);
+    ValueMirror mirror = refToMirror.get(ref);
 
     SubpropertiesMirror references;
     if (mirror == null) {
@@ -205,7 +208,7 @@ public class ValueLoaderImpl extends ValueLoader {
     }
   }
 
-  private ObjectValueHandle readFromScopeResponse(SuccessCommandResponse response) {
+  ObjectValueHandle readFromScopeResponse(SuccessCommandResponse response) {
     List<SomeHandle> refs = response.refs();
 
     for (SomeHandle handle : refs) {
@@ -221,6 +224,39 @@ public class ValueLoaderImpl extends ValueLoader {
     return body.object();
   }
 
+  /**
+   * @return the mirror if it's in the cache or null
+   */
+  ValueMirror getCachedMirror(long ref) {
+    return refToMirror.get(ref);
+  }
+
+  /**
+   * Caches all values from a "lookup" response, including its "refs" handles. Unlike
+   * {@link #loadValuesFromRemote}, does not require every requested value to be there.
+   */
+  void addLookupResponse(SuccessCommandResponse response) {
+    for (SomeHandle handle : response.refs()) {
+      addHandleFromRefs(handle);
+    }
+    JSONObject body;
+    try {
+      body = response.body().asLookupMap();
+    } catch (JsonProtocolParseException e) {
+      throw new ValueLoadException(e);
+    }
+    for (Object value : body.values()) {
+      if (value instanceof JSONObject == false) {
+        continue;
+      }
+      try {
+        addDataToMap(V8ProtocolParserAccess.get().parseValueHandle((JSONObject) value));
+      } catch (JsonProtocolParseException e) {
+        throw new ValueLoadException(e);
+      }
+    }
+  }
+
   /**
    * For each PropertyReference from propertyRefs tries to either: 1. read it from PropertyReference
    * (possibly cached value) or 2. lookup value by refId from remote
@@ -237,7 +273,7 @@ public class ValueLoaderImpl extends ValueLoader {
       DataWithRef dataWithRef = property.getValueObject();
       long ref = dataWithRef.ref();
 
-      ValueMirror mirror = getSafe(refToMirror, ref);
+      ValueMirror mirror = refToMirror.get(ref);
       if (mirror == null) {
         RefWithDisplayData dataWithDisplayData = dataWithRef.getWithDisplayData();
         if (dataWithDisplayData != null) {
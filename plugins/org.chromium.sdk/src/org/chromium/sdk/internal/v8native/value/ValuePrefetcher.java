@@ -0,0 +1,229 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.internal.v8native.value;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.chromium.sdk.JsScope;
+import org.chromium.sdk.JsValue;
+import org.chromium.sdk.internal.BaseCommandProcessor;
+import org.chromium.sdk.internal.v8native.CallFrameImpl;
+import org.chromium.sdk.internal.v8native.InternalContext;
+import org.chromium.sdk.internal.v8native.InternalContext.ContextDismissedCheckedException;
+import org.chromium.sdk.internal.v8native.V8CommandCallbackBase;
+import org.chromium.sdk.internal.v8native.V8Helper;
+import org.chromium.sdk.internal.v8native.protocol.V8ProtocolUtil;
+import org.chromium.sdk.internal.v8native.protocol.input.CommandResponse;
+import org.chromium.sdk.internal.v8native.protocol.input.FailedCommandResponse;
+import org.chromium.sdk.internal.v8native.protocol.input.FrameObject;
+import org.chromium.sdk.internal.v8native.protocol.input.ScopeRef;
+import org.chromium.sdk.internal.v8native.protocol.input.SuccessCommandResponse;
+import org.chromium.sdk.internal.v8native.protocol.input.data.ObjectValueHandle;
+import org.chromium.sdk.internal.v8native.protocol.input.data.RefWithDisplayData;
+import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessage;
+import org.chromium.sdk.internal.v8native.protocol.output.DebuggerMessageFactory;
+import org.chromium.sdk.internal.v8native.protocol.output.ScopeMessage;
+
+/**
+ * Speculatively loads the variables of the top frame as soon as the backtrace arrives,
+ * because a debugger UI almost always shows them right after suspend. The local scopes
+ * and the receiver are requested in a single command batch; then each next level
+ * of properties is requested with a single "lookup". Everything is sent asynchronously
+ * and handled on Dispatch thread, so it never blocks the user. Loaded values go into
+ * the {@link ValueLoaderImpl} cache and scope objects are kept in the {@link CallFrameImpl},
+ * so the first expansion is served locally.
+ * <p>
+ * Prefetch stops when the context gets dismissed or the value cache is cleared.
+ */
+public class ValuePrefetcher {
+  /**
+   * An integer property: how many levels of variables to load in advance. 1 loads
+   * the values of local variables and 'this', 2 also loads their properties and so on.
+   * 0 (the default) switches prefetch off.
+   */
+  public static final String DEPTH_PROPERTY = "org.chromium.sdk.client.prefetch.depth";
+
+  /**
+   * An integer property: roughly how many bytes of value data a prefetch may load.
+   */
+  public static final String BUDGET_PROPERTY = "org.chromium.sdk.client.prefetch.budget";
+
+  private static final int DEFAULT_BUDGET = 64 * 1024;
+
+  /**
+   * Approximate JSON sizes of a value handle (not counting its string value) and of its
+   * property entry, used to account data against the budget.
+   */
+  private static final int VALUE_SIZE_ESTIMATE = 64;
+  private static final int PROPERTY_SIZE_ESTIMATE = 32;
+
+  /**
+   * Starts prefetch for the frame if it's switched on. Must be called from Dispatch thread.
+   */
+  public static void start(CallFrameImpl frame, FrameObject frameObject) {
+    int depth = Math.max(0, Integer.getInteger(DEPTH_PROPERTY, 0));
+    if (depth == 0) {
+      return;
+    }
+    int budget = Math.max(0, Integer.getInteger(BUDGET_PROPERTY, DEFAULT_BUDGET));
+    new ValuePrefetcher(frame, depth, budget).sendScopeRequests(frameObject);
+  }
+
+  private final CallFrameImpl frame;
+  private final InternalContext context;
+  private final ValueLoaderImpl valueLoader;
+  private final int cacheState;
+  private final int depth;
+  private final int budget;
+
+  // The fields below are only accessed from the response handlers, one after another.
+  private final Set<Long> visitedRefs = new HashSet<Long>();
+  private int spentBytes = 0;
+
+  private ValuePrefetcher(CallFrameImpl frame, int depth, int budget) {
+    this.frame = frame;
+    this.context = frame.getInternalContext();
+    this.valueLoader = context.getValueLoader();
+    this.cacheState = valueLoader.getCurrentCacheState();
+    this.depth = depth;
+    this.budget = budget;
+  }
+
+  private void sendScopeRequests(FrameObject frameObject) {
+    final List<DebuggerMessage> messages = new ArrayList<DebuggerMessage>();
+    final List<Integer> scopeIndexes = new ArrayList<Integer>();
+    for (ScopeRef scopeRef : frameObject.scopes()) {
+      if (JsScopeImpl.convertType((int) scopeRef.type()) != JsScope.Type.LOCAL) {
+        continue;
+      }
+      int scopeIndex = (int) scopeRef.index();
+      ScopeMessage.Host host = ScopeMessage.Host.createFrame(frame.getIdentifier());
+      messages.add(new ScopeMessage(new ScopeMessage.Ref(scopeIndex, host)));
+      scopeIndexes.add(scopeIndex);
+    }
+    final List<PropertyReference> firstLevel = new ArrayList<PropertyReference>();
+    PropertyReference receiverRef = V8Helper.computeReceiverRef(frameObject);
+    if (receiverRef != null) {
+      firstLevel.add(receiverRef);
+    }
+    if (messages.isEmpty()) {
+      loadLevel(firstLevel, 1);
+      return;
+    }
+
+    BaseCommandProcessor.BatchCallback<CommandResponse> callback =
+        new BaseCommandProcessor.BatchCallback<CommandResponse>() {
+      @Override
+      public void batchDone(List<? extends CommandResponse> responses, List<String> failures) {
+        if (!isStillValid()) {
+          return;
+        }
+        for (int i = 0; i < scopeIndexes.size(); i++) {
+          CommandResponse response = responses.get(i);
+          if (response == null || response.asSuccess() == null) {
+            continue;
+          }
+          ObjectValueHandle scopeObject = valueLoader.readFromScopeResponse(response.asSuccess());
+          frame.putPrefetchedScope(scopeIndexes.get(i), scopeObject, cacheState);
+          firstLevel.addAll(V8ProtocolUtil.extractObjectProperties(scopeObject));
+        }
+        loadLevel(firstLevel, 1);
+      }
+    };
+    try {
+      context.sendV8CommandsAsync(messages, false, callback, null);
+    } catch (ContextDismissedCheckedException e) {
+      // Too late, nothing to prefetch.
+    }
+  }
+
+  /**
+   * Makes sure the values of the level are in the cache (with their properties, if
+   * the next level is going to be loaded), then proceeds to the next level.
+   */
+  private void loadLevel(final List<PropertyReference> properties, final int level) {
+    // Several properties may refer to the same value.
+    Set<Long> missingRefSet = new LinkedHashSet<Long>();
+    for (PropertyReference property : properties) {
+      if (needsLoading(property, level < depth)) {
+        missingRefSet.add(property.getRef());
+      }
+    }
+    final List<Long> missingRefs = new ArrayList<Long>(missingRefSet);
+    if (missingRefs.isEmpty()) {
+      levelLoaded(properties, level);
+      return;
+    }
+
+    V8CommandCallbackBase callback = new V8CommandCallbackBase() {
+      @Override
+      public void success(SuccessCommandResponse successResponse) {
+        if (!isStillValid()) {
+          return;
+        }
+        valueLoader.addLookupResponse(successResponse);
+        levelLoaded(properties, level);
+      }
+
+      @Override
+      public void failure(String message, FailedCommandResponse.ErrorDetails errorDetails) {
+        // Prefetch is optional; the values will be loaded when accessed.
+      }
+    };
+    try {
+      context.sendV8CommandAsync(DebuggerMessageFactory.lookup(missingRefs, false), false,
+          callback, null);
+    } catch (ContextDismissedCheckedException e) {
+      // Too late, nothing to prefetch.
+    }
+  }
+
+  private void levelLoaded(List<PropertyReference> properties, int level) {
+    List<PropertyReference> nextLevel = new ArrayList<PropertyReference>();
+    for (PropertyReference property : properties) {
+      ValueMirror mirror = valueLoader.getCachedMirror(property.getRef());
+      if (mirror == null || !visitedRefs.add(property.getRef())) {
+        continue;
+      }
+      SubpropertiesMirror subproperties = mirror.getProperties();
+      spentBytes += VALUE_SIZE_ESTIMATE + mirror.getStringLength();
+      if (subproperties != null) {
+        spentBytes += PROPERTY_SIZE_ESTIMATE * subproperties.getProperties().size();
+        if (level < depth) {
+          nextLevel.addAll(subproperties.getProperties());
+        }
+      }
+    }
+    int affordable = Math.max(0, (budget - spentBytes) / VALUE_SIZE_ESTIMATE);
+    if (nextLevel.size() > affordable) {
+      nextLevel = nextLevel.subList(0, affordable);
+    }
+    if (!nextLevel.isEmpty()) {
+      loadLevel(nextLevel, level + 1);
+    }
+  }
+
+  /**
+   * @param withProperties whether an object value is needed together with its properties
+   */
+  private boolean needsLoading(PropertyReference property, boolean withProperties) {
+    ValueMirror mirror = valueLoader.getCachedMirror(property.getRef());
+    if (mirror == null) {
+      // Primitive values may come right in display data, which is enough to show them.
+      RefWithDisplayData displayData = property.getValueObject().getWithDisplayData();
+      return displayData == null || ValueMirror.createIfSure(displayData) == null;
+    }
+    return withProperties && JsValue.Type.isObjectType(mirror.getType()) &&
+        mirror.getProperties() == null;
+  }
+
+  private boolean isStillValid() {
+    return context.isValid() && valueLoader.getCurrentCacheState() == cacheState;
+  }
+}
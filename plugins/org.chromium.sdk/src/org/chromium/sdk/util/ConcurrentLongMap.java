@@ -0,0 +1,266 @@
+// Copyright (c) 2012 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.sdk.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe map with primitive long keys. It keeps keys in a plain long array with
+ * open addressing (linear probing), so unlike a {@link java.util.concurrent.ConcurrentHashMap}
+ * it allocates neither a boxed key nor an entry object per mapping.
+ * <p>
+ * Reads are lock-free; all modifications are serialized on the map instance, so a caller
+ * may also synchronize on the map to make a compound operation atomic. Null values are not
+ * allowed.
+ * @param <V> type of values
+ */
+public class ConcurrentLongMap<V> {
+  private static final int MIN_CAPACITY = 16;
+
+  /** Marks a removed entry; the slot keeps its key, so that probe sequences are not broken. */
+  private static final Object REMOVED = new Object();
+
+  private volatile Table table;
+  private volatile int size = 0;
+  /** The number of slots that are not empty (including removed entries). */
+  private int usedSlots = 0;
+
+  public ConcurrentLongMap() {
+    this(MIN_CAPACITY);
+  }
+
+  /**
+   * @param expectedSize the number of mappings the map should hold without resizing
+   */
+  public ConcurrentLongMap(int expectedSize) {
+    this.table = new Table(capacityFor(expectedSize));
+  }
+
+  public V get(long key) {
+    Table t = table;
+    int mask = t.keys.length - 1;
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+      // Value is written after key, so a non-null value guarantees the key is visible.
+      Object value = t.values.get(i);
+      if (value == null) {
+        return null;
+      }
+      if (t.keys[i] == key) {
+        return value == REMOVED ? null : ConcurrentLongMap.<V>castValue(value);
+      }
+    }
+  }
+
+  public boolean containsKey(long key) {
+    return get(key) != null;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return the previous value or null
+   */
+  public synchronized V put(long key, V value) {
+    return putImpl(key, value, false);
+  }
+
+  /**
+   * @return the current value if there is one (the map is not modified) or null
+   */
+  public synchronized V putIfAbsent(long key, V value) {
+    return putImpl(key, value, true);
+  }
+
+  /**
+   * Replaces the value only if it is currently mapped to the expected value (compared
+   * by reference).
+   * @return whether the value has been replaced
+   */
+  public synchronized boolean replace(long key, V expectedValue, V newValue) {
+    checkValue(newValue);
+    Table t = table;
+    int i = findSlot(t, key);
+    if (i == -1 || t.values.get(i) != expectedValue) {
+      return false;
+    }
+    t.values.set(i, newValue);
+    return true;
+  }
+
+  /**
+   * @return the removed value or null
+   */
+  public synchronized V remove(long key) {
+    Table t = table;
+    int i = findSlot(t, key);
+    if (i == -1) {
+      return null;
+    }
+    Object old = t.values.get(i);
+    if (old == REMOVED) {
+      return null;
+    }
+    t.values.set(i, REMOVED);
+    size--;
+    return ConcurrentLongMap.<V>castValue(old);
+  }
+
+  public synchronized void clear() {
+    table = new Table(MIN_CAPACITY);
+    size = 0;
+    usedSlots = 0;
+  }
+
+  /**
+   * @return a snapshot of the keys
+   */
+  public long[] keys() {
+    Table t = table;
+    long[] result = new long[t.keys.length];
+    int count = 0;
+    for (int i = 0; i < t.keys.length; i++) {
+      Object value = t.values.get(i);
+      if (value != null && value != REMOVED) {
+        result[count++] = t.keys[i];
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * @return a snapshot of the values
+   */
+  public List<V> values() {
+    Table t = table;
+    List<V> result = new ArrayList<V>(size);
+    for (int i = 0; i < t.keys.length; i++) {
+      Object value = t.values.get(i);
+      if (value != null && value != REMOVED) {
+        result.add(ConcurrentLongMap.<V>castValue(value));
+      }
+    }
+    return result;
+  }
+
+  private V putImpl(long key, V value, boolean onlyIfAbsent) {
+    checkValue(value);
+    Table t = table;
+    int mask = t.keys.length - 1;
+    int i;
+    for (i = hash(key) & mask; ; i = (i + 1) & mask) {
+      Object old = t.values.get(i);
+      if (old == null) {
+        break;
+      }
+      if (t.keys[i] == key) {
+        if (old == REMOVED) {
+          t.values.set(i, value);
+          size++;
+          return null;
+        }
+        if (!onlyIfAbsent) {
+          t.values.set(i, value);
+        }
+        return ConcurrentLongMap.<V>castValue(old);
+      }
+    }
+    // Take an empty slot.
+    t.keys[i] = key;
+    t.values.set(i, value);
+    size++;
+    usedSlots++;
+    if (usedSlots * 4 > t.keys.length * 3) {
+      rehash();
+    }
+    return null;
+  }
+
+  /**
+   * @return index of the slot that holds the key (maybe as a removed entry) or -1
+   */
+  private static int findSlot(Table t, long key) {
+    int mask = t.keys.length - 1;
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+      Object value = t.values.get(i);
+      if (value == null) {
+        return -1;
+      }
+      if (t.keys[i] == key) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * Copies live entries into a new table, which is then published to readers. The old
+   * table is not modified afterwards.
+   */
+  private void rehash() {
+    Table oldTable = table;
+    Table newTable = new Table(capacityFor(size));
+    int mask = newTable.keys.length - 1;
+    for (int j = 0; j < oldTable.keys.length; j++) {
+      Object value = oldTable.values.get(j);
+      if (value == null || value == REMOVED) {
+        continue;
+      }
+      long key = oldTable.keys[j];
+      int i = hash(key) & mask;
+      while (newTable.values.get(i) != null) {
+        i = (i + 1) & mask;
+      }
+      newTable.keys[i] = key;
+      newTable.values.set(i, value);
+    }
+    usedSlots = size;
+    table = newTable;
+  }
+
+  /**
+   * @return a power of two that keeps the load factor under 1/2 for the given size
+   */
+  private static int capacityFor(int size) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < size * 2) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private static void checkValue(Object value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> V castValue(Object value) {
+    return (V) value;
+  }
+
+  private static class Table {
+    final long[] keys;
+    final AtomicReferenceArray<Object> values;
+
+    Table(int capacity) {
+      keys = new long[capacity];
+      values = new AtomicReferenceArray<Object>(capacity);
+    }
+  }
+}